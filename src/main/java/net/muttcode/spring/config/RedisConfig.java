@@ -4,7 +4,9 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisClientConfiguration;
 import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import redis.clients.jedis.JedisPoolConfig;
 
 import java.util.Optional;
 
@@ -24,14 +26,32 @@ public class RedisConfig {
   @Value("${spring.data.redis.password:}")
   private Optional<String> redisPassword;
 
+  @Value("${spring.data.redis.jedis.pool.max-active:16}")
+  private int poolMaxActive;
+
+  @Value("${jobs.worker.count:2}")
+  private int workerCount;
+
   /**
    * Creates a Redis connection factory using configured host, port, and optional password.
+   * The pool reserves one connection per job worker, since each holds its connection
+   * for the length of a blocking queue poll.
    * @return JedisConnectionFactory
    */
   @Bean
   public JedisConnectionFactory jedisConnectionFactory() {
     RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(redisHost, redisPort);
     redisPassword.ifPresent(config::setPassword);
-    return new JedisConnectionFactory(config);
+
+    JedisPoolConfig poolConfig = new JedisPoolConfig();
+    int maxActive = poolMaxActive > 0 ? poolMaxActive : poolConfig.getMaxTotal();
+    poolConfig.setMaxTotal(maxActive + Math.max(workerCount, 0));
+    poolConfig.setMaxIdle(poolConfig.getMaxTotal());
+
+    JedisClientConfiguration clientConfig = JedisClientConfiguration.builder()
+        .usePooling()
+        .poolConfig(poolConfig)
+        .build();
+    return new JedisConnectionFactory(config, clientConfig);
   }
 }
@@ -3,6 +3,7 @@ package net.muttcode.spring.config;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
@@ -49,7 +50,11 @@ public class SecurityConfig {
                     .requestMatchers("/api/auth/**").permitAll()
                     .requestMatchers("/api/jobs/process").permitAll()
                     .requestMatchers("/api/upload/**").permitAll()
+                    // Metrics expose backend and queue internals; health and info stay open for probes
+                    .requestMatchers("/actuator/metrics/**").authenticated()
                     .requestMatchers("/actuator/**").permitAll()
+                    // Signed with the shared callback secret instead of a user token
+                    .requestMatchers(HttpMethod.POST, "/api/upscayl/callback").permitAll()
                     .anyRequest().authenticated()
                 )
                 .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
@@ -62,7 +67,11 @@ public class SecurityConfig {
                 .csrf(AbstractHttpConfigurer::disable)
                 .authorizeHttpRequests(auth -> auth
                     .requestMatchers("/api/auth/**").permitAll()
+                    // Metrics expose backend and queue internals; health and info stay open for probes
+                    .requestMatchers("/actuator/metrics/**").authenticated()
                     .requestMatchers("/actuator/**").permitAll()
+                    // Signed with the shared callback secret instead of a user token
+                    .requestMatchers(HttpMethod.POST, "/api/upscayl/callback").permitAll()
                     .anyRequest().authenticated()
                 )
                 .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
@@ -2,6 +2,7 @@ package net.muttcode.spring.controller;
 
 import net.muttcode.spring.model.User;
 import net.muttcode.spring.repository.UserRepository;
+import net.muttcode.spring.service.FairShareScheduler;
 import net.muttcode.spring.service.JwtService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -33,6 +34,12 @@ public class AuthController {
 
     @PostMapping("/register")
     public ResponseEntity<Map<String, Object>> register(@RequestBody RegisterRequest request) {
+        // Names the bucket unauthenticated jobs share; nobody may log in as it
+        if (FairShareScheduler.ANONYMOUS.equalsIgnoreCase(request.username())) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("error", "Username is reserved");
+            return ResponseEntity.badRequest().body(error);
+        }
         if (userRepository.existsByUsername(request.username())) {
             Map<String, Object> error = new HashMap<>();
             error.put("error", "Username already exists");
@@ -1,7 +1,9 @@
 package net.muttcode.spring.controller;
 
 import net.muttcode.spring.model.ProcessedFile;
+import net.muttcode.spring.service.CompressedTransferService;
 import net.muttcode.spring.service.DdsConversionService;
+import net.muttcode.spring.service.InsufficientStorageException;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
 import org.springframework.http.HttpHeaders;
@@ -15,6 +17,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,9 +28,12 @@ public class DdsConversionController {
     
     private static final Logger logger = Logger.getLogger(DdsConversionController.class.getName());
     private final DdsConversionService ddsConversionService;
+    private final CompressedTransferService compressedTransferService;
     
-    public DdsConversionController(DdsConversionService ddsConversionService) {
+    public DdsConversionController(DdsConversionService ddsConversionService,
+                                   CompressedTransferService compressedTransferService) {
         this.ddsConversionService = ddsConversionService;
+        this.compressedTransferService = compressedTransferService;
     }
     
     @PostMapping("/dds-to-png")
@@ -49,6 +55,9 @@ public class DdsConversionController {
             
             return ResponseEntity.ok(response);
             
+        } catch (InsufficientStorageException e) {
+            return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE)
+                .body(Map.of("success", false, "error", e.getMessage()));
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Conversion failed", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -76,6 +85,9 @@ public class DdsConversionController {
             
             return ResponseEntity.ok(response);
             
+        } catch (InsufficientStorageException e) {
+            return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE)
+                .body(Map.of("success", false, "error", e.getMessage()));
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Conversion failed", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -84,13 +96,19 @@ public class DdsConversionController {
     }
     
     @GetMapping("/{fileId}")
-    public ResponseEntity<Resource> downloadConvertedFile(@PathVariable String fileId) {
+    public ResponseEntity<Resource> downloadConvertedFile(
+            @PathVariable String fileId,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
         try {
             Path outputDir = ddsConversionService.getOutputPath();
             
-            Path[] files = Files.list(outputDir)
-                .filter(p -> p.getFileName().toString().startsWith(fileId))
-                .toArray(Path[]::new);
+            Path[] files;
+            try (var listing = Files.list(outputDir)) {
+                files = listing
+                    .filter(p -> p.getFileName().toString().startsWith(fileId))
+                    .filter(p -> !CompressedTransferService.isVariant(p) && !CompressedTransferService.isPartialVariant(p))
+                    .toArray(Path[]::new);
+            }
             
             if (files.length == 0) {
                 return ResponseEntity.notFound().build();
@@ -99,9 +117,24 @@ public class DdsConversionController {
             Resource resource = new UrlResource(files[0].toUri());
             String contentType = resource.getFilename().endsWith(".png") ? "image/png" : "image/vnd.ms-dds";
             
+            Optional<CompressedTransferService.CompressedBody> compressed =
+                compressedTransferService.negotiate(files[0], acceptEncoding);
+            if (compressed.isPresent()) {
+                ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + resource.getFilename() + "\"")
+                    .header(HttpHeaders.CONTENT_TYPE, contentType)
+                    .header(HttpHeaders.CONTENT_ENCODING, CompressedTransferService.ENCODING)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+                if (compressed.get().contentLength() != null) {
+                    builder.contentLength(compressed.get().contentLength());
+                }
+                return builder.body(compressed.get().resource());
+            }
+            
             return ResponseEntity.ok()
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + resource.getFilename() + "\"")
                 .header(HttpHeaders.CONTENT_TYPE, contentType)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
                 .body(resource);
                 
         } catch (IOException e) {
@@ -1,17 +1,27 @@
 package net.muttcode.spring.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.muttcode.spring.service.BulkUploadService;
+import net.muttcode.spring.service.CompressedTransferService;
 import net.muttcode.spring.service.FileService;
 import net.muttcode.spring.service.StoredFile;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,9 +33,16 @@ public class FileController {
 
     private static final Logger logger = Logger.getLogger(FileController.class.getName());
     private final FileService fileService;
+    private final CompressedTransferService compressedTransferService;
+    private final BulkUploadService bulkUploadService;
+    private final ObjectMapper objectMapper;
 
-    public FileController(FileService fileService) {
+    public FileController(FileService fileService, CompressedTransferService compressedTransferService,
+                          BulkUploadService bulkUploadService, ObjectMapper objectMapper) {
         this.fileService = fileService;
+        this.compressedTransferService = compressedTransferService;
+        this.bulkUploadService = bulkUploadService;
+        this.objectMapper = objectMapper;
     }
 
     // -------- UPLOAD --------
@@ -50,9 +67,37 @@ public class FileController {
         );
     }
 
+    // -------- BULK UPLOAD --------
+    // Streams one JSON line per file as each result becomes final
+    @PostMapping("/upload/bulk")
+    public ResponseEntity<StreamingResponseBody> uploadBulk(@RequestParam("files") List<MultipartFile> files) throws IOException {
+
+        logger.info("Bulk upload request received for " + files.size() + " files");
+
+        // Fail the whole request up front rather than mid-stream when storage is full
+        fileService.checkUploadAdmission();
+
+        StreamingResponseBody body = out -> bulkUploadService.upload(files, result -> writeLine(out, result));
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+
+    private void writeLine(OutputStream out, BulkUploadService.Result result) {
+        try {
+            out.write(objectMapper.writeValueAsBytes(result));
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     // -------- DOWNLOAD --------
     @GetMapping("/upload/{fileId}")
-    public ResponseEntity<Resource> download(@PathVariable String fileId) throws IOException {
+    public ResponseEntity<Resource> download(
+            @PathVariable String fileId,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) throws IOException {
         logger.info("Download request received for fileId: " + fileId);
 
         Path filePath;
@@ -66,15 +111,34 @@ public class FileController {
                 return ResponseEntity.notFound().build();
             }
 
+            fileService.recordAccess(filePath);
             logger.info("File found, preparing download: " + resource.getFilename());
         } catch (IOException e) {
             logger.log(Level.SEVERE, "File not found for fileId: " + fileId, e);
             return ResponseEntity.notFound().build();
         }
 
+        Optional<CompressedTransferService.CompressedBody> compressed =
+                compressedTransferService.negotiate(filePath, acceptEncoding);
+        if (compressed.isPresent()) {
+            MediaType contentType = MediaTypeFactory.getMediaType(resource.getFilename())
+                    .orElse(MediaType.APPLICATION_OCTET_STREAM);
+            ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_DISPOSITION,
+                            "attachment; filename=\"" + resource.getFilename() + "\"")
+                    .header(HttpHeaders.CONTENT_ENCODING, CompressedTransferService.ENCODING)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .contentType(contentType);
+            if (compressed.get().contentLength() != null) {
+                builder.contentLength(compressed.get().contentLength());
+            }
+            return builder.body(compressed.get().resource());
+        }
+
         return ResponseEntity.ok()
                 .header(HttpHeaders.CONTENT_DISPOSITION,
                         "attachment; filename=\"" + resource.getFilename() + "\"")
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
                 .body(resource);
     }
 
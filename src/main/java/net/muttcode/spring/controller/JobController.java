@@ -1,151 +1,378 @@
 package net.muttcode.spring.controller;
 
 import net.muttcode.spring.model.ProcessingJob;
+import net.muttcode.spring.service.FairShareScheduler;
 import net.muttcode.spring.service.FileService;
 import net.muttcode.spring.service.ImageProcessingService;
+import net.muttcode.spring.service.JobAdmissionService;
+import net.muttcode.spring.service.JobEtaService;
+import net.muttcode.spring.service.JobEventStreams;
 import net.muttcode.spring.service.JobQueueService;
+import net.muttcode.spring.service.JobStatistics;
 import net.muttcode.spring.service.ProcessingJobService;
+import org.springframework.data.domain.Page;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.IOException;
+import java.security.Principal;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/jobs")
 public class JobController {
 
+    private static final int MAX_STREAMED_JOBS = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     private final ImageProcessingService imageProcessingService;
     private final ProcessingJobService jobService;
     private final FileService fileService;
     private final JobQueueService jobQueueService;
+    private final FairShareScheduler fairShareScheduler;
+    private final JobEventStreams jobEventStreams;
+    private final JobStatistics jobStatistics;
+    private final JobAdmissionService jobAdmissionService;
+    private final JobEtaService jobEtaService;
 
     public JobController(ImageProcessingService imageProcessingService, 
                          ProcessingJobService jobService,
                          FileService fileService,
-                         JobQueueService jobQueueService) {
+                         JobQueueService jobQueueService,
+                         FairShareScheduler fairShareScheduler,
+                         JobEventStreams jobEventStreams,
+                         JobStatistics jobStatistics,
+                         JobAdmissionService jobAdmissionService,
+                         JobEtaService jobEtaService) {
         this.imageProcessingService = imageProcessingService;
         this.jobService = jobService;
         this.fileService = fileService;
         this.jobQueueService = jobQueueService;
+        this.fairShareScheduler = fairShareScheduler;
+        this.jobEventStreams = jobEventStreams;
+        this.jobStatistics = jobStatistics;
+        this.jobAdmissionService = jobAdmissionService;
+        this.jobEtaService = jobEtaService;
     }
 
     @PostMapping("/process")
-    public Map<String, Object> submitJob(
+    public ResponseEntity<Map<String, Object>> submitJob(
             @RequestParam("file") MultipartFile file,
             @RequestParam(value = "scaleFactor", defaultValue = "2") Integer scaleFactor,
-            @RequestParam(value = "modelName", defaultValue = "ultramix_balanced") String modelName) throws IOException {
+            @RequestParam(value = "modelName", defaultValue = "ultramix_balanced") String modelName,
+            @RequestParam(value = "priority", defaultValue = "normal") String priority,
+            @RequestParam(value = "deadlineSeconds", required = false) Long deadlineSeconds,
+            Principal principal) throws IOException {
+        
+        ProcessingJob.Priority jobPriority;
+        try {
+            jobPriority = ProcessingJob.Priority.valueOf(priority.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("error", "Unknown priority: " + priority);
+            return ResponseEntity.badRequest().body(error);
+        }
+        
+        Duration deadline = deadlineSeconds != null ? Duration.ofSeconds(deadlineSeconds) : null;
+        if (deadline != null && (deadline.isNegative() || deadline.isZero()
+                || deadline.compareTo(jobAdmissionService.getMaxDeadline()) > 0)) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("error", "deadlineSeconds must be between 1 and " + jobAdmissionService.getMaxDeadline().toSeconds());
+            return ResponseEntity.badRequest().body(error);
+        }
+        
+        // Checked before the upload is stored, so a rejected request costs no disk space
+        JobAdmissionService.Decision admission = jobAdmissionService.admit(deadline);
+        if (!admission.admitted()) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("error", deadline != null
+                ? "Estimated queue wait already exceeds deadlineSeconds"
+                : "Queue is too deep to accept new jobs");
+            error.put("estimatedWaitSeconds", admission.estimatedWait().toSeconds());
+            error.put("retryAfterSeconds", admission.retryAfter().toSeconds());
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(admission.retryAfter().toSeconds()))
+                .body(error);
+        }
+        
+        // GPU time is shared fairly between authenticated users; anonymous jobs have no submitter and share one bucket
+        String submittedBy = principal != null ? principal.getName() : null;
         
         var stored = fileService.saveFile(file);
-        String jobId = imageProcessingService.submitJob(stored.getFileId(), scaleFactor, modelName);
+        String jobId = imageProcessingService.submitJob(stored.getFileId(), scaleFactor, modelName, jobPriority, submittedBy,
+            admission.expiresAt());
+        
+        // A duplicate of an earlier or running job may already be complete or attached to it
+        ProcessingJob job = jobService.getJob(jobId).orElse(null);
         
         Map<String, Object> response = new HashMap<>();
         response.put("jobId", jobId);
         response.put("inputFileId", stored.getFileId());
-        response.put("status", "QUEUED");
+        response.put("status", job != null ? job.getStatus().name() : ProcessingJob.JobStatus.QUEUED.name());
+        if (job != null && job.getDeduplicatedFrom() != null) {
+            response.put("deduplicatedFrom", job.getDeduplicatedFrom());
+        }
+        if (job != null && job.getOutputFileId() != null) {
+            response.put("outputFileId", job.getOutputFileId());
+        }
         response.put("scaleFactor", scaleFactor);
         response.put("modelName", modelName);
+        response.put("priority", jobPriority.name());
+        response.put("estimatedWaitSeconds", admission.estimatedWait().toSeconds());
+        if (admission.expiresAt() != null) {
+            response.put("expiresAt", admission.expiresAt());
+        }
         
-        return response;
+        return ResponseEntity.ok(response);
     }
 
     @GetMapping("/{jobId}")
     public ResponseEntity<Map<String, Object>> getJobStatus(@PathVariable String jobId) {
         return jobService.getJob(jobId)
-                .map(job -> ResponseEntity.ok(jobToMap(job)))
+                .map(job -> ResponseEntity.ok(jobToMap(job, jobEtaService.estimate(job).orElse(null))))
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    /**
+     * Cancels a queued or running job. Jobs that already finished are left as they are.
+     * Only the user who submitted a job may cancel it; anyone else gets 404, as for an unknown id.
+     * A job submitted without logging in has no owner and cannot be cancelled.
+     */
+    @DeleteMapping("/{jobId}")
+    public ResponseEntity<Map<String, Object>> cancelJob(@PathVariable String jobId, Principal principal) {
+        Optional<ProcessingJob> job = jobService.getJob(jobId);
+        if (principal == null || job.isEmpty() || !principal.getName().equals(job.get().getSubmittedBy())) {
+            return ResponseEntity.notFound().build();
+        }
+        return switch (imageProcessingService.cancelJob(jobId)) {
+            case NOT_FOUND -> ResponseEntity.notFound().build();
+            case ALREADY_FINISHED -> ResponseEntity.status(409)
+                    .body(Map.of("jobId", jobId, "error", "Job has already finished"));
+            case CANCELLED -> ResponseEntity.ok(
+                    Map.of("jobId", jobId, "status", ProcessingJob.JobStatus.CANCELLED.name()));
+        };
+    }
+
+    /**
+     * Streams status and progress of one job until it completes or fails.
+     */
+    @GetMapping(value = "/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamJobEvents(@PathVariable String jobId) {
+        if (jobService.getJob(jobId).isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(jobEventStreams.open(List.of(jobId)));
+    }
+
+    /**
+     * Streams status and progress of several jobs, e.g. every job visible on a page.
+     */
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamJobsEvents(@RequestParam("ids") List<String> jobIds) {
+        List<String> ids = jobIds.stream().filter(id -> !id.isBlank()).distinct().toList();
+        if (ids.isEmpty() || ids.size() > MAX_STREAMED_JOBS) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(jobEventStreams.open(ids));
+    }
+
     @GetMapping
-    public List<Map<String, Object>> getAllJobs(
+    public ResponseEntity<List<Map<String, Object>>> getAllJobs(
             @RequestParam(required = false) String status,
-            @RequestParam(defaultValue = "100") int limit) {
+            @RequestParam(defaultValue = "100") int limit,
+            @RequestParam(required = false) String cursor) {
         
-        List<ProcessingJob> jobs;
+        ProcessingJob.JobStatus jobStatus = null;
         if (status != null && !status.isEmpty()) {
             try {
-                ProcessingJob.JobStatus jobStatus = ProcessingJob.JobStatus.valueOf(status.toUpperCase());
-                jobs = jobService.getJobsByStatus(jobStatus);
+                jobStatus = ProcessingJob.JobStatus.valueOf(status.toUpperCase());
             } catch (IllegalArgumentException e) {
-                jobs = jobService.getAllJobs();
+                // Unknown statuses list every job, as before
             }
-        } else {
-            jobs = jobService.getAllJobs();
         }
-        
-        return jobs.stream()
-                .limit(limit)
-                .map(this::jobToMap)
-                .collect(Collectors.toList());
+
+        ProcessingJobService.JobPage page;
+        try {
+            page = jobService.getJobPage(jobStatus, cursor, clampPageSize(limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.nextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.nextCursor());
+        }
+        return response.body(page.jobs().stream().map(this::jobToMap).collect(Collectors.toList()));
     }
 
+    /**
+     * Job history, newest first. Follow {@code nextCursor} for keyset paging; {@code page}
+     * is still honoured for older clients but is only cheap for the first few pages.
+     */
     @GetMapping("/history")
-    public Map<String, Object> getJobHistory(
+    public ResponseEntity<Map<String, Object>> getJobHistory(
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "20") int size) {
-        
-        List<ProcessingJob> allJobs = jobService.getAllJobs();
-        
-        int start = page * size;
-        int end = Math.min(start + size, allJobs.size());
-        
-        List<ProcessingJob> pageJobs = start < allJobs.size() 
-                ? allJobs.subList(start, end) 
-                : List.of();
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(required = false) String cursor) {
         
+        int pageSize = clampPageSize(size);
         Map<String, Object> response = new HashMap<>();
-        response.put("jobs", pageJobs.stream().map(this::jobToMap).collect(Collectors.toList()));
+        if (cursor != null && !cursor.isEmpty()) {
+            ProcessingJobService.JobPage jobs;
+            try {
+                jobs = jobService.getJobPage(null, cursor, pageSize);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().build();
+            }
+            response.put("jobs", jobs.jobs().stream().map(this::jobToMap).collect(Collectors.toList()));
+            response.put("size", pageSize);
+            response.put("nextCursor", jobs.nextCursor());
+            return ResponseEntity.ok(response);
+        }
+
+        Page<ProcessingJob> jobs = jobService.getJobHistory(Math.max(page, 0), pageSize);
+        response.put("jobs", jobs.getContent().stream().map(this::jobToMap).collect(Collectors.toList()));
         response.put("page", page);
-        response.put("size", size);
-        response.put("total", allJobs.size());
-        response.put("totalPages", (allJobs.size() + size - 1) / size);
+        response.put("size", pageSize);
+        response.put("total", jobs.getTotalElements());
+        response.put("totalPages", jobs.getTotalPages());
+        response.put("nextCursor", jobs.hasNext() ? ProcessingJobService.cursorAfter(jobs.getContent()) : null);
         
-        return response;
+        return ResponseEntity.ok(response);
+    }
+
+    private static int clampPageSize(int size) {
+        return Math.max(1, Math.min(size, MAX_PAGE_SIZE));
     }
 
     @GetMapping("/statistics")
     public Map<String, Object> getStatistics() {
-        List<ProcessingJob> allJobs = jobService.getAllJobs();
-        
-        long queued = allJobs.stream()
-                .filter(j -> j.getStatus() == ProcessingJob.JobStatus.QUEUED).count();
-        long processing = allJobs.stream()
-                .filter(j -> j.getStatus() == ProcessingJob.JobStatus.PROCESSING).count();
-        long completed = allJobs.stream()
-                .filter(j -> j.getStatus() == ProcessingJob.JobStatus.COMPLETED).count();
-        long failed = allJobs.stream()
-                .filter(j -> j.getStatus() == ProcessingJob.JobStatus.FAILED).count();
-        
-        double avgProcessingTime = allJobs.stream()
-                .filter(j -> j.getProcessingTimeMs() != null)
-                .mapToLong(ProcessingJob::getProcessingTimeMs)
-                .average()
-                .orElse(0.0);
-        
         Map<String, Object> stats = new HashMap<>();
-        stats.put("totalJobs", allJobs.size());
-        stats.put("queued", queued);
-        stats.put("processing", processing);
+        JobStatistics.Totals totals;
+        Map<String, Object> windows = new LinkedHashMap<>();
+        try {
+            totals = jobStatistics.getTotals();
+            for (JobStatistics.Window window : JobStatistics.Window.values()) {
+                windows.put(window.name().toLowerCase(), windowToMap(jobStatistics.getWindow(window)));
+            }
+        } catch (RuntimeException e) {
+            stats.put("statistics", "unavailable");
+            return stats;
+        }
+
+        long completed = totals.count(ProcessingJob.JobStatus.COMPLETED);
+        long failed = totals.count(ProcessingJob.JobStatus.FAILED);
+        stats.put("totalJobs", totals.total());
+        stats.put("queued", totals.count(ProcessingJob.JobStatus.QUEUED));
+        stats.put("processing", totals.count(ProcessingJob.JobStatus.PROCESSING));
         stats.put("completed", completed);
         stats.put("failed", failed);
+        stats.put("cancelled", totals.count(ProcessingJob.JobStatus.CANCELLED));
+        stats.put("expired", totals.count(ProcessingJob.JobStatus.EXPIRED));
         stats.put("successRate", completed > 0 ? (double) completed / (completed + failed) * 100 : 0);
-        stats.put("averageProcessingTimeMs", avgProcessingTime);
-        
+        stats.put("averageProcessingTimeMs", totals.averageProcessingTimeMs());
+        stats.put("windows", windows);
+
         return stats;
     }
 
     @GetMapping("/queue/status")
     public Map<String, Object> getQueueStatus() {
         Map<String, Object> status = new HashMap<>();
+        Map<ProcessingJob.Priority, JobQueueService.LaneStats> laneStats;
+        try {
+            laneStats = jobQueueService.getLaneStats();
+        } catch (RuntimeException e) {
+            status.put("queue", "unavailable");
+            return status;
+        }
+        
+        Map<String, Object> lanes = new LinkedHashMap<>();
+        if (laneStats != null) {
+            laneStats.forEach((lane, stats) -> {
+                Map<String, Object> laneMap = new HashMap<>();
+                laneMap.put("depth", stats.depth());
+                laneMap.put("oldestWaitMs", stats.oldestWaitMs());
+                laneMap.put("averageWaitMs", stats.averageWaitMs());
+                laneMap.put("dispatched", stats.dispatched());
+                laneMap.put("weight", stats.weight());
+                lanes.put(lane.name().toLowerCase(), laneMap);
+            });
+        }
         status.put("queue", "available");
+        status.put("lanes", lanes);
         return status;
     }
 
+    @GetMapping("/scheduler")
+    public Map<String, Object> getSchedulerState() {
+        Map<String, Map<ProcessingJob.Priority, Long>> queuedByUser = jobQueueService.getQueuedByUser();
+        
+        List<Map<String, Object>> users = new ArrayList<>();
+        // Listed in the order the scheduler would serve them next
+        fairShareScheduler.snapshot(queuedByUser.keySet()).forEach((user, usage) -> {
+            Map<String, Object> queued = new LinkedHashMap<>();
+            queuedByUser.get(user).forEach((lane, count) -> queued.put(lane.name().toLowerCase(), count));
+            
+            Map<String, Object> userMap = new HashMap<>();
+            userMap.put("user", user);
+            userMap.put("share", usage.share());
+            userMap.put("gpuSeconds", usage.usedMs() / 1000.0);
+            userMap.put("running", usage.running());
+            userMap.put("normalizedUsage", usage.normalized());
+            userMap.put("queued", queued);
+            users.add(userMap);
+        });
+        
+        Map<String, Object> state = new HashMap<>();
+        state.put("windowMinutes", fairShareScheduler.getWindow().toMinutes());
+        state.put("users", users);
+        return state;
+    }
+
+    private Map<String, Object> windowToMap(JobStatistics.WindowStats window) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("completed", window.completed());
+        map.put("failed", window.failed());
+        map.put("successRate", window.successRate());
+        List<Map<String, Object>> latency = new ArrayList<>();
+        for (JobStatistics.LatencyStats stats : window.latency()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("modelName", stats.modelName());
+            entry.put("scaleFactor", stats.scaleFactor());
+            entry.put("count", stats.count());
+            entry.put("meanMs", stats.meanMs());
+            entry.put("p50Ms", stats.p50Ms());
+            entry.put("p90Ms", stats.p90Ms());
+            entry.put("p99Ms", stats.p99Ms());
+            entry.put("maxMs", stats.maxMs());
+            latency.add(entry);
+        }
+        map.put("latency", latency);
+        return map;
+    }
+
     private Map<String, Object> jobToMap(ProcessingJob job) {
+        return jobToMap(job, null);
+    }
+
+    /**
+     * Listings leave out the ETA, which for a queued job costs a scan of its lane.
+     */
+    private Map<String, Object> jobToMap(ProcessingJob job, JobEtaService.Eta eta) {
         Map<String, Object> map = new HashMap<>();
         map.put("jobId", job.getJobId());
         map.put("inputFileId", job.getInputFileId());
@@ -153,11 +380,19 @@ public class JobController {
         map.put("status", job.getStatus().name());
         map.put("scaleFactor", job.getScaleFactor());
         map.put("modelName", job.getModelName());
+        map.put("priority", job.getPriority().name());
+        map.put("submittedBy", job.getSubmittedBy());
+        map.put("deduplicatedFrom", job.getDeduplicatedFrom());
         map.put("progressPercent", job.getProgressPercent());
         map.put("errorMessage", job.getErrorMessage());
         map.put("createdAt", job.getCreatedAt());
         map.put("startedAt", job.getStartedAt());
         map.put("completedAt", job.getCompletedAt());
+        map.put("expiresAt", job.getExpiresAt());
+        if (eta != null) {
+            map.put("estimatedStartAt", eta.estimatedStartAt());
+            map.put("estimatedCompletionAt", eta.estimatedCompletionAt());
+        }
         map.put("processingTimeMs", job.getProcessingTimeMs());
         return map;
     }
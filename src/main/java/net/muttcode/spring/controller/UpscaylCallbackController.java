@@ -0,0 +1,44 @@
+package net.muttcode.spring.controller;
+
+import net.muttcode.spring.service.UpscaylCallbacks;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Receives progress and completion events from Upscayl backends.
+ * Callers are authenticated by the HMAC signature on each event rather than a user token;
+ * see {@link UpscaylCallbacks}.
+ */
+@RestController
+@RequestMapping("/api/upscayl")
+public class UpscaylCallbackController {
+
+    private final UpscaylCallbacks callbacks;
+
+    public UpscaylCallbackController(UpscaylCallbacks callbacks) {
+        this.callbacks = callbacks;
+    }
+
+    /**
+     * The body is verified as received, so it is read as raw bytes rather than bound to an object.
+     * Answers 404 for a job not awaited on this node, so the backend need not retry it.
+     */
+    @PostMapping("/callback")
+    public ResponseEntity<Void> callback(
+            @RequestHeader(value = UpscaylCallbacks.TIMESTAMP_HEADER, required = false) String timestamp,
+            @RequestHeader(value = UpscaylCallbacks.SIGNATURE_HEADER, required = false) String signature,
+            @RequestBody byte[] body) {
+        HttpStatus status = switch (callbacks.handle(timestamp, signature, body)) {
+            case ACCEPTED -> HttpStatus.NO_CONTENT;
+            case UNKNOWN_JOB, DISABLED -> HttpStatus.NOT_FOUND;
+            case BAD_SIGNATURE -> HttpStatus.UNAUTHORIZED;
+            case MALFORMED -> HttpStatus.BAD_REQUEST;
+        };
+        return ResponseEntity.status(status).build();
+    }
+}
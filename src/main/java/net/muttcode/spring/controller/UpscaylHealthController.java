@@ -1,57 +1,67 @@
 package net.muttcode.spring.controller;
 
-import org.springframework.beans.factory.annotation.Value;
+import net.muttcode.spring.service.UpscaylBackendPool;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.client.ResourceAccessException;
-import org.springframework.web.client.RestTemplate;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Controller for Upscayl service health checks.
- * Provides endpoint to verify Upscayl microservice availability.
+ * Reports the availability of the Upscayl backends and lets operators drain them for maintenance.
  */
 @RestController
 @RequestMapping("/api/upscayl")
 public class UpscaylHealthController {
 
-  private final RestTemplate restTemplate;
+  private final UpscaylBackendPool backendPool;
 
-  @Value("${upscayl.service.url:http://upscayl:8081}")
-  private String upscaylServiceUrl;
-
-  public UpscaylHealthController() {
-    this.restTemplate = new RestTemplate();
+  public UpscaylHealthController(UpscaylBackendPool backendPool) {
+    this.backendPool = backendPool;
   }
 
   /**
    * Health check endpoint for Upscayl service.
-   * Attempts to connect to the Upscayl microservice to verify availability.
+   * Upscayl is available while at least one backend passes its health checks and is not draining.
    * @return Map with service name and status (available/unavailable)
    */
   @GetMapping("/health")
   public ResponseEntity<Map<String, String>> health() {
     Map<String, String> response = new HashMap<>();
     response.put("service", "upscayl");
+    response.put("status", backendPool.isAvailable() ? "available" : "unavailable");
+    return ResponseEntity.ok(response);
+  }
+
+  /**
+   * Per-backend health, drain state, outstanding calls, loaded models and latency.
+   */
+  @GetMapping("/backends")
+  public ResponseEntity<List<UpscaylBackendPool.BackendStatus>> backends() {
+    return ResponseEntity.ok(backendPool.getStatus());
+  }
 
-    try {
-      // Try to reach the Upscayl service
-      // Using a simple GET request to the base URL
-      restTemplate.getForObject(upscaylServiceUrl, String.class);
-      response.put("status", "available");
-      return ResponseEntity.ok(response);
-    } catch (ResourceAccessException e) {
-      // Connection failed - service unavailable
-      response.put("status", "unavailable");
-      return ResponseEntity.ok(response);
-    } catch (Exception e) {
-      // Other errors - service may be unavailable or returning unexpected response
-      response.put("status", "unavailable");
-      return ResponseEntity.ok(response);
-    }
+  /**
+   * Stops routing new work to a backend; calls already running there finish normally.
+   * It is safe to restart once its {@code outstanding} count reaches zero.
+   */
+  @PostMapping("/backends/drain")
+  public ResponseEntity<UpscaylBackendPool.BackendStatus> drain(@RequestParam String url) {
+    return ResponseEntity.of(backendPool.setDraining(url, true));
+  }
+
+  /**
+   * Puts a drained backend back into rotation.
+   */
+  @DeleteMapping("/backends/drain")
+  public ResponseEntity<UpscaylBackendPool.BackendStatus> resume(@RequestParam String url) {
+    return ResponseEntity.of(backendPool.setDraining(url, false));
   }
 }
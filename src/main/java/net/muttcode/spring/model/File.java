@@ -1,11 +1,13 @@
 package net.muttcode.spring.model;
 
 import jakarta.persistence.*;
+import org.springframework.data.domain.Persistable;
+
 import java.time.Instant;
 
 @Entity
 @Table(name = "files")
-public class File {
+public class File implements Persistable<String> {
 
     @Id
     @Column(name = "id", length = 36)
@@ -29,6 +31,10 @@ public class File {
     @Column(name = "upload_date", nullable = false)
     private Instant uploadDate;
 
+    // SHA-256 of the stored bytes, hex encoded
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
     @Column(name = "uploaded_by", length = 255)
     private String uploadedBy;
 
@@ -45,6 +51,11 @@ public class File {
     @Column(name = "updated_at", nullable = false)
     private Instant updatedAt;
 
+    // Ids are assigned up front, so tell Spring Data which rows are new to get a plain
+    // INSERT (and JDBC batching) instead of a SELECT-then-merge per save
+    @Transient
+    private boolean isNew = true;
+
     public enum FileStatus {
         UPLOADED, PROCESSING, COMPLETED, FAILED, DELETED
     }
@@ -64,6 +75,7 @@ public class File {
         this.updatedAt = Instant.now();
     }
 
+    @Override
     public String getId() { return id; }
     public void setId(String id) { this.id = id; }
 
@@ -85,6 +97,9 @@ public class File {
     public Instant getUploadDate() { return uploadDate; }
     public void setUploadDate(Instant uploadDate) { this.uploadDate = uploadDate; }
 
+    public String getContentHash() { return contentHash; }
+    public void setContentHash(String contentHash) { this.contentHash = contentHash; }
+
     public String getUploadedBy() { return uploadedBy; }
     public void setUploadedBy(String uploadedBy) { this.uploadedBy = uploadedBy; }
 
@@ -99,4 +114,11 @@ public class File {
 
     public Instant getUpdatedAt() { return updatedAt; }
     public void setUpdatedAt(Instant updatedAt) { this.updatedAt = updatedAt; }
-}
\ No newline at end of file
+
+    @Override
+    public boolean isNew() { return isNew; }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() { this.isNew = false; }
+}
@@ -0,0 +1,45 @@
+package net.muttcode.spring.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * A job waiting to be pushed onto the Redis queue. Written in the same transaction as
+ * the job itself, so a job is queued if and only if it was saved.
+ */
+@Entity
+@Table(name = "job_outbox")
+public class JobOutboxEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "job_id", nullable = false, length = 36)
+    private String jobId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private ProcessingJob.Priority priority;
+
+    @Column(name = "submitted_by", nullable = false)
+    private String submittedBy;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    public JobOutboxEntry() {}
+
+    public JobOutboxEntry(String jobId, ProcessingJob.Priority priority, String submittedBy) {
+        this.jobId = jobId;
+        this.priority = priority;
+        this.submittedBy = submittedBy;
+        this.createdAt = Instant.now();
+    }
+
+    public Long getId() { return id; }
+    public String getJobId() { return jobId; }
+    public ProcessingJob.Priority getPriority() { return priority; }
+    public String getSubmittedBy() { return submittedBy; }
+    public Instant getCreatedAt() { return createdAt; }
+}
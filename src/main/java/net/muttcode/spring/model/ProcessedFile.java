@@ -59,7 +59,7 @@ public class ProcessedFile {
     }
 
     public enum ProcessedFileStatus {
-        PROCESSING, COMPLETED, FAILED
+        PROCESSING, COMPLETED, FAILED, DELETED
     }
 
     public ProcessedFile() {}
@@ -4,7 +4,12 @@ import jakarta.persistence.*;
 import java.time.Instant;
 
 @Entity
-@Table(name = "processing_jobs")
+@Table(name = "processing_jobs", indexes = {
+    @Index(name = "idx_processing_jobs_dedup", columnList = "input_hash, model_name, scale_factor, status"),
+    @Index(name = "idx_processing_jobs_status_created", columnList = "status, created_at, job_id"),
+    @Index(name = "idx_processing_jobs_created", columnList = "created_at, job_id"),
+    @Index(name = "idx_processing_jobs_status_expires", columnList = "status, expires_at")
+})
 public class ProcessingJob {
 
     @Id
@@ -45,8 +50,77 @@ public class ProcessingJob {
     @Column(name = "processing_time_ms")
     private Long processingTimeMs;
 
+    // Stored as the integer priority (lower runs sooner), see Priority
+    @Column(name = "priority", nullable = false)
+    private Integer priority = Priority.NORMAL.getValue();
+
+    @Column(name = "submitted_by")
+    private String submittedBy;
+
+    // Content hash of the input, so identical requests can reuse a result
+    @Column(name = "input_hash", length = 64)
+    private String inputHash;
+
+    // Job whose Upscayl run this one reused instead of running its own
+    @Column(name = "deduplicated_from", length = 36)
+    private String deduplicatedFrom;
+
+    // Width times height of the input, for predicting processing time; null if the format was not readable
+    @Column(name = "input_pixels")
+    private Long inputPixels;
+
+    // Still queued at this time, the job expires instead of running
+    @Column(name = "expires_at")
+    private Instant expiresAt;
+
+    // Times the job was started; a job whose node died mid-run is started again until max_attempts
+    @Column(name = "attempts")
+    private Integer attempts = 0;
+
+    @Column(name = "max_attempts")
+    private Integer maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
     public enum JobStatus {
-        QUEUED, PROCESSING, COMPLETED, FAILED
+        QUEUED, PROCESSING, COMPLETED, FAILED, CANCELLED, EXPIRED;
+
+        /**
+         * True for states a job never leaves.
+         */
+        public boolean isTerminal() {
+            return this != QUEUED && this != PROCESSING;
+        }
+    }
+
+    /**
+     * Scheduling class of a job. Each class has its own queue lane.
+     */
+    public enum Priority {
+        INTERACTIVE(1), NORMAL(5), BULK(9);
+
+        private final int value;
+
+        Priority(int value) {
+            this.value = value;
+        }
+
+        public int getValue() { return value; }
+
+        /**
+         * Maps a stored priority onto its class; values between classes round to the nearer-urgent one.
+         */
+        public static Priority fromValue(Integer value) {
+            if (value == null) {
+                return NORMAL;
+            }
+            for (Priority priority : values()) {
+                if (value <= priority.value) {
+                    return priority;
+                }
+            }
+            return BULK;
+        }
     }
 
     public ProcessingJob() {}
@@ -85,4 +159,27 @@ public class ProcessingJob {
     public void setCompletedAt(Instant completedAt) { this.completedAt = completedAt; }
     public Long getProcessingTimeMs() { return processingTimeMs; }
     public void setProcessingTimeMs(Long processingTimeMs) { this.processingTimeMs = processingTimeMs; }
+    public Priority getPriority() { return Priority.fromValue(priority); }
+    public void setPriority(Priority priority) { this.priority = priority.getValue(); }
+    public String getSubmittedBy() { return submittedBy; }
+    public void setSubmittedBy(String submittedBy) { this.submittedBy = submittedBy; }
+    public String getInputHash() { return inputHash; }
+    public void setInputHash(String inputHash) { this.inputHash = inputHash; }
+    public String getDeduplicatedFrom() { return deduplicatedFrom; }
+    public void setDeduplicatedFrom(String deduplicatedFrom) { this.deduplicatedFrom = deduplicatedFrom; }
+    public Long getInputPixels() { return inputPixels; }
+    public void setInputPixels(Long inputPixels) { this.inputPixels = inputPixels; }
+    public Instant getExpiresAt() { return expiresAt; }
+    public void setExpiresAt(Instant expiresAt) { this.expiresAt = expiresAt; }
+    public Integer getAttempts() { return attempts; }
+    public void setAttempts(Integer attempts) { this.attempts = attempts; }
+    public Integer getMaxAttempts() { return maxAttempts; }
+    public void setMaxAttempts(Integer maxAttempts) { this.maxAttempts = maxAttempts; }
+
+    /**
+     * True once the job has been started as often as it may be.
+     */
+    public boolean attemptsExhausted() {
+        return attempts != null && maxAttempts != null && attempts >= maxAttempts;
+    }
 }
@@ -0,0 +1,17 @@
+package net.muttcode.spring.repository;
+
+import net.muttcode.spring.model.JobOutboxEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface JobOutboxRepository extends JpaRepository<JobOutboxEntry, Long> {
+
+    /**
+     * Oldest entries first, so jobs reach the queue in the order they were submitted.
+     */
+    List<JobOutboxEntry> findByOrderByIdAsc(Pageable pageable);
+}
@@ -1,13 +1,103 @@
 package net.muttcode.spring.repository;
 
 import net.muttcode.spring.model.ProcessingJob;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface ProcessingJobRepository extends JpaRepository<ProcessingJob, String> {
     List<ProcessingJob> findByStatusOrderByCreatedAtDesc(ProcessingJob.JobStatus status);
     List<ProcessingJob> findAllByOrderByCreatedAtDesc();
+
+    // Per status: the status, job count, summed processing time and number of timed jobs
+    @Query("SELECT j.status, COUNT(j), SUM(j.processingTimeMs), COUNT(j.processingTimeMs) "
+        + "FROM ProcessingJob j GROUP BY j.status")
+    List<Object[]> summarizeByStatus();
+
+    // Keyset pages, newest first; job_id breaks ties between jobs created in the same instant.
+    // The size of the Pageable is the page limit, its offset is always 0.
+
+    // Jobs of a status whose expires_at has passed, oldest deadline first
+    @Query("SELECT j FROM ProcessingJob j WHERE j.status = :status AND j.expiresAt < :now ORDER BY j.expiresAt")
+    List<ProcessingJob> findExpired(@Param("status") ProcessingJob.JobStatus status, @Param("now") Instant now,
+                                    Pageable limit);
+
+    @Query("SELECT j FROM ProcessingJob j ORDER BY j.createdAt DESC, j.jobId DESC")
+    List<ProcessingJob> findNewest(Pageable limit);
+
+    @Query("SELECT j FROM ProcessingJob j "
+        + "WHERE j.createdAt < :createdAt OR (j.createdAt = :createdAt AND j.jobId < :jobId) "
+        + "ORDER BY j.createdAt DESC, j.jobId DESC")
+    List<ProcessingJob> findNewestBefore(@Param("createdAt") Instant createdAt, @Param("jobId") String jobId,
+                                         Pageable limit);
+
+    @Query("SELECT j FROM ProcessingJob j WHERE j.status = :status ORDER BY j.createdAt DESC, j.jobId DESC")
+    List<ProcessingJob> findNewestByStatus(@Param("status") ProcessingJob.JobStatus status, Pageable limit);
+
+    @Query("SELECT j FROM ProcessingJob j WHERE j.status = :status "
+        + "AND (j.createdAt < :createdAt OR (j.createdAt = :createdAt AND j.jobId < :jobId)) "
+        + "ORDER BY j.createdAt DESC, j.jobId DESC")
+    List<ProcessingJob> findNewestByStatusBefore(@Param("status") ProcessingJob.JobStatus status,
+                                                 @Param("createdAt") Instant createdAt, @Param("jobId") String jobId,
+                                                 Pageable limit);
+
+    List<ProcessingJob> findByInputHashAndModelNameAndScaleFactorAndStatusOrderByCompletedAtDesc(
+        String inputHash, String modelName, Integer scaleFactor, ProcessingJob.JobStatus status);
+    boolean existsByInputFileIdAndStatusIn(String inputFileId, Collection<ProcessingJob.JobStatus> statuses);
+
+    // Transitions are single conditional UPDATEs; a job already in a final state is left alone
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE ProcessingJob j SET j.status = :status, "
+        + "j.startedAt = :startedAt, j.progressPercent = 0, j.attempts = COALESCE(j.attempts, 0) + 1 "
+        + "WHERE j.jobId = :jobId AND j.status IN :from")
+    int markProcessing(@Param("jobId") String jobId, @Param("status") ProcessingJob.JobStatus status,
+                       @Param("startedAt") Instant startedAt,
+                     @Param("from") Collection<ProcessingJob.JobStatus> from);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE ProcessingJob j SET j.status = :status, "
+        + "j.outputFileId = :outputFileId, j.progressPercent = 100, j.completedAt = :completedAt, "
+        + "j.processingTimeMs = :processingTimeMs "
+        + "WHERE j.jobId = :jobId AND j.status IN :from")
+    int markCompleted(@Param("jobId") String jobId, @Param("status") ProcessingJob.JobStatus status,
+                      @Param("outputFileId") String outputFileId,
+                    @Param("completedAt") Instant completedAt, @Param("processingTimeMs") Long processingTimeMs,
+                    @Param("from") Collection<ProcessingJob.JobStatus> from);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE ProcessingJob j SET j.status = :status, "
+        + "j.errorMessage = :errorMessage, j.completedAt = :completedAt "
+        + "WHERE j.jobId = :jobId AND j.status IN :from")
+    int markFailed(@Param("jobId") String jobId, @Param("status") ProcessingJob.JobStatus status,
+                   @Param("errorMessage") String errorMessage,
+                   @Param("completedAt") Instant completedAt,
+                   @Param("from") Collection<ProcessingJob.JobStatus> from);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE ProcessingJob j SET j.status = :status, j.completedAt = :completedAt "
+        + "WHERE j.jobId = :jobId AND j.status IN :from")
+    int markStopped(@Param("jobId") String jobId, @Param("status") ProcessingJob.JobStatus status,
+                    @Param("completedAt") Instant completedAt,
+                    @Param("from") Collection<ProcessingJob.JobStatus> from);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE ProcessingJob j SET j.status = :status, j.startedAt = NULL, j.progressPercent = 0 "
+        + "WHERE j.jobId = :jobId AND j.status IN :from")
+    int markQueued(@Param("jobId") String jobId, @Param("status") ProcessingJob.JobStatus status,
+                   @Param("from") Collection<ProcessingJob.JobStatus> from);
 }
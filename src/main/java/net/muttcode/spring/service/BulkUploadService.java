@@ -0,0 +1,146 @@
+package net.muttcode.spring.service;
+
+import jakarta.annotation.PreDestroy;
+import net.muttcode.spring.model.File;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Stores many uploads from one request.
+ * File contents are written concurrently on a bounded pool shared by all bulk
+ * requests, then every File row goes in with a single batched transaction.
+ * Results are reported per file as they become final: write failures as soon as
+ * they happen, successes once the batch has committed.
+ */
+@Service
+public class BulkUploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkUploadService.class);
+
+    private final FileService fileService;
+    private final ExecutorService writeExecutor;
+
+    public BulkUploadService(
+            FileService fileService,
+            @Value("${file.bulk-upload.write-concurrency:4}") int writeConcurrency) {
+        this.fileService = fileService;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.writeExecutor = Executors.newFixedThreadPool(Math.max(1, writeConcurrency), runnable -> {
+            Thread thread = new Thread(runnable, "bulk-upload-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Writes and registers {@code files}, passing one {@link Result} per file to
+     * {@code results} on the calling thread.
+     *
+     * @throws IOException if the upload store is out of space before anything is written
+     */
+    public void upload(List<MultipartFile> files, Consumer<Result> results) throws IOException {
+        fileService.checkUploadAdmission();
+
+        CompletionService<Written> writes = new ExecutorCompletionService<>(writeExecutor);
+        for (int i = 0; i < files.size(); i++) {
+            int index = i;
+            MultipartFile file = files.get(i);
+            writes.submit(() -> {
+                try {
+                    return new Written(index, file.getOriginalFilename(), fileService.writeUpload(file), null);
+                } catch (IOException | RuntimeException e) {
+                    return new Written(index, file.getOriginalFilename(), null, e);
+                }
+            });
+        }
+
+        List<Written> written = new ArrayList<>(files.size());
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                Written result = writes.take().get();
+                if (result.error() != null) {
+                    logger.warn("Bulk upload of {} failed", result.originalName(), result.error());
+                    results.accept(Result.failed(result.index(), result.originalName(), result.error().getMessage()));
+                } else {
+                    written.add(result);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            discard(written);
+            throw new IOException("Bulk upload interrupted", e);
+        } catch (ExecutionException e) {
+            discard(written);
+            throw new IOException("Bulk upload failed", e.getCause());
+        }
+
+        if (written.isEmpty()) {
+            return;
+        }
+        List<StoredFile> stored;
+        try {
+            stored = fileService.registerFiles(written.stream().map(Written::file).toList());
+        } catch (RuntimeException e) {
+            logger.error("Failed to register {} bulk uploads", written.size(), e);
+            discard(written);
+            for (Written result : written) {
+                results.accept(Result.failed(result.index(), result.originalName(), "Failed to record upload"));
+            }
+            return;
+        }
+        for (int i = 0; i < written.size(); i++) {
+            Written result = written.get(i);
+            results.accept(Result.stored(result.index(), result.originalName(), stored.get(i)));
+        }
+        logger.info("Bulk upload stored {} of {} files", written.size(), files.size());
+    }
+
+    private void discard(List<Written> written) {
+        for (Written result : written) {
+            try {
+                Files.deleteIfExists(fileService.getFilePathByStoredName(result.file().getStoredName()));
+            } catch (IOException e) {
+                // Unregistered leftovers are swept by retention
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writeExecutor.shutdownNow();
+    }
+
+    private record Written(int index, String originalName, File file, Exception error) {}
+
+    /**
+     * Outcome for one part of a bulk upload; {@code index} is its position in the request.
+     */
+    public record Result(int index, String originalName, String status, String fileId, String fileName, String error) {
+
+        public static final String STORED = "stored";
+        public static final String FAILED = "failed";
+
+        static Result stored(int index, String originalName, StoredFile file) {
+            return new Result(index, originalName, STORED, file.getFileId(), file.getStoredName(), null);
+        }
+
+        static Result failed(int index, String originalName, String error) {
+            return new Result(index, originalName, FAILED, null, null, error);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package net.muttcode.spring.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip content negotiation for file downloads.
+ * Compressible outputs (uncompressed DDS in particular) get a precompressed
+ * {@code .gz} variant written next to the original in the background. Until the
+ * variant exists, downloads are compressed on the fly at a fast level, with the
+ * number of concurrent streaming compressions capped to bound CPU use.
+ */
+@Service
+public class CompressedTransferService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompressedTransferService.class);
+
+    public static final String VARIANT_SUFFIX = ".gz";
+    public static final String ENCODING = "gzip";
+    private static final String PARTIAL_SUFFIX = ".part";
+
+    private static final Set<String> INCOMPRESSIBLE_EXTENSIONS = Set.of(
+        "png", "jpg", "jpeg", "gif", "webp", "gz", "zip", "zst", "7z");
+
+    private final long minSizeBytes;
+    private final int backgroundLevel;
+    private final Semaphore streamingPermits;
+    private final ThreadPoolExecutor backgroundExecutor;
+    private final Set<Path> pendingVariants = ConcurrentHashMap.newKeySet();
+
+    public CompressedTransferService(
+            @Value("${compression.min-size-bytes:8192}") long minSizeBytes,
+            @Value("${compression.background-level:9}") int backgroundLevel,
+            @Value("${compression.streaming.max-concurrent:2}") int maxConcurrentStreams,
+            @Value("${compression.background.queue-size:256}") int backgroundQueueSize) {
+        this.minSizeBytes = minSizeBytes;
+        this.backgroundLevel = backgroundLevel;
+        this.streamingPermits = new Semaphore(maxConcurrentStreams);
+        // One low-priority thread; excess work is dropped and retried on a later download
+        this.backgroundExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(backgroundQueueSize), runnable -> {
+                Thread thread = new Thread(runnable, "precompress");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * Returns a gzip-encoded body for {@code original} when the client accepts gzip
+     * and the file is worth compressing. An empty result means serve the raw file.
+     */
+    public Optional<CompressedBody> negotiate(Path original, String acceptEncoding) {
+        if (!acceptsGzip(acceptEncoding) || !isCompressible(original)) {
+            return Optional.empty();
+        }
+        try {
+            Path variant = variantOf(original);
+            if (Files.exists(variant)
+                    && !Files.getLastModifiedTime(variant).toInstant()
+                        .isBefore(Files.getLastModifiedTime(original).toInstant())) {
+                return Optional.of(new CompressedBody(new FileSystemResource(variant), Files.size(variant)));
+            }
+            precompressAsync(original);
+
+            if (!streamingPermits.tryAcquire()) {
+                // Compression capacity is saturated; raw bytes beat queueing the download
+                return Optional.empty();
+            }
+            try {
+                InputStream encoded = new GzipEncodingInputStream(
+                    Files.newInputStream(original), Deflater.BEST_SPEED, streamingPermits::release);
+                return Optional.of(new CompressedBody(new InputStreamResource(encoded), null));
+            } catch (IOException | RuntimeException e) {
+                streamingPermits.release();
+                throw e;
+            }
+        } catch (IOException e) {
+            logger.warn("Falling back to uncompressed transfer of {}", original, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Queues background generation of the precompressed variant of {@code original}.
+     */
+    public void precompressAsync(Path original) {
+        if (!isCompressible(original) || !pendingVariants.add(original)) {
+            return;
+        }
+        try {
+            backgroundExecutor.execute(() -> {
+                try {
+                    precompress(original);
+                } finally {
+                    pendingVariants.remove(original);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingVariants.remove(original);
+        }
+    }
+
+    void precompress(Path original) {
+        Path variant = variantOf(original);
+        Path partial = variant.resolveSibling(variant.getFileName() + PARTIAL_SUFFIX);
+        try {
+            if (!Files.exists(original) || Files.size(original) < minSizeBytes) {
+                return;
+            }
+            try (InputStream in = Files.newInputStream(original);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(partial), 64 * 1024) {
+                     {
+                         def.setLevel(backgroundLevel);
+                     }
+                 }) {
+                in.transferTo(out);
+            }
+            if (Files.size(partial) >= Files.size(original)) {
+                Files.deleteIfExists(partial);
+                return;
+            }
+            Files.move(partial, variant, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            logger.debug("Precompressed {} ({} -> {} bytes)", original, Files.size(original), Files.size(variant));
+        } catch (IOException e) {
+            logger.warn("Failed to precompress {}", original, e);
+            try {
+                Files.deleteIfExists(partial);
+            } catch (IOException ignored) {
+                // Orphaned partials are swept by retention
+            }
+        }
+    }
+
+    boolean isCompressible(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0 && INCOMPRESSIBLE_EXTENSIONS.contains(name.substring(dot + 1))) {
+            return false;
+        }
+        try {
+            return Files.size(file) >= minSizeBytes;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * True when the Accept-Encoding header lists gzip (or *) with a non-zero quality.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isBlank()) {
+            return false;
+        }
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.trim().split(";");
+            String coding = params[0].trim().toLowerCase(Locale.ROOT);
+            if (!coding.equals(ENCODING) && !coding.equals("*")) {
+                continue;
+            }
+            double quality = 1.0;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (quality > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static Path variantOf(Path original) {
+        return original.resolveSibling(original.getFileName() + VARIANT_SUFFIX);
+    }
+
+    public static boolean isVariant(Path path) {
+        return path.getFileName().toString().endsWith(VARIANT_SUFFIX);
+    }
+
+    public static boolean isPartialVariant(Path path) {
+        return path.getFileName().toString().endsWith(VARIANT_SUFFIX + PARTIAL_SUFFIX);
+    }
+
+    public static Path originalOf(Path variant) {
+        String name = variant.getFileName().toString();
+        return variant.resolveSibling(name.substring(0, name.length() - VARIANT_SUFFIX.length()));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        backgroundExecutor.shutdownNow();
+    }
+
+    /**
+     * A gzip-encoded response body; {@code contentLength} is null when streamed.
+     */
+    public record CompressedBody(Resource resource, Long contentLength) {}
+}
@@ -0,0 +1,45 @@
+package net.muttcode.spring.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * SHA-256 content hashes of stored files, used to recognise repeated uploads of the same bytes.
+ */
+public final class ContentHash {
+
+    private ContentHash() {}
+
+    /**
+     * Wraps {@code in} so the hash is computed while the stream is consumed, avoiding a second read.
+     */
+    public static DigestInputStream digesting(InputStream in) {
+        return new DigestInputStream(in, newDigest());
+    }
+
+    public static String hex(DigestInputStream in) {
+        return HexFormat.of().formatHex(in.getMessageDigest().digest());
+    }
+
+    public static String of(Path path) throws IOException {
+        try (DigestInputStream in = digesting(Files.newInputStream(path))) {
+            in.transferTo(OutputStream.nullOutputStream());
+            return hex(in);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
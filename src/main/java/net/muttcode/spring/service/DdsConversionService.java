@@ -27,6 +27,8 @@ public class DdsConversionService {
     private final Path outputPath;
     private final FileRepository fileRepository;
     private final ProcessedFileRepository processedFileRepository;
+    private final StorageAdmission storageAdmission;
+    private final CompressedTransferService compressedTransferService;
     
     private static final int DDS_MAGIC = 0x20534444;
     private static final int DDPF_ALPHAPIXELS = 0x1;
@@ -40,12 +42,16 @@ public class DdsConversionService {
         @Value("${image.processing.temp.path:/app/temp}") String tempPathStr,
         @Value("${image.processing.output.path:/app/processed}") String outputPathStr,
         FileRepository fileRepository,
-        ProcessedFileRepository processedFileRepository
+        ProcessedFileRepository processedFileRepository,
+        StorageAdmission storageAdmission,
+        CompressedTransferService compressedTransferService
     ) throws IOException {
         this.tempPath = Path.of(tempPathStr);
         this.outputPath = Path.of(outputPathStr);
         this.fileRepository = fileRepository;
         this.processedFileRepository = processedFileRepository;
+        this.storageAdmission = storageAdmission;
+        this.compressedTransferService = compressedTransferService;
         Files.createDirectories(this.tempPath);
         Files.createDirectories(this.outputPath);
         logger.info("DDS Conversion Service initialized");
@@ -56,6 +62,7 @@ public class DdsConversionService {
         if (filename == null || !filename.toLowerCase().endsWith(".dds")) {
             throw new IllegalArgumentException("File must be a DDS file");
         }
+        storageAdmission.checkAdmission(outputPath);
         
         String fileId = UUID.randomUUID().toString();
         Path inputPath = tempPath.resolve(fileId + "_input.dds");
@@ -107,6 +114,7 @@ public class DdsConversionService {
         if (!lower.endsWith(".png") && !lower.endsWith(".jpg") && !lower.endsWith(".jpeg")) {
             throw new IllegalArgumentException("File must be PNG or JPG");
         }
+        storageAdmission.checkAdmission(outputPath);
         
         String fileId = UUID.randomUUID().toString();
         Path inputPath = tempPath.resolve(fileId + "_input" + getExtension(filename));
@@ -127,6 +135,9 @@ public class DdsConversionService {
             writeDDS(argbImage, outputFilePath);
             logger.info("Image converted to DDS successfully: " + outputFileName);
             
+            // Uncompressed ARGB compresses well; have a gzip variant ready for the download
+            compressedTransferService.precompressAsync(outputFilePath);
+            
             // Create input File entity
             File inputFile = new File(fileId, filename, fileId + "_input" + getExtension(filename), file.getSize(), file.getContentType());
             fileRepository.save(inputFile);
@@ -378,6 +389,8 @@ public class DdsConversionService {
     
     public Path getOutputPath() { return outputPath; }
     
+    public Path getTempPath() { return tempPath; }
+    
     private static class DdsHeader {
         int size, flags, height, width, pitchOrLinearSize, depth, mipMapCount;
         int pfSize, pfFlags, pfFourCC, pfRGBBitCount;
@@ -0,0 +1,46 @@
+package net.muttcode.spring.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Expires queued jobs once their deadline passes, instead of leaving them in the queue
+ * until a worker happens to dequeue them. Runs on the leader only, in batches of
+ * {@code batch-size} per sweep; the expires_at index keeps each sweep a range scan.
+ */
+@Component
+public class ExpiredJobSweeper {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExpiredJobSweeper.class);
+
+    private final ImageProcessingService imageProcessingService;
+    private final LeaderElection leaderElection;
+    private final int batchSize;
+
+    public ExpiredJobSweeper(
+            ImageProcessingService imageProcessingService,
+            LeaderElection leaderElection,
+            @Value("${jobs.expiry.batch-size:500}") int batchSize) {
+        this.imageProcessingService = imageProcessingService;
+        this.leaderElection = leaderElection;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${jobs.expiry.sweep-interval-ms:30000}")
+    public void sweep() {
+        if (!leaderElection.isLeader()) {
+            return;
+        }
+        try {
+            int expired = imageProcessingService.expireOverdueJobs(batchSize);
+            if (expired > 0) {
+                logger.info("Expired {} queued jobs past their deadline", expired);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Failed to expire overdue jobs, will retry: {}", e.getMessage());
+        }
+    }
+}
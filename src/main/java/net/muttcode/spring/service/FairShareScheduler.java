@@ -0,0 +1,205 @@
+package net.muttcode.spring.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Weighted fair sharing of Upscayl time between users.
+ * GPU time is charged per user into five-minute buckets of {@code job:usage:<user>}
+ * and summed over a sliding window. When several users have work queued in a lane,
+ * the next job comes from the user with the least usage relative to their share.
+ * Jobs still running are charged a provisional amount so a user cannot claim every
+ * free slot before any of their jobs has finished.
+ */
+@Service
+public class FairShareScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(FairShareScheduler.class);
+
+    public static final String ANONYMOUS = "anonymous";
+
+    private static final String USAGE_PREFIX = "job:usage:";
+    private static final String RUNNING_FIELD = "running";
+    private static final long BUCKET_MINUTES = 5;
+
+    private final StringRedisTemplate redisTemplate;
+    private final Duration window;
+    private final int defaultShare;
+    private final long runningChargeMs;
+    private final Map<String, Integer> shares;
+
+    public FairShareScheduler(
+            RedisConnectionFactory connectionFactory,
+            @Value("${jobs.fair-share.window-minutes:60}") long windowMinutes,
+            @Value("${jobs.fair-share.default-share:1}") int defaultShare,
+            @Value("${jobs.fair-share.running-charge-ms:30000}") long runningChargeMs,
+            @Value("${jobs.fair-share.shares:}") String shares) {
+        this.redisTemplate = new StringRedisTemplate(connectionFactory);
+        this.window = Duration.ofMinutes(Math.max(windowMinutes, BUCKET_MINUTES));
+        this.defaultShare = Math.max(1, defaultShare);
+        this.runningChargeMs = runningChargeMs;
+        this.shares = parseShares(shares);
+    }
+
+    /**
+     * Orders {@code users} so the most underserved relative to their share comes first.
+     */
+    public List<String> rank(Collection<String> users) {
+        return new ArrayList<>(snapshot(users).keySet());
+    }
+
+    /**
+     * Usage of each of {@code users}, in the order they would be served next.
+     */
+    public Map<String, Usage> snapshot(Collection<String> users) {
+        Map<String, Usage> usage = new HashMap<>();
+        for (String user : users) {
+            usage.put(user, getUsage(user));
+        }
+        Map<String, Usage> ranked = new LinkedHashMap<>();
+        rank(usage).forEach(user -> ranked.put(user, usage.get(user)));
+        return ranked;
+    }
+
+    static List<String> rank(Map<String, Usage> usage) {
+        List<String> ranked = new ArrayList<>(usage.keySet());
+        ranked.sort(Comparator.comparingDouble((String user) -> usage.get(user).normalized())
+            .thenComparing(Comparator.naturalOrder()));
+        return ranked;
+    }
+
+    /**
+     * Charges {@code processingTimeMs} of Upscayl time to {@code user}.
+     */
+    public void recordUsage(String user, long processingTimeMs) {
+        if (processingTimeMs <= 0) {
+            return;
+        }
+        try {
+            String key = usageKey(user);
+            long bucket = bucketOf(System.currentTimeMillis());
+            redisTemplate.opsForHash().increment(key, Long.toString(bucket), processingTimeMs);
+            redisTemplate.expire(key, window.plusMinutes(BUCKET_MINUTES));
+            pruneExpiredBuckets(key, bucket);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to record {}ms of usage for {}", processingTimeMs, user, e);
+        }
+    }
+
+    public void jobStarted(String user) {
+        String key = usageKey(user);
+        redisTemplate.opsForHash().increment(key, RUNNING_FIELD, 1);
+        redisTemplate.expire(key, window.plusMinutes(BUCKET_MINUTES));
+    }
+
+    public void jobFinished(String user) {
+        Long running = redisTemplate.opsForHash().increment(usageKey(user), RUNNING_FIELD, -1);
+        if (running != null && running < 0) {
+            // Counter drifted after a crash; never let it go negative
+            redisTemplate.opsForHash().put(usageKey(user), RUNNING_FIELD, "0");
+        }
+    }
+
+    /**
+     * Usage of {@code user} over the current window.
+     */
+    public Usage getUsage(String user) {
+        Map<Object, Object> fields = redisTemplate.opsForHash().entries(usageKey(user));
+        long oldestBucket = bucketOf(System.currentTimeMillis() - window.toMillis());
+        long usedMs = 0;
+        long running = 0;
+        for (Map.Entry<Object, Object> field : fields.entrySet()) {
+            long value = parseLong(field.getValue().toString());
+            if (RUNNING_FIELD.equals(field.getKey())) {
+                running = Math.max(0, value);
+            } else if (parseLong(field.getKey().toString()) > oldestBucket) {
+                usedMs += value;
+            }
+        }
+        return new Usage(shareOf(user), usedMs, running, runningChargeMs);
+    }
+
+    public int shareOf(String user) {
+        return shares.getOrDefault(user, defaultShare);
+    }
+
+    public Duration getWindow() {
+        return window;
+    }
+
+    private void pruneExpiredBuckets(String key, long currentBucket) {
+        long oldestBucket = currentBucket - window.toMinutes() / BUCKET_MINUTES;
+        List<Object> expired = new ArrayList<>();
+        for (Object field : redisTemplate.opsForHash().keys(key)) {
+            if (!RUNNING_FIELD.equals(field) && parseLong(field.toString()) <= oldestBucket) {
+                expired.add(field);
+            }
+        }
+        if (!expired.isEmpty()) {
+            redisTemplate.opsForHash().delete(key, expired.toArray());
+        }
+    }
+
+    private static long bucketOf(long epochMillis) {
+        return TimeUnit.MILLISECONDS.toMinutes(epochMillis) / BUCKET_MINUTES;
+    }
+
+    private static String usageKey(String user) {
+        return USAGE_PREFIX + user;
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Parses {@code user=share} pairs separated by commas.
+     */
+    static Map<String, Integer> parseShares(String shares) {
+        Map<String, Integer> parsed = new LinkedHashMap<>();
+        if (shares == null || shares.isBlank()) {
+            return parsed;
+        }
+        for (String entry : shares.split(",")) {
+            String[] parts = entry.trim().split("=");
+            if (parts.length != 2) {
+                continue;
+            }
+            try {
+                parsed.put(parts[0].trim(), Math.max(1, Integer.parseInt(parts[1].trim())));
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring invalid fair-share entry '{}'", entry);
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * A user's GPU time over the window and jobs currently running.
+     * {@code normalized} is the value fair queuing minimises.
+     */
+    public record Usage(int share, long usedMs, long running, long runningChargeMs) {
+
+        public double normalized() {
+            return (double) (usedMs + running * runningChargeMs) / share;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package net.muttcode.spring.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Moves files between the upload store and the Upscayl mounts without rewriting
+ * their contents when both sides share a filesystem. Hard links and atomic renames
+ * are tried first; a byte copy is only made when the filesystems differ.
+ */
+public final class FileHandoff {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileHandoff.class);
+
+    public enum Mode {
+        LINKED, MOVED, COPIED
+    }
+
+    private FileHandoff() {}
+
+    /**
+     * Makes {@code source} visible at {@code target} while leaving the source in place.
+     * Uses a hard link when possible, falling back to a copy.
+     */
+    public static Mode linkOrCopy(Path source, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+            return Mode.LINKED;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            logger.debug("Hard link {} -> {} not possible, copying: {}", source, target, e.getMessage());
+        }
+        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        return Mode.COPIED;
+    }
+
+    /**
+     * Moves {@code source} to {@code target}, atomically when both are on the same
+     * filesystem and by copy-and-delete otherwise.
+     */
+    public static Mode moveOrCopy(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            return Mode.MOVED;
+        } catch (AtomicMoveNotSupportedException e) {
+            logger.debug("Atomic move {} -> {} not possible, copying: {}", source, target, e.getMessage());
+        }
+        Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        return Mode.COPIED;
+    }
+}
@@ -0,0 +1,119 @@
+package net.muttcode.spring.service;
+
+import net.muttcode.spring.model.File;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded in-process cache of fileId to stored file metadata.
+ * Keeps repeated downloads and job lookups off the database. Entries expire after
+ * a TTL and the least recently used entry is evicted once the cache is full.
+ * Guarded by a ReentrantLock rather than synchronized so callers on virtual threads
+ * never pin their carrier.
+ */
+@Component
+public class FileMetadataCache {
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final LinkedHashMap<String, Entry> entries;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public FileMetadataCache(
+            @Value("${file.metadata-cache.max-entries:10000}") int maxEntries,
+            @Value("${file.metadata-cache.ttl-seconds:600}") long ttlSeconds) {
+        this(maxEntries, ttlSeconds * 1000, System::currentTimeMillis);
+    }
+
+    FileMetadataCache(int maxEntries, long ttlMillis, LongSupplier clock) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        // access-order map: iteration starts at the least recently used entry
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > FileMetadataCache.this.maxEntries;
+            }
+        };
+    }
+
+    public Optional<CachedFile> get(String fileId) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(fileId);
+            if (entry == null) {
+                return Optional.empty();
+            }
+            if (entry.expiresAt() <= clock.getAsLong()) {
+                entries.remove(fileId);
+                return Optional.empty();
+            }
+            return Optional.of(entry.file());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(File file) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        Entry entry = new Entry(CachedFile.of(file), clock.getAsLong() + ttlMillis);
+        lock.lock();
+        try {
+            entries.put(file.getFileId(), entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidate(String fileId) {
+        lock.lock();
+        try {
+            entries.remove(fileId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The subset of a {@link File} row needed to resolve and serve the stored file.
+     */
+    public record CachedFile(String id, String fileId, String storedName, String contentType, Long fileSize,
+                             String contentHash) {
+
+        public static CachedFile of(File file) {
+            return new CachedFile(
+                    file.getId(), file.getFileId(), file.getStoredName(), file.getContentType(), file.getFileSize(),
+                    file.getContentHash());
+        }
+    }
+
+    private record Entry(CachedFile file, long expiresAt) {}
+}
@@ -8,6 +8,12 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 @Service
@@ -15,40 +21,183 @@ public class FileService {
 
     private final Path uploadDir;
     private final FileRepository fileRepository;
+    private final FileMetadataCache metadataCache;
+    private final StorageAdmission storageAdmission;
 
     public FileService(
             FileRepository fileRepository,
+            FileMetadataCache metadataCache,
+            StorageAdmission storageAdmission,
             @Value("${file.upload-dir:#{T(java.lang.System).getenv('UPLOAD_DIR') != null ? T(java.lang.System).getenv('UPLOAD_DIR') : './uploads'}}") String uploadDirStr) throws IOException {
         this.fileRepository = fileRepository;
+        this.metadataCache = metadataCache;
+        this.storageAdmission = storageAdmission;
         this.uploadDir = Paths.get(uploadDirStr);
         Files.createDirectories(uploadDir);
         System.out.println("Upload dir: " + uploadDir.toAbsolutePath());
     }
 
     public StoredFile saveFile(MultipartFile file) throws IOException {
+        storageAdmission.checkAdmission(uploadDir);
+
+        File fileEntity = writeUpload(file);
+        fileRepository.save(fileEntity);
+        metadataCache.put(fileEntity);
+
+        return toStoredFile(fileEntity);
+    }
+
+    /**
+     * Rejects uploads while the upload store is low on space.
+     */
+    public void checkUploadAdmission() throws IOException {
+        storageAdmission.checkAdmission(uploadDir);
+    }
+
+    /**
+     * Writes an upload to the store and returns its File entity without persisting it,
+     * so callers can register many uploads in one batch via {@link #registerFiles}.
+     */
+    public File writeUpload(MultipartFile file) throws IOException {
         String fileId = UUID.randomUUID().toString();
         String originalName = file.getOriginalFilename();
         String storedName = fileId + "_" + originalName;
 
         Path target = uploadDir.resolve(storedName);
-        Files.copy(file.getInputStream(), target, StandardCopyOption.REPLACE_EXISTING);
+        String contentHash;
+        // Hash while copying so deduplication costs no extra pass over the upload
+        try (DigestInputStream in = ContentHash.digesting(file.getInputStream())) {
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+            contentHash = ContentHash.hex(in);
+        }
 
-        // Create and save File entity to database
         File fileEntity = new File(fileId, originalName, storedName, file.getSize(), file.getContentType());
+        fileEntity.setContentHash(contentHash);
+        return fileEntity;
+    }
+
+    /**
+     * Persists File entities in a single transaction, letting Hibernate batch the inserts.
+     */
+    public List<StoredFile> registerFiles(List<File> files) {
+        fileRepository.saveAll(files);
+        files.forEach(metadataCache::put);
+        return files.stream().map(this::toStoredFile).toList();
+    }
+
+    private StoredFile toStoredFile(File file) {
+        return new StoredFile(
+            file.getFileId(), file.getOriginalName(), file.getStoredName(), uploadDir.resolve(file.getStoredName()));
+    }
+
+    /**
+     * Moves a file produced elsewhere (e.g. an Upscayl output) into the upload store
+     * and registers it as a File, so it is downloadable like any upload.
+     */
+    public StoredFile storeFile(Path source, String originalName, String contentType) throws IOException {
+        String fileId = UUID.randomUUID().toString();
+        String storedName = fileId + "_" + originalName;
+
+        Path target = uploadDir.resolve(storedName);
+        FileHandoff.moveOrCopy(source, target);
+
+        File fileEntity = new File(fileId, originalName, storedName, Files.size(target), contentType);
+        fileEntity.setStatus(File.FileStatus.COMPLETED);
         fileRepository.save(fileEntity);
+        metadataCache.put(fileEntity);
 
         return new StoredFile(fileId, originalName, storedName, target);
     }
 
     public Path getFilePath(String fileId) throws IOException {
-        // Look up the File entity to get the storedName
-        File file = fileRepository.findByFileId(fileId)
+        // Look up the storedName, from the metadata cache when the file is hot
+        FileMetadataCache.CachedFile file = findMetadata(fileId)
             .orElseThrow(() -> new IOException("File not found for fileId: " + fileId));
-        
-        return uploadDir.resolve(file.getStoredName()).normalize();
+
+        return uploadDir.resolve(file.storedName()).normalize();
     }
 
     public Path getFilePathByStoredName(String storedName) {
         return uploadDir.resolve(storedName).normalize();
     }
+
+    public Path getUploadDir() {
+        return uploadDir;
+    }
+
+    /**
+     * Stamps the file's last access time so retention evicts cold files first,
+     * independent of whether the filesystem is mounted with noatime.
+     */
+    public void recordAccess(Path path) {
+        try {
+            Files.getFileAttributeView(path, BasicFileAttributeView.class)
+                .setTimes(null, FileTime.from(Instant.now()), null);
+        } catch (IOException e) {
+            // Access tracking is best effort
+        }
+    }
+
+    /**
+     * Resolves the metadata for a fileId, reading through the cache.
+     */
+    public Optional<FileMetadataCache.CachedFile> findMetadata(String fileId) {
+        Optional<FileMetadataCache.CachedFile> cached = metadataCache.get(fileId);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        return fileRepository.findByFileId(fileId)
+            .filter(file -> file.getStatus() != File.FileStatus.DELETED)
+            .map(file -> {
+                metadataCache.put(file);
+                return FileMetadataCache.CachedFile.of(file);
+            });
+    }
+
+    /**
+     * SHA-256 of a stored file's contents. Files stored before hashing was added are
+     * hashed on first use and the result saved.
+     */
+    public Optional<String> getContentHash(String fileId) throws IOException {
+        Optional<FileMetadataCache.CachedFile> metadata = findMetadata(fileId);
+        if (metadata.isEmpty()) {
+            return Optional.empty();
+        }
+        if (metadata.get().contentHash() != null) {
+            return Optional.of(metadata.get().contentHash());
+        }
+        Optional<File> file = fileRepository.findByFileId(fileId);
+        if (file.isEmpty()) {
+            return Optional.empty();
+        }
+        File entity = file.get();
+        entity.setContentHash(ContentHash.of(uploadDir.resolve(entity.getStoredName()).normalize()));
+        fileRepository.save(entity);
+        metadataCache.put(entity);
+        return Optional.of(entity.getContentHash());
+    }
+
+    /**
+     * Returns a lazy reference to the File entity for use as a foreign key,
+     * without loading the row when its metadata is already cached.
+     */
+    public Optional<File> getFileReference(String fileId) {
+        return findMetadata(fileId).map(cached -> fileRepository.getReferenceById(cached.id()));
+    }
+
+    /**
+     * Removes the stored file from disk and marks its record as deleted.
+     */
+    public void deleteFile(String fileId) throws IOException {
+        metadataCache.invalidate(fileId);
+        Optional<File> file = fileRepository.findByFileId(fileId);
+        if (file.isEmpty()) {
+            return;
+        }
+        File entity = file.get();
+        Files.deleteIfExists(uploadDir.resolve(entity.getStoredName()).normalize());
+        entity.setStatus(File.FileStatus.DELETED);
+        entity.setUpdatedAt(Instant.now());
+        fileRepository.save(entity);
+    }
 }
@@ -0,0 +1,88 @@
+package net.muttcode.spring.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads gzip-encoded bytes from an uncompressed source, compressing one chunk
+ * at a time as the consumer reads. Lets a download stream compressed output
+ * without buffering the whole file or handing the work to another thread.
+ */
+class GzipEncodingInputStream extends InputStream {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final InputStream source;
+    private final ByteArrayOutputStream encoded = new ByteArrayOutputStream(CHUNK_SIZE);
+    private final GZIPOutputStream gzip;
+    private final Runnable onClose;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+
+    private byte[] pending = new byte[0];
+    private int position;
+    private boolean finished;
+    private boolean closed;
+
+    GzipEncodingInputStream(InputStream source, int level, Runnable onClose) throws IOException {
+        this.source = source;
+        this.onClose = onClose;
+        this.gzip = new GZIPOutputStream(encoded, CHUNK_SIZE) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int n = read(single, 0, 1);
+        return n < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (position >= pending.length) {
+            if (finished) {
+                return -1;
+            }
+            fill();
+        }
+        int n = Math.min(len, pending.length - position);
+        System.arraycopy(pending, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    private void fill() throws IOException {
+        int read = source.read(chunk);
+        if (read < 0) {
+            gzip.finish();
+            finished = true;
+        } else {
+            gzip.write(chunk, 0, read);
+        }
+        pending = encoded.toByteArray();
+        encoded.reset();
+        position = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            source.close();
+            gzip.close();
+        } finally {
+            onClose.run();
+        }
+    }
+}
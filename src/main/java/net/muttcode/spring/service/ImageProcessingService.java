@@ -3,32 +3,39 @@ package net.muttcode.spring.service;
 import net.muttcode.spring.model.File;
 import net.muttcode.spring.model.ProcessedFile;
 import net.muttcode.spring.model.ProcessingJob;
-import net.muttcode.spring.repository.FileRepository;
 import net.muttcode.spring.repository.ProcessedFileRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.time.Instant;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Service
 public class ImageProcessingService {
 
     private static final Logger logger = LoggerFactory.getLogger(ImageProcessingService.class);
 
-    private final UpscaylService upscaylService;
+    private final UpscaylBatcher upscaylBatcher;
     private final FileService fileService;
     private final ProcessingJobService jobService;
     private final JobQueueService jobQueueService;
     private final ProcessedFileRepository processedFileRepository;
-    private final FileRepository fileRepository;
+    private final FairShareScheduler fairShareScheduler;
+    private final JobDeduplicator jobDeduplicator;
+    private final JobStatistics jobStatistics;
+    private final JobEventBus eventBus;
+    private final JobEtaService jobEtaService;
+    private final JobOutboxRelay jobOutboxRelay;
+    private final UpscaylTiler upscaylTiler;
 
     @Value("${upscayl.input.mount:/app/input}")
     private String upscaylInputMount;
@@ -36,77 +43,237 @@ public class ImageProcessingService {
     @Value("${upscayl.output.mount:/app/output}")
     private String upscaylOutputMount;
 
-    public ImageProcessingService(UpscaylService upscaylService, 
+    public ImageProcessingService(UpscaylBatcher upscaylBatcher,
                                   FileService fileService,
                                   ProcessingJobService jobService,
                                   JobQueueService jobQueueService,
                                   ProcessedFileRepository processedFileRepository,
-                                  FileRepository fileRepository) {
-        this.upscaylService = upscaylService;
+                                  FairShareScheduler fairShareScheduler,
+                                  JobDeduplicator jobDeduplicator,
+                                  JobStatistics jobStatistics,
+                                  JobEventBus eventBus,
+                                  JobEtaService jobEtaService,
+                                  JobOutboxRelay jobOutboxRelay,
+                                  UpscaylTiler upscaylTiler) {
+        this.upscaylBatcher = upscaylBatcher;
         this.fileService = fileService;
         this.jobService = jobService;
         this.jobQueueService = jobQueueService;
         this.processedFileRepository = processedFileRepository;
-        this.fileRepository = fileRepository;
+        this.fairShareScheduler = fairShareScheduler;
+        this.jobDeduplicator = jobDeduplicator;
+        this.jobStatistics = jobStatistics;
+        this.eventBus = eventBus;
+        this.jobEtaService = jobEtaService;
+        this.jobOutboxRelay = jobOutboxRelay;
+        this.upscaylTiler = upscaylTiler;
     }
 
     public String submitJob(String inputFileId, Integer scaleFactor, String modelName) throws IOException {
+        return submitJob(inputFileId, scaleFactor, modelName, ProcessingJob.Priority.NORMAL, null);
+    }
+
+    public String submitJob(String inputFileId, Integer scaleFactor, String modelName,
+                            ProcessingJob.Priority priority, String submittedBy) throws IOException {
+        return submitJob(inputFileId, scaleFactor, modelName, priority, submittedBy, null);
+    }
+
+    /**
+     * @param submittedBy the submitting user, or null for an unauthenticated submission;
+     *                    such jobs share the {@link FairShareScheduler#ANONYMOUS} bucket
+     * @param expiresAt if the job is still queued at this time it expires without running; null for no deadline
+     */
+    public String submitJob(String inputFileId, Integer scaleFactor, String modelName,
+                            ProcessingJob.Priority priority, String submittedBy, Instant expiresAt) throws IOException {
         String jobId = UUID.randomUUID().toString();
         
         ProcessingJob job = new ProcessingJob(jobId, inputFileId, scaleFactor, modelName);
-        jobService.saveJob(job);
-        
-        jobQueueService.enqueueJob(inputFileId, scaleFactor, modelName);
-        
-        processJobAsync(jobId);
+        job.setPriority(priority);
+        job.setSubmittedBy(submittedBy);
+        job.setExpiresAt(expiresAt);
+        if (jobDeduplicator.isEnabled()) {
+            job.setInputHash(fileService.getContentHash(inputFileId).orElse(null));
+            if (job.getInputHash() != null && reuseExistingRun(job)) {
+                return jobId;
+            }
+        }
+        job.setInputPixels(inputPixels(inputFileId));
+        // One transaction for the job and its outbox entry; the relay queues it for the worker pool,
+        // so the request thread never waits on Redis or Upscayl
+        jobService.saveAndEnqueue(job);
+        jobOutboxRelay.wake();
         
         return jobId;
     }
 
-    @Async
-    public void processJobAsync(String jobId) {
-        logger.info("Processing job {} asynchronously", jobId);
+    /**
+     * Completes {@code job} from an earlier identical run, or attaches it to one in flight.
+     *
+     * @return false if the job needs its own Upscayl run
+     */
+    private boolean reuseExistingRun(ProcessingJob job) {
+        ProcessingJob completed = jobDeduplicator
+            .findCompleted(job.getInputHash(), job.getModelName(), job.getScaleFactor())
+            .orElse(null);
+        if (completed != null) {
+            job.setDeduplicatedFrom(completed.getJobId());
+            job.setStatus(ProcessingJob.JobStatus.COMPLETED);
+            job.setOutputFileId(completed.getOutputFileId());
+            job.setProgressPercent(100);
+            job.setCompletedAt(Instant.now());
+            job.setProcessingTimeMs(0L);
+            jobService.saveJob(job);
+            logger.info("Job {} reused the output of completed job {}", job.getJobId(), completed.getJobId());
+            return true;
+        }
+
+        String running = jobDeduplicator.claim(job).orElse(null);
+        if (running == null) {
+            return false;
+        }
+        job.setDeduplicatedFrom(running);
+        jobService.saveJob(job);
+        jobDeduplicator.attach(running, job.getJobId());
+        logger.info("Job {} attached to in-flight job {}", job.getJobId(), running);
+        return true;
+    }
+
+    /**
+     * Runs a job to completion on the calling thread; see {@link #processJobAsync}.
+     */
+    public void processJob(String jobId) {
+        try {
+            processJobAsync(jobId).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Starts a job on the calling worker thread and returns once its Upscayl run is under
+     * way. The rest of the job, storing the output and completing or failing it, runs when
+     * the run finishes, on whichever thread reports that; with {@link UpscaylCallbacks} no
+     * thread waits on the GPU in between. Tiled jobs still upscale on the calling thread.
+     * A cancellation requested meanwhile, on any node, reaches it as a CANCELLED event and
+     * stops the Upscayl run.
+     */
+    public CompletableFuture<Void> processJobAsync(String jobId) {
+        logger.info("Processing job {}", jobId);
         
         ProcessingJob job = jobService.getJob(jobId).orElse(null);
         if (job == null) {
             logger.error("Job not found: {}", jobId);
-            return;
+            return CompletableFuture.completedFuture(null);
+        }
+        if (job.getStatus().isTerminal()) {
+            // Redelivered after a crash between finishing and acknowledging, or cancelled while queued
+            logger.info("Job {} already {}, skipping", jobId, job.getStatus());
+            settleDuplicates(job);
+            return CompletableFuture.completedFuture(null);
+        }
+        // Only a job that is still queued expires; a redelivered one already started and runs on
+        if (job.getExpiresAt() != null && Instant.now().isAfter(job.getExpiresAt()) && jobService.expireJob(jobId)) {
+            logger.info("Job {} expired after waiting past its deadline of {}", jobId, job.getExpiresAt());
+            settleDuplicates(job);
+            return CompletableFuture.completedFuture(null);
+        }
+        if (job.attemptsExhausted()) {
+            // Started as often as allowed, each time on a node that died or stalled before it finished
+            jobService.failJob(jobId, "Abandoned after " + job.getAttempts() + " attempts; the node running it stopped responding");
+            logger.warn("Job {} abandoned after {} attempts", jobId, job.getAttempts());
+            settleDuplicates(job);
+            return CompletableFuture.completedFuture(null);
         }
 
+        AtomicBoolean cancelled = new AtomicBoolean();
+        // Subscribed before starting, so a cancel racing with the start is never missed
+        JobRun run = new JobRun(job, cancelled, eventBus.subscribe(List.of(jobId), event -> {
+            if (event.status() == ProcessingJob.JobStatus.CANCELLED && cancelled.compareAndSet(false, true)) {
+                Thread.ofVirtual().name("cancel-" + jobId).start(() -> {
+                    if (!upscaylTiler.cancel(jobId)) {
+                        upscaylBatcher.cancel(jobId);
+                    }
+                });
+            }
+        }));
+        CompletableFuture<UpscaylService.UpscaylResult> upscaled;
         try {
-            jobService.startProcessing(jobId);
+            if (!jobService.startProcessing(jobId)) {
+                logger.info("Job {} was cancelled before it started", jobId);
+                cleanUp(run, null, -1);
+                return CompletableFuture.completedFuture(null);
+            }
             
             Path inputPath = fileService.getFilePath(job.getInputFileId());
             
-            Path upscaylInput = Path.of(upscaylInputMount, job.getInputFileId());
-            Files.createDirectories(upscaylInput.getParent());
-            Files.copy(inputPath, upscaylInput, StandardCopyOption.REPLACE_EXISTING);
+            // Hand the stored file to Upscayl by hard link when the mount shares our filesystem
+            run.upscaylInput = Path.of(upscaylInputMount, inputPath.getFileName().toString());
+            Files.createDirectories(run.upscaylInput.getParent());
+            FileHandoff.Mode inputMode = FileHandoff.linkOrCopy(inputPath, run.upscaylInput);
+            logger.debug("Job {} input handed off to {} ({})", jobId, run.upscaylInput, inputMode);
             
-            long startTime = System.currentTimeMillis();
+            run.startTime = System.currentTimeMillis();
             
-            UpscaylService.UpscaylResult result = upscaylService.processImage(
-                upscaylInput.toString(),
-                job.getScaleFactor(),
-                job.getModelName()
-            );
-            
-            long processingTime = System.currentTimeMillis() - startTime;
+            // Large inputs are split into tiles upscaled side by side; small ones may share
+            // an Upscayl call with other jobs on the same model and scale
+            if (upscaylTiler.shouldTile(run.upscaylInput.toString())) {
+                upscaled = CompletableFuture.completedFuture(upscaylTiler.process(
+                    jobId, run.upscaylInput.toString(), job.getScaleFactor(), job.getModelName()));
+            } else {
+                upscaled = upscaylBatcher.upscale(
+                    jobId,
+                    run.upscaylInput.toString(),
+                    job.getScaleFactor(),
+                    job.getModelName()
+                );
+            }
+        } catch (Exception e) {
+            upscaled = CompletableFuture.failedFuture(e);
+        }
+        return upscaled.handle((result, error) -> {
+            finish(run, result, error);
+            return null;
+        });
+    }
 
-            if (result.isSuccess()) {
+    /**
+     * Stores the output of a finished run and completes the job, or fails it.
+     */
+    private void finish(JobRun run, UpscaylService.UpscaylResult result, Throwable error) {
+        ProcessingJob job = run.job;
+        String jobId = job.getJobId();
+        long processingTime = run.startTime >= 0 ? System.currentTimeMillis() - run.startTime : -1;
+        try {
+            if (error != null) {
+                failed(run, UpscaylHttpClient.unwrap(error));
+            } else if (run.cancelled.get()) {
+                logger.info("Job {} cancelled after {}ms of processing", jobId, processingTime);
+            } else if (result.isSuccess()) {
                 String outputFileName = Path.of(result.getOutputPath()).getFileName().toString();
-                String outputFileId = UUID.randomUUID().toString() + "_" + outputFileName;
-                
-                Path outputPath = fileService.getFilePath(outputFileId);
                 Path upscaylOutput = Path.of(upscaylOutputMount, outputFileName);
                 
                 if (Files.exists(upscaylOutput)) {
-                    Files.copy(upscaylOutput, outputPath, StandardCopyOption.REPLACE_EXISTING);
+                    // Move the result into the upload store and register it as a File
+                    StoredFile output = fileService.storeFile(
+                        upscaylOutput,
+                        stripFileIdPrefix(outputFileName, job.getInputFileId()),
+                        Files.probeContentType(upscaylOutput)
+                    );
                     
-                    // Create ProcessedFile record for the output
-                    createProcessedFileRecord(job, outputFileId, outputFileName, outputPath, processingTime);
-                    
-                    jobService.completeJob(jobId, outputFileId, processingTime);
-                    logger.info("Job {} completed successfully in {}ms", jobId, processingTime);
+                    if (jobService.completeJob(jobId, output.getFileId(), processingTime)) {
+                        // Create ProcessedFile record for the output
+                        createProcessedFileRecord(job, output, processingTime);
+                        jobStatistics.recordProcessingTime(job.getModelName(), job.getScaleFactor(), processingTime);
+                        jobEtaService.recordRun(job.getModelName(), job.getScaleFactor(), job.getInputPixels(), processingTime);
+                        logger.info("Job {} completed successfully in {}ms", jobId, processingTime);
+                    } else {
+                        // Cancelled while the output was being stored
+                        fileService.deleteFile(output.getFileId());
+                        logger.info("Job {} finished after it was cancelled; output discarded", jobId);
+                    }
                 } else {
                     jobService.failJob(jobId, "Output file not found after processing");
                     logger.error("Job {} failed: output file not found", jobId);
@@ -116,32 +283,112 @@ public class ImageProcessingService {
                 logger.error("Job {} failed: {}", jobId, result.getError());
             }
             
-            Files.deleteIfExists(upscaylInput);
-            
         } catch (Exception e) {
+            failed(run, e);
+        } finally {
+            cleanUp(run, result, processingTime);
+        }
+    }
+
+    private void failed(JobRun run, Throwable e) {
+        String jobId = run.job.getJobId();
+        if (run.cancelled.get()) {
+            logger.info("Job {} stopped after cancellation: {}", jobId, e.getMessage());
+        } else {
             logger.error("Job {} failed with exception", jobId, e);
             jobService.failJob(jobId, e.getMessage());
         }
     }
 
+    private void cleanUp(JobRun run, UpscaylService.UpscaylResult result, long processingTime) {
+        ProcessingJob job = run.job;
+        if (run.cancelWatch != null) {
+            run.cancelWatch.close();
+        }
+        if (run.cancelled.get()) {
+            discardUpscaylOutput(run.upscaylInput, job.getScaleFactor(), result);
+        }
+        deleteQuietly(run.upscaylInput);
+        settleDuplicates(job);
+        // Failed runs occupied the GPU too, so they count against the user's share
+        if (processingTime > 0) {
+            fairShareScheduler.recordUsage(submitterOf(job), processingTime);
+        }
+    }
+
+    /**
+     * Cancels a job. A queued job is tombstoned in the queue; a running one is stopped
+     * by the node processing it, which also cleans up its files in the Upscayl mounts.
+     */
+    public CancelResult cancelJob(String jobId) {
+        ProcessingJob job = jobService.getJob(jobId).orElse(null);
+        if (job == null) {
+            return CancelResult.NOT_FOUND;
+        }
+        ProcessingJob.JobStatus from = jobService.cancelJob(jobId).orElse(null);
+        if (from == null) {
+            return CancelResult.ALREADY_FINISHED;
+        }
+        if (from == ProcessingJob.JobStatus.QUEUED) {
+            try {
+                jobQueueService.cancelQueued(jobId);
+            } catch (RuntimeException e) {
+                // The worker that dequeues it finds it cancelled in the database and skips it
+                logger.warn("Failed to tombstone queued job {}: {}", jobId, e.getMessage());
+            }
+            // No worker will settle a job that never runs
+            settleDuplicates(job);
+        }
+        logger.info("Job {} cancelled while {}", jobId, from);
+        return CancelResult.CANCELLED;
+    }
+
+    public enum CancelResult { CANCELLED, NOT_FOUND, ALREADY_FINISHED }
+
+    /**
+     * Expires up to {@code limit} queued jobs whose deadline has passed, without waiting for
+     * a worker to dequeue them: each is tombstoned in the queue and its duplicates settled.
+     *
+     * @return the number of jobs expired
+     */
+    public int expireOverdueJobs(int limit) {
+        int expired = 0;
+        for (ProcessingJob job : jobService.getExpiredQueuedJobs(limit)) {
+            // Started or cancelled since it was read
+            if (!jobService.expireJob(job.getJobId())) {
+                continue;
+            }
+            try {
+                jobQueueService.cancelQueued(job.getJobId());
+            } catch (RuntimeException e) {
+                // The worker that dequeues it finds it expired in the database and skips it
+                logger.warn("Failed to tombstone expired job {}: {}", job.getJobId(), e.getMessage());
+            }
+            settleDuplicates(job);
+            logger.info("Job {} expired in the queue at its deadline of {}", job.getJobId(), job.getExpiresAt());
+            expired++;
+        }
+        return expired;
+    }
+
     /**
      * Creates a ProcessedFile record linking the output file to the original input file.
      */
-    private void createProcessedFileRecord(ProcessingJob job, String outputFileId, String outputFileName, Path outputPath, long processingTimeMs) {
+    private void createProcessedFileRecord(ProcessingJob job, StoredFile output, long processingTimeMs) {
         try {
-            // Look up the original File entity
-            File inputFile = fileRepository.findByFileId(job.getInputFileId())
+            // Reference the original File entity, resolved through the metadata cache
+            File inputFile = fileService.getFileReference(job.getInputFileId())
                 .orElseThrow(() -> new IllegalStateException("Input file not found: " + job.getInputFileId()));
 
             // Get output file metadata
-            long outputFileSize = Files.size(outputPath);
-            String outputContentType = Files.probeContentType(outputPath);
+            long outputFileSize = Files.size(output.getPath());
+            String outputContentType = Files.probeContentType(output.getPath());
 
             // Create ProcessedFile entity
             ProcessedFile processedFile = new ProcessedFile(
                 inputFile,
-                outputFileId,
-                outputFileName,
+                output.getFileId(),
+                output.getStoredName(),
                 ProcessedFile.ProcessingType.UPSCALE
             );
             processedFile.setFileSize(outputFileSize);
@@ -159,7 +406,84 @@ public class ImageProcessingService {
         }
     }
 
+    private void settleDuplicates(ProcessingJob job) {
+        if (job.getInputHash() == null) {
+            return;
+        }
+        try {
+            jobDeduplicator.settle(job.getJobId());
+        } catch (RuntimeException e) {
+            logger.warn("Failed to settle jobs attached to {}", job.getJobId(), e);
+        }
+    }
+
+    private Long inputPixels(String inputFileId) {
+        try {
+            return ImagePixels.count(fileService.getFilePath(inputFileId)).orElse(null);
+        } catch (IOException | RuntimeException e) {
+            // ImageIO throws unchecked exceptions on some malformed headers; the job just gets no size-based ETA
+            logger.debug("Could not read dimensions of {}: {}", inputFileId, e.getMessage());
+            return null;
+        }
+    }
+
+    private static String submitterOf(ProcessingJob job) {
+        return job.getSubmittedBy() != null ? job.getSubmittedBy() : FairShareScheduler.ANONYMOUS;
+    }
+
+    private static String stripFileIdPrefix(String fileName, String fileId) {
+        String prefix = fileId + "_";
+        return fileName.startsWith(prefix) ? fileName.substring(prefix.length()) : fileName;
+    }
+
+    /**
+     * Removes whatever a stopped run left in the mounts; the backend writes its output next to the input.
+     */
+    private void discardUpscaylOutput(Path upscaylInput, Integer scaleFactor, UpscaylService.UpscaylResult result) {
+        if (upscaylInput == null) {
+            return;
+        }
+        String outputFileName;
+        if (result != null && result.getOutputPath() != null) {
+            outputFileName = Path.of(result.getOutputPath()).getFileName().toString();
+        } else if (upscaylInput.getFileName().toString().contains(".")) {
+            outputFileName = UpscaylService.getOutputFileName(upscaylInput.getFileName().toString(), scaleFactor);
+        } else {
+            return;
+        }
+        deleteQuietly(Path.of(upscaylOutputMount, outputFileName));
+        deleteQuietly(upscaylInput.resolveSibling(outputFileName));
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Failed to clean up {}", path, e);
+        }
+    }
+
     public ProcessingJob getJobStatus(String jobId) {
         return jobService.getJob(jobId).orElse(null);
     }
+
+    /**
+     * A job between starting its Upscayl run and finishing.
+     */
+    private static final class JobRun {
+        private final ProcessingJob job;
+        private final AtomicBoolean cancelled;
+        private final JobEventBus.Subscription cancelWatch;
+        private Path upscaylInput;
+        private long startTime = -1;
+
+        private JobRun(ProcessingJob job, AtomicBoolean cancelled, JobEventBus.Subscription cancelWatch) {
+            this.job = job;
+            this.cancelled = cancelled;
+            this.cancelWatch = cancelWatch;
+        }
+    }
 }
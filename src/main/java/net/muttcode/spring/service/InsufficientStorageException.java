@@ -0,0 +1,17 @@
+package net.muttcode.spring.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.io.IOException;
+
+/**
+ * Thrown when free disk space is critically low and new uploads or jobs are paused.
+ */
+@ResponseStatus(HttpStatus.INSUFFICIENT_STORAGE)
+public class InsufficientStorageException extends IOException {
+
+    public InsufficientStorageException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,163 @@
+package net.muttcode.spring.service;
+
+import net.muttcode.spring.model.ProcessingJob;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides whether a new job is admitted, based on how long it would wait in the queue.
+ * The wait is estimated as queue depth times the mean Upscayl time of the last hour's
+ * runs (weighted by how many ran per model and scale), divided by the number of jobs
+ * running across the cluster. Above {@code max-wait-seconds} a job is rejected with
+ * the time the excess backlog should take to drain, unless the client sets a deadline:
+ * such a job is accepted and expires unprocessed if it is still queued at that time.
+ * A deadline the estimated wait already exceeds is rejected the same way, since the job
+ * would only sit in the queue until it expired.
+ * <p>
+ * The estimate is reused for {@code estimate-cache-ms}, so a burst of submissions does
+ * not scan every lane and merge the latency histograms once per request.
+ */
+@Service
+public class JobAdmissionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobAdmissionService.class);
+
+    private final JobQueueService jobQueueService;
+    private final JobStatistics jobStatistics;
+    private final boolean enabled;
+    private final Duration maxWait;
+    private final Duration maxDeadline;
+    private final long cacheNanos;
+    private final LongSupplier clock;
+
+    private volatile Estimate cached;
+
+    @Autowired
+    public JobAdmissionService(
+            JobQueueService jobQueueService,
+            JobStatistics jobStatistics,
+            @Value("${jobs.admission.enabled:true}") boolean enabled,
+            @Value("${jobs.admission.max-wait-seconds:1800}") long maxWaitSeconds,
+            @Value("${jobs.admission.max-deadline-seconds:86400}") long maxDeadlineSeconds,
+            @Value("${jobs.admission.estimate-cache-ms:2000}") long cacheMs) {
+        this(jobQueueService, jobStatistics, enabled, maxWaitSeconds, maxDeadlineSeconds, cacheMs, System::nanoTime);
+    }
+
+    JobAdmissionService(JobQueueService jobQueueService, JobStatistics jobStatistics, boolean enabled,
+                        long maxWaitSeconds, long maxDeadlineSeconds, long cacheMs, LongSupplier clock) {
+        this.jobQueueService = jobQueueService;
+        this.jobStatistics = jobStatistics;
+        this.enabled = enabled;
+        this.maxWait = Duration.ofSeconds(maxWaitSeconds);
+        this.maxDeadline = Duration.ofSeconds(maxDeadlineSeconds);
+        this.cacheNanos = Duration.ofMillis(cacheMs).toNanos();
+        this.clock = clock;
+    }
+
+    public Duration getMaxDeadline() {
+        return maxDeadline;
+    }
+
+    /**
+     * @param deadline how long the client is prepared to wait for the job to start, or null
+     */
+    public Decision admit(Duration deadline) {
+        if (!enabled) {
+            return Decision.admitted(Duration.ZERO, expiry(deadline));
+        }
+        Duration wait = estimateWait();
+        Duration limit = deadline != null ? deadline : maxWait;
+        if (deadline != null ? wait.compareTo(deadline) < 0 : wait.compareTo(maxWait) <= 0) {
+            return Decision.admitted(wait, expiry(deadline));
+        }
+        // Retry once the backlog above the limit should have drained, rounded up to whole seconds
+        long retryAfterSeconds = Math.max(1, (wait.minus(limit).toMillis() + 999) / 1000);
+        return Decision.rejected(wait, Duration.ofSeconds(retryAfterSeconds));
+    }
+
+    /**
+     * How long a job submitted now is expected to wait before it starts.
+     */
+    public Duration estimateWait() {
+        Estimate estimate = currentEstimate();
+        return waitFor(estimate.depth(), estimate);
+    }
+
+    /**
+     * How long a queued job is expected to wait with {@code jobsAhead} jobs dispatched before it.
+     */
+    public Duration estimateWait(long jobsAhead) {
+        return waitFor(jobsAhead, currentEstimate());
+    }
+
+    private static Duration waitFor(long jobs, Estimate estimate) {
+        return Duration.ofMillis(Math.round(jobs * estimate.msPerDispatch()));
+    }
+
+    private Estimate currentEstimate() {
+        Estimate estimate = cached;
+        long now = clock.getAsLong();
+        if (estimate == null || now - estimate.computedAt() >= cacheNanos) {
+            estimate = computeEstimate(now);
+            cached = estimate;
+        }
+        return estimate;
+    }
+
+    private Estimate computeEstimate(long now) {
+        try {
+            long depth = jobQueueService.getLaneStats().values().stream()
+                .mapToLong(JobQueueService.LaneStats::depth)
+                .sum();
+            if (depth == 0) {
+                return new Estimate(0, 0, now);
+            }
+
+            long runs = 0;
+            double totalMs = 0;
+            for (JobStatistics.LatencyStats latency : jobStatistics.getWindow(JobStatistics.Window.HOUR).latency()) {
+                runs += latency.count();
+                totalMs += latency.count() * latency.meanMs();
+            }
+            JobStatistics.Totals totals = jobStatistics.getTotals();
+            // Nothing ran in the last hour; fall back to the all-time average
+            double meanMs = runs > 0 ? totalMs / runs : totals.averageProcessingTimeMs();
+            // Nothing running means nothing is draining the queue; count it as one slot
+            long running = Math.max(1, totals.count(ProcessingJob.JobStatus.PROCESSING));
+            return new Estimate(depth, meanMs / running, now);
+        } catch (RuntimeException e) {
+            // Without Redis the job cannot be queued anyway; let submission report that
+            logger.warn("Failed to estimate queue wait: {}", e.getMessage());
+            return new Estimate(0, 0, now);
+        }
+    }
+
+    private static Instant expiry(Duration deadline) {
+        return deadline != null ? Instant.now().plus(deadline) : null;
+    }
+
+    // Time between two dispatches from the queue, cluster-wide
+    private record Estimate(long depth, double msPerDispatch, long computedAt) {}
+
+    /**
+     * @param retryAfter set when rejected
+     * @param expiresAt  set when admitted with a deadline
+     */
+    public record Decision(boolean admitted, Duration estimatedWait, Duration retryAfter, Instant expiresAt) {
+
+        static Decision admitted(Duration estimatedWait, Instant expiresAt) {
+            return new Decision(true, estimatedWait, null, expiresAt);
+        }
+
+        static Decision rejected(Duration estimatedWait, Duration retryAfter) {
+            return new Decision(false, estimatedWait, retryAfter, null);
+        }
+    }
+}
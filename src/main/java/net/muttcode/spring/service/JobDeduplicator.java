@@ -0,0 +1,180 @@
+package net.muttcode.spring.service;
+
+import net.muttcode.spring.model.ProcessingJob;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Reuses Upscayl runs for identical requests, keyed on (input content hash, model, scale).
+ * A request matching a completed job takes its output. A request matching a job still
+ * in flight attaches to it as a follower: {@code job:dedup:<key>} names the one job
+ * running that input, {@code job:dedup:followers:<jobId>} collects the jobs waiting on
+ * it, and all of them are settled with its outcome when it finishes. When a job is
+ * cancelled or expires unprocessed, one of its followers takes over the run and the
+ * rest follow that one instead.
+ */
+@Service
+public class JobDeduplicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobDeduplicator.class);
+
+    private static final String IN_FLIGHT_PREFIX = "job:dedup:";
+    private static final String FOLLOWERS_PREFIX = "job:dedup:followers:";
+    private static final long POP_BATCH = 100;
+
+    private final StringRedisTemplate redisTemplate;
+    private final ProcessingJobService jobService;
+    private final FileService fileService;
+    private final JobQueueService jobQueueService;
+    private final boolean enabled;
+    private final Duration inFlightTtl;
+
+    @Autowired
+    public JobDeduplicator(
+            RedisConnectionFactory connectionFactory,
+            ProcessingJobService jobService,
+            FileService fileService,
+            JobQueueService jobQueueService,
+            @Value("${jobs.dedup.enabled:true}") boolean enabled,
+            @Value("${jobs.dedup.in-flight-ttl-minutes:120}") long inFlightTtlMinutes) {
+        this(new StringRedisTemplate(connectionFactory), jobService, fileService, jobQueueService,
+            enabled, inFlightTtlMinutes);
+    }
+
+    JobDeduplicator(StringRedisTemplate redisTemplate, ProcessingJobService jobService, FileService fileService,
+                    JobQueueService jobQueueService, boolean enabled, long inFlightTtlMinutes) {
+        this.redisTemplate = redisTemplate;
+        this.jobService = jobService;
+        this.fileService = fileService;
+        this.jobQueueService = jobQueueService;
+        this.enabled = enabled;
+        this.inFlightTtl = Duration.ofMinutes(inFlightTtlMinutes);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * The newest completed job for the same input, model and scale whose output is still stored.
+     */
+    public Optional<ProcessingJob> findCompleted(String inputHash, String modelName, Integer scaleFactor) {
+        for (ProcessingJob job : jobService.findCompletedDuplicates(inputHash, modelName, scaleFactor)) {
+            // Retention may have evicted the output since
+            if (job.getOutputFileId() != null && fileService.findMetadata(job.getOutputFileId()).isPresent()) {
+                return Optional.of(job);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Makes {@code job} the run for its input unless another job already is.
+     *
+     * @return the id of the job already running this input, or empty if {@code job} should run
+     */
+    public Optional<String> claim(ProcessingJob job) {
+        String key = inFlightKey(job);
+        Boolean claimed = redisTemplate.opsForValue().setIfAbsent(key, job.getJobId(), inFlightTtl);
+        if (Boolean.TRUE.equals(claimed)) {
+            return Optional.empty();
+        }
+        // Empty if the run finished between the two calls; the job then runs on its own
+        return Optional.ofNullable(redisTemplate.opsForValue().get(key))
+            .filter(owner -> !owner.equals(job.getJobId()));
+    }
+
+    /**
+     * Registers {@code followerJobId} to be settled with the outcome of {@code primaryJobId}.
+     */
+    public void attach(String primaryJobId, String followerJobId) {
+        String followers = followersKey(primaryJobId);
+        redisTemplate.opsForSet().add(followers, followerJobId);
+        redisTemplate.expire(followers, inFlightTtl);
+
+        // The primary may have finished before the follower was added
+        jobService.getJob(primaryJobId)
+            .filter(JobDeduplicator::isFinished)
+            .ifPresent(primary -> settle(primaryJobId));
+    }
+
+    /**
+     * Releases the in-flight claim of a finished job and gives its followers the same outcome.
+     */
+    public void settle(String primaryJobId) {
+        Optional<ProcessingJob> found = jobService.getJob(primaryJobId).filter(JobDeduplicator::isFinished);
+        if (found.isEmpty()) {
+            return;
+        }
+        ProcessingJob primary = found.get();
+        if (primary.getInputHash() != null) {
+            String key = inFlightKey(primary);
+            if (primaryJobId.equals(redisTemplate.opsForValue().get(key))) {
+                redisTemplate.delete(key);
+            }
+        }
+
+        // SPOP rather than SMEMBERS+DEL so a follower attaching concurrently is never dropped
+        String followersKey = followersKey(primaryJobId);
+        List<String> followers;
+        while (!(followers = popFollowers(followersKey)).isEmpty()) {
+            for (String follower : followers) {
+                if (primary.getStatus() == ProcessingJob.JobStatus.COMPLETED) {
+                    jobService.completeJob(follower, primary.getOutputFileId(), 0L);
+                } else if (primary.getStatus() == ProcessingJob.JobStatus.CANCELLED
+                        || primary.getStatus() == ProcessingJob.JobStatus.EXPIRED) {
+                    requeue(follower);
+                } else {
+                    jobService.failJob(follower, primary.getErrorMessage());
+                }
+            }
+            logger.info("Settled {} duplicate jobs with the outcome of {}", followers.size(), primaryJobId);
+        }
+    }
+
+    /**
+     * Runs a follower of an abandoned job: the first to claim the input is queued, and any
+     * later one attaches to whichever job now holds the claim.
+     */
+    private void requeue(String followerJobId) {
+        Optional<ProcessingJob> found = jobService.getJob(followerJobId)
+            .filter(follower -> follower.getStatus() == ProcessingJob.JobStatus.QUEUED);
+        if (found.isEmpty()) {
+            return;
+        }
+        ProcessingJob follower = found.get();
+        Optional<String> owner = claim(follower);
+        if (owner.isPresent()) {
+            attach(owner.get(), followerJobId);
+            return;
+        }
+        jobQueueService.enqueueJob(followerJobId, follower.getPriority(),
+            follower.getSubmittedBy() != null ? follower.getSubmittedBy() : FairShareScheduler.ANONYMOUS);
+    }
+
+    private List<String> popFollowers(String key) {
+        List<String> popped = redisTemplate.opsForSet().pop(key, POP_BATCH);
+        return popped != null ? popped : List.of();
+    }
+
+    private static boolean isFinished(ProcessingJob job) {
+        return job.getStatus().isTerminal();
+    }
+
+    static String inFlightKey(ProcessingJob job) {
+        return IN_FLIGHT_PREFIX + job.getInputHash() + ":" + job.getModelName() + ":" + job.getScaleFactor();
+    }
+
+    static String followersKey(String primaryJobId) {
+        return FOLLOWERS_PREFIX + primaryJobId;
+    }
+}
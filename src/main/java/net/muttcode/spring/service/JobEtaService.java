@@ -0,0 +1,234 @@
+package net.muttcode.spring.service;
+
+import net.muttcode.spring.model.ProcessingJob;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Predicts when jobs start and finish.
+ * <p>
+ * Processing time is fitted online, per model and scale, as a linear function of the
+ * input pixel count. Every completed run adds to least-squares sums kept in hourly Redis
+ * hashes ({@code job:eta:<hour>:<model>:<scale>}), so all nodes share one model and it
+ * follows the last day's hardware and load rather than all history. Each node reads the
+ * sums back at most every {@code refresh-ms}.
+ * <p>
+ * A queued job starts once the jobs ahead of it are dispatched, at the rate estimated
+ * by {@link JobAdmissionService}; a running job started when it was dispatched.
+ */
+@Service
+public class JobEtaService {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobEtaService.class);
+
+    private static final String PREFIX = "job:eta:";
+    private static final long BUCKET_MS = Duration.ofHours(1).toMillis();
+    private static final int BUCKETS = 24;
+    private static final Duration RETENTION = Duration.ofHours(BUCKETS + 2);
+    // Pixel counts are fitted in megapixels, keeping the squared sums well inside double precision
+    private static final double PIXELS_PER_UNIT = 1_000_000.0;
+
+    private final StringRedisTemplate redisTemplate;
+    private final JobQueueService jobQueueService;
+    private final JobAdmissionService jobAdmissionService;
+    private final long refreshMs;
+    private final Map<ModelKey, CachedFit> fits = new ConcurrentHashMap<>();
+
+    public JobEtaService(RedisConnectionFactory connectionFactory,
+                         JobQueueService jobQueueService,
+                         JobAdmissionService jobAdmissionService,
+                         @Value("${jobs.eta.refresh-ms:60000}") long refreshMs) {
+        this.redisTemplate = new StringRedisTemplate(connectionFactory);
+        this.jobQueueService = jobQueueService;
+        this.jobAdmissionService = jobAdmissionService;
+        this.refreshMs = refreshMs;
+    }
+
+    /**
+     * Adds a completed run to the model for its model name and scale.
+     *
+     * @param inputPixels null if the input format could not be read; the run then only informs the mean
+     */
+    public void recordRun(String modelName, Integer scaleFactor, Long inputPixels, long processingTimeMs) {
+        double x = inputPixels != null ? inputPixels / PIXELS_PER_UNIT : 0;
+        double y = processingTimeMs;
+        String key = bucketKey(System.currentTimeMillis() / BUCKET_MS, new ModelKey(modelName, scaleFactor));
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                byte[] raw = key.getBytes(StandardCharsets.UTF_8);
+                connection.hashCommands().hIncrBy(raw, field("n"), 1.0);
+                connection.hashCommands().hIncrBy(raw, field("y"), y);
+                if (inputPixels != null) {
+                    connection.hashCommands().hIncrBy(raw, field("sized"), 1.0);
+                    connection.hashCommands().hIncrBy(raw, field("sx"), x);
+                    connection.hashCommands().hIncrBy(raw, field("sy"), y);
+                    connection.hashCommands().hIncrBy(raw, field("sxx"), x * x);
+                    connection.hashCommands().hIncrBy(raw, field("sxy"), x * y);
+                }
+                connection.keyCommands().expire(raw, RETENTION.toSeconds());
+                return null;
+            });
+        } catch (RuntimeException e) {
+            logger.warn("Failed to record run for ETA model: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Expected Upscayl time of a job, or empty while nothing comparable has run in the last day.
+     */
+    public Optional<Duration> predictProcessingTime(String modelName, Integer scaleFactor, Long inputPixels) {
+        Fit fit = fitFor(new ModelKey(modelName, scaleFactor));
+        Double predicted = inputPixels != null ? fit.predict(inputPixels / PIXELS_PER_UNIT) : fit.mean();
+        return Optional.ofNullable(predicted).map(ms -> Duration.ofMillis(Math.round(ms)));
+    }
+
+    /**
+     * Start and completion estimates for a job that has not finished, or empty for a finished job.
+     */
+    public Optional<Eta> estimate(ProcessingJob job) {
+        Instant now = Instant.now();
+        Instant start;
+        try {
+            switch (job.getStatus()) {
+                case PROCESSING -> start = job.getStartedAt() != null ? job.getStartedAt() : now;
+                case QUEUED -> {
+                    String user = job.getSubmittedBy() != null ? job.getSubmittedBy() : FairShareScheduler.ANONYMOUS;
+                    OptionalLong ahead = jobQueueService.jobsAhead(job.getJobId(), job.getPriority(), user);
+                    // Not in a queue: waiting on an identical job, or just dispatched
+                    if (ahead.isEmpty()) {
+                        return Optional.empty();
+                    }
+                    start = now.plus(jobAdmissionService.estimateWait(ahead.getAsLong()));
+                }
+                default -> {
+                    return Optional.empty();
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Failed to estimate start of job {}: {}", job.getJobId(), e.getMessage());
+            return Optional.empty();
+        }
+        Instant completion = predictProcessingTime(job.getModelName(), job.getScaleFactor(), job.getInputPixels())
+            .map(start::plus)
+            // Running longer than predicted; all that is known is that it has not finished yet
+            .map(predicted -> predicted.isBefore(now) ? now : predicted)
+            .orElse(null);
+        return Optional.of(new Eta(start, completion));
+    }
+
+    private Fit fitFor(ModelKey model) {
+        long now = System.currentTimeMillis();
+        CachedFit cached = fits.get(model);
+        if (cached != null && now - cached.loadedAt() < refreshMs) {
+            return cached.fit();
+        }
+        Fit fit;
+        try {
+            fit = loadFit(model, now);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to load ETA model for {}: {}", model, e.getMessage());
+            fit = cached != null ? cached.fit() : Fit.EMPTY;
+        }
+        fits.put(model, new CachedFit(fit, now));
+        return fit;
+    }
+
+    private Fit loadFit(ModelKey model, long now) {
+        long current = now / BUCKET_MS;
+        List<String> keys = new ArrayList<>();
+        for (long bucket = current - BUCKETS + 1; bucket <= current; bucket++) {
+            keys.add(bucketKey(bucket, model));
+        }
+        // One round trip for the whole day
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.hashCommands().hGetAll(key.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        Fit fit = Fit.EMPTY;
+        for (Object result : results) {
+            Map<?, ?> sums = (Map<?, ?>) result;
+            fit = fit.plus(new Fit(
+                sum(sums, "n"), sum(sums, "y"),
+                sum(sums, "sized"), sum(sums, "sx"), sum(sums, "sy"), sum(sums, "sxx"), sum(sums, "sxy")));
+        }
+        return fit;
+    }
+
+    private static double sum(Map<?, ?> sums, String field) {
+        Object value = sums.get(field);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Double.parseDouble(value.toString());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static byte[] field(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static String bucketKey(long bucket, ModelKey model) {
+        return PREFIX + bucket + ":" + model.modelName() + ":" + model.scaleFactor();
+    }
+
+    public record Eta(Instant estimatedStartAt, Instant estimatedCompletionAt) {}
+
+    record ModelKey(String modelName, Integer scaleFactor) {}
+
+    private record CachedFit(Fit fit, long loadedAt) {}
+
+    /**
+     * Least-squares sums. {@code n} and {@code y} cover every run; the rest only runs with a known pixel count.
+     */
+    record Fit(double n, double y, double sized, double sx, double sy, double sxx, double sxy) {
+
+        static final Fit EMPTY = new Fit(0, 0, 0, 0, 0, 0, 0);
+
+        Fit plus(Fit other) {
+            return new Fit(n + other.n, y + other.y, sized + other.sized,
+                sx + other.sx, sy + other.sy, sxx + other.sxx, sxy + other.sxy);
+        }
+
+        Double mean() {
+            return n > 0 ? y / n : null;
+        }
+
+        Double predict(double x) {
+            if (sized >= 2) {
+                double variance = sized * sxx - sx * sx;
+                if (variance > 1e-9 * sized * sxx) {
+                    double slope = (sized * sxy - sx * sy) / variance;
+                    // A negative slope is noise over too narrow a range of sizes
+                    if (slope > 0) {
+                        return Math.max(0, (sy - slope * sx) / sized + slope * x);
+                    }
+                }
+            }
+            if (sized > 0 && sx > 0) {
+                // Every input had about the same size: scale the observed time per pixel
+                return sy / sx * x;
+            }
+            return mean();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package net.muttcode.spring.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import net.muttcode.spring.model.ProcessingJob;
+
+import java.time.Instant;
+
+/**
+ * A status or progress transition of a job, as pushed to event stream subscribers.
+ */
+public record JobEvent(
+        String jobId,
+        ProcessingJob.JobStatus status,
+        Integer progressPercent,
+        String outputFileId,
+        String errorMessage,
+        Instant timestamp) {
+
+    public static JobEvent of(ProcessingJob job) {
+        return new JobEvent(
+            job.getJobId(), job.getStatus(), job.getProgressPercent(), job.getOutputFileId(), job.getErrorMessage(),
+            Instant.now());
+    }
+
+    /**
+     * True once the job will send no further events.
+     */
+    @JsonIgnore
+    public boolean isTerminal() {
+        return status != null && status.isTerminal();
+    }
+}
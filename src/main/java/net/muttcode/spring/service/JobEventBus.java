@@ -0,0 +1,132 @@
+package net.muttcode.spring.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Delivers job events to subscribers on any node.
+ * Events are handed to local subscribers directly and published on the Redis channel
+ * {@code job:events}; each node relays messages from other nodes to its own subscribers,
+ * so a stream sees transitions whichever node runs the job.
+ */
+@Service
+public class JobEventBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobEventBus.class);
+
+    static final String CHANNEL = "job:events";
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final ObjectMapper objectMapper;
+    private final String instanceId = UUID.randomUUID().toString();
+    private final Map<String, Set<Consumer<JobEvent>>> subscribers = new ConcurrentHashMap<>();
+
+    public JobEventBus(RedisConnectionFactory connectionFactory, ObjectMapper objectMapper) {
+        this.redisTemplate = new StringRedisTemplate(connectionFactory);
+        this.objectMapper = objectMapper;
+        this.listenerContainer = new RedisMessageListenerContainer();
+        this.listenerContainer.setConnectionFactory(connectionFactory);
+    }
+
+    @PostConstruct
+    public void start() {
+        listenerContainer.addMessageListener(this::onMessage, new ChannelTopic(CHANNEL));
+        listenerContainer.afterPropertiesSet();
+        listenerContainer.start();
+    }
+
+    @PreDestroy
+    public void stop() throws Exception {
+        listenerContainer.destroy();
+    }
+
+    /**
+     * Calls {@code listener} with every event for {@code jobIds} until the subscription is closed.
+     * The listener runs on the publishing thread and must hand the event off rather than block.
+     */
+    public Subscription subscribe(Collection<String> jobIds, Consumer<JobEvent> listener) {
+        List<String> ids = List.copyOf(jobIds);
+        for (String jobId : ids) {
+            subscribers.computeIfAbsent(jobId, id -> ConcurrentHashMap.newKeySet()).add(listener);
+        }
+        return () -> {
+            for (String jobId : ids) {
+                subscribers.computeIfPresent(jobId, (id, listeners) -> {
+                    listeners.remove(listener);
+                    return listeners.isEmpty() ? null : listeners;
+                });
+            }
+        };
+    }
+
+    public void publish(JobEvent event) {
+        dispatch(event);
+        try {
+            String payload = objectMapper.writeValueAsString(new Envelope(instanceId, event));
+            redisTemplate.convertAndSend(CHANNEL, payload);
+        } catch (JsonProcessingException | RuntimeException e) {
+            // Local subscribers already have it; streams on other nodes catch up from their next event
+            logger.warn("Failed to publish event for job {}: {}", event.jobId(), e.getMessage());
+        }
+    }
+
+    int subscriberCount(String jobId) {
+        Set<Consumer<JobEvent>> listeners = subscribers.get(jobId);
+        return listeners != null ? listeners.size() : 0;
+    }
+
+    void onMessage(Message message, byte[] pattern) {
+        Envelope envelope;
+        try {
+            envelope = objectMapper.readValue(new String(message.getBody(), StandardCharsets.UTF_8), Envelope.class);
+        } catch (IOException e) {
+            logger.warn("Ignoring malformed job event: {}", e.getMessage());
+            return;
+        }
+        if (!instanceId.equals(envelope.origin())) {
+            dispatch(envelope.event());
+        }
+    }
+
+    private void dispatch(JobEvent event) {
+        Set<Consumer<JobEvent>> listeners = subscribers.get(event.jobId());
+        if (listeners == null) {
+            return;
+        }
+        for (Consumer<JobEvent> listener : listeners) {
+            try {
+                listener.accept(event);
+            } catch (RuntimeException e) {
+                logger.warn("Job event subscriber failed for {}", event.jobId(), e);
+            }
+        }
+    }
+
+    public interface Subscription extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    record Envelope(String origin, JobEvent event) {}
+}
@@ -0,0 +1,209 @@
+package net.muttcode.spring.service;
+
+import jakarta.annotation.PreDestroy;
+import net.muttcode.spring.model.ProcessingJob;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Server-Sent Event streams of job transitions.
+ * A stream starts with the current state of each job (one lookup per job) and then
+ * pushes events from the {@link JobEventBus} as they happen, so clients no longer
+ * poll the database. It ends once every job has completed or failed.
+ * <p>
+ * Each stream writes to its client from its own bounded queue, so a slow client never
+ * holds up the thread publishing the event. A stream whose queue fills is ended; the
+ * client reconnects and starts again from the current state.
+ */
+@Service
+public class JobEventStreams {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobEventStreams.class);
+
+    static final String EVENT_NAME = "job";
+
+    private final JobEventBus eventBus;
+    private final ProcessingJobService jobService;
+    private final long timeoutMs;
+    private final long heartbeatSeconds;
+    private final int bufferSize;
+    // Drains each stream's queue; at most one task per stream at a time
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().daemon(true).name("job-events-heartbeat").factory());
+
+    public JobEventStreams(
+            JobEventBus eventBus,
+            ProcessingJobService jobService,
+            @Value("${jobs.events.timeout-minutes:30}") long timeoutMinutes,
+            @Value("${jobs.events.heartbeat-seconds:15}") long heartbeatSeconds,
+            @Value("${jobs.events.buffer-size:256}") int bufferSize) {
+        this.eventBus = eventBus;
+        this.jobService = jobService;
+        this.timeoutMs = TimeUnit.MINUTES.toMillis(timeoutMinutes);
+        this.heartbeatSeconds = heartbeatSeconds;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Opens a stream for {@code jobIds}. Unknown ids are ignored.
+     */
+    public SseEmitter open(List<String> jobIds) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Stream stream = new Stream(emitter);
+        Set<String> pending = ConcurrentHashMap.newKeySet();
+        pending.addAll(jobIds);
+
+        // Subscribe before reading current state so no transition falls in between
+        JobEventBus.Subscription subscription = eventBus.subscribe(jobIds, event -> {
+            stream.send(event);
+            finishIfDone(stream, pending, event);
+        });
+        ScheduledFuture<?> heartbeat = heartbeats.scheduleAtFixedRate(
+            stream::heartbeat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        Runnable cleanup = () -> {
+            stream.close();
+            subscription.close();
+            heartbeat.cancel(false);
+        };
+        emitter.onCompletion(cleanup);
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(e -> cleanup.run());
+
+        for (String jobId : jobIds) {
+            Optional<ProcessingJob> job = jobService.getJob(jobId);
+            if (job.isEmpty()) {
+                pending.remove(jobId);
+                continue;
+            }
+            JobEvent current = JobEvent.of(job.get());
+            stream.send(current);
+            finishIfDone(stream, pending, current);
+        }
+        if (pending.isEmpty()) {
+            stream.complete();
+        }
+        return emitter;
+    }
+
+    private void finishIfDone(Stream stream, Set<String> pending, JobEvent event) {
+        if (event.isTerminal() && pending.remove(event.jobId()) && pending.isEmpty()) {
+            stream.complete();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeats.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    /**
+     * One client's emitter and the events waiting to be written to it.
+     */
+    private final class Stream {
+
+        private final SseEmitter emitter;
+        private final BlockingQueue<SseEmitter.SseEventBuilder> queue = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private volatile boolean completing;
+        private volatile boolean overflowed;
+        private volatile boolean closed;
+
+        Stream(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        void send(JobEvent event) {
+            enqueue(SseEmitter.event().name(EVENT_NAME).data(event, MediaType.APPLICATION_JSON));
+        }
+
+        void heartbeat() {
+            // Keeps proxies from closing an idle stream
+            enqueue(SseEmitter.event().comment("keepalive"));
+        }
+
+        /**
+         * Ends the stream once everything queued so far has been written.
+         */
+        void complete() {
+            completing = true;
+            schedule();
+        }
+
+        private void enqueue(SseEmitter.SseEventBuilder event) {
+            if (!queue.offer(event)) {
+                overflowed = true;
+            }
+            schedule();
+        }
+
+        void close() {
+            closed = true;
+            queue.clear();
+        }
+
+        private void schedule() {
+            if (!closed && draining.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this::drain);
+                } catch (RuntimeException e) {
+                    // Shutting down
+                    draining.set(false);
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                if (overflowed) {
+                    queue.clear();
+                    logger.debug("Ending job event stream whose client fell {} events behind", bufferSize);
+                    close();
+                    emitter.completeWithError(new IllegalStateException("Client is not keeping up with job events"));
+                    return;
+                }
+                // Read first: whatever was queued before completion was requested is written below
+                boolean done = completing;
+                SseEmitter.SseEventBuilder event;
+                while ((event = queue.poll()) != null) {
+                    emitter.send(event);
+                }
+                if (done) {
+                    close();
+                    emitter.complete();
+                    return;
+                }
+            } catch (IOException | IllegalStateException e) {
+                // Client went away or the stream already ended
+                logger.debug("Dropping job events: {}", e.getMessage());
+                close();
+                emitter.completeWithError(e);
+                return;
+            } finally {
+                draining.set(false);
+            }
+            if (!queue.isEmpty() || completing || overflowed) {
+                schedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package net.muttcode.spring.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Time-bounded leases on dispatched jobs ({@code job:lease:<job>}, holding the worker's
+ * processing list). The worker running a job renews its lease with every heartbeat; a
+ * job whose lease lapses is taken to belong to a dead node and is reclaimed by
+ * {@link StalledJobReaper}.
+ */
+@Service
+public class JobLeases {
+
+    private static final String PREFIX = "job:lease:";
+
+    // Takes a lapsed lease back only while nobody else holds it and the job is still on the worker's list
+    private static final RedisScript<Long> REACQUIRE_SCRIPT = new DefaultRedisScript<>("""
+        local holder = redis.call('GET', KEYS[1])
+        if holder == ARGV[1] then
+            redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            return 1
+        end
+        if holder or not redis.call('LPOS', KEYS[2], ARGV[3]) then
+            return 0
+        end
+        redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2])
+        return 1
+        """, Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final Duration ttl;
+
+    public JobLeases(RedisConnectionFactory connectionFactory,
+                     @Value("${jobs.lease.ttl-ms:30000}") long ttlMs) {
+        this.redisTemplate = new StringRedisTemplate(connectionFactory);
+        this.ttl = Duration.ofMillis(ttlMs);
+    }
+
+    public void acquire(String jobId, String processingList) {
+        redisTemplate.opsForValue().set(leaseKey(jobId), processingList, ttl);
+    }
+
+    /**
+     * Extends the leases of running jobs in one round trip.
+     *
+     * @return the jobs whose lease had already lapsed
+     */
+    public Set<String> renew(List<String> jobIds) {
+        if (jobIds.isEmpty()) {
+            return Set.of();
+        }
+        List<Object> renewed = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String jobId : jobIds) {
+                connection.keyCommands().pExpire(raw(leaseKey(jobId)), ttl.toMillis());
+            }
+            return null;
+        });
+        return missing(jobIds, renewed);
+    }
+
+    /**
+     * Takes back a lease that lapsed, e.g. while Redis was out of reach.
+     *
+     * @return false if the job was reclaimed meanwhile: it is off {@code processingList} or leased by another worker
+     */
+    public boolean reacquire(String jobId, String processingList) {
+        Long acquired = redisTemplate.execute(REACQUIRE_SCRIPT, List.of(leaseKey(jobId), processingList),
+            processingList, Long.toString(ttl.toMillis()), jobId);
+        return acquired != null && acquired == 1;
+    }
+
+    public void release(String jobId) {
+        redisTemplate.delete(leaseKey(jobId));
+    }
+
+    /**
+     * @return those of {@code jobIds} that nobody holds a lease on
+     */
+    public Set<String> unleased(List<String> jobIds) {
+        if (jobIds.isEmpty()) {
+            return Set.of();
+        }
+        List<Object> exists = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String jobId : jobIds) {
+                connection.keyCommands().exists(raw(leaseKey(jobId)));
+            }
+            return null;
+        });
+        return missing(jobIds, exists);
+    }
+
+    public Duration getTtl() {
+        return ttl;
+    }
+
+    static String leaseKey(String jobId) {
+        return PREFIX + jobId;
+    }
+
+    private static Set<String> missing(List<String> jobIds, List<Object> results) {
+        Set<String> missing = new HashSet<>();
+        for (int i = 0; i < jobIds.size(); i++) {
+            if (!Boolean.TRUE.equals(results.get(i))) {
+                missing.add(jobIds.get(i));
+            }
+        }
+        return missing;
+    }
+
+    private static byte[] raw(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+}
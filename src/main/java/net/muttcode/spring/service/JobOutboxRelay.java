@@ -0,0 +1,84 @@
+package net.muttcode.spring.service;
+
+import net.muttcode.spring.model.JobOutboxEntry;
+import net.muttcode.spring.repository.JobOutboxRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Moves jobs from the {@code job_outbox} table onto the Redis queue.
+ * Submission wakes the relay right after its transaction commits; the scheduled run
+ * catches whatever a wake-up missed, e.g. entries left while Redis was unreachable.
+ * Entries are pushed {@code batch-size} at a time with one script call and deleted
+ * afterwards. Relays on several nodes may push the same entry; the enqueue script
+ * skips jobs that are already queued, so each job is queued once.
+ */
+@Component
+public class JobOutboxRelay {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobOutboxRelay.class);
+
+    private final JobOutboxRepository outboxRepository;
+    private final JobQueueService jobQueueService;
+    private final int batchSize;
+    private final ReentrantLock relaying = new ReentrantLock();
+    private final AtomicBoolean requested = new AtomicBoolean();
+
+    public JobOutboxRelay(JobOutboxRepository outboxRepository,
+                          JobQueueService jobQueueService,
+                          @Value("${jobs.outbox.batch-size:500}") int batchSize) {
+        this.outboxRepository = outboxRepository;
+        this.jobQueueService = jobQueueService;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Relays new entries soon, without blocking the caller.
+     */
+    public void wake() {
+        requested.set(true);
+        Thread.ofVirtual().name("outbox-relay").start(this::relay);
+    }
+
+    @Scheduled(fixedDelayString = "${jobs.outbox.relay-interval-ms:1000}")
+    public void relay() {
+        // One relay per node; a wake-up arriving meanwhile makes the running one go round again
+        while (relaying.tryLock()) {
+            try {
+                requested.set(false);
+                drain();
+            } catch (RuntimeException e) {
+                logger.warn("Failed to relay queued jobs, will retry: {}", e.getMessage());
+                return;
+            } finally {
+                relaying.unlock();
+            }
+            if (!requested.get()) {
+                return;
+            }
+        }
+    }
+
+    private void drain() {
+        List<JobOutboxEntry> batch;
+        do {
+            batch = outboxRepository.findByOrderByIdAsc(PageRequest.of(0, batchSize));
+            if (batch.isEmpty()) {
+                return;
+            }
+            long queued = jobQueueService.enqueueJobs(batch.stream()
+                .map(entry -> new JobQueueService.QueuedJob(entry.getJobId(), entry.getPriority(), entry.getSubmittedBy()))
+                .toList());
+            outboxRepository.deleteAllByIdInBatch(batch.stream().map(JobOutboxEntry::getId).toList());
+            logger.debug("Relayed {} outbox entries, {} newly queued", batch.size(), queued);
+        } while (batch.size() == batchSize);
+    }
+}
@@ -0,0 +1,84 @@
+package net.muttcode.spring.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Write-behind buffer for job progress.
+ * Only the latest percentage per job is kept; every {@code jobs.progress.flush-interval-ms}
+ * the buffered values are written as one JDBC batch of single-column UPDATEs. The UPDATE
+ * only touches jobs still processing, so a late flush never overwrites a final state.
+ * Subscribers see progress immediately through the event bus, not through this table.
+ */
+@Component
+public class JobProgressBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobProgressBuffer.class);
+
+    static final String UPDATE_PROGRESS =
+        "UPDATE processing_jobs SET progress_percent = ? WHERE job_id = ? AND status = 'PROCESSING'";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Map<String, Integer> pending = new ConcurrentHashMap<>();
+
+    public JobProgressBuffer(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void record(String jobId, Integer progressPercent) {
+        pending.put(jobId, progressPercent);
+    }
+
+    /**
+     * Drops a buffered value, e.g. once the job reached a final state.
+     */
+    public void discard(String jobId) {
+        pending.remove(jobId);
+    }
+
+    public Optional<Integer> pendingProgress(String jobId) {
+        return Optional.ofNullable(pending.get(jobId));
+    }
+
+    @Scheduled(fixedDelayString = "${jobs.progress.flush-interval-ms:1000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Object[]> batch = new ArrayList<>();
+        for (String jobId : List.copyOf(pending.keySet())) {
+            Integer progress = pending.remove(jobId);
+            if (progress != null) {
+                batch.add(new Object[] {progress, jobId});
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_PROGRESS, batch);
+            logger.debug("Flushed progress for {} jobs", batch.size());
+        } catch (RuntimeException e) {
+            // Progress is advisory; newer values recorded meanwhile win on the next flush
+            logger.warn("Failed to flush progress for {} jobs: {}", batch.size(), e.getMessage());
+            for (Object[] row : batch) {
+                pending.putIfAbsent((String) row[1], (Integer) row[0]);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
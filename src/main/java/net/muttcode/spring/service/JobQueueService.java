@@ -1,30 +1,107 @@
 package net.muttcode.spring.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import net.muttcode.spring.model.ProcessingJob;
+import net.muttcode.spring.model.ProcessingJob.Priority;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisListCommands;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.stereotype.Service;
 
-import java.util.UUID;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Redis job queue with one lane per {@link Priority}, and within each lane one list
+ * per submitting user ({@code job:queue:<lane>:user:<user>}, tracked in the set
+ * {@code job:queue:<lane>:users}). Dispatch picks a lane by smooth weighted round
+ * robin, so a large bulk backlog slows, but never blocks, interactive work, and then
+ * picks the user in that lane with the smallest GPU usage relative to their share.
+ * Per-lane dispatch counts and wait times are kept in {@code job:lane:stats:<lane>}.
+ * Cancelled jobs are tombstoned in their status hash and dropped when dispatch reaches
+ * them, so cancelling never scans a queue. Workers record their processing lists in
+ * {@code job:workers}, so jobs left on the list of a dead node can be found and reclaimed.
+ */
 @Service
 public class JobQueueService {
 
     private final RedisTemplate<String, Object> redisTemplate;
     private final ProcessingJobService jobService;
-    private final ObjectMapper objectMapper;
+    private final FairShareScheduler fairShareScheduler;
 
     private static final String JOB_QUEUE = "job:queue";
+    private static final String JOB_SIGNAL = "job:queue:signal";
     private static final String JOB_STATUS_PREFIX = "job:status:";
+    private static final String JOB_PROCESSING_PREFIX = "job:processing:";
+    private static final String LANE_STATS_PREFIX = "job:lane:stats:";
+    private static final String PROCESSING_LISTS = "job:workers";
     private static final long QUEUE_TTL_HOURS = 24;
+    private static final long MAX_SIGNALS = 1024;
+    private static final String CANCELLED = "CANCELLED";
+
+    // KEYS: signal list, then per job its status hash, user queue and lane user set.
+    // ARGV: status TTL, signal cap, QUEUED, then per job its id, priority, user and enqueue time.
+    // Values arrive serialized like the template's own writes, so dispatch reads them back unchanged.
+    private static final RedisScript<Long> ENQUEUE_SCRIPT = new DefaultRedisScript<>("""
+        local queued = 0
+        for i = 0, (#KEYS - 1) / 3 - 1 do
+            local statusKey, userQueue, laneUsers = KEYS[2 + i * 3], KEYS[3 + i * 3], KEYS[4 + i * 3]
+            local jobId, priority, user, enqueuedAt = ARGV[4 + i * 4], ARGV[5 + i * 4], ARGV[6 + i * 4], ARGV[7 + i * 4]
+            if redis.call('EXISTS', statusKey) == 0 then
+                redis.call('HSET', statusKey, 'status', ARGV[3], 'priority', priority, 'user', user, 'enqueuedAt', enqueuedAt)
+                redis.call('EXPIRE', statusKey, ARGV[1])
+                redis.call('RPUSH', userQueue, jobId)
+                redis.call('SADD', laneUsers, user)
+                -- Wake one idle poller per job
+                redis.call('RPUSH', KEYS[1], '"1"')
+                queued = queued + 1
+            end
+        end
+        if queued > 0 then
+            redis.call('LTRIM', KEYS[1], -tonumber(ARGV[2]), -1)
+        end
+        return queued
+        """, Long.class);
+
+    // KEYS: lease, processing list, user queue, lane user set, signal list.
+    // ARGV: job id, user, signal cap. The lease is checked in the same call, so a job whose
+    // worker renewed it at the last moment stays where it is.
+    private static final RedisScript<Long> RECLAIM_SCRIPT = new DefaultRedisScript<>("""
+        if redis.call('EXISTS', KEYS[1]) == 1 or redis.call('LREM', KEYS[2], 1, ARGV[1]) == 0 then
+            return 0
+        end
+        redis.call('LPUSH', KEYS[3], ARGV[1])
+        redis.call('SADD', KEYS[4], ARGV[2])
+        redis.call('RPUSH', KEYS[5], '"1"')
+        redis.call('LTRIM', KEYS[5], -tonumber(ARGV[3]), -1)
+        return 1
+        """, Long.class);
+
+    private final LaneSelector laneSelector;
+    private final Duration idleBlock;
 
     public JobQueueService(RedisConnectionFactory connectionFactory, 
                            ProcessingJobService jobService,
-                           ObjectMapper objectMapper) {
+                           FairShareScheduler fairShareScheduler,
+                           @Value("${jobs.lanes.interactive.weight:8}") int interactiveWeight,
+                           @Value("${jobs.lanes.normal.weight:3}") int normalWeight,
+                           @Value("${jobs.lanes.bulk.weight:1}") int bulkWeight,
+                           @Value("${jobs.lanes.idle-block-ms:500}") long idleBlockMs) {
         this.redisTemplate = new RedisTemplate<>();
         this.redisTemplate.setConnectionFactory(connectionFactory);
         this.redisTemplate.setKeySerializer(new StringRedisSerializer());
@@ -34,27 +111,405 @@ public class JobQueueService {
         this.redisTemplate.afterPropertiesSet();
         
         this.jobService = jobService;
-        this.objectMapper = objectMapper;
+        this.fairShareScheduler = fairShareScheduler;
+
+        Map<Priority, Integer> weights = new EnumMap<>(Priority.class);
+        weights.put(Priority.INTERACTIVE, interactiveWeight);
+        weights.put(Priority.NORMAL, normalWeight);
+        weights.put(Priority.BULK, bulkWeight);
+        this.laneSelector = new LaneSelector(weights);
+        this.idleBlock = Duration.ofMillis(idleBlockMs);
     }
 
-    public String enqueueJob(String inputFileId, Integer scaleFactor, String modelName) {
-        String jobId = UUID.randomUUID().toString();
-        
-        ProcessingJob job = new ProcessingJob(jobId, inputFileId, scaleFactor, modelName);
-        jobService.saveJob(job);
-        
-        JobMessage message = new JobMessage(jobId, inputFileId, scaleFactor, modelName);
-        
-        redisTemplate.opsForList().rightPush(JOB_QUEUE, jobId);
-        redisTemplate.opsForHash().put(JOB_STATUS_PREFIX + jobId, "status", "QUEUED");
-        redisTemplate.expire(JOB_STATUS_PREFIX + jobId, QUEUE_TTL_HOURS, TimeUnit.HOURS);
-        
-        return jobId;
+    /**
+     * Queues an already persisted job for the worker pool on its priority lane,
+     * behind earlier jobs from the same user.
+     */
+    public void enqueueJob(String jobId, Priority priority, String user) {
+        enqueueJobs(List.of(new QueuedJob(jobId, priority, user)));
+    }
+
+    /**
+     * Queues several jobs in one round trip. A job whose status hash already exists is
+     * skipped: it was queued before, or cancelled before it got here, so relaying the
+     * same job twice is harmless.
+     *
+     * @return the number of jobs actually queued
+     */
+    public long enqueueJobs(List<QueuedJob> jobs) {
+        if (jobs.isEmpty()) {
+            return 0;
+        }
+        List<String> keys = new ArrayList<>(1 + jobs.size() * 3);
+        List<Object> args = new ArrayList<>(3 + jobs.size() * 4);
+        keys.add(JOB_SIGNAL);
+        args.add(TimeUnit.HOURS.toSeconds(QUEUE_TTL_HOURS));
+        args.add(MAX_SIGNALS);
+        args.add("QUEUED");
+        long now = System.currentTimeMillis();
+        for (QueuedJob job : jobs) {
+            keys.add(JOB_STATUS_PREFIX + job.jobId());
+            keys.add(userQueueKey(job.priority(), job.user()));
+            keys.add(laneUsersKey(job.priority()));
+            args.add(job.jobId());
+            args.add(job.priority().name());
+            args.add(job.user());
+            args.add(now);
+        }
+        Long queued = redisTemplate.execute(ENQUEUE_SCRIPT, keys, args.toArray());
+        return queued != null ? queued : 0;
+    }
+
+    /**
+     * Takes the next job, choosing the lane by weighted round robin and the user
+     * within it by fair share, and atomically moves it onto {@code processingList}
+     * so it survives a crash of the consuming worker until {@link #acknowledge}
+     * removes it. When every lane is empty, waits at most {@code timeout} for a new
+     * job to be signalled. Returns null when nothing was dispatched.
+     */
+    public String dequeueJob(String processingList, Duration timeout) {
+        String jobId = dispatch(processingList);
+        if (jobId != null) {
+            return jobId;
+        }
+        Duration block = timeout.compareTo(idleBlock) < 0 ? timeout : idleBlock;
+        if (redisTemplate.opsForList().leftPop(JOB_SIGNAL, block) == null) {
+            return null;
+        }
+        return dispatch(processingList);
+    }
+
+    private String dispatch(String processingList) {
+        Set<Priority> empty = EnumSet.noneOf(Priority.class);
+        for (Priority lane : laneSelector.order()) {
+            String jobId = dispatchFromLane(lane, processingList);
+            if (jobId != null) {
+                laneSelector.record(lane, empty);
+                recordDispatch(lane, jobId);
+                return jobId;
+            }
+            empty.add(lane);
+        }
+        laneSelector.record(null, empty);
+        return null;
+    }
+
+    private String dispatchFromLane(Priority lane, String processingList) {
+        Set<String> users = queuedUsers(lane);
+        if (users.isEmpty()) {
+            return null;
+        }
+        for (String user : fairShareScheduler.rank(users)) {
+            String userQueue = userQueueKey(lane, user);
+            String jobId;
+            while ((jobId = (String) redisTemplate.opsForList().move(
+                    userQueue, RedisListCommands.Direction.LEFT,
+                    processingList, RedisListCommands.Direction.RIGHT)) != null) {
+                if (!isCancelled(jobId)) {
+                    fairShareScheduler.jobStarted(user);
+                    return jobId;
+                }
+                // Tombstoned while queued; it was just appended, so this removes from the tail
+                redisTemplate.opsForList().remove(processingList, -1, jobId);
+            }
+            redisTemplate.opsForSet().remove(laneUsersKey(lane), user);
+            Long remaining = redisTemplate.opsForList().size(userQueue);
+            if (remaining != null && remaining > 0) {
+                // A job was queued between the move and the removal
+                redisTemplate.opsForSet().add(laneUsersKey(lane), user);
+            }
+        }
+        return null;
+    }
+
+    private void recordDispatch(Priority lane, String jobId) {
+        Long enqueuedAt = enqueuedAt(jobId);
+        String statsKey = LANE_STATS_PREFIX + laneName(lane);
+        redisTemplate.opsForHash().increment(statsKey, "dispatched", 1);
+        if (enqueuedAt != null) {
+            redisTemplate.opsForHash().increment(statsKey, "totalWaitMs",
+                Math.max(0, System.currentTimeMillis() - enqueuedAt));
+        }
+    }
+
+    /**
+     * Tombstones a queued job so dispatch drops it. O(1), unlike removing it from its list.
+     */
+    public void cancelQueued(String jobId) {
+        String statusKey = JOB_STATUS_PREFIX + jobId;
+        redisTemplate.opsForHash().put(statusKey, "status", CANCELLED);
+        redisTemplate.expire(statusKey, QUEUE_TTL_HOURS, TimeUnit.HOURS);
+    }
+
+    /**
+     * Removes a finished job from the worker's processing list.
+     */
+    public void acknowledge(String processingList, String jobId) {
+        redisTemplate.opsForList().remove(processingList, 1, jobId);
+        fairShareScheduler.jobFinished(userOf(jobId));
+    }
+
+    /**
+     * Returns jobs left on a processing list by a previous run of the same worker
+     * to the front of their queues, and redistributes jobs still sitting on the
+     * older single-list queues. Returns the number of jobs requeued from the
+     * processing list.
+     */
+    public int recover(String processingList) {
+        drainLegacyQueue(JOB_QUEUE);
+        for (Priority lane : Priority.values()) {
+            drainLegacyQueue(laneKey(lane));
+        }
+
+        int recovered = 0;
+        Object jobId;
+        while ((jobId = redisTemplate.opsForList().index(processingList, -1)) != null) {
+            if (!requeue(processingList, RedisListCommands.Direction.RIGHT, (String) jobId,
+                    RedisListCommands.Direction.LEFT)) {
+                break;
+            }
+            recovered++;
+        }
+        return recovered;
+    }
+
+    private void drainLegacyQueue(String key) {
+        Object jobId;
+        while ((jobId = redisTemplate.opsForList().index(key, 0)) != null) {
+            if (!requeue(key, RedisListCommands.Direction.LEFT, (String) jobId, RedisListCommands.Direction.RIGHT)) {
+                return;
+            }
+        }
     }
 
-    public String dequeueJob() {
-        String jobId = (String) redisTemplate.opsForList().leftPop(JOB_QUEUE);
-        return jobId;
+    private boolean requeue(String source, RedisListCommands.Direction from, String jobId,
+                            RedisListCommands.Direction to) {
+        Priority lane = laneOf(jobId);
+        String user = userOf(jobId);
+        if (redisTemplate.opsForList().move(source, from, userQueueKey(lane, user), to) == null) {
+            return false;
+        }
+        redisTemplate.opsForSet().add(laneUsersKey(lane), user);
+        return true;
+    }
+
+    /**
+     * Marks processing lists as belonging to a live worker, so {@link StalledJobReaper}
+     * knows where to look for jobs whose worker died.
+     */
+    public void touchProcessingLists(Collection<String> processingLists) {
+        double now = System.currentTimeMillis();
+        for (String processingList : processingLists) {
+            redisTemplate.opsForZSet().add(PROCESSING_LISTS, processingList, now);
+        }
+    }
+
+    /**
+     * Every known processing list, with the time its worker was last seen alive.
+     */
+    public Map<String, Long> getProcessingLists() {
+        Set<ZSetOperations.TypedTuple<Object>> lists = redisTemplate.opsForZSet().rangeWithScores(PROCESSING_LISTS, 0, -1);
+        Map<String, Long> lastSeen = new TreeMap<>();
+        if (lists != null) {
+            for (ZSetOperations.TypedTuple<Object> list : lists) {
+                if (list.getValue() != null && list.getScore() != null) {
+                    lastSeen.put(list.getValue().toString(), list.getScore().longValue());
+                }
+            }
+        }
+        return lastSeen;
+    }
+
+    public List<String> getProcessingJobs(String processingList) {
+        List<Object> jobIds = redisTemplate.opsForList().range(processingList, 0, -1);
+        return jobIds != null ? jobIds.stream().map(Object::toString).toList() : List.of();
+    }
+
+    /**
+     * Stops tracking the processing list of a worker that is gone, once nothing is left on it.
+     */
+    public void forgetProcessingList(String processingList) {
+        if (queueSize(processingList) == 0) {
+            redisTemplate.opsForZSet().remove(PROCESSING_LISTS, processingList);
+        }
+    }
+
+    /**
+     * Moves a job whose lease expired from a processing list to the front of its queue.
+     *
+     * @return false if the job was leased again or is no longer on the list
+     */
+    public boolean reclaim(String processingList, String jobId) {
+        Priority lane = laneOf(jobId);
+        String user = userOf(jobId);
+        Long reclaimed = redisTemplate.execute(RECLAIM_SCRIPT,
+            List.of(JobLeases.leaseKey(jobId), processingList, userQueueKey(lane, user), laneUsersKey(lane), JOB_SIGNAL),
+            jobId, user, MAX_SIGNALS);
+        if (reclaimed == null || reclaimed == 0) {
+            return false;
+        }
+        // The dead worker never reported it finished
+        fairShareScheduler.jobFinished(user);
+        return true;
+    }
+
+    /**
+     * Depth, wait times and dispatch counts for every lane.
+     */
+    public Map<Priority, LaneStats> getLaneStats() {
+        Map<Priority, LaneStats> stats = new EnumMap<>(Priority.class);
+        long now = System.currentTimeMillis();
+        for (Priority lane : Priority.values()) {
+            long depth = 0;
+            Long oldestEnqueuedAt = null;
+            for (String user : queuedUsers(lane)) {
+                String userQueue = userQueueKey(lane, user);
+                Long size = redisTemplate.opsForList().size(userQueue);
+                depth += size != null ? size : 0;
+                Object head = redisTemplate.opsForList().index(userQueue, 0);
+                Long headEnqueuedAt = head != null ? enqueuedAt((String) head) : null;
+                if (headEnqueuedAt != null && (oldestEnqueuedAt == null || headEnqueuedAt < oldestEnqueuedAt)) {
+                    oldestEnqueuedAt = headEnqueuedAt;
+                }
+            }
+
+            Map<Object, Object> counters = redisTemplate.opsForHash().entries(LANE_STATS_PREFIX + laneName(lane));
+            long dispatched = toLong(counters.get("dispatched"));
+            long totalWaitMs = toLong(counters.get("totalWaitMs"));
+
+            stats.put(lane, new LaneStats(
+                depth,
+                oldestEnqueuedAt != null ? Math.max(0, now - oldestEnqueuedAt) : 0,
+                dispatched > 0 ? totalWaitMs / dispatched : 0,
+                dispatched,
+                laneSelector.weight(lane)));
+        }
+        return stats;
+    }
+
+    /**
+     * Roughly how many jobs will be dispatched before a queued job: those ahead of it in
+     * its own list, as many from each other user in its lane (users are served in turn),
+     * and the share of dispatches the other lanes' weights claim meanwhile.
+     *
+     * @return empty if the job is not in its queue, e.g. it was already dispatched
+     */
+    public OptionalLong jobsAhead(String jobId, Priority lane, String user) {
+        Long position = redisTemplate.opsForList().indexOf(userQueueKey(lane, user), jobId);
+        if (position == null || position < 0) {
+            return OptionalLong.empty();
+        }
+        long aheadInLane = position;
+        for (String other : queuedUsers(lane)) {
+            if (!other.equals(user)) {
+                aheadInLane += Math.min(queueSize(userQueueKey(lane, other)), position);
+            }
+        }
+        long ahead = aheadInLane;
+        for (Priority otherLane : Priority.values()) {
+            if (otherLane == lane) {
+                continue;
+            }
+            long interleaved = aheadInLane * laneSelector.weight(otherLane) / laneSelector.weight(lane);
+            if (interleaved > 0) {
+                long depth = 0;
+                for (String other : queuedUsers(otherLane)) {
+                    depth += queueSize(userQueueKey(otherLane, other));
+                }
+                ahead += Math.min(depth, interleaved);
+            }
+        }
+        return OptionalLong.of(ahead);
+    }
+
+    private long queueSize(String userQueue) {
+        Long size = redisTemplate.opsForList().size(userQueue);
+        return size != null ? size : 0;
+    }
+
+    /**
+     * Queued job counts per user and lane, for users with anything queued.
+     */
+    public Map<String, Map<Priority, Long>> getQueuedByUser() {
+        Map<String, Map<Priority, Long>> queued = new TreeMap<>();
+        for (Priority lane : Priority.values()) {
+            for (String user : queuedUsers(lane)) {
+                Long size = redisTemplate.opsForList().size(userQueueKey(lane, user));
+                if (size != null && size > 0) {
+                    queued.computeIfAbsent(user, u -> new EnumMap<>(Priority.class)).put(lane, size);
+                }
+            }
+        }
+        return queued;
+    }
+
+    private Set<String> queuedUsers(Priority lane) {
+        Set<Object> members = redisTemplate.opsForSet().members(laneUsersKey(lane));
+        Set<String> users = new TreeSet<>();
+        if (members != null) {
+            members.forEach(member -> users.add(member.toString()));
+        }
+        return users;
+    }
+
+    private Priority laneOf(String jobId) {
+        Object priority = redisTemplate.opsForHash().get(JOB_STATUS_PREFIX + jobId, "priority");
+        if (priority == null) {
+            return Priority.NORMAL;
+        }
+        try {
+            return Priority.valueOf(priority.toString());
+        } catch (IllegalArgumentException e) {
+            return Priority.NORMAL;
+        }
+    }
+
+    private String userOf(String jobId) {
+        Object user = redisTemplate.opsForHash().get(JOB_STATUS_PREFIX + jobId, "user");
+        return user != null ? user.toString() : FairShareScheduler.ANONYMOUS;
+    }
+
+    private boolean isCancelled(String jobId) {
+        return CANCELLED.equals(redisTemplate.opsForHash().get(JOB_STATUS_PREFIX + jobId, "status"));
+    }
+
+    private Long enqueuedAt(String jobId) {
+        Object enqueuedAt = redisTemplate.opsForHash().get(JOB_STATUS_PREFIX + jobId, "enqueuedAt");
+        return enqueuedAt instanceof Number number ? number.longValue() : null;
+    }
+
+    private static long toLong(Object value) {
+        if (value instanceof Number number) {
+            return number.longValue();
+        }
+        if (value != null) {
+            try {
+                return Long.parseLong(value.toString());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    static String laneKey(Priority lane) {
+        return JOB_QUEUE + ":" + laneName(lane);
+    }
+
+    static String laneUsersKey(Priority lane) {
+        return laneKey(lane) + ":users";
+    }
+
+    static String userQueueKey(Priority lane, String user) {
+        return laneKey(lane) + ":user:" + user;
+    }
+
+    private static String laneName(Priority lane) {
+        return lane.name().toLowerCase(Locale.ROOT);
+    }
+
+    public static String processingListKey(String nodeId, int worker) {
+        return JOB_PROCESSING_PREFIX + nodeId + ":" + worker;
     }
 
     public void updateJobStatus(String jobId, String status, Integer progress) {
@@ -68,28 +523,10 @@ public class JobQueueService {
         return redisTemplate.opsForHash().entries(JOB_STATUS_PREFIX + jobId);
     }
 
-    public static class JobMessage {
-        private String jobId;
-        private String inputFileId;
-        private Integer scaleFactor;
-        private String modelName;
-
-        public JobMessage() {}
+    public record QueuedJob(String jobId, Priority priority, String user) {}
 
-        public JobMessage(String jobId, String inputFileId, Integer scaleFactor, String modelName) {
-            this.jobId = jobId;
-            this.inputFileId = inputFileId;
-            this.scaleFactor = scaleFactor;
-            this.modelName = modelName;
-        }
-
-        public String getJobId() { return jobId; }
-        public void setJobId(String jobId) { this.jobId = jobId; }
-        public String getInputFileId() { return inputFileId; }
-        public void setInputFileId(String inputFileId) { this.inputFileId = inputFileId; }
-        public Integer getScaleFactor() { return scaleFactor; }
-        public void setScaleFactor(Integer scaleFactor) { this.scaleFactor = scaleFactor; }
-        public String getModelName() { return modelName; }
-        public void setModelName(String modelName) { this.modelName = modelName; }
-    }
+    /**
+     * Snapshot of one lane: queued jobs, age of the oldest, mean wait of dispatched jobs.
+     */
+    public record LaneStats(long depth, long oldestWaitMs, long averageWaitMs, long dispatched, int weight) {}
 }
@@ -0,0 +1,374 @@
+package net.muttcode.spring.service;
+
+import jakarta.annotation.PreDestroy;
+import net.muttcode.spring.model.ProcessingJob;
+import net.muttcode.spring.repository.ProcessingJobRepository;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+
+/**
+ * Job statistics maintained as jobs change state, so reading them never scans the jobs table.
+ * <ul>
+ *   <li>{@code job:stats:status} holds a counter per status plus totals, adjusted on each transition.</li>
+ *   <li>{@code job:stats:<granularity>:<bucket>} counts completions and failures per time bucket.</li>
+ *   <li>{@code job:stats:latency:<granularity>:<bucket>} holds HdrHistograms of processing time per
+ *       model and scale. Each node records locally and periodically writes its own histogram into its
+ *       own field, so nodes never overwrite each other; readers merge the fields.</li>
+ * </ul>
+ * A window is read from a fixed number of buckets (12 five-minute buckets for the last hour,
+ * 24 or 168 hourly ones for the last day or week), whatever the size of the jobs table.
+ */
+@Service
+public class JobStatistics {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobStatistics.class);
+
+    static final String STATUS_KEY = "job:stats:status";
+    private static final String BUCKET_PREFIX = "job:stats:";
+    private static final String LATENCY_PREFIX = "job:stats:latency:";
+    private static final String TOTAL = "total";
+    private static final String PROCESSING_TIME_TOTAL = "processingTimeMs";
+    private static final String PROCESSING_TIME_COUNT = "processingTimeCount";
+    private static final String COMPLETED = "completed";
+    private static final String FAILED = "failed";
+    // Set by whichever node seeded the counters from the database
+    private static final String SEEDED = "seeded";
+
+    // Writes the seed only if no node has yet: ARGV is the marker pair followed by field/value pairs
+    private static final RedisScript<Long> SEED_SCRIPT = new DefaultRedisScript<>("""
+        if redis.call('HSETNX', KEYS[1], ARGV[1], ARGV[2]) == 0 then
+            return 0
+        end
+        for i = 3, #ARGV, 2 do
+            redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1])
+        end
+        return 1
+        """, Long.class);
+
+    // Processing times above six hours are recorded as six hours
+    static final long HIGHEST_TRACKABLE_MS = Duration.ofHours(6).toMillis();
+    static final int SIGNIFICANT_DIGITS = 2;
+
+    enum Granularity {
+        FIVE_MINUTES(Duration.ofMinutes(5), Duration.ofHours(2)),
+        HOUR(Duration.ofHours(1), Duration.ofDays(8));
+
+        private final Duration size;
+        private final Duration retention;
+
+        Granularity(Duration size, Duration retention) {
+            this.size = size;
+            this.retention = retention;
+        }
+
+        long bucketOf(long epochMillis) {
+            return epochMillis / size.toMillis();
+        }
+    }
+
+    public enum Window {
+        HOUR(Granularity.FIVE_MINUTES, 12),
+        DAY(Granularity.HOUR, 24),
+        WEEK(Granularity.HOUR, 168);
+
+        private final Granularity granularity;
+        private final int buckets;
+
+        Window(Granularity granularity, int buckets) {
+            this.granularity = granularity;
+            this.buckets = buckets;
+        }
+    }
+
+    private final StringRedisTemplate redisTemplate;
+    private final ProcessingJobRepository repository;
+    private final String instanceId = UUID.randomUUID().toString();
+    private final Map<HistogramKey, Histogram> histograms = new ConcurrentHashMap<>();
+
+    public JobStatistics(RedisConnectionFactory connectionFactory, ProcessingJobRepository repository) {
+        this.redisTemplate = new StringRedisTemplate(connectionFactory);
+        this.repository = repository;
+    }
+
+    public void jobCreated(ProcessingJob.JobStatus status) {
+        try {
+            redisTemplate.opsForHash().increment(STATUS_KEY, TOTAL, 1);
+            redisTemplate.opsForHash().increment(STATUS_KEY, status.name(), 1);
+            if (isFinished(status)) {
+                countFinished(status);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Failed to count new {} job: {}", status, e.getMessage());
+        }
+    }
+
+    public void transition(ProcessingJob.JobStatus from, ProcessingJob.JobStatus to) {
+        try {
+            redisTemplate.opsForHash().increment(STATUS_KEY, from.name(), -1);
+            redisTemplate.opsForHash().increment(STATUS_KEY, to.name(), 1);
+            if (isFinished(to)) {
+                countFinished(to);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Failed to count {} -> {} transition: {}", from, to, e.getMessage());
+        }
+    }
+
+    /**
+     * Records the Upscayl time of a completed run.
+     */
+    public void recordProcessingTime(String modelName, Integer scaleFactor, long processingTimeMs) {
+        long now = System.currentTimeMillis();
+        long value = Math.max(0, Math.min(processingTimeMs, HIGHEST_TRACKABLE_MS));
+        for (Granularity granularity : Granularity.values()) {
+            HistogramKey key = new HistogramKey(granularity, granularity.bucketOf(now), modelName, scaleFactor);
+            histograms.computeIfAbsent(key, k -> new ConcurrentHistogram(HIGHEST_TRACKABLE_MS, SIGNIFICANT_DIGITS))
+                .recordValue(value);
+        }
+        try {
+            redisTemplate.opsForHash().increment(STATUS_KEY, PROCESSING_TIME_TOTAL, processingTimeMs);
+            redisTemplate.opsForHash().increment(STATUS_KEY, PROCESSING_TIME_COUNT, 1);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to record processing time: {}", e.getMessage());
+        }
+    }
+
+    public Totals getTotals() {
+        Map<Object, Object> fields = redisTemplate.opsForHash().entries(STATUS_KEY);
+        Map<ProcessingJob.JobStatus, Long> byStatus = new EnumMap<>(ProcessingJob.JobStatus.class);
+        for (ProcessingJob.JobStatus status : ProcessingJob.JobStatus.values()) {
+            byStatus.put(status, Math.max(0, longField(fields, status.name())));
+        }
+        long timedJobs = longField(fields, PROCESSING_TIME_COUNT);
+        double averageProcessingTimeMs = timedJobs > 0 ? (double) longField(fields, PROCESSING_TIME_TOTAL) / timedJobs : 0.0;
+        return new Totals(longField(fields, TOTAL), byStatus, averageProcessingTimeMs);
+    }
+
+    public WindowStats getWindow(Window window) {
+        List<String> counterKeys = new ArrayList<>();
+        List<String> latencyKeys = new ArrayList<>();
+        long current = window.granularity.bucketOf(System.currentTimeMillis());
+        for (long bucket = current - window.buckets + 1; bucket <= current; bucket++) {
+            counterKeys.add(bucketKey(window.granularity, bucket));
+            latencyKeys.add(latencyKey(window.granularity, bucket));
+        }
+
+        // One round trip for the whole window
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : counterKeys) {
+                connection.hashCommands().hGetAll(key.getBytes(StandardCharsets.UTF_8));
+            }
+            for (String key : latencyKeys) {
+                connection.hashCommands().hGetAll(key.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+
+        long completed = 0;
+        long failed = 0;
+        for (int i = 0; i < counterKeys.size(); i++) {
+            Map<?, ?> counts = (Map<?, ?>) results.get(i);
+            completed += longField(counts, COMPLETED);
+            failed += longField(counts, FAILED);
+        }
+        Map<String, String> latencyFields = new HashMap<>();
+        List<Map<String, String>> latencyBuckets = new ArrayList<>();
+        for (int i = counterKeys.size(); i < results.size(); i++) {
+            Map<String, String> bucket = new HashMap<>();
+            ((Map<?, ?>) results.get(i)).forEach((field, value) -> bucket.put(field.toString(), value.toString()));
+            latencyBuckets.add(bucket);
+        }
+        return new WindowStats(window, completed, failed, mergeLatency(latencyBuckets));
+    }
+
+    /**
+     * Writes this node's histograms to Redis and drops local ones for buckets that have closed.
+     */
+    @Scheduled(fixedDelayString = "${jobs.statistics.flush-interval-ms:10000}")
+    public void flush() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<HistogramKey, Histogram> entry : histograms.entrySet()) {
+            HistogramKey key = entry.getKey();
+            boolean closed = key.bucket() < key.granularity().bucketOf(now);
+            try {
+                String redisKey = latencyKey(key.granularity(), key.bucket());
+                redisTemplate.opsForHash().put(redisKey, latencyField(key.modelName(), key.scaleFactor(), instanceId),
+                    encode(entry.getValue()));
+                redisTemplate.expire(redisKey, key.granularity().retention);
+                if (closed) {
+                    histograms.remove(key, entry.getValue());
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Failed to flush latency histogram {}: {}", key, e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    /**
+     * Seeds the status counters and processing time totals from the database the first time
+     * statistics are kept. Nodes starting together race for the marker; only the winner writes.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initializeCounters() {
+        try {
+            if (redisTemplate.opsForHash().hasKey(STATUS_KEY, SEEDED)) {
+                return;
+            }
+            List<String> args = new ArrayList<>(List.of(SEEDED, instanceId));
+            long total = 0;
+            long processingTimeMs = 0;
+            long processingTimeCount = 0;
+            for (Object[] row : repository.summarizeByStatus()) {
+                long count = ((Number) row[1]).longValue();
+                args.add(((ProcessingJob.JobStatus) row[0]).name());
+                args.add(Long.toString(count));
+                total += count;
+                processingTimeMs += row[2] != null ? ((Number) row[2]).longValue() : 0;
+                processingTimeCount += ((Number) row[3]).longValue();
+            }
+            args.addAll(List.of(TOTAL, Long.toString(total),
+                PROCESSING_TIME_TOTAL, Long.toString(processingTimeMs),
+                PROCESSING_TIME_COUNT, Long.toString(processingTimeCount)));
+            Long written = redisTemplate.execute(SEED_SCRIPT, List.of(STATUS_KEY), args.toArray());
+            if (written != null && written == 1) {
+                logger.info("Seeded job statistics from {} existing jobs", total);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Unable to seed job statistics: {}", e.getMessage());
+        }
+    }
+
+    private void countFinished(ProcessingJob.JobStatus status) {
+        String field = status == ProcessingJob.JobStatus.COMPLETED ? COMPLETED : FAILED;
+        long now = System.currentTimeMillis();
+        for (Granularity granularity : Granularity.values()) {
+            String key = bucketKey(granularity, granularity.bucketOf(now));
+            redisTemplate.opsForHash().increment(key, field, 1);
+            redisTemplate.expire(key, granularity.retention);
+        }
+    }
+
+    /**
+     * Merges per-node histograms from {@code buckets} into one summary per model and scale.
+     */
+    static List<LatencyStats> mergeLatency(List<Map<String, String>> buckets) {
+        Map<String, Histogram> merged = new HashMap<>();
+        for (Map<String, String> bucket : buckets) {
+            for (Map.Entry<String, String> field : bucket.entrySet()) {
+                // <model>|<scale>|<node>; the model name is the only part that may contain anything
+                String name = field.getKey();
+                int nodeSeparator = name.lastIndexOf('|');
+                if (nodeSeparator <= 0) {
+                    continue;
+                }
+                try {
+                    Histogram histogram = decode(field.getValue());
+                    merged.computeIfAbsent(name.substring(0, nodeSeparator),
+                        k -> new Histogram(HIGHEST_TRACKABLE_MS, SIGNIFICANT_DIGITS)).add(histogram);
+                } catch (DataFormatException | RuntimeException e) {
+                    logger.warn("Ignoring unreadable latency histogram {}: {}", name, e.getMessage());
+                }
+            }
+        }
+
+        List<LatencyStats> stats = new ArrayList<>();
+        merged.forEach((modelAndScale, histogram) -> {
+            int scaleSeparator = modelAndScale.lastIndexOf('|');
+            String modelName = modelAndScale.substring(0, scaleSeparator);
+            Integer scaleFactor = Integer.valueOf(modelAndScale.substring(scaleSeparator + 1));
+            stats.add(new LatencyStats(modelName, scaleFactor, histogram.getTotalCount(), histogram.getMean(),
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                histogram.getValueAtPercentile(99), histogram.getMaxValue()));
+        });
+        stats.sort(Comparator.comparing(LatencyStats::modelName).thenComparing(LatencyStats::scaleFactor));
+        return stats;
+    }
+
+    static String latencyField(String modelName, Integer scaleFactor, String node) {
+        return modelName + "|" + scaleFactor + "|" + node;
+    }
+
+    static String encode(Histogram histogram) {
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        return Base64.getEncoder().encodeToString(java.util.Arrays.copyOf(buffer.array(), length));
+    }
+
+    static Histogram decode(String encoded) throws DataFormatException {
+        return Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(Base64.getDecoder().decode(encoded)), 0);
+    }
+
+    private static String bucketKey(Granularity granularity, long bucket) {
+        return BUCKET_PREFIX + granularity.name().toLowerCase() + ":" + bucket;
+    }
+
+    private static String latencyKey(Granularity granularity, long bucket) {
+        return LATENCY_PREFIX + granularity.name().toLowerCase() + ":" + bucket;
+    }
+
+    // Cancelled jobs are counted per status but not in the completion windows
+    private static boolean isFinished(ProcessingJob.JobStatus status) {
+        return status == ProcessingJob.JobStatus.COMPLETED || status == ProcessingJob.JobStatus.FAILED;
+    }
+
+    private static long longField(Map<?, ?> fields, String name) {
+        Object value = fields.get(name);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private record HistogramKey(Granularity granularity, long bucket, String modelName, Integer scaleFactor) {}
+
+    public record Totals(long total, Map<ProcessingJob.JobStatus, Long> byStatus, double averageProcessingTimeMs) {
+
+        public long count(ProcessingJob.JobStatus status) {
+            return byStatus.getOrDefault(status, 0L);
+        }
+    }
+
+    public record WindowStats(Window window, long completed, long failed, List<LatencyStats> latency) {
+
+        public double successRate() {
+            return completed + failed > 0 ? (double) completed / (completed + failed) * 100 : 0;
+        }
+    }
+
+    public record LatencyStats(String modelName, Integer scaleFactor, long count, double meanMs,
+                               long p50Ms, long p90Ms, long p99Ms, long maxMs) {}
+}
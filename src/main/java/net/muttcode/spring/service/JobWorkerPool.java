@@ -0,0 +1,338 @@
+package net.muttcode.spring.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consumers for the Redis job queue.
+ * Each poller blocks on {@code job:queue} and atomically moves the job it takes onto
+ * its own processing list ({@code job:processing:<node>:<poller>}). The job then runs
+ * on its own thread, virtual by default, and is removed from that list when it
+ * finishes. Up to {@code jobs.worker.max-in-flight} jobs run at once, fewer while the
+ * {@link UpscaylConcurrencyLimiter} holds the backend to a lower limit or its circuit
+ * breaker is open; a poller waits for both before taking more work, so surplus jobs
+ * wait in the queue. Every running job is leased through {@link JobLeases} and the
+ * leases are renewed on each heartbeat, which also marks this node's processing lists
+ * as alive. Jobs left on a list by a crashed run are requeued when the same poller
+ * starts again, or by {@link StalledJobReaper} once their leases lapse.
+ */
+@Component
+public class JobWorkerPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobWorkerPool.class);
+
+    private static final long RETRY_BACKOFF_MS = 1000;
+    private static final long SHUTDOWN_GRACE_SECONDS = 10;
+
+    private final JobQueueService jobQueueService;
+    private final ImageProcessingService imageProcessingService;
+    private final UpscaylConcurrencyLimiter concurrencyLimiter;
+    private final JobLeases jobLeases;
+    private final boolean enabled;
+    private final int pollerCount;
+    private final int maxInFlight;
+    private final boolean virtualThreads;
+    private final Duration pollTimeout;
+    private final String nodeId;
+    private final Semaphore inFlight;
+    private final List<Thread> pollers = new ArrayList<>();
+    private volatile List<String> processingLists = List.of();
+    // Running jobs and the processing list each was dispatched onto
+    private final Map<String, String> leased = new ConcurrentHashMap<>();
+
+    private ExecutorService jobExecutor;
+    private volatile boolean running;
+
+    public JobWorkerPool(
+            JobQueueService jobQueueService,
+            ImageProcessingService imageProcessingService,
+            UpscaylConcurrencyLimiter concurrencyLimiter,
+            JobLeases jobLeases,
+            @Value("${jobs.worker.enabled:true}") boolean enabled,
+            @Value("${jobs.worker.count:2}") int pollerCount,
+            @Value("${jobs.worker.max-in-flight:16}") int maxInFlight,
+            @Value("${jobs.worker.virtual-threads:true}") boolean virtualThreads,
+            @Value("${jobs.worker.poll-timeout-seconds:5}") long pollTimeoutSeconds,
+            @Value("${jobs.worker.node-id:}") String nodeId) {
+        this.jobQueueService = jobQueueService;
+        this.imageProcessingService = imageProcessingService;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.jobLeases = jobLeases;
+        this.enabled = enabled;
+        this.pollerCount = pollerCount;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.virtualThreads = virtualThreads;
+        this.pollTimeout = Duration.ofSeconds(pollTimeoutSeconds);
+        this.nodeId = resolveNodeId(nodeId);
+        this.inFlight = new Semaphore(this.maxInFlight);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!enabled || running) {
+            return;
+        }
+        running = true;
+        jobExecutor = newJobExecutor(virtualThreads, maxInFlight);
+        List<String> lists = new ArrayList<>();
+        for (int i = 0; i < pollerCount; i++) {
+            lists.add(JobQueueService.processingListKey(nodeId, i));
+        }
+        processingLists = List.copyOf(lists);
+        // Known to the reaper before the first job is dispatched
+        heartbeat();
+        for (int i = 0; i < pollerCount; i++) {
+            String processingList = lists.get(i);
+            Thread poller = threadBuilder(virtualThreads).name("job-poller-" + i)
+                .unstarted(() -> poll(processingList));
+            pollers.add(poller);
+            poller.start();
+        }
+        logger.info("Started {} job pollers on node {} ({} jobs in flight, {} threads)",
+            pollerCount, nodeId, maxInFlight, virtualThreads ? "virtual" : "platform");
+    }
+
+    private void poll(String processingList) {
+        recover(processingList);
+        while (running) {
+            try {
+                if (!inFlight.tryAcquire(pollTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                    continue;
+                }
+                if (!concurrencyLimiter.tryAcquire(pollTimeout)) {
+                    inFlight.release();
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            String jobId;
+            try {
+                jobId = jobQueueService.dequeueJob(processingList, pollTimeout);
+            } catch (RuntimeException e) {
+                releaseSlot();
+                if (!running) {
+                    return;
+                }
+                logger.warn("Failed to poll job queue, retrying: {}", e.getMessage());
+                sleepQuietly(RETRY_BACKOFF_MS);
+                continue;
+            }
+            if (jobId == null) {
+                releaseSlot();
+                continue;
+            }
+
+            lease(processingList, jobId);
+            try {
+                jobExecutor.execute(() -> runJob(processingList, jobId));
+            } catch (RejectedExecutionException e) {
+                // Shutting down; the job stays on the processing list and is requeued on restart
+                releaseSlot();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Starts a job; its slot and lease are held until it finishes, which for a job
+     * awaiting an Upscayl completion callback is after this thread has moved on.
+     */
+    private void runJob(String processingList, String jobId) {
+        CompletableFuture<Void> job;
+        try {
+            job = imageProcessingService.processJobAsync(jobId);
+        } catch (RuntimeException e) {
+            job = CompletableFuture.failedFuture(e);
+        }
+        job.whenComplete((ignored, error) -> {
+            if (error != null) {
+                logger.error("Worker failed processing job {}", jobId, UpscaylHttpClient.unwrap(error));
+            }
+            acknowledge(processingList, jobId);
+            releaseLease(jobId);
+            releaseSlot();
+        });
+    }
+
+    /**
+     * Renews the leases of running jobs and marks this node's processing lists as alive.
+     */
+    @Scheduled(fixedDelayString = "${jobs.lease.heartbeat-ms:10000}")
+    public void heartbeat() {
+        if (!running) {
+            return;
+        }
+        try {
+            jobQueueService.touchProcessingLists(processingLists);
+            List<String> jobIds = List.copyOf(leased.keySet());
+            for (String jobId : jobLeases.renew(jobIds)) {
+                String processingList = leased.get(jobId);
+                if (processingList == null) {
+                    continue;
+                }
+                // Lapsed while Redis was out of reach; unless it was reclaimed meanwhile it is still ours
+                if (jobLeases.reacquire(jobId, processingList)) {
+                    logger.warn("Lease on job {} lapsed, took it again", jobId);
+                } else {
+                    // Another worker may be running it now; stop renewing a lease that is not ours
+                    logger.warn("Lease on job {} lapsed and the job was reclaimed; no longer leasing it", jobId);
+                    leased.remove(jobId, processingList);
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Failed to renew job leases: {}", e.getMessage());
+        }
+    }
+
+    private void lease(String processingList, String jobId) {
+        leased.put(jobId, processingList);
+        try {
+            jobLeases.acquire(jobId, processingList);
+        } catch (RuntimeException e) {
+            // The next heartbeat takes it
+            logger.warn("Failed to lease job {}: {}", jobId, e.getMessage());
+        }
+    }
+
+    private void releaseLease(String jobId) {
+        if (leased.remove(jobId) == null) {
+            // Reclaimed while its lease lapsed; the lease, if any, is another worker's
+            return;
+        }
+        try {
+            jobLeases.release(jobId);
+        } catch (RuntimeException e) {
+            // It lapses on its own; the job is off the processing list either way
+            logger.debug("Failed to release lease on job {}: {}", jobId, e.getMessage());
+        }
+    }
+
+    private void releaseSlot() {
+        concurrencyLimiter.release();
+        inFlight.release();
+    }
+
+    private void recover(String processingList) {
+        try {
+            int recovered = jobQueueService.recover(processingList);
+            if (recovered > 0) {
+                logger.warn("Requeued {} unfinished jobs from {}", recovered, processingList);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Unable to recover {}: {}", processingList, e.getMessage());
+        }
+    }
+
+    private void acknowledge(String processingList, String jobId) {
+        try {
+            jobQueueService.acknowledge(processingList, jobId);
+        } catch (RuntimeException e) {
+            // The job stays on the processing list and is requeued on restart;
+            // processJob skips jobs that already finished
+            logger.warn("Failed to acknowledge job {} on {}", jobId, processingList, e);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            // Pollers notice the flag once their current blocking poll returns
+            for (Thread poller : pollers) {
+                poller.join(pollTimeout.toMillis() + TimeUnit.SECONDS.toMillis(SHUTDOWN_GRACE_SECONDS));
+            }
+            jobExecutor.shutdown();
+            if (!jobExecutor.awaitTermination(SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("Job workers still busy at shutdown; unfinished jobs are requeued on restart");
+                jobExecutor.shutdownNow();
+            } else if (inFlight.tryAcquire(maxInFlight, SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS)) {
+                // Jobs awaiting a completion callback hold a slot but no thread
+                inFlight.release(maxInFlight);
+            } else {
+                logger.warn("Jobs still awaiting Upscayl at shutdown; unfinished jobs are requeued on restart");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            jobExecutor.shutdownNow();
+        }
+        pollers.clear();
+        processingLists = List.of();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * One thread per job: virtual threads park cheaply while a job waits on Upscayl,
+     * disk or the database. The platform variant caps threads at {@code maxInFlight}.
+     */
+    static ExecutorService newJobExecutor(boolean virtualThreads, int maxInFlight) {
+        ThreadFactory factory = threadBuilder(virtualThreads).name("job-", 0).factory();
+        if (virtualThreads) {
+            return Executors.newThreadPerTaskExecutor(factory);
+        }
+        return Executors.newFixedThreadPool(maxInFlight, factory);
+    }
+
+    private static Thread.Builder threadBuilder(boolean virtualThreads) {
+        return virtualThreads ? Thread.ofVirtual() : Thread.ofPlatform().daemon(true);
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The configured node id, or the host name when none is configured.
+     */
+    static String resolveNodeId(String configured) {
+        if (configured != null && !configured.isBlank()) {
+            return configured;
+        }
+        String hostname = System.getenv("HOSTNAME");
+        if (hostname != null && !hostname.isBlank()) {
+            return hostname;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "local";
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package net.muttcode.spring.service;
+
+import net.muttcode.spring.model.ProcessingJob.Priority;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Smooth weighted round robin over the priority lanes.
+ * With every lane backlogged, lanes are served in proportion to their weights
+ * and interleaved rather than in bursts. Lanes found empty drop out of the
+ * rotation and lose their accumulated credit, so a lane that was idle for hours
+ * cannot claim a burst of dispatches when work arrives.
+ */
+class LaneSelector {
+
+    private final Map<Priority, Integer> weights = new EnumMap<>(Priority.class);
+    private final Map<Priority, Integer> credit = new EnumMap<>(Priority.class);
+    private final ReentrantLock lock = new ReentrantLock();
+
+    LaneSelector(Map<Priority, Integer> weights) {
+        for (Priority lane : Priority.values()) {
+            this.weights.put(lane, Math.max(1, weights.getOrDefault(lane, 1)));
+            this.credit.put(lane, 0);
+        }
+    }
+
+    /**
+     * Lanes in the order the next dispatch should try them.
+     */
+    List<Priority> order() {
+        lock.lock();
+        try {
+            List<Priority> lanes = new ArrayList<>(List.of(Priority.values()));
+            lanes.sort(Comparator.comparingInt((Priority lane) -> credit.get(lane) + weights.get(lane)).reversed()
+                .thenComparingInt(Priority::ordinal));
+            return lanes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records the outcome of a dispatch attempt: {@code served} is the lane a job
+     * was taken from (null if none) and {@code empty} the lanes found empty.
+     */
+    void record(Priority served, Set<Priority> empty) {
+        lock.lock();
+        try {
+            for (Priority lane : empty) {
+                credit.put(lane, 0);
+            }
+            if (served == null) {
+                return;
+            }
+            int total = 0;
+            for (Priority lane : Priority.values()) {
+                if (!empty.contains(lane)) {
+                    credit.merge(lane, weights.get(lane), Integer::sum);
+                    total += weights.get(lane);
+                }
+            }
+            credit.merge(served, -total, Integer::sum);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int weight(Priority lane) {
+        return weights.get(lane);
+    }
+}
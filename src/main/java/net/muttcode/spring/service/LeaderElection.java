@@ -0,0 +1,116 @@
+package net.muttcode.spring.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.LongSupplier;
+
+/**
+ * Elects one node to run cluster-wide maintenance, such as reclaiming stalled jobs.
+ * The leader holds {@code job:leader} for {@code jobs.leader.ttl-ms} and renews it every
+ * {@code jobs.leader.renew-ms}; when it stops renewing, whichever node tries next takes
+ * over. A node counts itself leader only until its last successful renewal would
+ * expire, so a leader cut off from Redis steps down before anyone else can step up.
+ */
+@Component
+public class LeaderElection {
+
+    private static final Logger logger = LoggerFactory.getLogger(LeaderElection.class);
+
+    private static final String LEADER_KEY = "job:leader";
+
+    // Takes the key when free, extends it when held by this node
+    private static final RedisScript<Long> ACQUIRE_SCRIPT = new DefaultRedisScript<>("""
+        local holder = redis.call('GET', KEYS[1])
+        if holder == ARGV[1] then
+            redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            return 1
+        end
+        if not holder then
+            redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2])
+            return 1
+        end
+        return 0
+        """, Long.class);
+
+    private static final RedisScript<Long> RESIGN_SCRIPT = new DefaultRedisScript<>("""
+        if redis.call('GET', KEYS[1]) == ARGV[1] then
+            return redis.call('DEL', KEYS[1])
+        end
+        return 0
+        """, Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final Duration ttl;
+    private final LongSupplier clock;
+    // Unique per process, even for two processes sharing a node id
+    private final String token;
+
+    private volatile long leaderUntil;
+    private volatile boolean leader;
+
+    @Autowired
+    public LeaderElection(RedisConnectionFactory connectionFactory,
+                          @Value("${jobs.leader.ttl-ms:15000}") long ttlMs,
+                          @Value("${jobs.worker.node-id:}") String nodeId) {
+        this(new StringRedisTemplate(connectionFactory), ttlMs, nodeId, System::nanoTime);
+    }
+
+    LeaderElection(StringRedisTemplate redisTemplate, long ttlMs, String nodeId, LongSupplier clock) {
+        this.redisTemplate = redisTemplate;
+        this.ttl = Duration.ofMillis(ttlMs);
+        this.clock = clock;
+        this.token = JobWorkerPool.resolveNodeId(nodeId) + ":" + UUID.randomUUID();
+    }
+
+    @Scheduled(fixedDelayString = "${jobs.leader.renew-ms:5000}")
+    public void renew() {
+        long attemptedAt = clock.getAsLong();
+        boolean acquired;
+        try {
+            Long result = redisTemplate.execute(ACQUIRE_SCRIPT, List.of(LEADER_KEY), token, String.valueOf(ttl.toMillis()));
+            acquired = result != null && result == 1;
+        } catch (RuntimeException e) {
+            logger.warn("Failed to renew leadership: {}", e.getMessage());
+            return;
+        }
+        if (acquired) {
+            // Measured from before the call, so the local view never outlives the key
+            leaderUntil = attemptedAt + ttl.toNanos();
+        }
+        if (acquired != leader) {
+            leader = acquired;
+            logger.info(acquired ? "Node {} became leader" : "Node {} is no longer leader", token);
+        }
+    }
+
+    public boolean isLeader() {
+        return leader && clock.getAsLong() - leaderUntil < 0;
+    }
+
+    @PreDestroy
+    public void resign() {
+        if (!leader) {
+            return;
+        }
+        leader = false;
+        try {
+            redisTemplate.execute(RESIGN_SCRIPT, List.of(LEADER_KEY), token);
+        } catch (RuntimeException e) {
+            // The key expires on its own
+            logger.warn("Failed to resign leadership: {}", e.getMessage());
+        }
+    }
+}
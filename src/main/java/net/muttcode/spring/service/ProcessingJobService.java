@@ -1,24 +1,90 @@
 package net.muttcode.spring.service;
 
+import net.muttcode.spring.model.JobOutboxEntry;
 import net.muttcode.spring.model.ProcessingJob;
+import net.muttcode.spring.repository.JobOutboxRepository;
 import net.muttcode.spring.repository.ProcessingJobRepository;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.ToIntFunction;
 
 @Service
 public class ProcessingJobService {
 
+    // States a job can still leave, in the order a finishing job is most likely in.
+    // Transitions out of COMPLETED or FAILED are ignored.
+    private static final List<ProcessingJob.JobStatus> OPEN =
+        List.of(ProcessingJob.JobStatus.PROCESSING, ProcessingJob.JobStatus.QUEUED);
+    // Length of the error_message column
+    private static final int MAX_ERROR_LENGTH = 1000;
+
     private final ProcessingJobRepository repository;
+    private final JobEventBus eventBus;
+    private final JobProgressBuffer progressBuffer;
+    private final JobStatistics statistics;
+    private final JobOutboxRepository outboxRepository;
 
-    public ProcessingJobService(ProcessingJobRepository repository) {
+    public ProcessingJobService(ProcessingJobRepository repository, JobEventBus eventBus, JobProgressBuffer progressBuffer,
+                                JobStatistics statistics, JobOutboxRepository outboxRepository) {
         this.repository = repository;
+        this.eventBus = eventBus;
+        this.progressBuffer = progressBuffer;
+        this.statistics = statistics;
+        this.outboxRepository = outboxRepository;
     }
 
     public ProcessingJob saveJob(ProcessingJob job) {
-        return repository.save(job);
+        ProcessingJob saved = repository.save(job);
+        statistics.jobCreated(job.getStatus());
+        eventBus.publish(JobEvent.of(job));
+        return saved;
+    }
+
+    /**
+     * Saves a new job together with its outbox entry, in one transaction, for
+     * {@link JobOutboxRelay} to push onto the queue. The job is counted and announced
+     * only once that transaction commits.
+     */
+    @Transactional
+    public ProcessingJob saveAndEnqueue(ProcessingJob job) {
+        ProcessingJob saved = repository.save(job);
+        outboxRepository.save(new JobOutboxEntry(job.getJobId(), job.getPriority(),
+            job.getSubmittedBy() != null ? job.getSubmittedBy() : FairShareScheduler.ANONYMOUS));
+        JobEvent created = JobEvent.of(job);
+        afterCommit(() -> {
+            statistics.jobCreated(created.status());
+            eventBus.publish(created);
+        });
+        return saved;
+    }
+
+    // Runs immediately when called outside a transaction
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
 
     public Optional<ProcessingJob> getJob(String jobId) {
@@ -33,39 +99,215 @@ public class ProcessingJobService {
         return repository.findByStatusOrderByCreatedAtDesc(status);
     }
 
+    /**
+     * Returns up to {@code limit} jobs, newest first, optionally filtered by status.
+     * Pass the {@link JobPage#nextCursor()} of a page to get the one after it; a cursor
+     * stays valid however many jobs are created meanwhile.
+     *
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public JobPage getJobPage(ProcessingJob.JobStatus status, String cursor, int limit) {
+        // One extra row tells whether there is a next page
+        Pageable window = PageRequest.of(0, limit + 1);
+        List<ProcessingJob> jobs;
+        if (cursor == null || cursor.isEmpty()) {
+            jobs = status == null
+                ? repository.findNewest(window)
+                : repository.findNewestByStatus(status, window);
+        } else {
+            Cursor after = Cursor.decode(cursor);
+            jobs = status == null
+                ? repository.findNewestBefore(after.createdAt(), after.jobId(), window)
+                : repository.findNewestByStatusBefore(status, after.createdAt(), after.jobId(), window);
+        }
+        if (jobs.size() <= limit) {
+            return new JobPage(jobs, null);
+        }
+        List<ProcessingJob> page = jobs.subList(0, limit);
+        return new JobPage(page, cursorAfter(page));
+    }
+
+    /**
+     * Offset page of the job history, newest first. Kept for clients of the page/size
+     * contract; deep pages get slower, so new clients should follow {@link #getJobPage} cursors.
+     */
+    public Page<ProcessingJob> getJobHistory(int page, int size) {
+        return repository.findAll(PageRequest.of(page, size,
+            Sort.by(Sort.Direction.DESC, "createdAt").and(Sort.by(Sort.Direction.DESC, "jobId"))));
+    }
+
+    /**
+     * Cursor pointing just past the last job of {@code jobs}, or null if there are none.
+     */
+    public static String cursorAfter(List<ProcessingJob> jobs) {
+        if (jobs.isEmpty()) {
+            return null;
+        }
+        ProcessingJob last = jobs.get(jobs.size() - 1);
+        return new Cursor(last.getCreatedAt(), last.getJobId()).encode();
+    }
+
+    /**
+     * Completed jobs that ran the same input bytes with the same model and scale, newest first.
+     */
+    public List<ProcessingJob> findCompletedDuplicates(String inputHash, String modelName, Integer scaleFactor) {
+        return repository.findByInputHashAndModelNameAndScaleFactorAndStatusOrderByCompletedAtDesc(
+            inputHash, modelName, scaleFactor, ProcessingJob.JobStatus.COMPLETED);
+    }
+
+    /**
+     * Buffers a progress update; it reaches the database on the next flush of the
+     * {@link JobProgressBuffer} and subscribers immediately.
+     */
     public void updateJobProgress(String jobId, Integer progressPercent) {
-        repository.findById(jobId).ifPresent(job -> {
-            job.setProgressPercent(progressPercent);
-            repository.save(job);
-        });
+        progressBuffer.record(jobId, progressPercent);
+        eventBus.publish(new JobEvent(jobId, ProcessingJob.JobStatus.PROCESSING, progressPercent, null, null, Instant.now()));
     }
 
-    public void startProcessing(String jobId) {
-        repository.findById(jobId).ifPresent(job -> {
-            job.setStatus(ProcessingJob.JobStatus.PROCESSING);
-            job.setStartedAt(Instant.now());
-            job.setProgressPercent(0);
-            repository.save(job);
-        });
+    /**
+     * Marks a job as processing.
+     *
+     * @return false if the job already reached a final state, e.g. it was cancelled, and must not run
+     */
+    public boolean startProcessing(String jobId) {
+        Instant now = Instant.now();
+        ProcessingJob.JobStatus queued = ProcessingJob.JobStatus.QUEUED;
+        ProcessingJob.JobStatus processing = ProcessingJob.JobStatus.PROCESSING;
+        if (repository.markProcessing(jobId, processing, now, EnumSet.of(queued)) > 0) {
+            statistics.transition(queued, processing);
+        } else if (repository.markProcessing(jobId, processing, now, EnumSet.of(processing)) == 0) {
+            return false;
+        }
+        // A redelivered job restarts without changing the counts
+        eventBus.publish(new JobEvent(jobId, processing, 0, null, null, now));
+        return true;
     }
 
-    public void completeJob(String jobId, String outputFileId, Long processingTimeMs) {
-        repository.findById(jobId).ifPresent(job -> {
-            job.setStatus(ProcessingJob.JobStatus.COMPLETED);
-            job.setOutputFileId(outputFileId);
-            job.setProgressPercent(100);
-            job.setCompletedAt(Instant.now());
-            job.setProcessingTimeMs(processingTimeMs);
-            repository.save(job);
-        });
+    /**
+     * @return false if the job had already reached a final state, e.g. it was cancelled
+     */
+    public boolean completeJob(String jobId, String outputFileId, Long processingTimeMs) {
+        progressBuffer.discard(jobId);
+        Instant now = Instant.now();
+        ProcessingJob.JobStatus completed = ProcessingJob.JobStatus.COMPLETED;
+        if (transitionFromOpen(completed,
+                from -> repository.markCompleted(jobId, completed, outputFileId, now, processingTimeMs, from)) == null) {
+            return false;
+        }
+        eventBus.publish(new JobEvent(jobId, completed, 100, outputFileId, null, now));
+        return true;
     }
 
     public void failJob(String jobId, String errorMessage) {
-        repository.findById(jobId).ifPresent(job -> {
-            job.setStatus(ProcessingJob.JobStatus.FAILED);
-            job.setErrorMessage(errorMessage);
-            job.setCompletedAt(Instant.now());
-            repository.save(job);
-        });
+        progressBuffer.discard(jobId);
+        Instant now = Instant.now();
+        String error = errorMessage != null && errorMessage.length() > MAX_ERROR_LENGTH
+            ? errorMessage.substring(0, MAX_ERROR_LENGTH)
+            : errorMessage;
+        ProcessingJob.JobStatus failed = ProcessingJob.JobStatus.FAILED;
+        if (transitionFromOpen(failed, from -> repository.markFailed(jobId, failed, error, now, from)) != null) {
+            eventBus.publish(new JobEvent(jobId, failed, null, null, error, now));
+        }
+    }
+
+    /**
+     * Cancels a job that has not finished yet. The CANCELLED event tells the node
+     * running it, if any, to stop.
+     *
+     * @return the state the job was cancelled from, or empty if it had already finished
+     */
+    public Optional<ProcessingJob.JobStatus> cancelJob(String jobId) {
+        progressBuffer.discard(jobId);
+        Instant now = Instant.now();
+        ProcessingJob.JobStatus cancelled = ProcessingJob.JobStatus.CANCELLED;
+        ProcessingJob.JobStatus from = transitionFromOpen(cancelled,
+            open -> repository.markStopped(jobId, cancelled, now, open));
+        if (from != null) {
+            eventBus.publish(new JobEvent(jobId, cancelled, null, null, null, now));
+        }
+        return Optional.ofNullable(from);
+    }
+
+    /**
+     * Queued jobs whose deadline has passed, at most {@code limit}, oldest deadline first.
+     */
+    public List<ProcessingJob> getExpiredQueuedJobs(int limit) {
+        return repository.findExpired(ProcessingJob.JobStatus.QUEUED, Instant.now(), PageRequest.of(0, limit));
+    }
+
+    /**
+     * Expires a job whose deadline passed while it was queued. A job already running is left to finish.
+     *
+     * @return false if the job was no longer queued
+     */
+    public boolean expireJob(String jobId) {
+        Instant now = Instant.now();
+        ProcessingJob.JobStatus queued = ProcessingJob.JobStatus.QUEUED;
+        ProcessingJob.JobStatus expired = ProcessingJob.JobStatus.EXPIRED;
+        if (repository.markStopped(jobId, expired, now, EnumSet.of(queued)) == 0) {
+            return false;
+        }
+        statistics.transition(queued, expired);
+        eventBus.publish(new JobEvent(jobId, expired, null, null, null, now));
+        return true;
+    }
+
+    /**
+     * Puts a job whose node stopped renewing its lease back in the queued state. Its
+     * attempts are kept, so {@link ImageProcessingService} gives up once they run out.
+     *
+     * @return false if the job was not processing, e.g. it died before it started or already finished
+     */
+    public boolean requeueStalled(String jobId) {
+        ProcessingJob.JobStatus processing = ProcessingJob.JobStatus.PROCESSING;
+        ProcessingJob.JobStatus queued = ProcessingJob.JobStatus.QUEUED;
+        if (repository.markQueued(jobId, queued, EnumSet.of(processing)) == 0) {
+            return false;
+        }
+        statistics.transition(processing, queued);
+        eventBus.publish(new JobEvent(jobId, queued, 0, null, null, Instant.now()));
+        return true;
+    }
+
+    public record JobPage(List<ProcessingJob> jobs, String nextCursor) {}
+
+    /**
+     * Position in the (created_at, job_id) ordering, handed to clients as opaque base64.
+     */
+    record Cursor(Instant createdAt, String jobId) {
+
+        String encode() {
+            String raw = createdAt + "|" + jobId;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(String cursor) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = raw.indexOf('|');
+                if (separator < 0 || separator == raw.length() - 1) {
+                    throw new IllegalArgumentException("Invalid cursor");
+                }
+                return new Cursor(Instant.parse(raw.substring(0, separator)), raw.substring(separator + 1));
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid cursor", e);
+            }
+        }
+    }
+
+    /**
+     * Runs {@code update} against one open state at a time so the statistics learn which
+     * state the job actually left. Each attempt is still a single conditional UPDATE.
+     *
+     * @return the state the job left, or null if it was not open
+     */
+    private ProcessingJob.JobStatus transitionFromOpen(ProcessingJob.JobStatus to, ToIntFunction<Set<ProcessingJob.JobStatus>> update) {
+        for (ProcessingJob.JobStatus from : OPEN) {
+            if (update.applyAsInt(EnumSet.of(from)) > 0) {
+                statistics.transition(from, to);
+                return from;
+            }
+        }
+        return null;
     }
 }
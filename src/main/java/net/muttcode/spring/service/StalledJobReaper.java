@@ -0,0 +1,82 @@
+package net.muttcode.spring.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Returns jobs whose worker died to the queue. Runs on the leader only: it walks every
+ * known processing list and reclaims jobs that have had no lease for two sweeps in a
+ * row, which leaves a worker that has just dispatched a job time to lease it. A
+ * reclaimed job goes back to the front of its queue and is started again, until
+ * its attempts run out. Lists of workers gone for good are forgotten once empty.
+ */
+@Component
+public class StalledJobReaper {
+
+    private static final Logger logger = LoggerFactory.getLogger(StalledJobReaper.class);
+
+    // A worker not seen for this many lease lifetimes is gone
+    private static final int STALE_AFTER_LEASES = 10;
+
+    private final JobQueueService jobQueueService;
+    private final JobLeases jobLeases;
+    private final ProcessingJobService jobService;
+    private final LeaderElection leaderElection;
+    // Jobs found without a lease on the previous sweep
+    private Set<String> suspects = new HashSet<>();
+
+    public StalledJobReaper(JobQueueService jobQueueService, JobLeases jobLeases,
+                            ProcessingJobService jobService, LeaderElection leaderElection) {
+        this.jobQueueService = jobQueueService;
+        this.jobLeases = jobLeases;
+        this.jobService = jobService;
+        this.leaderElection = leaderElection;
+    }
+
+    @Scheduled(fixedDelayString = "${jobs.lease.reap-interval-ms:15000}")
+    public void reap() {
+        if (!leaderElection.isLeader()) {
+            // A new leader starts with fresh suspicions
+            suspects = new HashSet<>();
+            return;
+        }
+        try {
+            suspects = sweep();
+        } catch (RuntimeException e) {
+            logger.warn("Failed to reclaim stalled jobs, will retry: {}", e.getMessage());
+        }
+    }
+
+    private Set<String> sweep() {
+        long staleBefore = System.currentTimeMillis() - jobLeases.getTtl().toMillis() * STALE_AFTER_LEASES;
+        Set<String> unleased = new HashSet<>();
+        for (Map.Entry<String, Long> list : jobQueueService.getProcessingLists().entrySet()) {
+            String processingList = list.getKey();
+            List<String> jobIds = jobQueueService.getProcessingJobs(processingList);
+            for (String jobId : jobLeases.unleased(jobIds)) {
+                if (!suspects.contains(jobId)) {
+                    unleased.add(jobId);
+                    continue;
+                }
+                // The script refuses a job leased again meanwhile; that job keeps running where it is.
+                // A worker that dequeues the reclaimed job before the update below still starts it,
+                // since starting a job accepts PROCESSING as well as QUEUED
+                if (jobQueueService.reclaim(processingList, jobId)) {
+                    jobService.requeueStalled(jobId);
+                    logger.warn("Reclaimed job {} from {}: its lease expired", jobId, processingList);
+                }
+            }
+            if (list.getValue() < staleBefore) {
+                jobQueueService.forgetProcessingList(processingList);
+            }
+        }
+        return unleased;
+    }
+}
@@ -0,0 +1,229 @@
+package net.muttcode.spring.service;
+
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Upscaled tiles seen as one image, blended across their overlaps. Each tile fades out
+ * linearly towards every edge it shares with a neighbour, and overlapping pixels are
+ * the weight-normalised mix of all tiles covering them, so seams leave no visible line.
+ * <p>
+ * Pixels are computed on request and only two rows of tiles are kept decoded, so an
+ * image writer that pulls rows in order, like the PNG writer, streams the result to
+ * disk without ever holding the whole upscaled image.
+ */
+final class StitchedImage implements RenderedImage {
+
+    private static final int CACHED_TILE_ROWS = 2;
+
+    /**
+     * Reads the upscaled tile at a row and column of the grid.
+     */
+    @FunctionalInterface
+    interface TileLoader {
+        BufferedImage load(int row, int col) throws IOException;
+    }
+
+    private final TileGrid.Axis columns;
+    private final TileGrid.Axis rows;
+    private final int scale;
+    private final TileLoader loader;
+    private final ColorModel colorModel;
+    private final SampleModel sampleModel;
+    private final int width;
+    private final int height;
+    private final float[][] columnWeights;
+    private final float[][] rowWeights;
+    private final Map<Integer, BufferedImage[]> decoded = new LinkedHashMap<>(4, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, BufferedImage[]> eldest) {
+            return size() > CACHED_TILE_ROWS;
+        }
+    };
+
+    StitchedImage(TileGrid grid, int scale, boolean alpha, TileLoader loader) {
+        this.columns = grid.columns();
+        this.rows = grid.rows();
+        this.scale = scale;
+        this.loader = loader;
+        this.colorModel = alpha ? ColorModel.getRGBdefault() : new DirectColorModel(24, 0xff0000, 0x00ff00, 0x0000ff);
+        this.width = columns.length() * scale;
+        this.height = rows.length() * scale;
+        this.sampleModel = colorModel.createCompatibleSampleModel(width, height);
+        this.columnWeights = new float[columns.count()][];
+        for (int c = 0; c < columns.count(); c++) {
+            columnWeights[c] = columns.feather(c, scale);
+        }
+        this.rowWeights = new float[rows.count()][];
+        for (int r = 0; r < rows.count(); r++) {
+            rowWeights[r] = rows.feather(r, scale);
+        }
+    }
+
+    @Override
+    public Raster getData(Rectangle rect) {
+        Rectangle area = rect.intersection(new Rectangle(0, 0, width, height));
+        WritableRaster raster = colorModel.createCompatibleWritableRaster(Math.max(1, area.width), Math.max(1, area.height))
+            .createWritableTranslatedChild(area.x, area.y);
+        if (!area.isEmpty()) {
+            fill(raster, area);
+        }
+        return raster;
+    }
+
+    private void fill(WritableRaster raster, Rectangle area) {
+        int[] argb = new int[area.width];
+        int[] line = new int[area.width];
+        float[] a = new float[area.width];
+        float[] r = new float[area.width];
+        float[] g = new float[area.width];
+        float[] b = new float[area.width];
+        float[] weights = new float[area.width];
+        for (int y = area.y; y < area.y + area.height; y++) {
+            Arrays.fill(a, 0);
+            Arrays.fill(r, 0);
+            Arrays.fill(g, 0);
+            Arrays.fill(b, 0);
+            Arrays.fill(weights, 0);
+            for (int row = 0; row < rows.count(); row++) {
+                int top = rows.start(row) * scale;
+                if (y < top || y >= top + rows.size(row) * scale) {
+                    continue;
+                }
+                float rowWeight = rowWeights[row][y - top];
+                BufferedImage[] tiles = tileRow(row);
+                for (int col = 0; col < columns.count(); col++) {
+                    int left = columns.start(col) * scale;
+                    int from = Math.max(area.x, left);
+                    int to = Math.min(area.x + area.width, left + columns.size(col) * scale);
+                    if (from >= to) {
+                        continue;
+                    }
+                    tiles[col].getRGB(from - left, y - top, to - from, 1, line, 0, to - from);
+                    float[] columnWeight = columnWeights[col];
+                    for (int x = from; x < to; x++) {
+                        int pixel = line[x - from];
+                        float weight = rowWeight * columnWeight[x - left];
+                        int i = x - area.x;
+                        a[i] += weight * (pixel >>> 24);
+                        r[i] += weight * ((pixel >> 16) & 0xff);
+                        g[i] += weight * ((pixel >> 8) & 0xff);
+                        b[i] += weight * (pixel & 0xff);
+                        weights[i] += weight;
+                    }
+                }
+            }
+            for (int i = 0; i < area.width; i++) {
+                float weight = weights[i];
+                argb[i] = channel(a[i], weight) << 24 | channel(r[i], weight) << 16
+                    | channel(g[i], weight) << 8 | channel(b[i], weight);
+                if (!colorModel.hasAlpha()) {
+                    argb[i] &= 0xffffff;
+                }
+            }
+            raster.setDataElements(area.x, y, area.width, 1, argb);
+        }
+    }
+
+    private static int channel(float sum, float weight) {
+        return Math.min(255, Math.round(sum / weight));
+    }
+
+    private BufferedImage[] tileRow(int row) {
+        BufferedImage[] tiles = decoded.get(row);
+        if (tiles != null) {
+            return tiles;
+        }
+        tiles = new BufferedImage[columns.count()];
+        for (int col = 0; col < columns.count(); col++) {
+            try {
+                tiles[col] = loader.load(row, col);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (tiles[col].getWidth() != columns.size(col) * scale || tiles[col].getHeight() != rows.size(row) * scale) {
+                throw new UncheckedIOException(new IOException("Upscaled tile " + row + "," + col + " is "
+                    + tiles[col].getWidth() + "x" + tiles[col].getHeight() + ", expected "
+                    + columns.size(col) * scale + "x" + rows.size(row) * scale));
+            }
+        }
+        decoded.put(row, tiles);
+        return tiles;
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, width, height));
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        WritableRaster target = raster != null ? raster : colorModel.createCompatibleWritableRaster(width, height);
+        target.setRect(getData(target.getBounds()));
+        return target;
+    }
+
+    // A single image-sized tile: writers ask for rows through getData(Rectangle)
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        return getData();
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() { return colorModel; }
+    @Override
+    public SampleModel getSampleModel() { return sampleModel; }
+    @Override
+    public int getWidth() { return width; }
+    @Override
+    public int getHeight() { return height; }
+    @Override
+    public int getMinX() { return 0; }
+    @Override
+    public int getMinY() { return 0; }
+    @Override
+    public int getNumXTiles() { return 1; }
+    @Override
+    public int getNumYTiles() { return 1; }
+    @Override
+    public int getMinTileX() { return 0; }
+    @Override
+    public int getMinTileY() { return 0; }
+    @Override
+    public int getTileWidth() { return width; }
+    @Override
+    public int getTileHeight() { return height; }
+    @Override
+    public int getTileGridXOffset() { return 0; }
+    @Override
+    public int getTileGridYOffset() { return 0; }
+}
@@ -0,0 +1,77 @@
+package net.muttcode.spring.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pauses admission of new uploads and jobs while free space on the target
+ * filesystem is below the configured floor. Free space is sampled at most once
+ * per {@code storage.admission.check-interval-ms} per filesystem.
+ */
+@Component
+public class StorageAdmission {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageAdmission.class);
+
+    private final double minFreeRatio;
+    private final long minFreeBytes;
+    private final long checkIntervalMs;
+    private final Map<FileStore, Sample> samples = new ConcurrentHashMap<>();
+
+    public StorageAdmission(
+            @Value("${storage.admission.min-free-ratio:0.05}") double minFreeRatio,
+            @Value("${storage.admission.min-free-bytes:1073741824}") long minFreeBytes,
+            @Value("${storage.admission.check-interval-ms:5000}") long checkIntervalMs) {
+        this.minFreeRatio = minFreeRatio;
+        this.minFreeBytes = minFreeBytes;
+        this.checkIntervalMs = checkIntervalMs;
+    }
+
+    /**
+     * @throws InsufficientStorageException when the filesystem holding {@code dir} is critically full
+     */
+    public void checkAdmission(Path dir) throws InsufficientStorageException {
+        if (isPaused(dir)) {
+            throw new InsufficientStorageException("Storage is critically low; new uploads and jobs are paused");
+        }
+    }
+
+    public boolean isPaused(Path dir) {
+        try {
+            FileStore store = Files.getFileStore(dir);
+            long now = System.currentTimeMillis();
+            Sample sample = samples.get(store);
+            if (sample == null || now - sample.takenAt() >= checkIntervalMs) {
+                boolean wasPaused = sample != null && sample.paused();
+                sample = new Sample(isCritical(store.getUsableSpace(), store.getTotalSpace()), now);
+                samples.put(store, sample);
+                if (sample.paused() != wasPaused) {
+                    logger.warn("Free space on {} is {}, admission {}", store,
+                        sample.paused() ? "critically low" : "recovered", sample.paused() ? "paused" : "resumed");
+                }
+            }
+            return sample.paused();
+        } catch (IOException e) {
+            logger.warn("Unable to read free space for {}", dir, e);
+            return false;
+        }
+    }
+
+    boolean isCritical(long usableBytes, long totalBytes) {
+        if (usableBytes < minFreeBytes) {
+            return true;
+        }
+        return totalBytes > 0 && (double) usableBytes / totalBytes < minFreeRatio;
+    }
+
+    private record Sample(boolean paused, long takenAt) {}
+}
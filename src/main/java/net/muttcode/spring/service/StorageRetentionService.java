@@ -0,0 +1,273 @@
+package net.muttcode.spring.service;
+
+import net.muttcode.spring.model.ProcessedFile;
+import net.muttcode.spring.model.ProcessingJob;
+import net.muttcode.spring.repository.ProcessedFileRepository;
+import net.muttcode.spring.repository.ProcessingJobRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Background retention for everything the API writes to disk.
+ * Each storage class has its own TTL, measured from last access. When a filesystem
+ * crosses the high watermark, the least recently accessed files across all classes
+ * on it are evicted until usage drops below the low watermark. Temp files and
+ * mount leftovers from crashed conversions or jobs age out as orphans. Storage is
+ * shared between nodes, so only the {@link LeaderElection leader} sweeps.
+ */
+@Service
+public class StorageRetentionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageRetentionService.class);
+
+    private static final EnumSet<ProcessingJob.JobStatus> ACTIVE_JOB_STATUSES =
+        EnumSet.of(ProcessingJob.JobStatus.QUEUED, ProcessingJob.JobStatus.PROCESSING);
+
+    private static final int FILE_ID_LENGTH = 36;
+
+    public enum StorageClass {
+        UPLOADS, PROCESSED, TEMP, MOUNTS
+    }
+
+    private final FileService fileService;
+    private final ProcessedFileRepository processedFileRepository;
+    private final ProcessingJobRepository jobRepository;
+    private final LeaderElection leaderElection;
+    private final Map<StorageClass, List<Path>> directories = new HashMap<>();
+    private final Map<StorageClass, Duration> ttls = new HashMap<>();
+
+    @Value("${storage.retention.enabled:true}")
+    private boolean enabled;
+
+    @Value("${storage.retention.high-watermark:0.85}")
+    private double highWatermark;
+
+    @Value("${storage.retention.low-watermark:0.75}")
+    private double lowWatermark;
+
+    public StorageRetentionService(
+            FileService fileService,
+            ProcessedFileRepository processedFileRepository,
+            ProcessingJobRepository jobRepository,
+            LeaderElection leaderElection,
+            @Value("${image.processing.output.path:/app/processed}") String processedPath,
+            @Value("${image.processing.temp.path:/app/temp}") String tempPath,
+            @Value("${upscayl.input.mount:/app/input}") String upscaylInputMount,
+            @Value("${upscayl.output.mount:/app/output}") String upscaylOutputMount,
+            @Value("${storage.retention.uploads-ttl-hours:168}") long uploadsTtlHours,
+            @Value("${storage.retention.processed-ttl-hours:72}") long processedTtlHours,
+            @Value("${storage.retention.temp-ttl-minutes:60}") long tempTtlMinutes,
+            @Value("${storage.retention.mounts-ttl-minutes:120}") long mountsTtlMinutes) {
+        this.fileService = fileService;
+        this.processedFileRepository = processedFileRepository;
+        this.jobRepository = jobRepository;
+        this.leaderElection = leaderElection;
+
+        directories.put(StorageClass.UPLOADS, List.of(fileService.getUploadDir()));
+        directories.put(StorageClass.PROCESSED, List.of(Path.of(processedPath)));
+        directories.put(StorageClass.TEMP, List.of(Path.of(tempPath)));
+        directories.put(StorageClass.MOUNTS, List.of(Path.of(upscaylInputMount), Path.of(upscaylOutputMount)));
+
+        ttls.put(StorageClass.UPLOADS, Duration.ofHours(uploadsTtlHours));
+        ttls.put(StorageClass.PROCESSED, Duration.ofHours(processedTtlHours));
+        ttls.put(StorageClass.TEMP, Duration.ofMinutes(tempTtlMinutes));
+        ttls.put(StorageClass.MOUNTS, Duration.ofMinutes(mountsTtlMinutes));
+    }
+
+    @Scheduled(fixedDelayString = "${storage.retention.interval-ms:300000}",
+               initialDelayString = "${storage.retention.initial-delay-ms:60000}")
+    public void sweep() {
+        if (!enabled || !leaderElection.isLeader()) {
+            return;
+        }
+        List<Candidate> candidates = scan();
+        Instant now = Instant.now();
+
+        int expired = 0;
+        List<Candidate> retained = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (candidate.lastAccess().isBefore(now.minus(ttls.get(candidate.storageClass())))
+                    && evict(candidate)) {
+                expired++;
+            } else {
+                retained.add(candidate);
+            }
+        }
+
+        int evicted = enforceWatermarks(retained);
+        if (expired > 0 || evicted > 0) {
+            logger.info("Retention sweep removed {} expired and {} evicted files", expired, evicted);
+        }
+    }
+
+    /**
+     * Evicts least recently accessed files on every filesystem above the high watermark.
+     */
+    int enforceWatermarks(List<Candidate> candidates) {
+        Map<FileStore, List<Candidate>> byStore = new HashMap<>();
+        for (Candidate candidate : candidates) {
+            try {
+                byStore.computeIfAbsent(Files.getFileStore(candidate.path()), s -> new ArrayList<>()).add(candidate);
+            } catch (IOException e) {
+                // File vanished between scan and now
+            }
+        }
+
+        int evicted = 0;
+        for (Map.Entry<FileStore, List<Candidate>> entry : byStore.entrySet()) {
+            FileStore store = entry.getKey();
+            try {
+                long total = store.getTotalSpace();
+                long used = total - store.getUsableSpace();
+                if (total <= 0 || (double) used / total < highWatermark) {
+                    continue;
+                }
+                long target = (long) (total * lowWatermark);
+                logger.warn("Filesystem {} at {}% used, evicting down to {}%",
+                    store, used * 100 / total, (int) (lowWatermark * 100));
+
+                List<Candidate> lru = new ArrayList<>(entry.getValue());
+                lru.sort(Comparator.comparing(Candidate::lastAccess));
+                for (Candidate candidate : lru) {
+                    if (used <= target) {
+                        break;
+                    }
+                    if (evict(candidate)) {
+                        evicted++;
+                        // A file with another hard link frees nothing, so measure rather than subtract its size
+                        used = total - store.getUsableSpace();
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Unable to read usage of {}", store, e);
+            }
+        }
+        return evicted;
+    }
+
+    private List<Candidate> scan() {
+        List<Candidate> candidates = new ArrayList<>();
+        for (Map.Entry<StorageClass, List<Path>> entry : directories.entrySet()) {
+            for (Path dir : entry.getValue()) {
+                if (!Files.isDirectory(dir)) {
+                    continue;
+                }
+                try (Stream<Path> files = Files.list(dir)) {
+                    files.forEach(path -> toCandidate(path, entry.getKey(), candidates));
+                } catch (IOException e) {
+                    logger.warn("Unable to scan {}", dir, e);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private void toCandidate(Path path, StorageClass storageClass, List<Candidate> candidates) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attrs.isRegularFile()) {
+                return;
+            }
+            if (CompressedTransferService.isVariant(path)
+                    && Files.exists(CompressedTransferService.originalOf(path))) {
+                // Precompressed variants live and die with their original
+                return;
+            }
+            Instant lastAccess = attrs.lastAccessTime().toInstant();
+            Instant lastModified = attrs.lastModifiedTime().toInstant();
+            candidates.add(new Candidate(
+                path, storageClass, lastAccess.isAfter(lastModified) ? lastAccess : lastModified, attrs.size()));
+        } catch (IOException e) {
+            // File vanished during the scan
+        }
+    }
+
+    /**
+     * Deletes a file and keeps its database row in step. Inputs of queued or
+     * running jobs are never evicted, nor are their files in the Upscayl mounts.
+     */
+    private boolean evict(Candidate candidate) {
+        String fileName = candidate.path().getFileName().toString();
+        String fileId = fileIdOf(fileName);
+        try {
+            if (CompressedTransferService.isPartialVariant(candidate.path())) {
+                // Leftover of an interrupted precompression; the original is untouched
+                Files.deleteIfExists(candidate.path());
+                return true;
+            }
+            switch (candidate.storageClass()) {
+                case UPLOADS -> {
+                    if (fileId != null && jobRepository.existsByInputFileIdAndStatusIn(fileId, ACTIVE_JOB_STATUSES)) {
+                        return false;
+                    }
+                    Files.deleteIfExists(candidate.path());
+                    if (fileId != null) {
+                        fileService.deleteFile(fileId);
+                        markProcessedFileDeleted(fileId);
+                    }
+                }
+                case MOUNTS -> {
+                    // A job's hand-off input, tiles and output are all named after its input's fileId.
+                    // A hard-linked input keeps the upload's timestamps, so it can look expired as its job starts
+                    if (fileId != null && jobRepository.existsByInputFileIdAndStatusIn(fileId, ACTIVE_JOB_STATUSES)) {
+                        return false;
+                    }
+                    Files.deleteIfExists(candidate.path());
+                }
+                case PROCESSED -> {
+                    Files.deleteIfExists(candidate.path());
+                    if (fileId != null) {
+                        markProcessedFileDeleted(fileId);
+                    }
+                }
+                default -> Files.deleteIfExists(candidate.path());
+            }
+            Files.deleteIfExists(CompressedTransferService.variantOf(candidate.path()));
+            logger.debug("Evicted {} file {}", candidate.storageClass(), candidate.path());
+            return true;
+        } catch (IOException e) {
+            logger.warn("Failed to evict {}", candidate.path(), e);
+            return false;
+        }
+    }
+
+    private void markProcessedFileDeleted(String processedFileId) {
+        processedFileRepository.findByProcessedFileId(processedFileId)
+            .filter(processed -> processed.getStatus() != ProcessedFile.ProcessedFileStatus.DELETED)
+            .ifPresent(processed -> {
+                processed.setStatus(ProcessedFile.ProcessedFileStatus.DELETED);
+                processed.setUpdatedAt(Instant.now());
+                processedFileRepository.save(processed);
+            });
+    }
+
+    /**
+     * Stored names are {@code <fileId>_<originalName>}; returns the fileId prefix if present.
+     */
+    static String fileIdOf(String fileName) {
+        if (fileName.length() <= FILE_ID_LENGTH || fileName.charAt(FILE_ID_LENGTH) != '_') {
+            return null;
+        }
+        return fileName.substring(0, FILE_ID_LENGTH);
+    }
+
+    record Candidate(Path path, StorageClass storageClass, Instant lastAccess, long size) {}
+}
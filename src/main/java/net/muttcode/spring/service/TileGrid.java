@@ -0,0 +1,68 @@
+package net.muttcode.spring.service;
+
+/**
+ * Overlapping tiles covering an image. Along each axis, tiles of {@code tileSize} step
+ * by {@code tileSize - overlap}; the last one is moved back to end at the image edge, so
+ * every tile has full size and overlaps its neighbours by at least {@code overlap}.
+ */
+record TileGrid(Axis columns, Axis rows) {
+
+    static TileGrid of(int width, int height, int tileSize, int overlap) {
+        return new TileGrid(Axis.of(width, tileSize, overlap), Axis.of(height, tileSize, overlap));
+    }
+
+    int count() {
+        return columns.count() * rows.count();
+    }
+
+    record Axis(int length, int[] starts, int tileSize) {
+
+        static Axis of(int length, int tileSize, int overlap) {
+            if (length <= tileSize) {
+                return new Axis(length, new int[] {0}, length);
+            }
+            int stride = tileSize - overlap;
+            int count = (length - tileSize + stride - 1) / stride + 1;
+            int[] starts = new int[count];
+            for (int i = 0; i < count - 1; i++) {
+                starts[i] = i * stride;
+            }
+            starts[count - 1] = length - tileSize;
+            return new Axis(length, starts, tileSize);
+        }
+
+        int count() {
+            return starts.length;
+        }
+
+        int start(int index) {
+            return starts[index];
+        }
+
+        int size(int index) {
+            return tileSize;
+        }
+
+        /**
+         * Blend weight of each upscaled pixel of a tile: 1 inside, ramping down to nearly 0
+         * across each overlap with a neighbour. Edges of the image keep full weight.
+         */
+        float[] feather(int index, int scale) {
+            int pixels = tileSize * scale;
+            int before = index > 0 ? (start(index - 1) + tileSize - start(index)) * scale : 0;
+            int after = index < count() - 1 ? (start(index) + tileSize - start(index + 1)) * scale : 0;
+            float[] weights = new float[pixels];
+            for (int i = 0; i < pixels; i++) {
+                float weight = 1;
+                if (before > 0) {
+                    weight = Math.min(weight, (i + 0.5f) / before);
+                }
+                if (after > 0) {
+                    weight = Math.min(weight, (pixels - i - 0.5f) / after);
+                }
+                weights[i] = weight;
+            }
+            return weights;
+        }
+    }
+}
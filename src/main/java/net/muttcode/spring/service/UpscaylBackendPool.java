@@ -0,0 +1,293 @@
+package net.muttcode.spring.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The Upscayl backends this node sends work to, configured as a comma-separated
+ * {@code upscayl.backend.urls} (falling back to the single {@code upscayl.service.url}).
+ * All backends must see the same input and output mounts.
+ * <p>
+ * Each call goes to the backend with the fewest requests outstanding from this node.
+ * A backend that already has the requested model loaded counts as
+ * {@code model-affinity} requests less busy, so work for a model stays where the model
+ * is warm unless that backend is clearly behind. Loaded models come from the health
+ * check response when the backend reports them, otherwise from the calls it served.
+ * <p>
+ * Backends are probed every {@code health-interval-ms} and taken out of rotation after
+ * {@code unhealthy-after} failed probes in a row. A draining backend gets no new work
+ * but finishes what it has, so it can be restarted once its outstanding count is zero.
+ */
+@Component
+public class UpscaylBackendPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(UpscaylBackendPool.class);
+
+    private final List<Backend> backends;
+    private final UpscaylHttpClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final Duration healthTimeout;
+    private final int unhealthyAfter;
+    private final int modelAffinity;
+    private final AtomicInteger rotation = new AtomicInteger();
+    // Calls in flight on this node, so status and cancel requests reach the backend running them
+    private final Map<String, Backend> assignments = new ConcurrentHashMap<>();
+
+    public UpscaylBackendPool(
+            UpscaylHttpClient httpClient,
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry,
+            @Value("${upscayl.backend.urls:${upscayl.service.url:http://upscayl:8081}}") String urls,
+            @Value("${upscayl.backend.drained:}") String drained,
+            @Value("${upscayl.backend.health-timeout-ms:2000}") int healthTimeoutMs,
+            @Value("${upscayl.backend.unhealthy-after:2}") int unhealthyAfter,
+            @Value("${upscayl.backend.model-affinity:2}") int modelAffinity) {
+        this.httpClient = httpClient;
+        this.objectMapper = objectMapper;
+        this.healthTimeout = Duration.ofMillis(healthTimeoutMs);
+        this.unhealthyAfter = Math.max(1, unhealthyAfter);
+        this.modelAffinity = Math.max(0, modelAffinity);
+
+        List<String> drainedUrls = parseUrls(drained);
+        List<Backend> configured = new ArrayList<>();
+        for (String url : parseUrls(urls)) {
+            if (configured.stream().noneMatch(backend -> backend.url.equals(url))) {
+                configured.add(new Backend(url, drainedUrls.contains(url), meterRegistry));
+            }
+        }
+        if (configured.isEmpty()) {
+            throw new IllegalArgumentException("upscayl.backend.urls must list at least one backend");
+        }
+        this.backends = List.copyOf(configured);
+        logger.info("Upscayl backends: {}", backends.stream().map(backend -> backend.url).toList());
+    }
+
+    /**
+     * Picks the backend for a call and counts it as outstanding there until
+     * {@link #release released}. Unhealthy backends are only used when no healthy one
+     * is accepting work, since the probe may be stale; draining ones never are.
+     *
+     * @throws ResourceAccessException if every backend is draining
+     */
+    public Backend acquire(String modelName, Collection<String> jobIds) {
+        List<Backend> candidates = backends.stream().filter(backend -> !backend.draining && backend.healthy).toList();
+        if (candidates.isEmpty()) {
+            candidates = backends.stream().filter(backend -> !backend.draining).toList();
+        }
+        if (candidates.isEmpty()) {
+            throw new ResourceAccessException("No Upscayl backend is accepting work");
+        }
+        // Rotate the starting point so ties spread across backends
+        int start = Math.floorMod(rotation.getAndIncrement(), candidates.size());
+        Backend chosen = null;
+        int best = Integer.MAX_VALUE;
+        for (int i = 0; i < candidates.size(); i++) {
+            Backend backend = candidates.get((start + i) % candidates.size());
+            int score = backend.outstanding.get() - (backend.models.contains(modelName) ? modelAffinity : 0);
+            if (score < best) {
+                best = score;
+                chosen = backend;
+            }
+        }
+        chosen.outstanding.incrementAndGet();
+        for (String jobId : jobIds) {
+            assignments.put(jobId, chosen);
+        }
+        return chosen;
+    }
+
+    /**
+     * Ends a call started with {@link #acquire}. A call the backend answered leaves the model loaded there.
+     */
+    public void release(Backend backend, String modelName, Collection<String> jobIds, long latencyNanos, boolean failed) {
+        backend.outstanding.decrementAndGet();
+        for (String jobId : jobIds) {
+            assignments.remove(jobId, backend);
+        }
+        backend.latency.record(latencyNanos, TimeUnit.NANOSECONDS);
+        if (!failed && modelName != null) {
+            backend.models.add(modelName);
+        }
+    }
+
+    /**
+     * Backends that may know {@code jobId}: the one running it on this node, otherwise all of them.
+     */
+    public List<Backend> backendsFor(String jobId) {
+        Backend assigned = assignments.get(jobId);
+        return assigned != null ? List.of(assigned) : backends;
+    }
+
+    /**
+     * A backend to ask questions that any of them can answer, such as which models exist.
+     */
+    public Backend any() {
+        return backends.stream()
+            .filter(backend -> backend.healthy && !backend.draining)
+            .findFirst()
+            .orElse(backends.get(0));
+    }
+
+    /**
+     * Stops or resumes routing new work to {@code url}.
+     *
+     * @return the backend's status, or empty if no backend has that URL
+     */
+    public Optional<BackendStatus> setDraining(String url, boolean draining) {
+        String normalised = normalise(url);
+        return backends.stream()
+            .filter(backend -> backend.url.equals(normalised))
+            .findFirst()
+            .map(backend -> {
+                if (backend.draining != draining) {
+                    backend.draining = draining;
+                    logger.info("Upscayl backend {} {}", backend.url, draining ? "draining" : "back in rotation");
+                }
+                return backend.status();
+            });
+    }
+
+    public boolean isAvailable() {
+        return backends.stream().anyMatch(backend -> backend.healthy && !backend.draining);
+    }
+
+    public List<BackendStatus> getStatus() {
+        return backends.stream().map(Backend::status).toList();
+    }
+
+    /**
+     * Probes every backend at once. A backend reporting {@code loadedModels} in its
+     * health response has its model set replaced by that list.
+     */
+    @Scheduled(fixedDelayString = "${upscayl.backend.health-interval-ms:10000}")
+    public void checkHealth() {
+        List<CompletableFuture<String>> probes = backends.stream()
+            .map(backend -> httpClient.get(backend.url, healthTimeout))
+            .toList();
+        for (int i = 0; i < backends.size(); i++) {
+            Backend backend = backends.get(i);
+            boolean healthy;
+            try {
+                updateModels(backend, UpscaylHttpClient.await(probes.get(i)));
+                healthy = true;
+            } catch (Exception e) {
+                logger.debug("Health check of Upscayl backend {} failed: {}", backend.url, e.getMessage());
+                healthy = false;
+            }
+            backend.failedChecks = healthy ? 0 : backend.failedChecks + 1;
+            boolean wasHealthy = backend.healthy;
+            backend.healthy = healthy || (wasHealthy && backend.failedChecks < unhealthyAfter);
+            if (backend.healthy != wasHealthy) {
+                if (backend.healthy) {
+                    logger.info("Upscayl backend {} is healthy again", backend.url);
+                } else {
+                    logger.warn("Upscayl backend {} failed {} health checks, taking it out of rotation",
+                        backend.url, backend.failedChecks);
+                }
+            }
+        }
+    }
+
+    private void updateModels(Backend backend, String body) {
+        if (body == null || body.isBlank()) {
+            return;
+        }
+        try {
+            JsonNode loaded = objectMapper.readTree(body).path("loadedModels");
+            if (loaded.isArray()) {
+                Set<String> models = new HashSet<>();
+                loaded.forEach(model -> models.add(model.asText()));
+                backend.models.retainAll(models);
+                backend.models.addAll(models);
+            }
+        } catch (Exception e) {
+            // Not every backend answers with JSON; the models it served still count
+        }
+    }
+
+    private static List<String> parseUrls(String urls) {
+        if (urls == null || urls.isBlank()) {
+            return List.of();
+        }
+        return Arrays.stream(urls.split(","))
+            .map(String::trim)
+            .filter(url -> !url.isEmpty())
+            .map(UpscaylBackendPool::normalise)
+            .toList();
+    }
+
+    private static String normalise(String url) {
+        String trimmed = url.trim();
+        while (trimmed.endsWith("/")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        return trimmed;
+    }
+
+    public static final class Backend {
+        private final String url;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final Set<String> models = ConcurrentHashMap.newKeySet();
+        private final Timer latency;
+        private volatile boolean healthy = true;
+        private volatile boolean draining;
+        // Only touched by the health check
+        private int failedChecks;
+
+        private Backend(String url, boolean draining, MeterRegistry meterRegistry) {
+            this.url = url;
+            this.draining = draining;
+            this.latency = Timer.builder("upscayl.backend.latency")
+                .description("Latency of upscale calls per Upscayl backend")
+                .tag("backend", url)
+                .register(meterRegistry);
+            Gauge.builder("upscayl.backend.outstanding", outstanding, AtomicInteger::get)
+                .description("Upscale calls this node has outstanding on the backend")
+                .tag("backend", url)
+                .register(meterRegistry);
+            Gauge.builder("upscayl.backend.healthy", this, backend -> backend.healthy ? 1 : 0)
+                .description("1 while the backend passes health checks")
+                .tag("backend", url)
+                .register(meterRegistry);
+            Gauge.builder("upscayl.backend.draining", this, backend -> backend.draining ? 1 : 0)
+                .description("1 while the backend is draining")
+                .tag("backend", url)
+                .register(meterRegistry);
+        }
+
+        public String url() {
+            return url;
+        }
+
+        private BackendStatus status() {
+            return new BackendStatus(url, healthy, draining, outstanding.get(), Set.copyOf(models),
+                latency.count(), latency.mean(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    public record BackendStatus(String url, boolean healthy, boolean draining, int outstanding, Set<String> loadedModels,
+                                long calls, double meanLatencyMs) {}
+}
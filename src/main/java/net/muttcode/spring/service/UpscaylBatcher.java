@@ -0,0 +1,231 @@
+package net.muttcode.spring.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Micro-batching stage in front of {@link UpscaylService}.
+ * Small inputs waiting on the same model and scale are held for up to
+ * {@code jobs.batch.max-wait-ms} or until {@code jobs.batch.max-size} have gathered,
+ * then sent as one batch call so the backend pays model setup once. Batches are sent
+ * asynchronously, so no thread is held while one is in flight; each caller gets its
+ * own result, so every job still completes its own {@code ProcessingJob}.
+ * Large inputs, where setup cost is noise, go straight through.
+ */
+@Service
+public class UpscaylBatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(UpscaylBatcher.class);
+
+    private final UpscaylService upscaylService;
+    private final boolean enabled;
+    private final int maxBatchSize;
+    private final long maxWaitMs;
+    private final long maxInputBytes;
+    private final Map<BatchKey, PendingBatch> open = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ScheduledExecutorService timer;
+
+    private volatile boolean batchEndpointAvailable = true;
+
+    public UpscaylBatcher(
+            UpscaylService upscaylService,
+            @Value("${jobs.batch.enabled:true}") boolean enabled,
+            @Value("${jobs.batch.max-size:8}") int maxBatchSize,
+            @Value("${jobs.batch.max-wait-ms:20}") long maxWaitMs,
+            @Value("${jobs.batch.max-input-bytes:1048576}") long maxInputBytes) {
+        this.upscaylService = upscaylService;
+        this.enabled = enabled;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxWaitMs = Math.max(0, maxWaitMs);
+        this.maxInputBytes = maxInputBytes;
+        this.timer = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().daemon(true).name("upscayl-batch-timer").factory());
+    }
+
+    /**
+     * Upscales one input, possibly as part of a batch with other callers, without holding
+     * the calling thread. Missing inputs fail the future with an {@link IOException}.
+     */
+    public CompletableFuture<UpscaylService.UpscaylResult> upscale(String jobId, String inputFilePath, Integer scaleFactor,
+                                                                   String modelName) {
+        boolean batchable;
+        try {
+            batchable = isBatchable(inputFilePath);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (!batchable) {
+            return upscaylService.upscale(jobId, inputFilePath, scaleFactor, modelName);
+        }
+        return enqueue(new BatchKey(modelName, scaleFactor), new PendingItem(jobId, inputFilePath, new CompletableFuture<>()));
+    }
+
+    private boolean isBatchable(String inputFilePath) throws IOException {
+        if (!enabled || maxBatchSize < 2 || !batchEndpointAvailable) {
+            return false;
+        }
+        Path input = Path.of(inputFilePath);
+        // Missing inputs go the direct route, which reports them
+        return Files.exists(input) && Files.size(input) <= maxInputBytes;
+    }
+
+    /**
+     * Stops the run for {@code jobId}: drops it from a batch still being gathered, or
+     * asks the backend to cancel it. The waiting caller gets a failed result.
+     *
+     * @return false if the job was neither waiting here nor known to the backend
+     */
+    public boolean cancel(String jobId) {
+        PendingItem removed = null;
+        lock.lock();
+        try {
+            for (PendingBatch batch : open.values()) {
+                for (PendingItem item : batch.items) {
+                    if (item.jobId().equals(jobId)) {
+                        removed = item;
+                        break;
+                    }
+                }
+                if (removed != null) {
+                    batch.items.remove(removed);
+                    if (batch.items.isEmpty()) {
+                        open.remove(batch.key, batch);
+                    }
+                    break;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (removed != null) {
+            removed.result.complete(new UpscaylService.UpscaylResult(false, null, "Cancelled"));
+            return true;
+        }
+        return upscaylService.cancel(jobId);
+    }
+
+    private CompletableFuture<UpscaylService.UpscaylResult> enqueue(BatchKey key, PendingItem item) {
+        PendingBatch full = null;
+        lock.lock();
+        try {
+            PendingBatch batch = open.get(key);
+            if (batch == null) {
+                PendingBatch created = new PendingBatch(key);
+                open.put(key, created);
+                timer.schedule(() -> flushExpired(created), maxWaitMs, TimeUnit.MILLISECONDS);
+                batch = created;
+            }
+            batch.items.add(item);
+            if (batch.items.size() >= maxBatchSize) {
+                open.remove(key);
+                full = batch;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        return item.result;
+    }
+
+    private void flushExpired(PendingBatch batch) {
+        lock.lock();
+        try {
+            // Already sent if it filled up before the deadline
+            if (!open.remove(batch.key, batch)) {
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        dispatch(batch);
+    }
+
+    private void dispatch(PendingBatch batch) {
+        List<PendingItem> items = batch.items;
+        if (items.size() == 1 || !batchEndpointAvailable) {
+            items.forEach(item -> runSingle(batch.key, item));
+            return;
+        }
+
+        List<UpscaylService.BatchItem> inputs = items.stream()
+            .map(item -> new UpscaylService.BatchItem(item.jobId(), item.inputFilePath()))
+            .toList();
+        upscaylService.upscaleBatch(inputs, batch.key.scaleFactor(), batch.key.modelName()).whenComplete((results, error) -> {
+            if (error == null) {
+                logger.debug("Upscayl batch of {} completed for {}", items.size(), batch.key);
+                for (int i = 0; i < items.size(); i++) {
+                    items.get(i).result.complete(results.get(i));
+                }
+                return;
+            }
+            Throwable cause = UpscaylHttpClient.unwrap(error);
+            if (cause instanceof HttpClientErrorException.NotFound) {
+                logger.warn("Upscayl backend has no batch endpoint; sending jobs individually");
+                batchEndpointAvailable = false;
+                items.forEach(item -> runSingle(batch.key, item));
+            } else {
+                logger.error("Upscayl batch of {} failed", items.size(), cause);
+                items.forEach(item -> item.result.complete(new UpscaylService.UpscaylResult(false, null, cause.getMessage())));
+            }
+        });
+    }
+
+    private void runSingle(BatchKey key, PendingItem item) {
+        upscaylService.upscale(item.jobId(), item.inputFilePath(), key.scaleFactor(), key.modelName())
+            .whenComplete((result, error) -> {
+                if (error != null) {
+                    item.result.completeExceptionally(UpscaylHttpClient.unwrap(error));
+                } else {
+                    item.result.complete(result);
+                }
+            });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+        List<PendingBatch> pending;
+        lock.lock();
+        try {
+            pending = new ArrayList<>(open.values());
+            open.clear();
+        } finally {
+            lock.unlock();
+        }
+        // Send what was gathered rather than leaving callers waiting on a dead timer
+        pending.forEach(this::dispatch);
+    }
+
+    private record BatchKey(String modelName, Integer scaleFactor) {}
+
+    private record PendingItem(String jobId, String inputFilePath, CompletableFuture<UpscaylService.UpscaylResult> result) {}
+
+    private static final class PendingBatch {
+        private final BatchKey key;
+        private final List<PendingItem> items = new ArrayList<>();
+
+        private PendingBatch(BatchKey key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package net.muttcode.spring.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Progress and completion events POSTed back by Upscayl backends.
+ * <p>
+ * When both {@code upscayl.callback.url} and {@code upscayl.callback.secret} are set,
+ * every upscale request carries the URL. A backend that supports callbacks answers at
+ * once with status {@code accepted} and later reports on the run there; one that does
+ * not simply answers with the result as before. Events are signed:
+ * {@code X-Upscayl-Signature: sha256=<hex>} is the HMAC-SHA256, under the shared secret,
+ * of {@code <X-Upscayl-Timestamp>.<body>}, and timestamps more than
+ * {@code max-skew-seconds} off are refused so a captured event cannot be replayed later.
+ * Each run is also sent a random {@code runId} that its events must echo, so an event
+ * replayed within that window cannot settle a later run of the same job. For the run it
+ * was sent for, a replayed completion finds the run no longer awaited, and progress that
+ * does not advance past the last report is acknowledged without being applied.
+ * <p>
+ * Progress goes straight to {@link ProcessingJobService}; completion completes the future
+ * {@link UpscaylService} handed out for the run, whose continuation finishes the job. No
+ * thread waits on the GPU in between. Runs are awaited on the node that started them, so
+ * the URL must reach this node rather than any node behind a load balancer.
+ */
+@Component
+public class UpscaylCallbacks {
+
+    private static final Logger logger = LoggerFactory.getLogger(UpscaylCallbacks.class);
+
+    public static final String TIMESTAMP_HEADER = "X-Upscayl-Timestamp";
+    public static final String SIGNATURE_HEADER = "X-Upscayl-Signature";
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final String SIGNATURE_PREFIX = "sha256=";
+
+    private final ProcessingJobService jobService;
+    private final ObjectMapper objectMapper;
+    private final String callbackUrl;
+    private final SecretKeySpec key;
+    private final Duration maxSkew;
+    // Runs awaiting their completion event, by the jobId sent to the backend
+    private final Map<String, Run> pending = new ConcurrentHashMap<>();
+    // Last progress applied per awaited run
+    private final Map<String, Integer> progress = new ConcurrentHashMap<>();
+    // Completions run the job's continuation; the backend's request need not wait for it
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public UpscaylCallbacks(
+            ProcessingJobService jobService,
+            ObjectMapper objectMapper,
+            @Value("${upscayl.callback.url:}") String callbackUrl,
+            @Value("${upscayl.callback.secret:}") String secret,
+            @Value("${upscayl.callback.max-skew-seconds:300}") long maxSkewSeconds) {
+        this.jobService = jobService;
+        this.objectMapper = objectMapper;
+        boolean enabled = !callbackUrl.isBlank() && !secret.isBlank();
+        this.callbackUrl = enabled ? callbackUrl.trim() : null;
+        this.key = enabled ? new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM) : null;
+        this.maxSkew = Duration.ofSeconds(maxSkewSeconds);
+        if (!callbackUrl.isBlank() && secret.isBlank()) {
+            logger.warn("upscayl.callback.url is set without upscayl.callback.secret; Upscayl callbacks stay disabled");
+        }
+    }
+
+    public boolean isEnabled() {
+        return key != null;
+    }
+
+    public String getCallbackUrl() {
+        return callbackUrl;
+    }
+
+    /**
+     * Registers a run before it is sent, so a completion arriving ahead of the backend's
+     * response is not lost. A run registered earlier under the same id is superseded.
+     * The returned {@link Run#id()} must be sent with the run for its events to be accepted.
+     */
+    public Run expect(String jobId) {
+        Run run = new Run(UUID.randomUUID().toString(), new CompletableFuture<>());
+        Run previous = pending.put(jobId, run);
+        progress.remove(jobId);
+        if (previous != null) {
+            previous.completion().complete(new UpscaylService.UpscaylResult(false, null, "Superseded by a newer run"));
+        }
+        return run;
+    }
+
+    /**
+     * Drops a run once it has finished by other means: a direct response, an error or a missed deadline.
+     */
+    public void forget(String jobId, Run run) {
+        if (pending.remove(jobId, run)) {
+            progress.remove(jobId);
+        }
+    }
+
+    /**
+     * Ends the wait for a run that was stopped, which the backend may never report on.
+     *
+     * @return false if no run was awaited for {@code jobId}
+     */
+    public boolean cancel(String jobId) {
+        Run run = pending.remove(jobId);
+        progress.remove(jobId);
+        if (run == null) {
+            return false;
+        }
+        executor.execute(() -> run.completion().complete(new UpscaylService.UpscaylResult(false, null, "Cancelled")));
+        return true;
+    }
+
+    public int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * Verifies and applies one event. The body is a JSON object with the {@code jobId} and
+     * {@code runId} of the run, and its {@code status}: {@code processing} with a {@code progress} percentage, or
+     * {@code success} with the {@code output} path, or {@code error} with an {@code error} message.
+     */
+    public CallbackResult handle(String timestamp, String signature, byte[] body) {
+        if (!isEnabled()) {
+            return CallbackResult.DISABLED;
+        }
+        if (!verify(timestamp, signature, body)) {
+            return CallbackResult.BAD_SIGNATURE;
+        }
+
+        JsonNode event;
+        try {
+            event = objectMapper.readTree(body);
+        } catch (IOException e) {
+            return CallbackResult.MALFORMED;
+        }
+        String jobId = event != null ? event.path("jobId").asText("") : "";
+        String runId = event != null ? event.path("runId").asText("") : "";
+        String status = event != null ? event.path("status").asText("") : "";
+        if (jobId.isEmpty()) {
+            return CallbackResult.MALFORMED;
+        }
+
+        switch (status) {
+            case "processing" -> {
+                if (awaited(jobId, runId) == null) {
+                    return CallbackResult.UNKNOWN_JOB;
+                }
+                if (event.path("progress").isNumber()) {
+                    // 100 is reserved for a job whose output has been stored
+                    int percent = Math.max(0, Math.min(99, event.path("progress").asInt()));
+                    if (advance(jobId, percent)) {
+                        jobService.updateJobProgress(jobId, percent);
+                    }
+                }
+                return CallbackResult.ACCEPTED;
+            }
+            case "success", "error" -> {
+                Run run = awaited(jobId, runId);
+                if (run == null || !pending.remove(jobId, run)) {
+                    // Finished already, timed out, superseded, or started on another node
+                    logger.debug("Ignoring {} callback for job {} that is not awaited here", status, jobId);
+                    return CallbackResult.UNKNOWN_JOB;
+                }
+                progress.remove(jobId);
+                UpscaylService.UpscaylResult result = status.equals("success")
+                    ? new UpscaylService.UpscaylResult(true, event.path("output").asText(null), null)
+                    : new UpscaylService.UpscaylResult(false, null, event.path("error").asText("Unknown error"));
+                logger.info("Upscayl reported job {} {}", jobId, status);
+                executor.execute(() -> run.completion().complete(result));
+                return CallbackResult.ACCEPTED;
+            }
+            default -> {
+                return CallbackResult.MALFORMED;
+            }
+        }
+    }
+
+    /**
+     * The run awaited for {@code jobId}, if {@code runId} is the one it was sent with.
+     */
+    private Run awaited(String jobId, String runId) {
+        Run run = pending.get(jobId);
+        return run != null && run.id().equals(runId) ? run : null;
+    }
+
+    /**
+     * Records {@code percent} for a run if it is beyond the last progress reported for it.
+     *
+     * @return false for a replayed or out-of-order report
+     */
+    private boolean advance(String jobId, int percent) {
+        boolean[] advanced = new boolean[1];
+        progress.compute(jobId, (id, last) -> {
+            advanced[0] = last == null || percent > last;
+            return advanced[0] ? percent : last;
+        });
+        return advanced[0];
+    }
+
+    /**
+     * Checks the signature in constant time, and that the timestamp is within {@code max-skew-seconds}.
+     */
+    boolean verify(String timestamp, String signature, byte[] body) {
+        if (timestamp == null || signature == null || !signature.startsWith(SIGNATURE_PREFIX)) {
+            return false;
+        }
+        long seconds;
+        try {
+            seconds = Long.parseLong(timestamp.trim());
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        Duration skew = Duration.between(Instant.ofEpochSecond(seconds), Instant.now()).abs();
+        if (skew.compareTo(maxSkew) > 0) {
+            return false;
+        }
+        byte[] expected = sign(timestamp.trim(), body);
+        byte[] actual;
+        try {
+            actual = HexFormat.of().parseHex(signature.substring(SIGNATURE_PREFIX.length()));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    /**
+     * The HMAC a backend sends for {@code body} at {@code timestamp}, as the header value.
+     */
+    public String signature(String timestamp, byte[] body) {
+        return SIGNATURE_PREFIX + HexFormat.of().formatHex(sign(timestamp, body));
+    }
+
+    private byte[] sign(String timestamp, byte[] body) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            mac.update(timestamp.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) '.');
+            return mac.doFinal(body);
+        } catch (GeneralSecurityException e) {
+            // HmacSHA256 is available on every JVM
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * A run awaiting its completion event: the id its events must carry, and the future they complete.
+     */
+    public record Run(String id, CompletableFuture<UpscaylService.UpscaylResult> completion) {}
+
+    public enum CallbackResult { ACCEPTED, UNKNOWN_JOB, BAD_SIGNATURE, MALFORMED, DISABLED }
+}
@@ -0,0 +1,163 @@
+package net.muttcode.spring.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker for the Upscayl backend.
+ * While CLOSED it tracks the outcome of the last {@code window-size} calls and opens
+ * once at least {@code minimum-calls} have been seen and the failure rate reaches
+ * {@code failure-rate}. OPEN refuses all work for {@code open-seconds}, then HALF_OPEN
+ * lets {@code trial-calls} jobs through: one failure reopens it, that many successes close it.
+ * Only backend faults count as failures (timeouts, refused connections, 5xx); a job the
+ * backend rejects on its merits is a success as far as the breaker is concerned.
+ */
+@Component
+public class UpscaylCircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(UpscaylCircuitBreaker.class);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openNanos;
+    private final int trialCalls;
+    private final LongSupplier clock;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Ring of recent outcomes while CLOSED; true marks a failure
+    private final boolean[] outcomes;
+    private int recorded;
+    private int next;
+    private int failures;
+
+    private volatile State state = State.CLOSED;
+    private long stateSince;
+    private int trialsStarted;
+    private int trialSuccesses;
+
+    @Autowired
+    public UpscaylCircuitBreaker(
+            @Value("${upscayl.breaker.window-size:20}") int windowSize,
+            @Value("${upscayl.breaker.minimum-calls:10}") int minimumCalls,
+            @Value("${upscayl.breaker.failure-rate:0.5}") double failureRateThreshold,
+            @Value("${upscayl.breaker.open-seconds:30}") long openSeconds,
+            @Value("${upscayl.breaker.trial-calls:1}") int trialCalls) {
+        this(windowSize, minimumCalls, failureRateThreshold, TimeUnit.SECONDS.toNanos(openSeconds), trialCalls, System::nanoTime);
+    }
+
+    UpscaylCircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, long openNanos, int trialCalls,
+                          LongSupplier clock) {
+        this.outcomes = new boolean[Math.max(1, windowSize)];
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, outcomes.length));
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openNanos;
+        this.trialCalls = Math.max(1, trialCalls);
+        this.clock = clock;
+        this.stateSince = clock.getAsLong();
+    }
+
+    /**
+     * Whether one more job may go to the backend now. In HALF_OPEN this uses up a trial slot.
+     */
+    public boolean tryAcquire() {
+        lock.lock();
+        try {
+            long now = clock.getAsLong();
+            return switch (state) {
+                case CLOSED -> true;
+                case OPEN -> {
+                    if (now - stateSince < openNanos) {
+                        yield false;
+                    }
+                    transition(State.HALF_OPEN, now);
+                    yield tryTrial(now);
+                }
+                case HALF_OPEN -> tryTrial(now);
+            };
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called holding the lock, in HALF_OPEN
+    private boolean tryTrial(long now) {
+        // A trial that never reached the backend reports nothing; retry after another interval
+        if (trialsStarted >= trialCalls && now - stateSince >= openNanos) {
+            trialsStarted = 0;
+            stateSince = now;
+        }
+        if (trialsStarted < trialCalls) {
+            trialsStarted++;
+            return true;
+        }
+        return false;
+    }
+
+    public void onSuccess() {
+        record(false);
+    }
+
+    public void onFailure() {
+        record(true);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    private void record(boolean failure) {
+        lock.lock();
+        try {
+            long now = clock.getAsLong();
+            switch (state) {
+                case HALF_OPEN -> {
+                    if (failure) {
+                        transition(State.OPEN, now);
+                    } else if (++trialSuccesses >= trialCalls) {
+                        transition(State.CLOSED, now);
+                    }
+                }
+                case CLOSED -> {
+                    if (recorded == outcomes.length && outcomes[next]) {
+                        failures--;
+                    }
+                    outcomes[next] = failure;
+                    next = (next + 1) % outcomes.length;
+                    recorded = Math.min(recorded + 1, outcomes.length);
+                    if (failure) {
+                        failures++;
+                    }
+                    if (recorded >= minimumCalls && (double) failures / recorded >= failureRateThreshold) {
+                        transition(State.OPEN, now);
+                    }
+                }
+                // Calls admitted before the breaker opened; they say nothing new
+                case OPEN -> { }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void transition(State to, long now) {
+        if (to != state) {
+            logger.warn("Upscayl circuit breaker {} -> {}", state, to);
+        }
+        state = to;
+        stateSince = now;
+        trialsStarted = 0;
+        trialSuccesses = 0;
+        recorded = 0;
+        next = 0;
+        failures = 0;
+    }
+}
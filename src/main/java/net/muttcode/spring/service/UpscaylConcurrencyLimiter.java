@@ -0,0 +1,186 @@
+package net.muttcode.spring.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive cap on how many jobs this node sends to Upscayl at once.
+ * Workers take a permit before dequeuing, so when the backend is saturated or the
+ * {@link UpscaylCircuitBreaker} is open, jobs stay in the Redis queue instead of
+ * piling onto the backend and timing out there.
+ * <p>
+ * The limit follows AIMD driven by latency. {@link UpscaylService} reports every call.
+ * A short-term average of call latency is compared against a slow-moving baseline.
+ * While it stays within {@code tolerance} times the baseline and the current limit is
+ * actually in use, the limit grows by one per round of calls. A backend fault or
+ * inflated latency multiplies it by {@code backoff-ratio}, at most once per round, so
+ * one slow burst does not collapse it to the minimum.
+ */
+@Component
+public class UpscaylConcurrencyLimiter {
+
+    // Weights of the newest sample in the short-term and baseline latency averages
+    private static final double SHORT_WEIGHT = 0.2;
+    private static final double BASELINE_WEIGHT = 0.02;
+    private static final long BREAKER_RECHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final UpscaylCircuitBreaker circuitBreaker;
+    private final MeterRegistry meterRegistry;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double backoffRatio;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition capacityChanged = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private double shortLatencyNanos;
+    private double baselineLatencyNanos;
+    private long lastDecrease;
+
+    public UpscaylConcurrencyLimiter(
+            UpscaylCircuitBreaker circuitBreaker,
+            MeterRegistry meterRegistry,
+            @Value("${upscayl.limit.initial:4}") int initialLimit,
+            @Value("${upscayl.limit.min:1}") int minLimit,
+            @Value("${upscayl.limit.max:16}") int maxLimit,
+            @Value("${upscayl.limit.latency-tolerance:2.0}") double tolerance,
+            @Value("${upscayl.limit.backoff-ratio:0.9}") double backoffRatio) {
+        this.circuitBreaker = circuitBreaker;
+        this.meterRegistry = meterRegistry;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.tolerance = tolerance;
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.max(this.minLimit, Math.min(initialLimit, this.maxLimit));
+        this.lastDecrease = System.nanoTime();
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        Gauge.builder("upscayl.concurrency.limit", this, UpscaylConcurrencyLimiter::getLimit)
+            .description("Current adaptive limit on concurrent Upscayl jobs")
+            .register(meterRegistry);
+        Gauge.builder("upscayl.concurrency.in_flight", this, UpscaylConcurrencyLimiter::getInFlight)
+            .description("Jobs holding an Upscayl permit")
+            .register(meterRegistry);
+        Gauge.builder("upscayl.circuit.state", circuitBreaker, breaker -> breaker.getState().ordinal())
+            .description("Upscayl circuit breaker state: 0 closed, 1 open, 2 half-open")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Waits up to {@code timeout} for a permit. Every granted permit must be {@link #release() released}.
+     *
+     * @return false if none became available in time
+     */
+    public boolean tryAcquire(Duration timeout) throws InterruptedException {
+        long remaining = timeout.toNanos();
+        lock.lock();
+        try {
+            while (true) {
+                if (inFlight < (int) limit) {
+                    if (circuitBreaker.tryAcquire()) {
+                        inFlight++;
+                        return true;
+                    }
+                    // The breaker reopens on a timer, not on a signal
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    remaining = capacityChanged.awaitNanos(Math.min(remaining, BREAKER_RECHECK_NANOS));
+                    continue;
+                }
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = capacityChanged.awaitNanos(remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release() {
+        lock.lock();
+        try {
+            inFlight = Math.max(0, inFlight - 1);
+            capacityChanged.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Feeds back one Upscayl call. {@code failed} marks backend faults only.
+     */
+    public void onSample(long latencyNanos, boolean failed) {
+        if (failed) {
+            circuitBreaker.onFailure();
+        } else {
+            circuitBreaker.onSuccess();
+        }
+
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (!failed) {
+                if (baselineLatencyNanos == 0) {
+                    shortLatencyNanos = latencyNanos;
+                    baselineLatencyNanos = latencyNanos;
+                } else {
+                    shortLatencyNanos += SHORT_WEIGHT * (latencyNanos - shortLatencyNanos);
+                    baselineLatencyNanos += BASELINE_WEIGHT * (latencyNanos - baselineLatencyNanos);
+                }
+            }
+
+            if (failed || shortLatencyNanos > baselineLatencyNanos * tolerance) {
+                // Once per round: the calls already in flight report the same congestion
+                if (now - lastDecrease >= shortLatencyNanos) {
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                    lastDecrease = now;
+                }
+            } else if (inFlight * 2 >= limit) {
+                // Only grow while the limit is what holds work back
+                double before = limit;
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+                if ((int) limit > (int) before) {
+                    capacityChanged.signalAll();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public UpscaylCircuitBreaker.State getCircuitState() {
+        return circuitBreaker.getState();
+    }
+}
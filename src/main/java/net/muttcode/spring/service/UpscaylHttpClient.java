@@ -0,0 +1,275 @@
+package net.muttcode.spring.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The one HTTP client every Upscayl call goes through, built on the JDK {@link HttpClient}.
+ * Connections are kept alive and reused across calls and backends; at most
+ * {@code upscayl.http.max-connections} requests are open at once, and further calls wait
+ * for one to finish without holding a thread. Every call carries a deadline that covers
+ * both that wait and the exchange itself.
+ * <p>
+ * Results are {@link CompletableFuture}s that fail with the same exceptions
+ * {@code RestTemplate} would throw: {@link HttpClientErrorException} for 4xx,
+ * {@link HttpServerErrorException} for 5xx and {@link ResourceAccessException} for I/O
+ * errors and missed deadlines, so callers can tell backend faults from rejected requests.
+ */
+@Component
+public class UpscaylHttpClient {
+
+    private static final TypeReference<Map<String, Object>> JSON_OBJECT = new TypeReference<>() {};
+
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final HttpClient client;
+    private final int maxConnections;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Queue<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+    private int open;
+
+    public UpscaylHttpClient(
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry,
+            @Value("${upscayl.connect-timeout-ms:5000}") int connectTimeoutMs,
+            @Value("${upscayl.http.max-connections:32}") int maxConnections) {
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.maxConnections = Math.max(1, maxConnections);
+        // Upscayl speaks plain HTTP/1.1; asking for HTTP/2 would add an upgrade attempt to every new connection
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+            .executor(executor)
+            .build();
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        Gauge.builder("upscayl.http.open", this, UpscaylHttpClient::getOpen)
+            .description("Upscayl requests currently open")
+            .register(meterRegistry);
+        Gauge.builder("upscayl.http.waiting", this, UpscaylHttpClient::getWaiting)
+            .description("Upscayl requests waiting for a connection slot")
+            .register(meterRegistry);
+    }
+
+    public CompletableFuture<Map<String, Object>> postJson(String url, Object body, Duration deadline) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(body);
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return send(url, "POST", HttpRequest.BodyPublishers.ofByteArray(json), deadline).thenApply(this::readJson);
+    }
+
+    public CompletableFuture<Map<String, Object>> getJson(String url, Duration deadline) {
+        return send(url, "GET", HttpRequest.BodyPublishers.noBody(), deadline).thenApply(this::readJson);
+    }
+
+    public CompletableFuture<String> get(String url, Duration deadline) {
+        return send(url, "GET", HttpRequest.BodyPublishers.noBody(), deadline)
+            .thenApply(response -> new String(response.body(), StandardCharsets.UTF_8));
+    }
+
+    public CompletableFuture<Void> delete(String url, Duration deadline) {
+        return send(url, "DELETE", HttpRequest.BodyPublishers.noBody(), deadline).thenApply(response -> null);
+    }
+
+    private CompletableFuture<HttpResponse<byte[]>> send(String url, String method, HttpRequest.BodyPublisher body,
+                                                         Duration deadline) {
+        long start = System.nanoTime();
+        return acquire(deadline)
+            .exceptionallyCompose(error -> CompletableFuture.failedFuture(unwrap(error) instanceof TimeoutException
+                ? new ResourceAccessException("No connection to Upscayl free within " + deadline.toMillis() + "ms for "
+                    + method + " " + url)
+                : unwrap(error)))
+            .thenCompose(ignored -> {
+                Duration remaining = deadline.minusNanos(System.nanoTime() - start);
+                CompletableFuture<HttpResponse<byte[]>> exchange;
+                try {
+                    HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                        .method(method, body)
+                        .header(HttpHeaders.CONTENT_TYPE, "application/json")
+                        .header(HttpHeaders.ACCEPT, "application/json")
+                        .timeout(remaining.isNegative() || remaining.isZero() ? Duration.ofMillis(1) : remaining)
+                        .build();
+                    exchange = client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+                } catch (RuntimeException e) {
+                    exchange = CompletableFuture.failedFuture(e);
+                }
+                return exchange.whenComplete((response, error) -> release());
+            })
+            .handle((response, error) -> {
+                if (error != null) {
+                    throw asRestException(method, url, unwrap(error));
+                }
+                checkStatus(response);
+                return response;
+            });
+    }
+
+    private Map<String, Object> readJson(HttpResponse<byte[]> response) {
+        if (response.body().length == 0) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(response.body(), JSON_OBJECT);
+        } catch (IOException e) {
+            throw new ResourceAccessException("Unreadable response from " + response.uri() + ": " + e.getMessage());
+        }
+    }
+
+    private static void checkStatus(HttpResponse<byte[]> response) {
+        int status = response.statusCode();
+        if (status < 400) {
+            return;
+        }
+        HttpHeaders headers = new HttpHeaders();
+        response.headers().map().forEach(headers::addAll);
+        HttpStatusCode code = HttpStatusCode.valueOf(status);
+        if (code.is4xxClientError()) {
+            throw HttpClientErrorException.create(code, "", headers, response.body(), StandardCharsets.UTF_8);
+        }
+        throw HttpServerErrorException.create(code, "", headers, response.body(), StandardCharsets.UTF_8);
+    }
+
+    private static RuntimeException asRestException(String method, String url, Throwable error) {
+        if (error instanceof RuntimeException runtime) {
+            return runtime;
+        }
+        String reason = error instanceof HttpTimeoutException ? "deadline exceeded" : String.valueOf(error.getMessage());
+        IOException cause = error instanceof IOException io ? io : new IOException(error);
+        return new ResourceAccessException("I/O error on " + method + " request for \"" + url + "\": " + reason, cause);
+    }
+
+    /**
+     * A slot among the {@code max-connections}, given up if none frees within {@code deadline}.
+     */
+    private CompletableFuture<Void> acquire(Duration deadline) {
+        CompletableFuture<Void> slot;
+        lock.lock();
+        try {
+            if (open < maxConnections) {
+                open++;
+                return CompletableFuture.completedFuture(null);
+            }
+            slot = new CompletableFuture<>();
+            waiting.add(slot);
+        } finally {
+            lock.unlock();
+        }
+        return slot.orTimeout(deadline.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private void release() {
+        while (true) {
+            CompletableFuture<Void> next;
+            lock.lock();
+            try {
+                next = waiting.poll();
+                if (next == null) {
+                    open--;
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            // A waiter that timed out is already complete; hand the slot to the next one
+            if (next.complete(null)) {
+                return;
+            }
+        }
+    }
+
+    public int getOpen() {
+        lock.lock();
+        try {
+            return open;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWaiting() {
+        lock.lock();
+        try {
+            return waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for {@code future} and rethrows its failure as it was raised: unchecked
+     * exceptions as they are, {@link IOException}s as such, anything else wrapped in one.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for Upscayl", e);
+        } catch (ExecutionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * The failure behind the wrappers {@link CompletableFuture} adds.
+     */
+    public static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        client.shutdownNow();
+        executor.shutdownNow();
+    }
+}
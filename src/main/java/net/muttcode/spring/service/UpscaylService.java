@@ -6,25 +6,31 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
 @Service
 public class UpscaylService {
 
     private static final Logger logger = LoggerFactory.getLogger(UpscaylService.class);
 
-    @Value("${upscayl.service.url:http://upscayl:8081}")
-    private String upscaylServiceUrl;
-
     @Value("${upscayl.models.path:/app/models}")
     private String modelsPath;
 
@@ -34,64 +40,166 @@ public class UpscaylService {
     @Value("${upscayl.output.path:/app/output}")
     private String outputPath;
 
-    private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
+    private final UpscaylConcurrencyLimiter concurrencyLimiter;
+    private final UpscaylBackendPool backendPool;
+    private final UpscaylHttpClient httpClient;
+    private final UpscaylCallbacks callbacks;
+    private final Duration upscaleDeadline;
+    private final Duration controlDeadline;
 
-    public UpscaylService(ObjectMapper objectMapper) {
-        this.restTemplate = new RestTemplate();
+    public UpscaylService(ObjectMapper objectMapper,
+                          UpscaylConcurrencyLimiter concurrencyLimiter,
+                          UpscaylBackendPool backendPool,
+                          UpscaylHttpClient httpClient,
+                          UpscaylCallbacks callbacks,
+                          @Value("${upscayl.read-timeout-seconds:600}") int readTimeoutSeconds,
+                          @Value("${upscayl.control-timeout-ms:10000}") long controlTimeoutMs) {
         this.objectMapper = objectMapper;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.backendPool = backendPool;
+        this.httpClient = httpClient;
+        this.callbacks = callbacks;
+        this.upscaleDeadline = Duration.ofSeconds(readTimeoutSeconds);
+        this.controlDeadline = Duration.ofMillis(controlTimeoutMs);
     }
 
     public UpscaylResult processImage(String inputFilePath, Integer scaleFactor, String modelName) throws IOException {
-        String jobId = UUID.randomUUID().toString();
-        
+        return processImage(UUID.randomUUID().toString(), inputFilePath, scaleFactor, modelName);
+    }
+
+    /**
+     * Upscales one input and waits for the result; see {@link #upscale}.
+     */
+    public UpscaylResult processImage(String jobId, String inputFilePath, Integer scaleFactor, String modelName) throws IOException {
+        return UpscaylHttpClient.await(upscale(jobId, inputFilePath, scaleFactor, modelName));
+    }
+
+    /**
+     * Upscales one input without tying up the calling thread. {@code jobId} is passed to
+     * the backend so the run can be {@link #cancel cancelled}. With {@link UpscaylCallbacks}
+     * enabled, a backend that accepts the run completes the future from its completion
+     * callback. The future fails with an {@link IOException} if the input does not exist;
+     * backend errors come back as a failed {@link UpscaylResult}.
+     */
+    public CompletableFuture<UpscaylResult> upscale(String jobId, String inputFilePath, Integer scaleFactor, String modelName) {
         logger.info("Starting upscalce job {} with scale={}, model={}", jobId, scaleFactor, modelName);
 
         File inputFile = new File(inputFilePath);
         if (!inputFile.exists()) {
-            throw new IOException("Input file not found: " + inputFilePath);
+            return CompletableFuture.failedFuture(new IOException("Input file not found: " + inputFilePath));
         }
 
         // Use the actual input file path (may be a mount point like /app/input/file.png)
         String inputFileName = inputFile.getName();
         String outputFileName = getOutputFileName(inputFileName, scaleFactor);
-        
+
         // Derive output path from input path to support flexible mount points
         Path inputPath = inputFile.toPath();
         Path outputDir = inputPath.getParent();
         Path outputPath = outputDir.resolve(outputFileName);
-        
+
         Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("jobId", jobId);
         requestBody.put("input", inputFilePath);
         requestBody.put("output", outputPath.toString());
         requestBody.put("model", modelName);
         requestBody.put("scale", scaleFactor);
         requestBody.put("gpu", true);
 
-        try {
-            String apiUrl = upscaylServiceUrl + "/api/upscale";
-            logger.debug("Calling Upscayl API: {}", apiUrl);
+        return submit(jobId, requestBody, modelName);
+    }
 
-            Map<String, Object> response = restTemplate.postForObject(apiUrl, requestBody, Map.class);
-            
-            logger.info("Upscayl response: {}", response);
+    /**
+     * Upscales several inputs sharing a model and scale in one {@code /api/upscale/batch}
+     * call, so the backend loads the model once. Results come back in input order; an
+     * accepted batch reports each item through its own completion callback.
+     * A backend without the batch endpoint fails the future with
+     * {@link HttpClientErrorException.NotFound}.
+     */
+    public CompletableFuture<List<UpscaylResult>> upscaleBatch(List<BatchItem> batchItems, Integer scaleFactor, String modelName) {
+        logger.info("Starting batch of {} upscale jobs with scale={}, model={}", batchItems.size(), scaleFactor, modelName);
+
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (BatchItem batchItem : batchItems) {
+            String inputFilePath = batchItem.inputFilePath();
+            File inputFile = new File(inputFilePath);
+            if (!inputFile.exists()) {
+                return CompletableFuture.failedFuture(new IOException("Input file not found: " + inputFilePath));
+            }
+            Path outputPath = inputFile.toPath().getParent()
+                .resolve(getOutputFileName(inputFile.getName(), scaleFactor));
 
-            if (response != null && "success".equals(response.get("status"))) {
-                String outputPathResult = (String) response.get("output");
-                return new UpscaylResult(true, outputPathResult, null);
+            Map<String, Object> item = new HashMap<>();
+            item.put("jobId", batchItem.jobId());
+            item.put("input", inputFilePath);
+            item.put("output", outputPath.toString());
+            items.add(item);
+        }
+
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("items", items);
+        requestBody.put("model", modelName);
+        requestBody.put("scale", scaleFactor);
+        requestBody.put("gpu", true);
+
+        List<String> jobIds = batchItems.stream().map(BatchItem::jobId).toList();
+        List<UpscaylCallbacks.Run> runs = new ArrayList<>();
+        if (callbacks.isEnabled()) {
+            requestBody.put("callbackUrl", callbacks.getCallbackUrl());
+            for (int i = 0; i < jobIds.size(); i++) {
+                UpscaylCallbacks.Run run = callbacks.expect(jobIds.get(i));
+                items.get(i).put("runId", run.id());
+                runs.add(run);
+            }
+        }
+        return post("/api/upscale/batch", requestBody, modelName, jobIds, response -> {
+            logger.info("Upscayl batch response: {}", response);
+            if (!runs.isEmpty() && isAccepted(response)) {
+                // One missed callback fails its own item, not the whole batch
+                List<CompletableFuture<UpscaylResult>> results = new ArrayList<>();
+                for (int i = 0; i < jobIds.size(); i++) {
+                    results.add(awaitCallback(jobIds.get(i), runs.get(i).completion())
+                        .exceptionally(error -> new UpscaylResult(false, null, UpscaylHttpClient.unwrap(error).getMessage())));
+                }
+                return CompletableFuture.allOf(results.toArray(CompletableFuture[]::new))
+                    .thenApply(ignored -> results.stream().map(CompletableFuture::join).toList());
+            }
+            return CompletableFuture.completedFuture(toResults(batchItems, response));
+        }).whenComplete((results, error) -> {
+            for (int i = 0; i < runs.size(); i++) {
+                callbacks.forget(jobIds.get(i), runs.get(i));
+            }
+        });
+    }
+
+    private static List<UpscaylResult> toResults(List<BatchItem> batchItems, Map<String, Object> response) {
+        List<?> results = response != null && response.get("results") instanceof List<?> list ? list : List.of();
+        List<UpscaylResult> mapped = new ArrayList<>();
+        for (int i = 0; i < batchItems.size(); i++) {
+            if (i >= results.size()) {
+                String error = response != null && response.get("error") != null
+                    ? response.get("error").toString()
+                    : "No result returned for batch item";
+                mapped.add(new UpscaylResult(false, null, error));
+                continue;
+            }
+            if (!(results.get(i) instanceof Map<?, ?> result)) {
+                mapped.add(new UpscaylResult(false, null, "Malformed result returned for batch item"));
+                continue;
+            }
+            if ("success".equals(result.get("status"))) {
+                mapped.add(new UpscaylResult(true, (String) result.get("output"), null));
             } else {
-                String errorMsg = response != null ? (String) response.get("error") : "Unknown error";
-                return new UpscaylResult(false, null, errorMsg);
+                mapped.add(new UpscaylResult(false, null, (String) result.get("error")));
             }
-        } catch (Exception e) {
-            logger.error("Upscayl processing failed", e);
-            return new UpscaylResult(false, null, e.getMessage());
         }
+        return mapped;
     }
 
     public UpscaylResult processImageAsync(String inputFilePath, Integer scaleFactor, String modelName) throws IOException {
         String jobId = UUID.randomUUID().toString();
-        
+
         logger.info("Starting async upscalce job {} with scale={}, model={}", jobId, scaleFactor, modelName);
 
         File inputFile = new File(inputFilePath);
@@ -101,7 +209,7 @@ public class UpscaylService {
 
         String inputFileName = inputFile.getName();
         String outputFileName = getOutputFileName(inputFileName, scaleFactor);
-        
+
         Map<String, Object> requestBody = new HashMap<>();
         requestBody.put("jobId", jobId);
         requestBody.put("input", "/app/input/" + inputFileName);
@@ -110,31 +218,74 @@ public class UpscaylService {
         requestBody.put("scale", scaleFactor);
         requestBody.put("gpu", true);
 
-        try {
-            String apiUrl = upscaylServiceUrl + "/api/upscale";
-            logger.debug("Calling Upscayl API: {}", apiUrl);
+        return UpscaylHttpClient.await(submit(jobId, requestBody, modelName));
+    }
 
-            Map<String, Object> response = restTemplate.postForObject(apiUrl, requestBody, Map.class);
-            
+    private CompletableFuture<UpscaylResult> submit(String jobId, Map<String, Object> requestBody, String modelName) {
+        UpscaylCallbacks.Run expected = null;
+        if (callbacks.isEnabled()) {
+            expected = callbacks.expect(jobId);
+            requestBody.put("callbackUrl", callbacks.getCallbackUrl());
+            requestBody.put("runId", expected.id());
+        }
+        UpscaylCallbacks.Run callback = expected;
+        return post("/api/upscale", requestBody, modelName, List.of(jobId), response -> {
             logger.info("Upscayl response: {}", response);
-
-            if (response != null && "success".equals(response.get("status"))) {
-                String outputPathResult = (String) response.get("output");
-                return new UpscaylResult(true, outputPathResult, null);
-            } else {
-                String errorMsg = response != null ? (String) response.get("error") : "Unknown error";
-                return new UpscaylResult(false, null, errorMsg);
+            if (callback != null && isAccepted(response)) {
+                return awaitCallback(jobId, callback.completion());
             }
-        } catch (Exception e) {
-            logger.error("Upscayl processing failed", e);
-            return new UpscaylResult(false, null, e.getMessage());
+            return CompletableFuture.completedFuture(toResult(response));
+        }).handle((result, error) -> {
+            if (callback != null) {
+                callbacks.forget(jobId, callback);
+            }
+            if (error != null) {
+                Throwable cause = UpscaylHttpClient.unwrap(error);
+                logger.error("Upscayl processing failed", cause);
+                return new UpscaylResult(false, null, cause.getMessage());
+            }
+            return result;
+        });
+    }
+
+    private static UpscaylResult toResult(Map<String, Object> response) {
+        if (response != null && "success".equals(response.get("status"))) {
+            String outputPathResult = (String) response.get("output");
+            return new UpscaylResult(true, outputPathResult, null);
+        } else {
+            String errorMsg = response != null ? (String) response.get("error") : "Unknown error";
+            return new UpscaylResult(false, null, errorMsg);
         }
     }
 
+    private static boolean isAccepted(Map<String, Object> response) {
+        return response != null && "accepted".equals(response.get("status"));
+    }
+
+    /**
+     * The completion callback for an accepted run, failing with a {@link ResourceAccessException}
+     * if none arrives within the upscale deadline.
+     */
+    private CompletableFuture<UpscaylResult> awaitCallback(String jobId, CompletableFuture<UpscaylResult> completion) {
+        return completion.orTimeout(upscaleDeadline.toNanos(), TimeUnit.NANOSECONDS)
+            .exceptionallyCompose(error -> CompletableFuture.failedFuture(UpscaylHttpClient.unwrap(error) instanceof TimeoutException
+                ? new ResourceAccessException("No completion callback for job " + jobId + " within "
+                    + upscaleDeadline.toSeconds() + "s")
+                : UpscaylHttpClient.unwrap(error)));
+    }
+
     public Map<String, Object> getJobStatus(String jobId) {
         try {
-            String apiUrl = upscaylServiceUrl + "/api/job/" + jobId;
-            return restTemplate.getForObject(apiUrl, Map.class);
+            List<UpscaylBackendPool.Backend> backends = backendPool.backendsFor(jobId);
+            for (int i = 0; i < backends.size() - 1; i++) {
+                try {
+                    return UpscaylHttpClient.await(httpClient.getJson(backends.get(i).url() + "/api/job/" + jobId, controlDeadline));
+                } catch (HttpClientErrorException.NotFound e) {
+                    // Running on another backend
+                }
+            }
+            return UpscaylHttpClient.await(
+                httpClient.getJson(backends.get(backends.size() - 1).url() + "/api/job/" + jobId, controlDeadline));
         } catch (Exception e) {
             logger.error("Failed to get job status", e);
             Map<String, Object> error = new HashMap<>();
@@ -144,12 +295,35 @@ public class UpscaylService {
         }
     }
 
+    /**
+     * Asks the backend to stop the run started for {@code jobId}; batch items are stopped individually.
+     *
+     * @return false if the backend does not know the job, e.g. it already finished, or could not be reached
+     */
+    public boolean cancel(String jobId) {
+        boolean cancelled = false;
+        for (UpscaylBackendPool.Backend backend : backendPool.backendsFor(jobId)) {
+            try {
+                UpscaylHttpClient.await(httpClient.delete(backend.url() + "/api/job/" + jobId, controlDeadline));
+                logger.info("Cancelled Upscayl run for job {} on {}", jobId, backend.url());
+                cancelled = true;
+                break;
+            } catch (HttpClientErrorException.NotFound e) {
+                // Not running there
+            } catch (Exception e) {
+                logger.warn("Failed to cancel Upscayl run for job {} on {}: {}", jobId, backend.url(), e.getMessage());
+            }
+        }
+        // A stopped run may never send its completion callback
+        return callbacks.cancel(jobId) || cancelled;
+    }
+
     public String[] getAvailableModels() {
         try {
-            String apiUrl = upscaylServiceUrl + "/api/models";
-            Map<String, Object> response = restTemplate.getForObject(apiUrl, Map.class);
-            if (response != null && response.containsKey("models")) {
-                return (String[]) response.get("models");
+            String apiUrl = backendPool.any().url() + "/api/models";
+            Map<String, Object> response = UpscaylHttpClient.await(httpClient.getJson(apiUrl, controlDeadline));
+            if (response != null && response.get("models") instanceof List<?> models) {
+                return models.stream().map(String::valueOf).toArray(String[]::new);
             }
         } catch (Exception e) {
             logger.warn("Failed to get available models", e);
@@ -157,12 +331,42 @@ public class UpscaylService {
         return new String[]{"ultramix_balanced", "realesrgan-x4plus", "realcugan"};
     }
 
-    private String getOutputFileName(String inputFileName, Integer scaleFactor) {
+    /**
+     * POSTs an upscale request to the backend chosen by the {@link UpscaylBackendPool},
+     * finishes the run with {@code onResponse} and reports its latency, per item for
+     * batches, to the concurrency limiter. The call counts against the backend until the
+     * run has finished, including any wait for completion callbacks, so both see GPU time
+     * rather than the time taken to accept. Only backend faults count as failures:
+     * timeouts, refused connections and 5xx. A 4xx is the request's fault, not the backend's.
+     */
+    private <T> CompletableFuture<T> post(String path, Map<String, Object> requestBody, String modelName, List<String> jobIds,
+                                          Function<Map<String, Object>, CompletableFuture<T>> onResponse) {
+        long start = System.nanoTime();
+        UpscaylBackendPool.Backend backend;
+        try {
+            backend = backendPool.acquire(modelName, jobIds);
+        } catch (RestClientException e) {
+            concurrencyLimiter.onSample(System.nanoTime() - start, true);
+            return CompletableFuture.failedFuture(e);
+        }
+        logger.debug("Calling Upscayl API: {}{}", backend.url(), path);
+        return httpClient.postJson(backend.url() + path, requestBody, upscaleDeadline).thenCompose(onResponse)
+            .whenComplete((response, error) -> {
+                boolean failed = error != null && !(UpscaylHttpClient.unwrap(error) instanceof HttpClientErrorException);
+                long latency = System.nanoTime() - start;
+                backendPool.release(backend, modelName, jobIds, latency, failed);
+                concurrencyLimiter.onSample(latency / Math.max(1, jobIds.size()), failed);
+            });
+    }
+
+    static String getOutputFileName(String inputFileName, Integer scaleFactor) {
         String baseName = inputFileName.substring(0, inputFileName.lastIndexOf('.'));
         String extension = inputFileName.substring(inputFileName.lastIndexOf('.'));
         return baseName + "_" + scaleFactor + "x" + extension;
     }
 
+    public record BatchItem(String jobId, String inputFilePath) {}
+
     public static class UpscaylResult {
         private final boolean success;
         private final String outputPath;
@@ -0,0 +1,296 @@
+package net.muttcode.spring.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Upscales large inputs as overlapping tiles, several at a time.
+ * <p>
+ * Inputs of at least {@code jobs.tiling.min-pixels} are cut into tiles that overlap by
+ * {@code jobs.tiling.overlap} pixels. The tiles go to Upscayl as separate asynchronous
+ * calls: one chain of them on the job's own concurrency permit and, when the
+ * {@link UpscaylConcurrencyLimiter} has spare capacity, more alongside it, up to
+ * {@code jobs.tiling.max-parallel}. The results
+ * are blended back together by {@link StitchedImage} and written to the output mount
+ * under the name a whole-image run would have produced.
+ * <p>
+ * Tile size adapts per model and scale: each tile's time per input pixel feeds a moving
+ * average, and the next job uses tiles that should take about {@code target-tile-ms}.
+ */
+@Service
+public class UpscaylTiler {
+
+    private static final Logger logger = LoggerFactory.getLogger(UpscaylTiler.class);
+
+    // Weight of the newest tile in the time-per-pixel average
+    private static final double SMOOTHING = 0.2;
+    private static final int TILE_ALIGNMENT = 16;
+
+    private final UpscaylService upscaylService;
+    private final UpscaylConcurrencyLimiter concurrencyLimiter;
+    private final boolean enabled;
+    private final long minPixels;
+    private final int initialTileSize;
+    private final int minTileSize;
+    private final int maxTileSize;
+    private final int overlap;
+    private final int maxParallel;
+    private final long targetTileMs;
+    private final String outputMount;
+    private final Map<ModelKey, Double> msPerPixel = new ConcurrentHashMap<>();
+    private final Map<String, TiledRun> running = new ConcurrentHashMap<>();
+
+    public UpscaylTiler(
+            UpscaylService upscaylService,
+            UpscaylConcurrencyLimiter concurrencyLimiter,
+            @Value("${jobs.tiling.enabled:true}") boolean enabled,
+            @Value("${jobs.tiling.min-pixels:4194304}") long minPixels,
+            @Value("${jobs.tiling.tile-size:512}") int tileSize,
+            @Value("${jobs.tiling.min-tile-size:128}") int minTileSize,
+            @Value("${jobs.tiling.max-tile-size:2048}") int maxTileSize,
+            @Value("${jobs.tiling.overlap:32}") int overlap,
+            @Value("${jobs.tiling.max-parallel:4}") int maxParallel,
+            @Value("${jobs.tiling.target-tile-ms:15000}") long targetTileMs,
+            @Value("${upscayl.output.mount:/app/output}") String outputMount) {
+        this.upscaylService = upscaylService;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.enabled = enabled;
+        this.minPixels = minPixels;
+        this.minTileSize = Math.max(TILE_ALIGNMENT, minTileSize);
+        this.maxTileSize = Math.max(this.minTileSize, maxTileSize);
+        this.initialTileSize = clamp(tileSize);
+        this.overlap = Math.max(0, overlap);
+        this.maxParallel = Math.max(1, maxParallel);
+        this.targetTileMs = targetTileMs;
+        this.outputMount = outputMount;
+    }
+
+    /**
+     * True for inputs large enough to tile, in a format that can be both read and written back.
+     */
+    public boolean shouldTile(String inputFilePath) {
+        if (!enabled) {
+            return false;
+        }
+        Path input = Path.of(inputFilePath);
+        if (!ImageIO.getImageWritersBySuffix(extensionOf(input)).hasNext()) {
+            return false;
+        }
+        try {
+            return ImagePixels.count(input).orElse(0L) >= minPixels;
+        } catch (IOException e) {
+            // The whole-image route reports unreadable inputs
+            return false;
+        }
+    }
+
+    /**
+     * Upscales {@code inputFilePath} tile by tile. Tile files are written next to the input
+     * and removed afterwards, whatever the outcome.
+     */
+    public UpscaylService.UpscaylResult process(String jobId, String inputFilePath, Integer scaleFactor, String modelName)
+            throws IOException {
+        Path input = Path.of(inputFilePath);
+        BufferedImage image = ImageIO.read(input.toFile());
+        if (image == null) {
+            return new UpscaylService.UpscaylResult(false, null, "Unsupported image format: " + input.getFileName());
+        }
+        ModelKey model = new ModelKey(modelName, scaleFactor);
+        int tileSize = tileSize(model);
+        // Keep overlaps well inside a tile, so no pixel is covered by more than two tiles per axis
+        TileGrid grid = TileGrid.of(image.getWidth(), image.getHeight(), tileSize, Math.min(overlap, tileSize / 4));
+        logger.info("Job {}: upscaling {}x{} input as {} tiles of {}px", jobId, image.getWidth(), image.getHeight(),
+            grid.count(), tileSize);
+
+        TiledRun run = new TiledRun(grid);
+        running.put(jobId, run);
+        Path output = Path.of(outputMount, UpscaylService.getOutputFileName(input.getFileName().toString(), scaleFactor));
+        Queue<Path> scratch = new ConcurrentLinkedQueue<>();
+        try {
+            Queue<Tile> tiles = cutTiles(input, image, grid, jobId, scratch);
+            boolean alpha = image.getColorModel().hasAlpha() && supportsAlpha(extensionOf(input));
+
+            upscaleTiles(run, tiles, model, scratch);
+            if (run.error.get() != null) {
+                return new UpscaylService.UpscaylResult(false, null, run.error.get());
+            }
+
+            Files.createDirectories(output.getParent());
+            StitchedImage stitched = new StitchedImage(grid, scaleFactor, alpha,
+                (row, col) -> ImageIO.read(run.outputs[row][col].toFile()));
+            try {
+                if (!ImageIO.write(stitched, extensionOf(input), output.toFile())) {
+                    return new UpscaylService.UpscaylResult(false, null, "No writer for " + extensionOf(input));
+                }
+            } catch (UncheckedIOException e) {
+                Files.deleteIfExists(output);
+                throw e.getCause();
+            }
+            logger.info("Job {}: stitched {} tiles into {}", jobId, grid.count(), output.getFileName());
+            return new UpscaylService.UpscaylResult(true, output.toString(), null);
+        } finally {
+            running.remove(jobId);
+            for (Path path : scratch) {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    logger.debug("Failed to delete tile file {}: {}", path, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops a tiled run: no more tiles are started and those in flight are cancelled on the backend.
+     *
+     * @return false if {@code jobId} is not being tiled here
+     */
+    public boolean cancel(String jobId) {
+        TiledRun run = running.get(jobId);
+        if (run == null) {
+            return false;
+        }
+        run.fail("Cancelled");
+        run.inFlight.forEach(upscaylService::cancel);
+        return true;
+    }
+
+    private Queue<Tile> cutTiles(Path input, BufferedImage image, TileGrid grid, String jobId, Queue<Path> scratch)
+            throws IOException {
+        String stem = input.getFileName().toString();
+        stem = stem.substring(0, stem.lastIndexOf('.'));
+        Queue<Tile> tiles = new ConcurrentLinkedQueue<>();
+        for (int row = 0; row < grid.rows().count(); row++) {
+            for (int col = 0; col < grid.columns().count(); col++) {
+                Path tileInput = input.resolveSibling(stem + "_tile" + row + "-" + col + ".png");
+                scratch.add(tileInput);
+                BufferedImage tile = image.getSubimage(grid.columns().start(col), grid.rows().start(row),
+                    grid.columns().size(col), grid.rows().size(row));
+                ImageIO.write(tile, "png", tileInput.toFile());
+                tiles.add(new Tile(jobId + "-tile" + row + "-" + col, row, col, tileInput,
+                    (long) tile.getWidth() * tile.getHeight()));
+            }
+        }
+        return tiles;
+    }
+
+    private void upscaleTiles(TiledRun run, Queue<Tile> tiles, ModelKey model, Queue<Path> scratch) throws IOException {
+        // The job's own permit covers one chain; the rest only take capacity that is free right now
+        int extra = 0;
+        try {
+            while (extra < Math.min(maxParallel, tiles.size()) - 1 && concurrencyLimiter.tryAcquire(Duration.ZERO)) {
+                extra++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            CompletableFuture<?>[] chains = new CompletableFuture<?>[extra + 1];
+            for (int i = 0; i <= extra; i++) {
+                chains[i] = runTiles(run, tiles, model, scratch);
+            }
+            UpscaylHttpClient.await(CompletableFuture.allOf(chains));
+        } finally {
+            for (int i = 0; i < extra; i++) {
+                concurrencyLimiter.release();
+            }
+        }
+    }
+
+    /**
+     * Upscales queued tiles one after another until the queue is empty or the run has failed.
+     */
+    private CompletableFuture<Void> runTiles(TiledRun run, Queue<Tile> tiles, ModelKey model, Queue<Path> scratch) {
+        Tile tile = run.error.get() == null ? tiles.poll() : null;
+        if (tile == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        run.inFlight.add(tile.id());
+        long start = System.nanoTime();
+        return upscaylService.upscale(tile.id(), tile.input().toString(), model.scaleFactor(), model.modelName())
+            .exceptionally(error -> new UpscaylService.UpscaylResult(false, null, UpscaylHttpClient.unwrap(error).getMessage()))
+            .thenCompose(result -> {
+                run.inFlight.remove(tile.id());
+                if (result.isSuccess() && result.getOutputPath() != null) {
+                    Path output = Path.of(outputMount, Path.of(result.getOutputPath()).getFileName().toString());
+                    scratch.add(output);
+                    run.outputs[tile.row()][tile.col()] = output;
+                    recordTile(model, tile.pixels(), Duration.ofNanos(System.nanoTime() - start).toMillis());
+                } else {
+                    run.fail("Tile " + tile.row() + "," + tile.col() + " failed: " + result.getError());
+                }
+                return runTiles(run, tiles, model, scratch);
+            });
+    }
+
+    void recordTile(ModelKey model, long pixels, long ms) {
+        if (pixels <= 0 || ms <= 0) {
+            return;
+        }
+        double sample = (double) ms / pixels;
+        msPerPixel.merge(model, sample, (average, latest) -> average + SMOOTHING * (latest - average));
+    }
+
+    /**
+     * Edge of a square tile expected to take {@code target-tile-ms}, from the average seen so far.
+     */
+    int tileSize(ModelKey model) {
+        Double average = msPerPixel.get(model);
+        if (average == null || average <= 0) {
+            return initialTileSize;
+        }
+        return clamp((int) Math.min(Integer.MAX_VALUE, Math.sqrt(targetTileMs / average)));
+    }
+
+    private int clamp(int tileSize) {
+        int aligned = tileSize / TILE_ALIGNMENT * TILE_ALIGNMENT;
+        return Math.max(minTileSize, Math.min(maxTileSize, aligned));
+    }
+
+    private static String extensionOf(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    private static boolean supportsAlpha(String extension) {
+        return !extension.equals("jpg") && !extension.equals("jpeg") && !extension.equals("bmp");
+    }
+
+    record ModelKey(String modelName, Integer scaleFactor) {}
+
+    private record Tile(String id, int row, int col, Path input, long pixels) {}
+
+    private static final class TiledRun {
+        private final Path[][] outputs;
+        private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+        // First failure; once set, no further tiles start
+        private final AtomicReference<String> error = new AtomicReference<>();
+
+        private TiledRun(TileGrid grid) {
+            this.outputs = new Path[grid.rows().count()][grid.columns().count()];
+        }
+
+        private void fail(String error) {
+            this.error.compareAndSet(null, error);
+        }
+    }
+}
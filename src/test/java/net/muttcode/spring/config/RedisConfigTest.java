@@ -51,4 +51,19 @@ class RedisConfigTest {
     
     assertNotNull(factory);
   }
+
+  @Test
+  void jedisConnectionFactory_shouldReserveConnectionsForJobWorkers() {
+    RedisConfig config = new RedisConfig();
+    ReflectionTestUtils.setField(config, "redisHost", "localhost");
+    ReflectionTestUtils.setField(config, "redisPort", 6379);
+    ReflectionTestUtils.setField(config, "redisPassword", Optional.empty());
+    ReflectionTestUtils.setField(config, "poolMaxActive", 16);
+    ReflectionTestUtils.setField(config, "workerCount", 4);
+
+    JedisConnectionFactory factory = config.jedisConnectionFactory();
+
+    assertTrue(factory.getClientConfiguration().isUsePooling());
+    assertEquals(20, factory.getClientConfiguration().getPoolConfig().orElseThrow().getMaxTotal());
+  }
 }
@@ -4,8 +4,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import net.muttcode.spring.config.JwtAuthenticationFilter;
 import net.muttcode.spring.model.ProcessingJob;
 import net.muttcode.spring.service.CustomUserDetailsService;
+import net.muttcode.spring.service.FairShareScheduler;
 import net.muttcode.spring.service.FileService;
+import net.muttcode.spring.service.JobAdmissionService;
+import net.muttcode.spring.service.JobEtaService;
+import net.muttcode.spring.service.JobEventStreams;
 import net.muttcode.spring.service.JobQueueService;
+import net.muttcode.spring.service.JobStatistics;
 import net.muttcode.spring.service.JwtService;
 import net.muttcode.spring.service.ProcessingJobService;
 import org.junit.jupiter.api.Test;
@@ -13,15 +18,22 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -49,6 +61,21 @@ class JobControllerTest {
     @MockBean
     private JobQueueService jobQueueService;
 
+    @MockBean
+    private FairShareScheduler fairShareScheduler;
+
+    @MockBean
+    private JobEventStreams jobEventStreams;
+
+    @MockBean
+    private JobStatistics jobStatistics;
+
+    @MockBean
+    private JobAdmissionService jobAdmissionService;
+
+    @MockBean
+    private JobEtaService jobEtaService;
+
     @MockBean
     private JwtAuthenticationFilter jwtAuthenticationFilter;
 
@@ -72,6 +99,21 @@ class JobControllerTest {
             .andExpect(jsonPath("$.status").value("COMPLETED"));
     }
 
+    @Test
+    void getJobStatus_shouldIncludeEstimatedStartAndCompletion() throws Exception {
+        String jobId = UUID.randomUUID().toString();
+        ProcessingJob job = new ProcessingJob(jobId, "input-file-id", 2, "ultramix_balanced");
+        Instant start = Instant.parse("2026-01-01T10:00:00Z");
+        when(jobService.getJob(jobId)).thenReturn(Optional.of(job));
+        when(jobEtaService.estimate(job))
+            .thenReturn(Optional.of(new JobEtaService.Eta(start, start.plusSeconds(90))));
+
+        mockMvc.perform(get("/api/jobs/{jobId}", jobId))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.estimatedStartAt").exists())
+            .andExpect(jsonPath("$.estimatedCompletionAt").exists());
+    }
+
     @Test
     void getJobStatus_shouldReturn404WhenNotExists() throws Exception {
         String jobId = UUID.randomUUID().toString();
@@ -82,39 +124,131 @@ class JobControllerTest {
             .andExpect(status().isNotFound());
     }
 
+    @Test
+    void cancelJob_shouldReturnCancelledJob() throws Exception {
+        String jobId = UUID.randomUUID().toString();
+        when(jobService.getJob(jobId)).thenReturn(Optional.of(ownedJob(jobId, "alice")));
+        when(imageProcessingService.cancelJob(jobId))
+            .thenReturn(net.muttcode.spring.service.ImageProcessingService.CancelResult.CANCELLED);
+
+        mockMvc.perform(delete("/api/jobs/{jobId}", jobId).principal(() -> "alice"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.jobId").value(jobId))
+            .andExpect(jsonPath("$.status").value("CANCELLED"));
+    }
+
+    @Test
+    void cancelJob_shouldReturn409WhenJobAlreadyFinished() throws Exception {
+        String jobId = UUID.randomUUID().toString();
+        when(jobService.getJob(jobId)).thenReturn(Optional.of(ownedJob(jobId, "alice")));
+        when(imageProcessingService.cancelJob(jobId))
+            .thenReturn(net.muttcode.spring.service.ImageProcessingService.CancelResult.ALREADY_FINISHED);
+
+        mockMvc.perform(delete("/api/jobs/{jobId}", jobId).principal(() -> "alice"))
+            .andExpect(status().isConflict());
+    }
+
+    @Test
+    void cancelJob_shouldReturn404WhenNotExists() throws Exception {
+        String jobId = UUID.randomUUID().toString();
+        when(jobService.getJob(jobId)).thenReturn(Optional.of(ownedJob(jobId, "alice")));
+        when(imageProcessingService.cancelJob(jobId))
+            .thenReturn(net.muttcode.spring.service.ImageProcessingService.CancelResult.NOT_FOUND);
+
+        mockMvc.perform(delete("/api/jobs/{jobId}", jobId).principal(() -> "alice"))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void cancelJob_shouldReturn404ForAnotherUsersJob() throws Exception {
+        String jobId = UUID.randomUUID().toString();
+        when(jobService.getJob(jobId)).thenReturn(Optional.of(ownedJob(jobId, "someone-else")));
+
+        mockMvc.perform(delete("/api/jobs/{jobId}", jobId).principal(() -> "alice"))
+            .andExpect(status().isNotFound());
+
+        verify(imageProcessingService, never()).cancelJob(any());
+    }
+
+    @Test
+    void cancelJob_shouldReturn404ForUnknownJob() throws Exception {
+        String jobId = UUID.randomUUID().toString();
+        when(jobService.getJob(jobId)).thenReturn(Optional.empty());
+
+        mockMvc.perform(delete("/api/jobs/{jobId}", jobId).principal(() -> "alice"))
+            .andExpect(status().isNotFound());
+
+        verify(imageProcessingService, never()).cancelJob(any());
+    }
+
+    @Test
+    void cancelJob_shouldReturn404ForAnonymousJob() throws Exception {
+        String jobId = UUID.randomUUID().toString();
+        when(jobService.getJob(jobId)).thenReturn(Optional.of(ownedJob(jobId, null)));
+
+        mockMvc.perform(delete("/api/jobs/{jobId}", jobId).principal(() -> FairShareScheduler.ANONYMOUS))
+            .andExpect(status().isNotFound());
+
+        verify(imageProcessingService, never()).cancelJob(any());
+    }
+
+    @Test
+    void cancelJob_shouldReturn404WithoutPrincipal() throws Exception {
+        String jobId = UUID.randomUUID().toString();
+        when(jobService.getJob(jobId)).thenReturn(Optional.of(ownedJob(jobId, null)));
+
+        mockMvc.perform(delete("/api/jobs/{jobId}", jobId))
+            .andExpect(status().isNotFound());
+
+        verify(imageProcessingService, never()).cancelJob(any());
+    }
+
     @Test
     void getAllJobs_shouldReturnJobList() throws Exception {
         ProcessingJob job1 = new ProcessingJob(UUID.randomUUID().toString(), "input-1", 2, "model1");
         ProcessingJob job2 = new ProcessingJob(UUID.randomUUID().toString(), "input-2", 4, "model2");
         
-        when(jobService.getAllJobs()).thenReturn(List.of(job1, job2));
+        when(jobService.getJobPage(null, null, 100))
+            .thenReturn(new ProcessingJobService.JobPage(List.of(job1, job2), "next-cursor"));
         
         mockMvc.perform(get("/api/jobs"))
             .andExpect(status().isOk())
+            .andExpect(header().string("X-Next-Cursor", "next-cursor"))
             .andExpect(jsonPath("$.length()").value(2));
     }
 
+    @Test
+    void getAllJobs_shouldRejectMalformedCursor() throws Exception {
+        when(jobService.getJobPage(null, "garbage", 100)).thenThrow(new IllegalArgumentException("Invalid cursor"));
+
+        mockMvc.perform(get("/api/jobs").param("cursor", "garbage"))
+            .andExpect(status().isBadRequest());
+    }
+
     @Test
     void getAllJobs_withStatusFilter_shouldReturnFilteredList() throws Exception {
         ProcessingJob job = new ProcessingJob(UUID.randomUUID().toString(), "input-1", 2, "model1");
         job.setStatus(ProcessingJob.JobStatus.QUEUED);
         
-        when(jobService.getJobsByStatus(ProcessingJob.JobStatus.QUEUED)).thenReturn(List.of(job));
+        when(jobService.getJobPage(ProcessingJob.JobStatus.QUEUED, null, 10))
+            .thenReturn(new ProcessingJobService.JobPage(List.of(job), null));
         
-        mockMvc.perform(get("/api/jobs").param("status", "QUEUED"))
+        mockMvc.perform(get("/api/jobs").param("status", "QUEUED").param("limit", "10"))
             .andExpect(status().isOk())
+            .andExpect(header().doesNotExist("X-Next-Cursor"))
             .andExpect(jsonPath("$[0].status").value("QUEUED"));
     }
 
     @Test
     void getStatistics_shouldReturnJobCounts() throws Exception {
-        when(jobService.getAllJobs()).thenReturn(List.of(
-            createJob(ProcessingJob.JobStatus.QUEUED),
-            createJob(ProcessingJob.JobStatus.PROCESSING),
-            createJob(ProcessingJob.JobStatus.COMPLETED),
-            createJob(ProcessingJob.JobStatus.COMPLETED),
-            createJob(ProcessingJob.JobStatus.FAILED)
-        ));
+        when(jobStatistics.getTotals()).thenReturn(new JobStatistics.Totals(5, Map.of(
+            ProcessingJob.JobStatus.QUEUED, 1L,
+            ProcessingJob.JobStatus.PROCESSING, 1L,
+            ProcessingJob.JobStatus.COMPLETED, 2L,
+            ProcessingJob.JobStatus.FAILED, 1L), 1500.0));
+        when(jobStatistics.getWindow(any(JobStatistics.Window.class))).thenAnswer(invocation ->
+            new JobStatistics.WindowStats(invocation.getArgument(0), 2, 1, List.of(
+                new JobStatistics.LatencyStats("model", 2, 2, 1500.0, 1000, 2000, 2000, 2000))));
         
         mockMvc.perform(get("/api/jobs/statistics"))
             .andExpect(status().isOk())
@@ -122,23 +256,50 @@ class JobControllerTest {
             .andExpect(jsonPath("$.queued").value(1))
             .andExpect(jsonPath("$.processing").value(1))
             .andExpect(jsonPath("$.completed").value(2))
-            .andExpect(jsonPath("$.failed").value(1));
+            .andExpect(jsonPath("$.failed").value(1))
+            .andExpect(jsonPath("$.averageProcessingTimeMs").value(1500.0))
+            .andExpect(jsonPath("$.windows.hour.completed").value(2))
+            .andExpect(jsonPath("$.windows.week.latency[0].p90Ms").value(2000));
+        verify(jobService, never()).getAllJobs();
+    }
+
+    @Test
+    void getStatistics_shouldReportUnavailableWhenRedisIsDown() throws Exception {
+        when(jobStatistics.getTotals()).thenThrow(new IllegalStateException("Redis down"));
+
+        mockMvc.perform(get("/api/jobs/statistics"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.statistics").value("unavailable"));
     }
 
     @Test
     void getJobHistory_shouldReturnPaginatedResults() throws Exception {
-        when(jobService.getAllJobs()).thenReturn(List.of(
-            createJob(ProcessingJob.JobStatus.COMPLETED),
+        List<ProcessingJob> firstPage = List.of(
             createJob(ProcessingJob.JobStatus.COMPLETED),
-            createJob(ProcessingJob.JobStatus.FAILED)
-        ));
+            createJob(ProcessingJob.JobStatus.COMPLETED));
+        when(jobService.getJobHistory(0, 2)).thenReturn(new PageImpl<>(firstPage, PageRequest.of(0, 2), 3));
         
         mockMvc.perform(get("/api/jobs/history").param("page", "0").param("size", "2"))
             .andExpect(status().isOk())
             .andExpect(jsonPath("$.jobs.length()").value(2))
             .andExpect(jsonPath("$.total").value(3))
+            .andExpect(jsonPath("$.totalPages").value(2))
             .andExpect(jsonPath("$.page").value(0))
-            .andExpect(jsonPath("$.size").value(2));
+            .andExpect(jsonPath("$.size").value(2))
+            .andExpect(jsonPath("$.nextCursor").value(ProcessingJobService.cursorAfter(firstPage)));
+    }
+
+    @Test
+    void getJobHistory_withCursor_shouldUseKeysetPage() throws Exception {
+        when(jobService.getJobPage(null, "cursor-1", 2)).thenReturn(new ProcessingJobService.JobPage(
+            List.of(createJob(ProcessingJob.JobStatus.FAILED)), null));
+
+        mockMvc.perform(get("/api/jobs/history").param("cursor", "cursor-1").param("size", "2"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.jobs.length()").value(1))
+            .andExpect(jsonPath("$.nextCursor").doesNotExist())
+            .andExpect(jsonPath("$.total").doesNotExist());
+        verify(jobService, never()).getJobHistory(anyInt(), anyInt());
     }
 
     private ProcessingJob createJob(ProcessingJob.JobStatus status) {
@@ -146,4 +307,10 @@ class JobControllerTest {
         job.setStatus(status);
         return job;
     }
+
+    private ProcessingJob ownedJob(String jobId, String submittedBy) {
+        ProcessingJob job = new ProcessingJob(jobId, "input-id", 2, "model");
+        job.setSubmittedBy(submittedBy);
+        return job;
+    }
 }
@@ -0,0 +1,93 @@
+package net.muttcode.spring.controller;
+
+import net.muttcode.spring.config.JwtAuthenticationFilter;
+import net.muttcode.spring.service.CustomUserDetailsService;
+import net.muttcode.spring.service.JwtService;
+import net.muttcode.spring.service.UpscaylCallbacks;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(UpscaylCallbackController.class)
+@ActiveProfiles("test")
+@AutoConfigureMockMvc(addFilters = false)
+class UpscaylCallbackControllerTest {
+
+    private static final String EVENT = "{\"jobId\":\"job-1\",\"status\":\"processing\",\"progress\":40}";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private UpscaylCallbacks callbacks;
+
+    @MockBean
+    private JwtAuthenticationFilter jwtAuthenticationFilter;
+
+    @MockBean
+    private JwtService jwtService;
+
+    @MockBean
+    private CustomUserDetailsService userDetailsService;
+
+    @Test
+    void callback_shouldPassRawBodyAndHeadersToCallbacks() throws Exception {
+        byte[] body = EVENT.getBytes(StandardCharsets.UTF_8);
+        when(callbacks.handle("1700000000", "sha256=ab", body)).thenReturn(UpscaylCallbacks.CallbackResult.ACCEPTED);
+
+        mockMvc.perform(post("/api/upscayl/callback")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(UpscaylCallbacks.TIMESTAMP_HEADER, "1700000000")
+                .header(UpscaylCallbacks.SIGNATURE_HEADER, "sha256=ab")
+                .content(body))
+            .andExpect(status().isNoContent());
+
+        verify(callbacks).handle("1700000000", "sha256=ab", body);
+    }
+
+    @Test
+    void callback_shouldRejectBadSignatureWithUnauthorized() throws Exception {
+        when(callbacks.handle(eq(null), eq(null), any())).thenReturn(UpscaylCallbacks.CallbackResult.BAD_SIGNATURE);
+
+        mockMvc.perform(post("/api/upscayl/callback").contentType(MediaType.APPLICATION_JSON).content(EVENT))
+            .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void callback_shouldAnswerNotFoundForJobsNotAwaitedHere() throws Exception {
+        when(callbacks.handle(any(), any(), any())).thenReturn(UpscaylCallbacks.CallbackResult.UNKNOWN_JOB);
+
+        mockMvc.perform(post("/api/upscayl/callback")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(UpscaylCallbacks.TIMESTAMP_HEADER, "1700000000")
+                .header(UpscaylCallbacks.SIGNATURE_HEADER, "sha256=ab")
+                .content(EVENT))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void callback_shouldRejectMalformedEventWithBadRequest() throws Exception {
+        when(callbacks.handle(any(), any(), any())).thenReturn(UpscaylCallbacks.CallbackResult.MALFORMED);
+
+        mockMvc.perform(post("/api/upscayl/callback")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(UpscaylCallbacks.TIMESTAMP_HEADER, "1700000000")
+                .header(UpscaylCallbacks.SIGNATURE_HEADER, "sha256=ab")
+                .content("{}"))
+            .andExpect(status().isBadRequest());
+    }
+}
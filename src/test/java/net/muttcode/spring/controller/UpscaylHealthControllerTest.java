@@ -3,6 +3,7 @@ package net.muttcode.spring.controller;
 import net.muttcode.spring.config.JwtAuthenticationFilter;
 import net.muttcode.spring.service.CustomUserDetailsService;
 import net.muttcode.spring.service.JwtService;
+import net.muttcode.spring.service.UpscaylBackendPool;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
@@ -12,7 +13,14 @@ import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 /**
@@ -36,6 +44,9 @@ class UpscaylHealthControllerTest {
   @MockBean
   private CustomUserDetailsService userDetailsService;
 
+  @MockBean
+  private UpscaylBackendPool backendPool;
+
   @Test
   void healthEndpoint_shouldReturnServiceNameAndStatus() throws Exception {
     // Note: In a real scenario, the Upscayl service may or may not be available.
@@ -76,4 +87,52 @@ class UpscaylHealthControllerTest {
     mockMvc.perform(get("/api/upscayl/health"))
         .andExpect(status().isOk());
   }
+
+  @Test
+  void healthEndpoint_shouldReportAvailableWhileABackendIsInRotation() throws Exception {
+    when(backendPool.isAvailable()).thenReturn(true);
+
+    mockMvc.perform(get("/api/upscayl/health"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.status").value("available"));
+  }
+
+  @Test
+  void backendsEndpoint_shouldListBackendStatus() throws Exception {
+    when(backendPool.getStatus()).thenReturn(List.of(
+        new UpscaylBackendPool.BackendStatus("http://gpu-1:8081", true, false, 3, Set.of("ultramix_balanced"), 120, 850.0),
+        new UpscaylBackendPool.BackendStatus("http://gpu-2:8081", false, true, 0, Set.of(), 0, 0.0)));
+
+    mockMvc.perform(get("/api/upscayl/backends"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[0].url").value("http://gpu-1:8081"))
+        .andExpect(jsonPath("$[0].outstanding").value(3))
+        .andExpect(jsonPath("$[0].loadedModels[0]").value("ultramix_balanced"))
+        .andExpect(jsonPath("$[1].healthy").value(false))
+        .andExpect(jsonPath("$[1].draining").value(true));
+  }
+
+  @Test
+  void drainEndpoint_shouldDrainAndResumeBackend() throws Exception {
+    when(backendPool.setDraining("http://gpu-1:8081", true)).thenReturn(Optional.of(
+        new UpscaylBackendPool.BackendStatus("http://gpu-1:8081", true, true, 2, Set.of(), 10, 900.0)));
+    when(backendPool.setDraining("http://gpu-1:8081", false)).thenReturn(Optional.of(
+        new UpscaylBackendPool.BackendStatus("http://gpu-1:8081", true, false, 0, Set.of(), 12, 900.0)));
+
+    mockMvc.perform(post("/api/upscayl/backends/drain").param("url", "http://gpu-1:8081"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.draining").value(true))
+        .andExpect(jsonPath("$.outstanding").value(2));
+    mockMvc.perform(delete("/api/upscayl/backends/drain").param("url", "http://gpu-1:8081"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.draining").value(false));
+  }
+
+  @Test
+  void drainEndpoint_shouldReturn404ForUnknownBackend() throws Exception {
+    when(backendPool.setDraining("http://nowhere:8081", true)).thenReturn(Optional.empty());
+
+    mockMvc.perform(post("/api/upscayl/backends/drain").param("url", "http://nowhere:8081"))
+        .andExpect(status().isNotFound());
+  }
 }
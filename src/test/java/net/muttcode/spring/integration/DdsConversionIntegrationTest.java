@@ -2,6 +2,7 @@ package net.muttcode.spring.integration;
 
 import net.muttcode.spring.config.JwtAuthenticationFilter;
 import net.muttcode.spring.controller.DdsConversionController;
+import net.muttcode.spring.service.CompressedTransferService;
 import net.muttcode.spring.service.CustomUserDetailsService;
 import net.muttcode.spring.service.DdsConversionService;
 import net.muttcode.spring.service.JwtService;
@@ -36,6 +37,9 @@ class DdsConversionIntegrationTest {
     @MockBean
     private DdsConversionService ddsConversionService;
 
+    @MockBean
+    private CompressedTransferService compressedTransferService;
+
     @MockBean
     private JwtAuthenticationFilter jwtAuthenticationFilter;
 
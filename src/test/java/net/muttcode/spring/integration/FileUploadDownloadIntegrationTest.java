@@ -2,6 +2,8 @@ package net.muttcode.spring.integration;
 
 import net.muttcode.spring.config.JwtAuthenticationFilter;
 import net.muttcode.spring.controller.FileController;
+import net.muttcode.spring.service.BulkUploadService;
+import net.muttcode.spring.service.CompressedTransferService;
 import net.muttcode.spring.service.CustomUserDetailsService;
 import net.muttcode.spring.service.FileService;
 import net.muttcode.spring.service.JwtService;
@@ -16,11 +18,15 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.function.Consumer;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -36,6 +42,12 @@ class FileUploadDownloadIntegrationTest {
     @MockBean
     private FileService fileService;
 
+    @MockBean
+    private CompressedTransferService compressedTransferService;
+
+    @MockBean
+    private BulkUploadService bulkUploadService;
+
     @MockBean
     private JwtAuthenticationFilter jwtAuthenticationFilter;
 
@@ -91,6 +103,33 @@ class FileUploadDownloadIntegrationTest {
         verify(fileService, times(1)).saveFile(any(MockMultipartFile.class));
     }
 
+    @Test
+    void uploadBulk_shouldStreamOneJsonLinePerFile() throws Exception {
+        // Arrange
+        MockMultipartFile first = new MockMultipartFile("files", "a.png", "image/png", "a".getBytes());
+        MockMultipartFile second = new MockMultipartFile("files", "b.png", "image/png", "b".getBytes());
+        doAnswer(invocation -> {
+            Consumer<BulkUploadService.Result> results = invocation.getArgument(1);
+            results.accept(new BulkUploadService.Result(1, "b.png", BulkUploadService.Result.FAILED, null, null, "disk error"));
+            results.accept(new BulkUploadService.Result(0, "a.png", BulkUploadService.Result.STORED, "id-a", "id-a_a.png", null));
+            return null;
+        }).when(bulkUploadService).upload(anyList(), any());
+
+        // Act
+        MvcResult started = mockMvc.perform(multipart("/api/upload/bulk")
+                .file(first)
+                .file(second))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        // Assert
+        mockMvc.perform(asyncDispatch(started))
+            .andExpect(status().isOk())
+            .andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+            .andExpect(content().string(containsString("\"index\":1,\"originalName\":\"b.png\",\"status\":\"failed\"")))
+            .andExpect(content().string(containsString("\"fileId\":\"id-a\"")));
+    }
+
     @Test
     void downloadFile_shouldReturnFileWhenExists() throws Exception {
         // Arrange
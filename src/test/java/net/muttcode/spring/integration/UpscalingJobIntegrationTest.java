@@ -3,9 +3,14 @@ package net.muttcode.spring.integration;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import net.muttcode.spring.controller.JobController;
 import net.muttcode.spring.model.ProcessingJob;
+import net.muttcode.spring.service.FairShareScheduler;
 import net.muttcode.spring.service.FileService;
 import net.muttcode.spring.service.ImageProcessingService;
+import net.muttcode.spring.service.JobAdmissionService;
+import net.muttcode.spring.service.JobEtaService;
+import net.muttcode.spring.service.JobEventStreams;
 import net.muttcode.spring.service.JobQueueService;
+import net.muttcode.spring.service.JobStatistics;
 import net.muttcode.spring.service.ProcessingJobService;
 import net.muttcode.spring.service.StoredFile;
 import org.junit.jupiter.api.AfterEach;
@@ -14,12 +19,21 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -55,6 +69,21 @@ class UpscalingJobIntegrationTest {
     @MockBean
     private JobQueueService jobQueueService;
 
+    @MockBean
+    private FairShareScheduler fairShareScheduler;
+
+    @MockBean
+    private JobEventStreams jobEventStreams;
+
+    @MockBean
+    private JobStatistics jobStatistics;
+
+    @MockBean
+    private JobAdmissionService jobAdmissionService;
+
+    @MockBean
+    private JobEtaService jobEtaService;
+
     @MockBean
     private net.muttcode.spring.service.JwtService jwtService;
 
@@ -100,7 +129,8 @@ class UpscalingJobIntegrationTest {
 
         StoredFile mockStoredFile = new StoredFile(inputFileId, "test-image.png", inputFileId + "_test-image.png", testUploadDir);
         when(fileService.saveFile(any(MockMultipartFile.class))).thenReturn(mockStoredFile);
-        when(imageProcessingService.submitJob(anyString(), anyInt(), anyString())).thenReturn(jobId);
+        when(jobAdmissionService.admit(isNull())).thenReturn(new JobAdmissionService.Decision(true, Duration.ZERO, null, null));
+        when(imageProcessingService.submitJob(anyString(), anyInt(), anyString(), any(ProcessingJob.Priority.class), any(), isNull())).thenReturn(jobId);
 
         mockMvc.perform(multipart("/api/jobs/process")
                 .file(testFile)
@@ -111,10 +141,105 @@ class UpscalingJobIntegrationTest {
             .andExpect(jsonPath("$.inputFileId").value(inputFileId))
             .andExpect(jsonPath("$.status").value("QUEUED"))
             .andExpect(jsonPath("$.scaleFactor").value(scaleFactor))
-            .andExpect(jsonPath("$.modelName").value(modelName));
+            .andExpect(jsonPath("$.modelName").value(modelName))
+            .andExpect(jsonPath("$.priority").value("NORMAL"));
 
         verify(fileService, times(1)).saveFile(any(MockMultipartFile.class));
-        verify(imageProcessingService, times(1)).submitJob(inputFileId, scaleFactor, modelName);
+        verify(imageProcessingService, times(1)).submitJob(inputFileId, scaleFactor, modelName, ProcessingJob.Priority.NORMAL, null, null);
+    }
+
+    @Test
+    void submitUpscalingJob_shouldReportJobCompletedFromDuplicate() throws Exception {
+        MockMultipartFile testFile = new MockMultipartFile("file", "test-image.png", "image/png", "img".getBytes());
+        StoredFile mockStoredFile = new StoredFile("input-id", "test-image.png", "input-id_test-image.png", testUploadDir);
+        ProcessingJob reused = new ProcessingJob("job-id", "input-id", 2, "ultramix_balanced");
+        reused.setStatus(ProcessingJob.JobStatus.COMPLETED);
+        reused.setDeduplicatedFrom("earlier-job-id");
+        reused.setOutputFileId("output-id");
+        when(fileService.saveFile(any(MockMultipartFile.class))).thenReturn(mockStoredFile);
+        when(jobAdmissionService.admit(isNull())).thenReturn(new JobAdmissionService.Decision(true, Duration.ZERO, null, null));
+        when(imageProcessingService.submitJob(anyString(), anyInt(), anyString(), any(ProcessingJob.Priority.class), any(), isNull())).thenReturn("job-id");
+        when(jobService.getJob("job-id")).thenReturn(Optional.of(reused));
+
+        mockMvc.perform(multipart("/api/jobs/process").file(testFile))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.status").value("COMPLETED"))
+            .andExpect(jsonPath("$.deduplicatedFrom").value("earlier-job-id"))
+            .andExpect(jsonPath("$.outputFileId").value("output-id"));
+    }
+
+    @Test
+    void submitUpscalingJob_shouldRejectWith429WhenQueueIsTooDeep() throws Exception {
+        MockMultipartFile testFile = new MockMultipartFile("file", "test-image.png", "image/png", "img".getBytes());
+        when(jobAdmissionService.admit(isNull()))
+            .thenReturn(new JobAdmissionService.Decision(false, Duration.ofSeconds(2400), Duration.ofSeconds(600), null));
+
+        mockMvc.perform(multipart("/api/jobs/process").file(testFile))
+            .andExpect(status().isTooManyRequests())
+            .andExpect(header().string("Retry-After", "600"))
+            .andExpect(jsonPath("$.estimatedWaitSeconds").value(2400));
+
+        // Nothing is stored or queued for a rejected request
+        verifyNoInteractions(fileService, imageProcessingService);
+    }
+
+    @Test
+    void submitUpscalingJob_shouldAcceptJobWithDeadline() throws Exception {
+        MockMultipartFile testFile = new MockMultipartFile("file", "test-image.png", "image/png", "img".getBytes());
+        StoredFile mockStoredFile = new StoredFile("input-id", "test-image.png", "input-id_test-image.png", testUploadDir);
+        Instant expiresAt = Instant.now().plusSeconds(900);
+        when(fileService.saveFile(any(MockMultipartFile.class))).thenReturn(mockStoredFile);
+        when(jobAdmissionService.getMaxDeadline()).thenReturn(Duration.ofDays(1));
+        when(jobAdmissionService.admit(Duration.ofSeconds(900)))
+            .thenReturn(new JobAdmissionService.Decision(true, Duration.ofSeconds(2400), null, expiresAt));
+        when(imageProcessingService.submitJob(anyString(), anyInt(), anyString(), any(ProcessingJob.Priority.class), any(), eq(expiresAt))).thenReturn("job-id");
+
+        mockMvc.perform(multipart("/api/jobs/process")
+                .file(testFile)
+                .param("deadlineSeconds", "900"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.estimatedWaitSeconds").value(2400))
+            .andExpect(jsonPath("$.expiresAt").exists());
+    }
+
+    @Test
+    void submitUpscalingJob_shouldRejectDeadlineOutOfRange() throws Exception {
+        MockMultipartFile testFile = new MockMultipartFile("file", "test-image.png", "image/png", "img".getBytes());
+        when(jobAdmissionService.getMaxDeadline()).thenReturn(Duration.ofDays(1));
+
+        mockMvc.perform(multipart("/api/jobs/process")
+                .file(testFile)
+                .param("deadlineSeconds", "0"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void submitUpscalingJob_shouldQueueOnRequestedPriorityLane() throws Exception {
+        MockMultipartFile testFile = new MockMultipartFile("file", "test-image.png", "image/png", "img".getBytes());
+        StoredFile mockStoredFile = new StoredFile("input-id", "test-image.png", "input-id_test-image.png", testUploadDir);
+        when(fileService.saveFile(any(MockMultipartFile.class))).thenReturn(mockStoredFile);
+        when(jobAdmissionService.admit(isNull())).thenReturn(new JobAdmissionService.Decision(true, Duration.ZERO, null, null));
+        when(imageProcessingService.submitJob(anyString(), anyInt(), anyString(), any(ProcessingJob.Priority.class), any(), isNull())).thenReturn("job-id");
+
+        mockMvc.perform(multipart("/api/jobs/process")
+                .file(testFile)
+                .param("priority", "interactive"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.priority").value("INTERACTIVE"));
+
+        verify(imageProcessingService).submitJob("input-id", 2, "ultramix_balanced", ProcessingJob.Priority.INTERACTIVE, null, null);
+    }
+
+    @Test
+    void submitUpscalingJob_shouldRejectUnknownPriority() throws Exception {
+        MockMultipartFile testFile = new MockMultipartFile("file", "test-image.png", "image/png", "img".getBytes());
+
+        mockMvc.perform(multipart("/api/jobs/process")
+                .file(testFile)
+                .param("priority", "urgent"))
+            .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(fileService, imageProcessingService);
     }
 
     @Test
@@ -182,13 +307,14 @@ class UpscalingJobIntegrationTest {
 
     @Test
     void getStatistics_shouldReturnJobCounts() throws Exception {
-        when(jobService.getAllJobs()).thenReturn(java.util.List.of(
-            createJob(ProcessingJob.JobStatus.QUEUED),
-            createJob(ProcessingJob.JobStatus.PROCESSING),
-            createJob(ProcessingJob.JobStatus.COMPLETED),
-            createJob(ProcessingJob.JobStatus.COMPLETED),
-            createJob(ProcessingJob.JobStatus.FAILED)
-        ));
+        when(jobStatistics.getTotals()).thenReturn(new JobStatistics.Totals(5, Map.of(
+            ProcessingJob.JobStatus.QUEUED, 1L,
+            ProcessingJob.JobStatus.PROCESSING, 1L,
+            ProcessingJob.JobStatus.COMPLETED, 2L,
+            ProcessingJob.JobStatus.FAILED, 1L), 1500.0));
+        when(jobStatistics.getWindow(any(JobStatistics.Window.class))).thenAnswer(invocation ->
+            new JobStatistics.WindowStats(invocation.getArgument(0), 2, 1, List.of(
+                new JobStatistics.LatencyStats("model", 2, 2, 1500.0, 1000, 2000, 2000, 2000))));
 
         mockMvc.perform(get("/api/jobs/statistics"))
             .andExpect(status().isOk())
@@ -199,11 +325,10 @@ class UpscalingJobIntegrationTest {
 
     @Test
     void getJobHistory_shouldReturnPaginatedResults() throws Exception {
-        when(jobService.getAllJobs()).thenReturn(java.util.List.of(
+        when(jobService.getJobHistory(0, 2)).thenReturn(new PageImpl<>(List.of(
             createJob(ProcessingJob.JobStatus.COMPLETED),
-            createJob(ProcessingJob.JobStatus.COMPLETED),
-            createJob(ProcessingJob.JobStatus.FAILED)
-        ));
+            createJob(ProcessingJob.JobStatus.COMPLETED)
+        ), PageRequest.of(0, 2), 3));
 
         mockMvc.perform(get("/api/jobs/history").param("page", "0").param("size", "2"))
             .andExpect(status().isOk())
@@ -218,6 +343,107 @@ class UpscalingJobIntegrationTest {
             .andExpect(jsonPath("$.queue").value("available"));
     }
 
+    @Test
+    void getQueueStatus_shouldReportPerLaneDepthAndWait() throws Exception {
+        when(jobQueueService.getLaneStats()).thenReturn(Map.of(
+            ProcessingJob.Priority.INTERACTIVE, new JobQueueService.LaneStats(1, 200, 150, 40, 8),
+            ProcessingJob.Priority.BULK, new JobQueueService.LaneStats(10000, 3600000, 900000, 12, 1)));
+
+        mockMvc.perform(get("/api/jobs/queue/status"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.lanes.interactive.depth").value(1))
+            .andExpect(jsonPath("$.lanes.interactive.averageWaitMs").value(150))
+            .andExpect(jsonPath("$.lanes.bulk.depth").value(10000))
+            .andExpect(jsonPath("$.lanes.bulk.oldestWaitMs").value(3600000))
+            .andExpect(jsonPath("$.lanes.bulk.weight").value(1));
+    }
+
+    @Test
+    void getQueueStatus_shouldReportUnavailableWhenRedisIsDown() throws Exception {
+        when(jobQueueService.getLaneStats()).thenThrow(new IllegalStateException("connection refused"));
+
+        mockMvc.perform(get("/api/jobs/queue/status"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.queue").value("unavailable"));
+    }
+
+    @Test
+    void submitUpscalingJob_shouldRecordAuthenticatedSubmitter() throws Exception {
+        MockMultipartFile testFile = new MockMultipartFile("file", "test-image.png", "image/png", "img".getBytes());
+        StoredFile mockStoredFile = new StoredFile("input-id", "test-image.png", "input-id_test-image.png", testUploadDir);
+        when(fileService.saveFile(any(MockMultipartFile.class))).thenReturn(mockStoredFile);
+        when(jobAdmissionService.admit(isNull())).thenReturn(new JobAdmissionService.Decision(true, Duration.ZERO, null, null));
+        when(imageProcessingService.submitJob(anyString(), anyInt(), anyString(), any(ProcessingJob.Priority.class), any(), isNull())).thenReturn("job-id");
+
+        mockMvc.perform(multipart("/api/jobs/process")
+                .file(testFile)
+                .principal(() -> "alice"))
+            .andExpect(status().isOk());
+
+        verify(imageProcessingService).submitJob("input-id", 2, "ultramix_balanced", ProcessingJob.Priority.NORMAL, "alice", null);
+    }
+
+    @Test
+    void getSchedulerState_shouldListUsersInServiceOrder() throws Exception {
+        when(jobQueueService.getQueuedByUser()).thenReturn(Map.of(
+            "heavy", Map.of(ProcessingJob.Priority.BULK, 500L),
+            "light", Map.of(ProcessingJob.Priority.INTERACTIVE, 1L)));
+        Map<String, FairShareScheduler.Usage> snapshot = new LinkedHashMap<>();
+        snapshot.put("light", new FairShareScheduler.Usage(1, 2000, 0, 30000));
+        snapshot.put("heavy", new FairShareScheduler.Usage(2, 7200000, 4, 30000));
+        when(fairShareScheduler.snapshot(any())).thenReturn(snapshot);
+        when(fairShareScheduler.getWindow()).thenReturn(Duration.ofMinutes(60));
+
+        mockMvc.perform(get("/api/jobs/scheduler"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.windowMinutes").value(60))
+            .andExpect(jsonPath("$.users[0].user").value("light"))
+            .andExpect(jsonPath("$.users[0].queued.interactive").value(1))
+            .andExpect(jsonPath("$.users[1].user").value("heavy"))
+            .andExpect(jsonPath("$.users[1].gpuSeconds").value(7200.0))
+            .andExpect(jsonPath("$.users[1].share").value(2))
+            .andExpect(jsonPath("$.users[1].running").value(4))
+            .andExpect(jsonPath("$.users[1].queued.bulk").value(500));
+    }
+
+    @Test
+    void streamJobEvents_shouldOpenStreamForExistingJob() throws Exception {
+        String jobId = UUID.randomUUID().toString();
+        when(jobService.getJob(jobId)).thenReturn(Optional.of(createJob(ProcessingJob.JobStatus.PROCESSING)));
+        when(jobEventStreams.open(List.of(jobId))).thenReturn(new SseEmitter());
+
+        mockMvc.perform(get("/api/jobs/" + jobId + "/events").accept(MediaType.TEXT_EVENT_STREAM))
+            .andExpect(request().asyncStarted());
+
+        verify(jobEventStreams).open(List.of(jobId));
+    }
+
+    @Test
+    void streamJobEvents_shouldReturn404ForUnknownJob() throws Exception {
+        when(jobService.getJob("missing")).thenReturn(Optional.empty());
+
+        mockMvc.perform(get("/api/jobs/missing/events").accept(MediaType.TEXT_EVENT_STREAM))
+            .andExpect(status().isNotFound());
+
+        verifyNoInteractions(jobEventStreams);
+    }
+
+    @Test
+    void streamJobsEvents_shouldOpenOneStreamForDistinctIds() throws Exception {
+        when(jobEventStreams.open(List.of("a", "b"))).thenReturn(new SseEmitter());
+
+        mockMvc.perform(get("/api/jobs/events").param("ids", "a,b,a").accept(MediaType.TEXT_EVENT_STREAM))
+            .andExpect(request().asyncStarted());
+
+        verify(jobEventStreams).open(List.of("a", "b"));
+    }
+
+    @Test
+    void streamJobsEvents_shouldRejectEmptyIdList() throws Exception {
+        mockMvc.perform(get("/api/jobs/events").param("ids", "").accept(MediaType.TEXT_EVENT_STREAM))
+            .andExpect(status().isBadRequest());
+    }
+
     private ProcessingJob createJob(ProcessingJob.JobStatus status) {
         ProcessingJob job = new ProcessingJob(UUID.randomUUID().toString(), "input-id", 2, "model");
         job.setStatus(status);
@@ -0,0 +1,103 @@
+package net.muttcode.spring.repository;
+
+import net.muttcode.spring.model.ProcessingJob;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase.Replace;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = Replace.ANY)
+class ProcessingJobRepositoryTest {
+
+    private static final Instant EARLIER = Instant.parse("2026-10-01T10:00:00Z");
+    private static final Instant LATER = Instant.parse("2026-10-01T11:00:00Z");
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private ProcessingJobRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        persist("job-a", EARLIER, ProcessingJob.JobStatus.COMPLETED);
+        persist("job-b", LATER, ProcessingJob.JobStatus.FAILED);
+        // Same instant as job-b, so job_id decides the order
+        persist("job-c", LATER, ProcessingJob.JobStatus.COMPLETED);
+    }
+
+    @Test
+    void findNewest_shouldOrderByCreatedAtThenJobId() {
+        List<ProcessingJob> jobs = repository.findNewest(PageRequest.of(0, 10));
+
+        assertEquals(List.of("job-c", "job-b", "job-a"), jobIds(jobs));
+    }
+
+    @Test
+    void findNewestBefore_shouldResumeWithinTiedTimestamps() {
+        List<ProcessingJob> jobs = repository.findNewestBefore(LATER, "job-c", PageRequest.of(0, 10));
+
+        assertEquals(List.of("job-b", "job-a"), jobIds(jobs));
+    }
+
+    @Test
+    void findNewestByStatusBefore_shouldFilterAndLimit() {
+        List<ProcessingJob> first = repository.findNewestByStatus(ProcessingJob.JobStatus.COMPLETED, PageRequest.of(0, 1));
+        ProcessingJob last = first.get(0);
+
+        List<ProcessingJob> next = repository.findNewestByStatusBefore(
+            ProcessingJob.JobStatus.COMPLETED, last.getCreatedAt(), last.getJobId(), PageRequest.of(0, 1));
+
+        assertEquals(List.of("job-c"), jobIds(first));
+        assertEquals(List.of("job-a"), jobIds(next));
+    }
+
+    @Test
+    void markProcessing_shouldCountEveryStartIncludingRedeliveries() {
+        persist("job-d", LATER, ProcessingJob.JobStatus.QUEUED);
+        Instant now = Instant.now();
+
+        repository.markProcessing("job-d", ProcessingJob.JobStatus.PROCESSING, now, List.of(ProcessingJob.JobStatus.QUEUED));
+        repository.markProcessing("job-d", ProcessingJob.JobStatus.PROCESSING, now, List.of(ProcessingJob.JobStatus.PROCESSING));
+        entityManager.clear();
+
+        assertEquals(2, repository.findById("job-d").orElseThrow().getAttempts());
+    }
+
+    @Test
+    void markQueued_shouldReturnRunningJobToQueueKeepingItsAttempts() {
+        persist("job-d", LATER, ProcessingJob.JobStatus.QUEUED);
+        repository.markProcessing("job-d", ProcessingJob.JobStatus.PROCESSING, Instant.now(), List.of(ProcessingJob.JobStatus.QUEUED));
+
+        int updated = repository.markQueued("job-d", ProcessingJob.JobStatus.QUEUED, List.of(ProcessingJob.JobStatus.PROCESSING));
+        entityManager.clear();
+
+        ProcessingJob job = repository.findById("job-d").orElseThrow();
+        assertEquals(1, updated);
+        assertEquals(ProcessingJob.JobStatus.QUEUED, job.getStatus());
+        assertNull(job.getStartedAt());
+        assertEquals(1, job.getAttempts());
+        assertEquals(0, repository.markQueued("job-a", ProcessingJob.JobStatus.QUEUED, List.of(ProcessingJob.JobStatus.PROCESSING)));
+    }
+
+    private void persist(String jobId, Instant createdAt, ProcessingJob.JobStatus status) {
+        ProcessingJob job = new ProcessingJob(jobId, "input-" + jobId, 2, "ultramix_balanced");
+        job.setCreatedAt(createdAt);
+        job.setStatus(status);
+        entityManager.persistAndFlush(job);
+    }
+
+    private static List<String> jobIds(List<ProcessingJob> jobs) {
+        return jobs.stream().map(ProcessingJob::getJobId).toList();
+    }
+}
@@ -0,0 +1,132 @@
+package net.muttcode.spring.service;
+
+import net.muttcode.spring.model.File;
+import net.muttcode.spring.repository.FileRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class BulkUploadServiceTest {
+
+    @Mock
+    private FileRepository fileRepository;
+
+    private Path uploadDir;
+    private BulkUploadService bulkUploadService;
+    private AutoCloseable closeable;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        closeable = MockitoAnnotations.openMocks(this);
+        uploadDir = Files.createTempDirectory("bulk-uploads");
+        FileService fileService = new FileService(
+            fileRepository, new FileMetadataCache(100, 600), new StorageAdmission(0, 0, 5000), uploadDir.toString());
+        bulkUploadService = new BulkUploadService(fileService, 2);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        bulkUploadService.shutdown();
+        closeable.close();
+        try (Stream<Path> paths = Files.walk(uploadDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void upload_shouldWriteAllFilesAndSaveThemInOneBatch() throws IOException {
+        // Arrange
+        List<MultipartFile> files = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            files.add(new MockMultipartFile("files", "tex" + i + ".dds", "image/vnd-ms.dds", ("data" + i).getBytes()));
+        }
+        List<BulkUploadService.Result> results = new ArrayList<>();
+
+        // Act
+        bulkUploadService.upload(files, results::add);
+
+        // Assert
+        assertEquals(10, results.size());
+        assertTrue(results.stream().allMatch(r -> BulkUploadService.Result.STORED.equals(r.status())));
+        assertEquals(10, results.stream().mapToInt(BulkUploadService.Result::index).distinct().count());
+        for (BulkUploadService.Result result : results) {
+            assertTrue(Files.exists(uploadDir.resolve(result.fileName())));
+            assertEquals("tex" + result.index() + ".dds", result.originalName());
+        }
+        verify(fileRepository, times(1)).saveAll(anyList());
+        verify(fileRepository, never()).save(any(File.class));
+    }
+
+    @Test
+    void upload_shouldReportFailedWritesAndStoreTheRest() throws IOException {
+        // Arrange
+        MultipartFile broken = mock(MultipartFile.class);
+        when(broken.getOriginalFilename()).thenReturn("broken.dds");
+        when(broken.getInputStream()).thenThrow(new IOException("stream reset"));
+        MultipartFile good = new MockMultipartFile("files", "good.dds", "image/vnd-ms.dds", "ok".getBytes());
+        List<BulkUploadService.Result> results = new ArrayList<>();
+
+        // Act
+        bulkUploadService.upload(List.of(broken, good), results::add);
+
+        // Assert
+        BulkUploadService.Result failed = results.stream().filter(r -> r.index() == 0).findFirst().orElseThrow();
+        assertEquals(BulkUploadService.Result.FAILED, failed.status());
+        assertEquals("stream reset", failed.error());
+        BulkUploadService.Result stored = results.stream().filter(r -> r.index() == 1).findFirst().orElseThrow();
+        assertEquals(BulkUploadService.Result.STORED, stored.status());
+        verify(fileRepository).saveAll(argThat(entities -> ((List<?>) entities).size() == 1));
+    }
+
+    @Test
+    void upload_shouldDiscardWrittenFilesWhenTheBatchFails() throws IOException {
+        // Arrange
+        when(fileRepository.saveAll(anyList())).thenThrow(new RuntimeException("constraint violation"));
+        List<BulkUploadService.Result> results = new ArrayList<>();
+
+        // Act
+        bulkUploadService.upload(List.of(
+            new MockMultipartFile("files", "a.dds", "image/vnd-ms.dds", "a".getBytes()),
+            new MockMultipartFile("files", "b.dds", "image/vnd-ms.dds", "b".getBytes())), results::add);
+
+        // Assert
+        assertEquals(2, results.size());
+        assertTrue(results.stream().allMatch(r -> BulkUploadService.Result.FAILED.equals(r.status())));
+        try (Stream<Path> left = Files.list(uploadDir)) {
+            assertEquals(0, left.count());
+        }
+    }
+
+    @Test
+    void upload_shouldRejectWhenStorageIsCritical() throws IOException {
+        // Arrange
+        FileService fullDisk = new FileService(
+            fileRepository, new FileMetadataCache(100, 600), new StorageAdmission(1.0, Long.MAX_VALUE, 0), uploadDir.toString());
+        BulkUploadService service = new BulkUploadService(fullDisk, 1);
+
+        // Act & Assert
+        try {
+            assertThrows(InsufficientStorageException.class, () -> service.upload(
+                List.of(new MockMultipartFile("files", "a.dds", "image/vnd-ms.dds", "a".getBytes())), r -> {}));
+            verify(fileRepository, never()).saveAll(anyList());
+        } finally {
+            service.shutdown();
+        }
+    }
+}
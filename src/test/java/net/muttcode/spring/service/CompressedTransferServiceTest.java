@@ -0,0 +1,112 @@
+package net.muttcode.spring.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressedTransferServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private CompressedTransferService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new CompressedTransferService(1024, 9, 1, 16);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void acceptsGzip_shouldHonourQualityValues() {
+        assertTrue(CompressedTransferService.acceptsGzip("gzip, deflate, br"));
+        assertTrue(CompressedTransferService.acceptsGzip("br;q=1.0, gzip;q=0.8"));
+        assertTrue(CompressedTransferService.acceptsGzip("*"));
+        assertFalse(CompressedTransferService.acceptsGzip("gzip;q=0"));
+        assertFalse(CompressedTransferService.acceptsGzip("identity"));
+        assertFalse(CompressedTransferService.acceptsGzip(null));
+    }
+
+    @Test
+    void negotiate_shouldStreamValidGzipWhenNoVariantExists() throws IOException {
+        byte[] content = ddsLikeContent(64 * 1024);
+        Path original = Files.write(tempDir.resolve("texture.dds"), content);
+
+        Optional<CompressedTransferService.CompressedBody> body = service.negotiate(original, "gzip");
+
+        assertTrue(body.isPresent());
+        assertNull(body.get().contentLength());
+        try (InputStream in = new GZIPInputStream(body.get().resource().getInputStream())) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void negotiate_shouldServePrecompressedVariantWithLength() throws IOException {
+        byte[] content = ddsLikeContent(64 * 1024);
+        Path original = Files.write(tempDir.resolve("texture.dds"), content);
+
+        service.precompress(original);
+        Optional<CompressedTransferService.CompressedBody> body = service.negotiate(original, "gzip");
+
+        Path variant = CompressedTransferService.variantOf(original);
+        assertTrue(Files.exists(variant));
+        assertTrue(body.isPresent());
+        assertEquals(Files.size(variant), body.get().contentLength());
+        try (InputStream in = new GZIPInputStream(body.get().resource().getInputStream())) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void negotiate_shouldFallBackToRawWhenStreamingCapacityIsExhausted() throws IOException {
+        Path first = Files.write(tempDir.resolve("first.dds"), ddsLikeContent(8 * 1024));
+        Path second = Files.write(tempDir.resolve("second.dds"), ddsLikeContent(8 * 1024));
+
+        Optional<CompressedTransferService.CompressedBody> held = service.negotiate(first, "gzip");
+        Optional<CompressedTransferService.CompressedBody> rejected = service.negotiate(second, "gzip");
+
+        assertTrue(held.isPresent());
+        assertTrue(rejected.isEmpty());
+
+        held.get().resource().getInputStream().close();
+        assertTrue(service.negotiate(second, "gzip").isPresent());
+    }
+
+    @Test
+    void negotiate_shouldSkipAlreadyCompressedFormats() throws IOException {
+        Path png = Files.write(tempDir.resolve("image.png"), ddsLikeContent(8 * 1024));
+
+        assertTrue(service.negotiate(png, "gzip").isEmpty());
+    }
+
+    @Test
+    void negotiate_shouldSkipClientsWithoutGzip() throws IOException {
+        Path original = Files.write(tempDir.resolve("texture.dds"), ddsLikeContent(8 * 1024));
+
+        assertTrue(service.negotiate(original, "identity").isEmpty());
+    }
+
+    private static byte[] ddsLikeContent(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i += 4) {
+            Arrays.fill(content, i, Math.min(i + 4, size), (byte) ((i / 256) & 0xFF));
+        }
+        return content;
+    }
+}
@@ -0,0 +1,74 @@
+package net.muttcode.spring.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FairShareSchedulerTest {
+
+    private static final long RUNNING_CHARGE_MS = 30_000;
+
+    @Test
+    void rank_shouldServeLightUserBeforeHeavyUser() {
+        Map<String, FairShareScheduler.Usage> usage = Map.of(
+            "heavy", usage(1, 3_600_000, 0),
+            "light", usage(1, 10_000, 0));
+
+        assertEquals(List.of("light", "heavy"), FairShareScheduler.rank(usage));
+    }
+
+    @Test
+    void rank_shouldWeighUsageByShare() {
+        // Four times the share, less than four times the usage
+        Map<String, FairShareScheduler.Usage> usage = Map.of(
+            "team", usage(4, 300_000, 0),
+            "solo", usage(1, 100_000, 0));
+
+        assertEquals(List.of("team", "solo"), FairShareScheduler.rank(usage));
+    }
+
+    @Test
+    void rank_shouldChargeRunningJobsBeforeTheyFinish() {
+        // Neither has finished anything yet; the one already holding workers waits
+        Map<String, FairShareScheduler.Usage> usage = Map.of(
+            "bulk", usage(1, 0, 16),
+            "newcomer", usage(1, 0, 0));
+
+        assertEquals(List.of("newcomer", "bulk"), FairShareScheduler.rank(usage));
+    }
+
+    @Test
+    void rank_shouldBreakTiesByName() {
+        Map<String, FairShareScheduler.Usage> usage = Map.of(
+            "carol", usage(1, 0, 0),
+            "alice", usage(1, 0, 0),
+            "bob", usage(1, 0, 0));
+
+        assertEquals(List.of("alice", "bob", "carol"), FairShareScheduler.rank(usage));
+    }
+
+    @Test
+    void normalized_shouldIncludeRunningChargeAndShare() {
+        assertEquals(40_000.0, usage(2, 20_000, 2).normalized());
+    }
+
+    @Test
+    void parseShares_shouldReadPairsAndSkipInvalidEntries() {
+        Map<String, Integer> shares = FairShareScheduler.parseShares(" alice=4, bob = 2 ,broken, eve=x, zero=0");
+
+        assertEquals(Map.of("alice", 4, "bob", 2, "zero", 1), shares);
+    }
+
+    @Test
+    void parseShares_shouldReturnEmptyForBlank() {
+        assertTrue(FairShareScheduler.parseShares("").isEmpty());
+        assertTrue(FairShareScheduler.parseShares(null).isEmpty());
+    }
+
+    private static FairShareScheduler.Usage usage(int share, long usedMs, long running) {
+        return new FairShareScheduler.Usage(share, usedMs, running, RUNNING_CHARGE_MS);
+    }
+}
@@ -0,0 +1,64 @@
+package net.muttcode.spring.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for FileHandoff link/move behaviour on a single filesystem.
+ */
+class FileHandoffTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void linkOrCopy_shouldExposeSourceAtTargetAndKeepSource() throws IOException {
+        Path source = Files.writeString(tempDir.resolve("source.png"), "image-data");
+        Path target = Files.createDirectories(tempDir.resolve("input")).resolve("source.png");
+
+        FileHandoff.Mode mode = FileHandoff.linkOrCopy(source, target);
+
+        assertNotNull(mode);
+        assertTrue(Files.exists(source));
+        assertEquals("image-data", Files.readString(target));
+    }
+
+    @Test
+    void linkOrCopy_shouldReplaceExistingTarget() throws IOException {
+        Path source = Files.writeString(tempDir.resolve("source.png"), "new-data");
+        Path target = Files.writeString(tempDir.resolve("target.png"), "stale-data");
+
+        FileHandoff.linkOrCopy(source, target);
+
+        assertEquals("new-data", Files.readString(target));
+    }
+
+    @Test
+    void linkOrCopy_shouldNotAffectSourceWhenTargetIsDeleted() throws IOException {
+        Path source = Files.writeString(tempDir.resolve("source.png"), "image-data");
+        Path target = tempDir.resolve("linked.png");
+
+        FileHandoff.linkOrCopy(source, target);
+        Files.delete(target);
+
+        assertEquals("image-data", Files.readString(source));
+    }
+
+    @Test
+    void moveOrCopy_shouldMoveAtomicallyOnSameFilesystem() throws IOException {
+        Path source = Files.writeString(tempDir.resolve("output.png"), "upscaled");
+        Path target = tempDir.resolve("stored.png");
+
+        FileHandoff.Mode mode = FileHandoff.moveOrCopy(source, target);
+
+        assertEquals(FileHandoff.Mode.MOVED, mode);
+        assertFalse(Files.exists(source));
+        assertEquals("upscaled", Files.readString(target));
+    }
+}
@@ -0,0 +1,64 @@
+package net.muttcode.spring.service;
+
+import net.muttcode.spring.model.File;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileMetadataCacheTest {
+
+    private final AtomicLong now = new AtomicLong(1_000L);
+
+    @Test
+    void get_shouldReturnCachedMetadata() {
+        FileMetadataCache cache = new FileMetadataCache(10, 60_000, now::get);
+        cache.put(newFile("file-1"));
+
+        FileMetadataCache.CachedFile cached = cache.get("file-1").orElseThrow();
+
+        assertEquals("file-1", cached.fileId());
+        assertEquals("file-1_image.png", cached.storedName());
+        assertEquals("image/png", cached.contentType());
+    }
+
+    @Test
+    void get_shouldExpireEntriesAfterTtl() {
+        FileMetadataCache cache = new FileMetadataCache(10, 60_000, now::get);
+        cache.put(newFile("file-1"));
+
+        now.addAndGet(60_000);
+
+        assertTrue(cache.get("file-1").isEmpty());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void put_shouldEvictLeastRecentlyUsedWhenFull() {
+        FileMetadataCache cache = new FileMetadataCache(2, 60_000, now::get);
+        cache.put(newFile("file-1"));
+        cache.put(newFile("file-2"));
+        cache.get("file-1");
+
+        cache.put(newFile("file-3"));
+
+        assertTrue(cache.get("file-1").isPresent());
+        assertTrue(cache.get("file-2").isEmpty());
+        assertTrue(cache.get("file-3").isPresent());
+    }
+
+    @Test
+    void invalidate_shouldRemoveEntry() {
+        FileMetadataCache cache = new FileMetadataCache(10, 60_000, now::get);
+        cache.put(newFile("file-1"));
+
+        cache.invalidate("file-1");
+
+        assertTrue(cache.get("file-1").isEmpty());
+    }
+
+    private File newFile(String fileId) {
+        return new File(fileId, "image.png", fileId + "_image.png", 1024L, "image/png");
+    }
+}
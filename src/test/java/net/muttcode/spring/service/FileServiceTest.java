@@ -10,7 +10,9 @@ import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -30,7 +32,7 @@ class FileServiceTest {
     void setUp() throws IOException {
         closeable = MockitoAnnotations.openMocks(this);
         // Use default upload dir for tests
-        fileService = new FileService(fileRepository, "./test-uploads");
+        fileService = new FileService(fileRepository, new FileMetadataCache(100, 600), new StorageAdmission(0, 0, 5000), "./test-uploads");
     }
 
     @Test
@@ -62,6 +64,51 @@ class FileServiceTest {
         verify(fileRepository, times(1)).save(any(File.class));
     }
 
+    @Test
+    void writeUpload_shouldRecordContentHash() throws IOException {
+        MockMultipartFile first = new MockMultipartFile("file", "a.png", "image/png", "same bytes".getBytes());
+        MockMultipartFile second = new MockMultipartFile("file", "b.png", "image/png", "same bytes".getBytes());
+        MockMultipartFile other = new MockMultipartFile("file", "c.png", "image/png", "other bytes".getBytes());
+
+        File a = fileService.writeUpload(first);
+        File b = fileService.writeUpload(second);
+        File c = fileService.writeUpload(other);
+
+        assertEquals(64, a.getContentHash().length());
+        assertEquals(a.getContentHash(), b.getContentHash());
+        assertNotEquals(a.getContentHash(), c.getContentHash());
+    }
+
+    @Test
+    void getContentHash_shouldHashAndSaveFilesStoredBeforeHashing() throws IOException {
+        File legacy = fileService.writeUpload(new MockMultipartFile("file", "old.png", "image/png", "legacy".getBytes()));
+        String expected = legacy.getContentHash();
+        legacy.setContentHash(null);
+        when(fileRepository.findByFileId(legacy.getFileId())).thenReturn(Optional.of(legacy));
+
+        Optional<String> hash = fileService.getContentHash(legacy.getFileId());
+
+        assertEquals(Optional.of(expected), hash);
+        verify(fileRepository).save(legacy);
+    }
+
+    @Test
+    void saveFile_shouldRejectUploadsWhenStorageIsCritical() throws IOException {
+        // Arrange
+        FileService fullDiskService = new FileService(
+            fileRepository, new FileMetadataCache(100, 600), new StorageAdmission(1.0, Long.MAX_VALUE, 0), "./test-uploads");
+        MockMultipartFile mockFile = new MockMultipartFile(
+            "file",
+            "test-image.png",
+            "image/png",
+            "test content".getBytes()
+        );
+
+        // Act & Assert
+        assertThrows(InsufficientStorageException.class, () -> fullDiskService.saveFile(mockFile));
+        verify(fileRepository, never()).save(any(File.class));
+    }
+
     @Test
     void getFilePath_shouldReturnCorrectPathWhenFileExists() throws IOException {
         // Arrange
@@ -98,6 +145,103 @@ class FileServiceTest {
         verify(fileRepository, times(1)).findByFileId(nonExistentFileId);
     }
 
+    @Test
+    void getFilePath_shouldServeRepeatLookupsFromCache() throws IOException {
+        // Arrange
+        String fileId = "test-file-id-789";
+        File mockFile = new File(fileId, "test-image.png", fileId + "_test-image.png", 1024L, "image/png");
+        when(fileRepository.findByFileId(fileId)).thenReturn(Optional.of(mockFile));
+
+        // Act
+        Path first = fileService.getFilePath(fileId);
+        Path second = fileService.getFilePath(fileId);
+
+        // Assert
+        assertEquals(first, second);
+        verify(fileRepository, times(1)).findByFileId(fileId);
+    }
+
+    @Test
+    void getFilePath_shouldNotHitRepositoryAfterSave() throws IOException {
+        // Arrange
+        MockMultipartFile mockFile = new MockMultipartFile(
+            "file",
+            "cached-image.png",
+            "image/png",
+            "test content".getBytes()
+        );
+        when(fileRepository.save(any(File.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // Act
+        StoredFile stored = fileService.saveFile(mockFile);
+        Path result = fileService.getFilePath(stored.getFileId());
+
+        // Assert
+        assertTrue(result.toString().endsWith(stored.getStoredName()));
+        verify(fileRepository, never()).findByFileId(any());
+    }
+
+    @Test
+    void deleteFile_shouldMarkDeletedAndInvalidateCache() throws IOException {
+        // Arrange
+        String fileId = "test-file-id-delete";
+        File mockFile = new File(fileId, "test-image.png", fileId + "_test-image.png", 1024L, "image/png");
+        when(fileRepository.findByFileId(fileId)).thenReturn(Optional.of(mockFile));
+        fileService.getFilePath(fileId);
+
+        // Act
+        fileService.deleteFile(fileId);
+
+        // Assert
+        assertEquals(File.FileStatus.DELETED, mockFile.getStatus());
+        assertThrows(IOException.class, () -> fileService.getFilePath(fileId));
+        verify(fileRepository, times(3)).findByFileId(fileId);
+    }
+
+    @Test
+    void storeFile_shouldMoveSourceIntoStoreAndRegisterEntity() throws IOException {
+        // Arrange
+        Path source = java.nio.file.Files.createTempFile("upscayl-output", ".png");
+        java.nio.file.Files.writeString(source, "upscaled content");
+        when(fileRepository.save(any(File.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // Act
+        StoredFile result = fileService.storeFile(source, "image_2x.png", "image/png");
+
+        // Assert
+        assertFalse(java.nio.file.Files.exists(source));
+        assertTrue(java.nio.file.Files.exists(result.getPath()));
+        assertEquals("image_2x.png", result.getOriginalName());
+        assertEquals(result.getPath().normalize(), fileService.getFilePath(result.getFileId()));
+        verify(fileRepository, times(1)).save(any(File.class));
+        verify(fileRepository, never()).findByFileId(any());
+    }
+
+    @Test
+    void registerFiles_shouldSaveAllInOneCallAndCacheMetadata() throws IOException {
+        // Arrange
+        File first = fileService.writeUpload(new MockMultipartFile("files", "a.png", "image/png", "a".getBytes()));
+        File second = fileService.writeUpload(new MockMultipartFile("files", "b.png", "image/png", "b".getBytes()));
+        assertTrue(first.isNew());
+
+        // Act
+        List<StoredFile> stored = fileService.registerFiles(List.of(first, second));
+
+        // Assert
+        assertEquals(2, stored.size());
+        assertEquals(first.getFileId(), stored.get(0).getFileId());
+        assertTrue(Files.exists(stored.get(1).getPath()));
+        verify(fileRepository, times(1)).saveAll(List.of(first, second));
+        verify(fileRepository, never()).save(any(File.class));
+
+        // Metadata is served from the cache without a lookup
+        fileService.getFilePath(second.getFileId());
+        verify(fileRepository, never()).findByFileId(any());
+
+        Files.deleteIfExists(stored.get(0).getPath());
+        Files.deleteIfExists(stored.get(1).getPath());
+    }
+
     @Test
     void getFilePathByStoredName_shouldReturnCorrectPath() throws IOException {
         // Arrange
@@ -141,7 +285,7 @@ class FileServiceTest {
         String customUploadDir = "C:\\\\custom\\\\uploads";
 
         // Act
-        FileService customFileService = new FileService(fileRepository, customUploadDir);
+        FileService customFileService = new FileService(fileRepository, new FileMetadataCache(100, 600), new StorageAdmission(0, 0, 5000), customUploadDir);
         Path uploadDir = (Path) ReflectionTestUtils.getField(customFileService, "uploadDir");
 
         // Assert
@@ -155,7 +299,7 @@ class FileServiceTest {
         String defaultUploadDir = "./uploads";
 
         // Act
-        FileService defaultFileService = new FileService(fileRepository, defaultUploadDir);
+        FileService defaultFileService = new FileService(fileRepository, new FileMetadataCache(100, 600), new StorageAdmission(0, 0, 5000), defaultUploadDir);
         Path uploadDir = (Path) ReflectionTestUtils.getField(defaultFileService, "uploadDir");
 
         // Assert
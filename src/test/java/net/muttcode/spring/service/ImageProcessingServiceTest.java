@@ -3,21 +3,28 @@ package net.muttcode.spring.service;
 import net.muttcode.spring.model.File;
 import net.muttcode.spring.model.ProcessedFile;
 import net.muttcode.spring.model.ProcessingJob;
-import net.muttcode.spring.repository.FileRepository;
 import net.muttcode.spring.repository.ProcessedFileRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
@@ -25,7 +32,7 @@ import static org.mockito.Mockito.*;
 class ImageProcessingServiceTest {
 
     @Mock
-    private UpscaylService upscaylService;
+    private UpscaylBatcher upscaylBatcher;
 
     @Mock
     private FileService fileService;
@@ -40,19 +47,43 @@ class ImageProcessingServiceTest {
     private ProcessedFileRepository processedFileRepository;
 
     @Mock
-    private FileRepository fileRepository;
+    private FairShareScheduler fairShareScheduler;
+
+    @Mock
+    private JobDeduplicator jobDeduplicator;
+
+    @Mock
+    private JobStatistics jobStatistics;
+
+    @Mock
+    private JobEventBus eventBus;
+
+    @Mock
+    private JobEtaService jobEtaService;
+
+    @Mock
+    private JobOutboxRelay jobOutboxRelay;
+
+    @Mock
+    private UpscaylTiler upscaylTiler;
 
     private ImageProcessingService service;
 
     @BeforeEach
     void setUp() {
         service = new ImageProcessingService(
-            upscaylService,
+            upscaylBatcher,
             fileService,
             jobService,
             jobQueueService,
             processedFileRepository,
-            fileRepository
+            fairShareScheduler,
+            jobDeduplicator,
+            jobStatistics,
+            eventBus,
+            jobEtaService,
+            jobOutboxRelay,
+            upscaylTiler
         );
     }
 
@@ -62,14 +93,301 @@ class ImageProcessingServiceTest {
         Integer scaleFactor = 4;
         String modelName = "ultramix_balanced";
 
-        // Mock enqueueJob to return a job ID
-        when(jobQueueService.enqueueJob(anyString(), anyInt(), anyString())).thenReturn("queued-job-id");
-
         String jobId = service.submitJob(inputFileId, scaleFactor, modelName);
 
         assertNotNull(jobId);
-        verify(jobService, times(1)).saveJob(any(ProcessingJob.class));
-        verify(jobQueueService, times(1)).enqueueJob(inputFileId, scaleFactor, modelName);
+        ArgumentCaptor<ProcessingJob> saved = ArgumentCaptor.forClass(ProcessingJob.class);
+        verify(jobService, times(1)).saveAndEnqueue(saved.capture());
+        assertEquals(jobId, saved.getValue().getJobId());
+        // Queued through the outbox, and nothing runs on the caller's thread
+        verify(jobOutboxRelay).wake();
+        verifyNoInteractions(jobQueueService, upscaylBatcher);
+    }
+
+    @Test
+    void submitJob_shouldStorePriorityAndSubmitterAndQueueOnTheirLane() throws Exception {
+        ArgumentCaptor<ProcessingJob> saved = ArgumentCaptor.forClass(ProcessingJob.class);
+
+        String jobId = service.submitJob("test-file-id", 2, "ultramix_balanced", ProcessingJob.Priority.BULK, "alice");
+
+        verify(jobService).saveAndEnqueue(saved.capture());
+        assertEquals(ProcessingJob.Priority.BULK, saved.getValue().getPriority());
+        assertEquals("alice", saved.getValue().getSubmittedBy());
+        assertEquals(jobId, saved.getValue().getJobId());
+    }
+
+    @Test
+    void submitJob_shouldReuseOutputOfCompletedIdenticalJob() throws Exception {
+        ProcessingJob earlier = new ProcessingJob("earlier-job", "other-file-id", 2, "ultramix_balanced");
+        earlier.setOutputFileId("earlier-output");
+        when(jobDeduplicator.isEnabled()).thenReturn(true);
+        when(fileService.getContentHash("test-file-id")).thenReturn(Optional.of("abc123"));
+        when(jobDeduplicator.findCompleted("abc123", "ultramix_balanced", 2)).thenReturn(Optional.of(earlier));
+        ArgumentCaptor<ProcessingJob> saved = ArgumentCaptor.forClass(ProcessingJob.class);
+
+        String jobId = service.submitJob("test-file-id", 2, "ultramix_balanced");
+
+        verify(jobService).saveJob(saved.capture());
+        assertEquals(jobId, saved.getValue().getJobId());
+        assertEquals(ProcessingJob.JobStatus.COMPLETED, saved.getValue().getStatus());
+        assertEquals("earlier-output", saved.getValue().getOutputFileId());
+        assertEquals("earlier-job", saved.getValue().getDeduplicatedFrom());
+        verifyNoInteractions(jobQueueService, jobOutboxRelay);
+    }
+
+    @Test
+    void submitJob_shouldAttachToIdenticalJobInFlight() throws Exception {
+        when(jobDeduplicator.isEnabled()).thenReturn(true);
+        when(fileService.getContentHash("test-file-id")).thenReturn(Optional.of("abc123"));
+        when(jobDeduplicator.claim(any(ProcessingJob.class))).thenReturn(Optional.of("running-job"));
+        ArgumentCaptor<ProcessingJob> saved = ArgumentCaptor.forClass(ProcessingJob.class);
+
+        String jobId = service.submitJob("test-file-id", 2, "ultramix_balanced");
+
+        verify(jobService).saveJob(saved.capture());
+        assertEquals(ProcessingJob.JobStatus.QUEUED, saved.getValue().getStatus());
+        assertEquals("running-job", saved.getValue().getDeduplicatedFrom());
+        verify(jobDeduplicator).attach("running-job", jobId);
+        verifyNoInteractions(jobQueueService);
+    }
+
+    @Test
+    void submitJob_shouldRunFirstOfIdenticalJobsItself() throws Exception {
+        when(jobDeduplicator.isEnabled()).thenReturn(true);
+        when(fileService.getContentHash("test-file-id")).thenReturn(Optional.of("abc123"));
+        when(jobDeduplicator.claim(any(ProcessingJob.class))).thenReturn(Optional.empty());
+        ArgumentCaptor<ProcessingJob> saved = ArgumentCaptor.forClass(ProcessingJob.class);
+
+        String jobId = service.submitJob("test-file-id", 2, "ultramix_balanced");
+
+        verify(jobService).saveAndEnqueue(saved.capture());
+        assertEquals("abc123", saved.getValue().getInputHash());
+        assertNull(saved.getValue().getDeduplicatedFrom());
+        assertEquals(jobId, saved.getValue().getJobId());
+        verify(jobOutboxRelay).wake();
+    }
+
+    @Test
+    void processJob_shouldSettleAttachedJobsWhenRedelivered() {
+        String jobId = UUID.randomUUID().toString();
+        ProcessingJob job = new ProcessingJob(jobId, "input-file-id", 2, "model");
+        job.setInputHash("abc123");
+        job.setStatus(ProcessingJob.JobStatus.COMPLETED);
+        when(jobService.getJob(jobId)).thenReturn(Optional.of(job));
+
+        service.processJob(jobId);
+
+        verify(jobDeduplicator).settle(jobId);
+    }
+
+    @Test
+    void processJob_shouldSkipJobsThatAlreadyFinished() {
+        String jobId = UUID.randomUUID().toString();
+        ProcessingJob job = new ProcessingJob(jobId, "input-file-id", 2, "model");
+        job.setStatus(ProcessingJob.JobStatus.COMPLETED);
+        when(jobService.getJob(jobId)).thenReturn(Optional.of(job));
+
+        service.processJob(jobId);
+
+        verify(jobService, never()).startProcessing(anyString());
+        verifyNoInteractions(upscaylBatcher);
+    }
+
+    @Test
+    void processJob_shouldNotRunJobCancelledBeforeItStarted() {
+        String jobId = UUID.randomUUID().toString();
+        ProcessingJob job = new ProcessingJob(jobId, "input-file-id", 2, "model");
+        when(jobService.getJob(jobId)).thenReturn(Optional.of(job));
+        when(jobService.startProcessing(jobId)).thenReturn(false);
+
+        service.processJob(jobId);
+
+        verifyNoInteractions(upscaylBatcher);
+        verify(jobService, never()).failJob(anyString(), any());
+    }
+
+    @Test
+    void submitJob_shouldStoreDeadline() throws Exception {
+        Instant expiresAt = Instant.now().plusSeconds(600);
+
+        service.submitJob("test-file-id", 2, "ultramix_balanced", ProcessingJob.Priority.NORMAL, "alice", expiresAt);
+
+        ArgumentCaptor<ProcessingJob> saved = ArgumentCaptor.forClass(ProcessingJob.class);
+        verify(jobService).saveAndEnqueue(saved.capture());
+        assertEquals(expiresAt, saved.getValue().getExpiresAt());
+    }
+
+    @Test
+    void submitJob_shouldStoreInputPixelCountForEta(@TempDir Path tempDir) throws Exception {
+        Path input = tempDir.resolve("input.png");
+        ImageIO.write(new BufferedImage(64, 32, BufferedImage.TYPE_INT_RGB), "PNG", input.toFile());
+        when(fileService.getFilePath("test-file-id")).thenReturn(input);
+
+        service.submitJob("test-file-id", 2, "ultramix_balanced");
+
+        ArgumentCaptor<ProcessingJob> saved = ArgumentCaptor.forClass(ProcessingJob.class);
+        verify(jobService).saveAndEnqueue(saved.capture());
+        assertEquals(64L * 32, saved.getValue().getInputPixels());
+    }
+
+    @Test
+    void submitJob_shouldQueueJobWhoseInputSizeIsUnreadable(@TempDir Path tempDir) throws Exception {
+        Path input = Files.writeString(tempDir.resolve("input.png"), "not an image");
+        when(fileService.getFilePath("test-file-id")).thenReturn(input);
+
+        service.submitJob("test-file-id", 2, "ultramix_balanced");
+
+        ArgumentCaptor<ProcessingJob> saved = ArgumentCaptor.forClass(ProcessingJob.class);
+        verify(jobService).saveAndEnqueue(saved.capture());
+        assertNull(saved.getValue().getInputPixels());
+        verify(jobOutboxRelay).wake();
+    }
+
+    @Test
+    void processJob_shouldExpireJobStillQueuedPastItsDeadline() {
+        String jobId = UUID.randomUUID().toString();
+        ProcessingJob job = new ProcessingJob(jobId, "input-file-id", 2, "model");
+        job.setInputHash("abc123");
+        job.setExpiresAt(Instant.now().minusSeconds(1));
+        when(jobService.getJob(jobId)).thenReturn(Optional.of(job));
+        when(jobService.expireJob(jobId)).thenReturn(true);
+
+        service.processJob(jobId);
+
+        verify(jobService, never()).startProcessing(anyString());
+        verifyNoInteractions(upscaylBatcher);
+        verify(jobDeduplicator).settle(jobId);
+    }
+
+    @Test
+    void processJob_shouldUpscaleLargeInputsAsTiles(@TempDir Path tempDir) throws Exception {
+        String jobId = UUID.randomUUID().toString();
+        ProcessingJob job = new ProcessingJob(jobId, "input-file-id", 2, "model");
+        Path stored = Files.writeString(tempDir.resolve("input-file-id_large.png"), "x");
+        Path mount = Files.createDirectories(tempDir.resolve("mount"));
+        ReflectionTestUtils.setField(service, "upscaylInputMount", mount.toString());
+        ReflectionTestUtils.setField(service, "upscaylOutputMount", mount.toString());
+        String upscaylInput = mount.resolve(stored.getFileName()).toString();
+        when(jobService.getJob(jobId)).thenReturn(Optional.of(job));
+        when(jobService.startProcessing(jobId)).thenReturn(true);
+        when(fileService.getFilePath("input-file-id")).thenReturn(stored);
+        when(upscaylTiler.shouldTile(upscaylInput)).thenReturn(true);
+        when(upscaylTiler.process(jobId, upscaylInput, 2, "model"))
+            .thenReturn(new UpscaylService.UpscaylResult(false, null, "Tile 0,1 failed: out of memory"));
+
+        service.processJob(jobId);
+
+        verify(jobService).failJob(jobId, "Tile 0,1 failed: out of memory");
+        verifyNoInteractions(upscaylBatcher);
+        // The hand-off copy is removed once the run is over
+        assertFalse(Files.exists(Path.of(upscaylInput)));
+    }
+
+    @Test
+    void processJobAsync_shouldFinishJobWhenUpscaylRunCompletes(@TempDir Path tempDir) throws Exception {
+        String jobId = UUID.randomUUID().toString();
+        ProcessingJob job = new ProcessingJob(jobId, "input-file-id", 2, "model");
+        Path stored = Files.writeString(tempDir.resolve("input-file-id_small.png"), "x");
+        Path mount = Files.createDirectories(tempDir.resolve("mount"));
+        ReflectionTestUtils.setField(service, "upscaylInputMount", mount.toString());
+        ReflectionTestUtils.setField(service, "upscaylOutputMount", mount.toString());
+        String upscaylInput = mount.resolve(stored.getFileName()).toString();
+        CompletableFuture<UpscaylService.UpscaylResult> run = new CompletableFuture<>();
+        when(jobService.getJob(jobId)).thenReturn(Optional.of(job));
+        when(jobService.startProcessing(jobId)).thenReturn(true);
+        when(fileService.getFilePath("input-file-id")).thenReturn(stored);
+        when(upscaylBatcher.upscale(jobId, upscaylInput, 2, "model")).thenReturn(run);
+
+        CompletableFuture<Void> processed = service.processJobAsync(jobId);
+
+        // Returns while Upscayl works; the job is left running
+        assertFalse(processed.isDone());
+        verify(jobService, never()).failJob(anyString(), any());
+        assertTrue(Files.exists(Path.of(upscaylInput)));
+
+        // e.g. from a completion callback
+        run.complete(new UpscaylService.UpscaylResult(false, null, "Out of GPU memory"));
+
+        assertTrue(processed.isDone());
+        verify(jobService).failJob(jobId, "Out of GPU memory");
+        assertFalse(Files.exists(Path.of(upscaylInput)));
+    }
+
+    @Test
+    void processJob_shouldFailJobWhoseAttemptsRanOut() {
+        String jobId = UUID.randomUUID().toString();
+        ProcessingJob job = new ProcessingJob(jobId, "input-file-id", 2, "model");
+        job.setInputHash("abc123");
+        job.setAttempts(ProcessingJob.DEFAULT_MAX_ATTEMPTS);
+        when(jobService.getJob(jobId)).thenReturn(Optional.of(job));
+
+        service.processJob(jobId);
+
+        verify(jobService).failJob(eq(jobId), contains("3 attempts"));
+        verify(jobService, never()).startProcessing(anyString());
+        verifyNoInteractions(upscaylBatcher);
+        verify(jobDeduplicator).settle(jobId);
+    }
+
+    @Test
+    void cancelJob_shouldTombstoneQueuedJobAndSettleAttachedJobs() {
+        String jobId = UUID.randomUUID().toString();
+        ProcessingJob job = new ProcessingJob(jobId, "input-file-id", 2, "model");
+        job.setInputHash("abc123");
+        when(jobService.getJob(jobId)).thenReturn(Optional.of(job));
+        when(jobService.cancelJob(jobId)).thenReturn(Optional.of(ProcessingJob.JobStatus.QUEUED));
+
+        assertEquals(ImageProcessingService.CancelResult.CANCELLED, service.cancelJob(jobId));
+
+        verify(jobQueueService).cancelQueued(jobId);
+        verify(jobDeduplicator).settle(jobId);
+    }
+
+    @Test
+    void cancelJob_shouldLeaveRunningJobToItsWorker() {
+        String jobId = UUID.randomUUID().toString();
+        ProcessingJob job = new ProcessingJob(jobId, "input-file-id", 2, "model");
+        job.setInputHash("abc123");
+        job.setStatus(ProcessingJob.JobStatus.PROCESSING);
+        when(jobService.getJob(jobId)).thenReturn(Optional.of(job));
+        when(jobService.cancelJob(jobId)).thenReturn(Optional.of(ProcessingJob.JobStatus.PROCESSING));
+
+        assertEquals(ImageProcessingService.CancelResult.CANCELLED, service.cancelJob(jobId));
+
+        // The worker stops the run and settles once it has cleaned up
+        verify(jobQueueService, never()).cancelQueued(anyString());
+        verify(jobDeduplicator, never()).settle(anyString());
+    }
+
+    @Test
+    void cancelJob_shouldReportFinishedAndMissingJobs() {
+        String finishedId = UUID.randomUUID().toString();
+        ProcessingJob finished = new ProcessingJob(finishedId, "input-file-id", 2, "model");
+        finished.setStatus(ProcessingJob.JobStatus.COMPLETED);
+        when(jobService.getJob(finishedId)).thenReturn(Optional.of(finished));
+        when(jobService.cancelJob(finishedId)).thenReturn(Optional.empty());
+        when(jobService.getJob("missing")).thenReturn(Optional.empty());
+
+        assertEquals(ImageProcessingService.CancelResult.ALREADY_FINISHED, service.cancelJob(finishedId));
+        assertEquals(ImageProcessingService.CancelResult.NOT_FOUND, service.cancelJob("missing"));
+        verifyNoInteractions(jobQueueService);
+    }
+
+    @Test
+    void expireOverdueJobs_shouldTombstoneAndSettleJobsStillQueued() {
+        ProcessingJob overdue = new ProcessingJob("job-1", "input-file-id", 2, "model");
+        overdue.setInputHash("abc123");
+        ProcessingJob started = new ProcessingJob("job-2", "input-file-id", 2, "model");
+        when(jobService.getExpiredQueuedJobs(100)).thenReturn(List.of(overdue, started));
+        when(jobService.expireJob("job-1")).thenReturn(true);
+        // Dequeued by a worker after it was read
+        when(jobService.expireJob("job-2")).thenReturn(false);
+
+        assertEquals(1, service.expireOverdueJobs(100));
+
+        verify(jobQueueService).cancelQueued("job-1");
+        verify(jobDeduplicator).settle("job-1");
+        verify(jobQueueService, never()).cancelQueued("job-2");
     }
 
     @Test
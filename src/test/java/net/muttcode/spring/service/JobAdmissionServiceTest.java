@@ -0,0 +1,167 @@
+package net.muttcode.spring.service;
+
+import net.muttcode.spring.model.ProcessingJob;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class JobAdmissionServiceTest {
+
+    @Mock
+    private JobQueueService jobQueueService;
+
+    @Mock
+    private JobStatistics jobStatistics;
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    void admit_shouldAcceptWithoutReadingStatisticsWhenQueueIsEmpty() {
+        givenDepth(0);
+
+        JobAdmissionService.Decision decision = service(1800).admit(null);
+
+        assertTrue(decision.admitted());
+        assertEquals(Duration.ZERO, decision.estimatedWait());
+        assertNull(decision.expiresAt());
+        verifyNoInteractions(jobStatistics);
+    }
+
+    @Test
+    void admit_shouldEstimateWaitFromDepthThroughputAndRunningJobs() {
+        givenDepth(40);
+        // 10 runs of 10s and 30 runs of 30s: 25s on average
+        givenLastHour(latency("ultramix_balanced", 2, 10, 10_000), latency("ultrasharp", 4, 30, 30_000));
+        givenTotals(4, 0);
+
+        JobAdmissionService.Decision decision = service(1800).admit(null);
+
+        assertTrue(decision.admitted());
+        // 40 jobs x 25s over 4 running = 250s
+        assertEquals(Duration.ofSeconds(250), decision.estimatedWait());
+    }
+
+    @Test
+    void admit_shouldRejectWithTimeForExcessBacklogToDrain() {
+        givenDepth(40);
+        givenLastHour(latency("ultramix_balanced", 2, 10, 25_000));
+        givenTotals(4, 0);
+
+        JobAdmissionService.Decision decision = service(100).admit(null);
+
+        assertFalse(decision.admitted());
+        assertEquals(Duration.ofSeconds(250), decision.estimatedWait());
+        assertEquals(Duration.ofSeconds(150), decision.retryAfter());
+    }
+
+    @Test
+    void admit_shouldAcceptJobWithDeadlineEvenWhenOverloaded() {
+        givenDepth(40);
+        givenLastHour(latency("ultramix_balanced", 2, 10, 25_000));
+        givenTotals(4, 0);
+        Instant before = Instant.now();
+
+        JobAdmissionService.Decision decision = service(100).admit(Duration.ofMinutes(10));
+
+        assertTrue(decision.admitted());
+        assertNotNull(decision.expiresAt());
+        assertFalse(decision.expiresAt().isBefore(before.plus(Duration.ofMinutes(10))));
+    }
+
+    @Test
+    void admit_shouldRejectJobWhoseDeadlineTheWaitAlreadyExceeds() {
+        givenDepth(40);
+        givenLastHour(latency("ultramix_balanced", 2, 10, 25_000));
+        givenTotals(4, 0);
+
+        JobAdmissionService.Decision decision = service(1800).admit(Duration.ofMinutes(2));
+
+        assertFalse(decision.admitted());
+        assertEquals(Duration.ofSeconds(250), decision.estimatedWait());
+        assertEquals(Duration.ofSeconds(130), decision.retryAfter());
+    }
+
+    @Test
+    void admit_shouldFallBackToAllTimeAverageWhenNothingRanRecently() {
+        givenDepth(3);
+        givenLastHour();
+        // Nothing running either; counted as one slot
+        givenTotals(0, 20_000);
+
+        assertEquals(Duration.ofSeconds(60), service(1800).admit(null).estimatedWait());
+    }
+
+    @Test
+    void estimateWait_shouldScaleWithJobsAheadOfQueuedJob() {
+        givenDepth(40);
+        givenLastHour(latency("ultramix_balanced", 2, 10, 25_000));
+        givenTotals(5, 0);
+
+        // 25s per job over 5 running: one dispatch every 5s
+        assertEquals(Duration.ofSeconds(30), service(1800).estimateWait(6));
+    }
+
+    @Test
+    void estimateWait_shouldReuseEstimateWithinCacheInterval() {
+        givenDepth(0);
+        JobAdmissionService service = service(1800);
+
+        service.estimateWait();
+        clock.addAndGet(Duration.ofMillis(1999).toNanos());
+        service.estimateWait();
+        verify(jobQueueService, times(1)).getLaneStats();
+
+        clock.addAndGet(Duration.ofMillis(1).toNanos());
+        service.estimateWait();
+        verify(jobQueueService, times(2)).getLaneStats();
+    }
+
+    @Test
+    void admit_shouldAcceptWhenQueueCannotBeRead() {
+        when(jobQueueService.getLaneStats()).thenThrow(new IllegalStateException("redis down"));
+
+        assertTrue(service(0).admit(null).admitted());
+    }
+
+    @Test
+    void admit_shouldAcceptEverythingWhenDisabled() {
+        JobAdmissionService service = new JobAdmissionService(jobQueueService, jobStatistics, false, 0, 86400, 2000, clock::get);
+
+        assertTrue(service.admit(null).admitted());
+        verifyNoInteractions(jobQueueService, jobStatistics);
+    }
+
+    private JobAdmissionService service(long maxWaitSeconds) {
+        return new JobAdmissionService(jobQueueService, jobStatistics, true, maxWaitSeconds, 86400, 2000, clock::get);
+    }
+
+    private void givenDepth(long depth) {
+        when(jobQueueService.getLaneStats()).thenReturn(Map.of(
+            ProcessingJob.Priority.NORMAL, new JobQueueService.LaneStats(depth, 0, 0, 0, 3)));
+    }
+
+    private void givenLastHour(JobStatistics.LatencyStats... latency) {
+        when(jobStatistics.getWindow(JobStatistics.Window.HOUR))
+            .thenReturn(new JobStatistics.WindowStats(JobStatistics.Window.HOUR, 0, 0, List.of(latency)));
+    }
+
+    private void givenTotals(long processing, double averageProcessingTimeMs) {
+        when(jobStatistics.getTotals()).thenReturn(new JobStatistics.Totals(
+            processing, Map.of(ProcessingJob.JobStatus.PROCESSING, processing), averageProcessingTimeMs));
+    }
+
+    private static JobStatistics.LatencyStats latency(String model, int scale, long count, double meanMs) {
+        return new JobStatistics.LatencyStats(model, scale, count, meanMs, 0, 0, 0, 0);
+    }
+}
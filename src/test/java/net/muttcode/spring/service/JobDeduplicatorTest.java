@@ -0,0 +1,102 @@
+package net.muttcode.spring.service;
+
+import net.muttcode.spring.model.ProcessingJob;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class JobDeduplicatorTest {
+
+    @Mock
+    private StringRedisTemplate redisTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @Mock
+    private SetOperations<String, String> setOperations;
+
+    @Mock
+    private ProcessingJobService jobService;
+
+    @Mock
+    private FileService fileService;
+
+    @Mock
+    private JobQueueService jobQueueService;
+
+    private final Map<String, String> values = new HashMap<>();
+    private final Map<String, Set<String>> sets = new HashMap<>();
+    private JobDeduplicator deduplicator;
+
+    @BeforeEach
+    void setUp() {
+        // Backs the template with maps so claims and follower sets behave like Redis
+        lenient().when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        lenient().when(redisTemplate.opsForSet()).thenReturn(setOperations);
+        lenient().when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class)))
+            .thenAnswer(inv -> values.putIfAbsent(inv.getArgument(0), inv.getArgument(1)) == null);
+        lenient().when(valueOperations.get(anyString())).thenAnswer(inv -> values.get(inv.<String>getArgument(0)));
+        lenient().when(redisTemplate.delete(anyString())).thenAnswer(inv -> values.remove(inv.<String>getArgument(0)) != null);
+        lenient().when(setOperations.add(anyString(), any(String[].class))).thenAnswer(inv -> {
+            sets.computeIfAbsent(inv.getArgument(0), key -> new LinkedHashSet<>()).add(inv.getArgument(1));
+            return 1L;
+        });
+        lenient().when(setOperations.pop(anyString(), anyLong())).thenAnswer(inv -> {
+            Set<String> members = sets.remove(inv.<String>getArgument(0));
+            return members != null ? new ArrayList<>(members) : List.of();
+        });
+
+        deduplicator = new JobDeduplicator(redisTemplate, jobService, fileService, jobQueueService, true, 120);
+    }
+
+    @Test
+    void settle_shouldPromoteOneFollowerOfCancelledJob() {
+        ProcessingJob primary = job("primary", ProcessingJob.JobStatus.CANCELLED);
+        when(jobService.getJob("primary")).thenReturn(Optional.of(primary));
+        values.put(JobDeduplicator.inFlightKey(primary), "primary");
+        sets.put(JobDeduplicator.followersKey("primary"),
+            new LinkedHashSet<>(List.of("follower-1", "follower-2", "follower-3")));
+        for (String follower : List.of("follower-1", "follower-2", "follower-3")) {
+            ProcessingJob job = job(follower, ProcessingJob.JobStatus.QUEUED);
+            job.setSubmittedBy("alice");
+            when(jobService.getJob(follower)).thenReturn(Optional.of(job));
+        }
+
+        deduplicator.settle("primary");
+
+        verify(jobQueueService).enqueueJob(eq("follower-1"), any(), eq("alice"));
+        verifyNoMoreInteractions(jobQueueService);
+        assertEquals("follower-1", values.get(JobDeduplicator.inFlightKey(primary)));
+        assertEquals(Set.of("follower-2", "follower-3"), sets.get(JobDeduplicator.followersKey("follower-1")));
+    }
+
+    private ProcessingJob job(String jobId, ProcessingJob.JobStatus status) {
+        ProcessingJob job = new ProcessingJob(jobId, "input-" + jobId, 2, "ultramix_balanced");
+        job.setInputHash("abc123");
+        job.setStatus(status);
+        return job;
+    }
+}
@@ -0,0 +1,106 @@
+package net.muttcode.spring.service;
+
+import net.muttcode.spring.model.ProcessingJob;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.OptionalLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class JobEtaServiceTest {
+
+    @Mock
+    private RedisConnectionFactory connectionFactory;
+
+    @Mock
+    private JobQueueService jobQueueService;
+
+    @Mock
+    private JobAdmissionService jobAdmissionService;
+
+    private JobEtaService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new JobEtaService(connectionFactory, jobQueueService, jobAdmissionService, 60_000);
+    }
+
+    @Test
+    void fit_shouldRecoverLinearRelationOfTimeToPixels() {
+        // 500ms of fixed overhead plus 2s per megapixel
+        JobEtaService.Fit fit = JobEtaService.Fit.EMPTY;
+        for (double megapixels : new double[] {0.5, 1, 2, 4, 8}) {
+            fit = fit.plus(run(megapixels, 500 + 2000 * megapixels));
+        }
+
+        assertEquals(500 + 2000 * 3, fit.predict(3), 1e-6);
+        assertEquals(500 + 2000 * 16, fit.predict(16), 1e-6);
+    }
+
+    @Test
+    void fit_shouldScaleTimePerPixelWhenAllInputsHadTheSameSize() {
+        JobEtaService.Fit fit = run(2, 4000).plus(run(2, 6000));
+
+        // 5s per 2 megapixels on average
+        assertEquals(10_000, fit.predict(4), 1e-6);
+    }
+
+    @Test
+    void fit_shouldFallBackToMeanWithoutPixelCounts() {
+        JobEtaService.Fit fit = new JobEtaService.Fit(2, 9000, 0, 0, 0, 0, 0);
+
+        assertEquals(4500, fit.predict(3), 1e-6);
+        assertEquals(4500, fit.mean(), 1e-6);
+        assertNull(JobEtaService.Fit.EMPTY.predict(3));
+    }
+
+    @Test
+    void estimate_shouldStartQueuedJobOnceJobsAheadAreDispatched() {
+        ProcessingJob job = new ProcessingJob("job-1", "input-file-id", 2, "ultramix_balanced");
+        job.setSubmittedBy("alice");
+        when(jobQueueService.jobsAhead("job-1", ProcessingJob.Priority.NORMAL, "alice")).thenReturn(OptionalLong.of(6));
+        when(jobAdmissionService.estimateWait(6)).thenReturn(Duration.ofMinutes(3));
+        Instant before = Instant.now();
+
+        JobEtaService.Eta eta = service.estimate(job).orElseThrow();
+
+        assertFalse(eta.estimatedStartAt().isBefore(before.plus(Duration.ofMinutes(3))));
+        // Nothing has run yet to predict its processing time from
+        assertNull(eta.estimatedCompletionAt());
+    }
+
+    @Test
+    void estimate_shouldUseDispatchTimeOfRunningJob() {
+        ProcessingJob job = new ProcessingJob("job-1", "input-file-id", 2, "ultramix_balanced");
+        job.setStatus(ProcessingJob.JobStatus.PROCESSING);
+        job.setStartedAt(Instant.parse("2026-01-01T10:00:00Z"));
+
+        assertEquals(job.getStartedAt(), service.estimate(job).orElseThrow().estimatedStartAt());
+        verifyNoInteractions(jobQueueService, jobAdmissionService);
+    }
+
+    @Test
+    void estimate_shouldBeEmptyForFinishedJobsAndJobsOutsideTheQueue() {
+        ProcessingJob finished = new ProcessingJob("job-1", "input-file-id", 2, "ultramix_balanced");
+        finished.setStatus(ProcessingJob.JobStatus.COMPLETED);
+        ProcessingJob attached = new ProcessingJob("job-2", "input-file-id", 2, "ultramix_balanced");
+        when(jobQueueService.jobsAhead("job-2", ProcessingJob.Priority.NORMAL, FairShareScheduler.ANONYMOUS))
+            .thenReturn(OptionalLong.empty());
+
+        assertTrue(service.estimate(finished).isEmpty());
+        assertTrue(service.estimate(attached).isEmpty());
+    }
+
+    private static JobEtaService.Fit run(double megapixels, double ms) {
+        return new JobEtaService.Fit(1, ms, 1, megapixels, ms, megapixels * megapixels, megapixels * ms);
+    }
+}
@@ -0,0 +1,96 @@
+package net.muttcode.spring.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.muttcode.spring.model.ProcessingJob;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class JobEventBusTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    private JobEventBus bus;
+
+    @BeforeEach
+    void setUp() {
+        // Never started, so nothing connects; publishing to Redis fails and is logged
+        bus = new JobEventBus(mock(RedisConnectionFactory.class), objectMapper);
+    }
+
+    @Test
+    void publish_shouldDeliverToLocalSubscribersOfThatJob() {
+        List<JobEvent> received = new ArrayList<>();
+        bus.subscribe(List.of("job-1"), received::add);
+
+        bus.publish(event("job-1", ProcessingJob.JobStatus.PROCESSING));
+        bus.publish(event("job-2", ProcessingJob.JobStatus.PROCESSING));
+
+        assertEquals(1, received.size());
+        assertEquals("job-1", received.get(0).jobId());
+    }
+
+    @Test
+    void subscription_shouldStopDeliveryOnceClosed() {
+        List<JobEvent> received = new ArrayList<>();
+        JobEventBus.Subscription subscription = bus.subscribe(List.of("job-1"), received::add);
+
+        subscription.close();
+        bus.publish(event("job-1", ProcessingJob.JobStatus.COMPLETED));
+
+        assertTrue(received.isEmpty());
+        assertEquals(0, bus.subscriberCount("job-1"));
+    }
+
+    @Test
+    void onMessage_shouldRelayEventsFromOtherNodes() throws Exception {
+        List<JobEvent> received = new ArrayList<>();
+        bus.subscribe(List.of("job-1"), received::add);
+        String payload = objectMapper.writeValueAsString(
+            new JobEventBus.Envelope("other-node", event("job-1", ProcessingJob.JobStatus.COMPLETED)));
+
+        bus.onMessage(message(payload), null);
+
+        assertEquals(1, received.size());
+        assertEquals(ProcessingJob.JobStatus.COMPLETED, received.get(0).status());
+    }
+
+    @Test
+    void onMessage_shouldIgnoreMalformedPayloads() {
+        List<JobEvent> received = new ArrayList<>();
+        bus.subscribe(List.of("job-1"), received::add);
+
+        bus.onMessage(message("not json"), null);
+
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    void publish_shouldIsolateFailingSubscribers() {
+        List<JobEvent> received = new ArrayList<>();
+        bus.subscribe(List.of("job-1"), e -> { throw new IllegalStateException("client gone"); });
+        bus.subscribe(List.of("job-1"), received::add);
+
+        bus.publish(event("job-1", ProcessingJob.JobStatus.PROCESSING));
+
+        assertEquals(1, received.size());
+    }
+
+    private static JobEvent event(String jobId, ProcessingJob.JobStatus status) {
+        return new JobEvent(jobId, status, 50, null, null, Instant.now());
+    }
+
+    private static DefaultMessage message(String payload) {
+        return new DefaultMessage(
+            JobEventBus.CHANNEL.getBytes(StandardCharsets.UTF_8), payload.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,72 @@
+package net.muttcode.spring.service;
+
+import net.muttcode.spring.model.JobOutboxEntry;
+import net.muttcode.spring.model.ProcessingJob;
+import net.muttcode.spring.repository.JobOutboxRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class JobOutboxRelayTest {
+
+    @Mock
+    private JobOutboxRepository outboxRepository;
+
+    @Mock
+    private JobQueueService jobQueueService;
+
+    @Test
+    void relay_shouldQueueEntriesInBatchesAndDeleteThem() {
+        JobOutboxRelay relay = new JobOutboxRelay(outboxRepository, jobQueueService, 2);
+        when(outboxRepository.findByOrderByIdAsc(any(Pageable.class)))
+            .thenReturn(List.of(entry(1, "job-1"), entry(2, "job-2")), List.of(entry(3, "job-3")));
+
+        relay.relay();
+
+        verify(jobQueueService).enqueueJobs(List.of(
+            new JobQueueService.QueuedJob("job-1", ProcessingJob.Priority.NORMAL, "alice"),
+            new JobQueueService.QueuedJob("job-2", ProcessingJob.Priority.NORMAL, "alice")));
+        verify(jobQueueService).enqueueJobs(List.of(new JobQueueService.QueuedJob("job-3", ProcessingJob.Priority.NORMAL, "alice")));
+        verify(outboxRepository).deleteAllByIdInBatch(List.of(1L, 2L));
+        verify(outboxRepository).deleteAllByIdInBatch(List.of(3L));
+        // A short batch means the outbox is drained
+        verify(outboxRepository, times(2)).findByOrderByIdAsc(any(Pageable.class));
+    }
+
+    @Test
+    void relay_shouldKeepEntriesWhenRedisIsUnavailable() {
+        JobOutboxRelay relay = new JobOutboxRelay(outboxRepository, jobQueueService, 10);
+        when(outboxRepository.findByOrderByIdAsc(any(Pageable.class))).thenReturn(List.of(entry(1, "job-1")));
+        when(jobQueueService.enqueueJobs(anyList())).thenThrow(new IllegalStateException("redis down"));
+
+        assertDoesNotThrow(relay::relay);
+
+        verify(outboxRepository, never()).deleteAllByIdInBatch(anyIterable());
+    }
+
+    @Test
+    void relay_shouldDoNothingWhenOutboxIsEmpty() {
+        JobOutboxRelay relay = new JobOutboxRelay(outboxRepository, jobQueueService, 10);
+        when(outboxRepository.findByOrderByIdAsc(any(Pageable.class))).thenReturn(List.of());
+
+        relay.relay();
+
+        verifyNoInteractions(jobQueueService);
+    }
+
+    private static JobOutboxEntry entry(long id, String jobId) {
+        JobOutboxEntry entry = new JobOutboxEntry(jobId, ProcessingJob.Priority.NORMAL, "alice");
+        ReflectionTestUtils.setField(entry, "id", id);
+        return entry;
+    }
+}
@@ -0,0 +1,88 @@
+package net.muttcode.spring.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class JobProgressBufferTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private JobProgressBuffer buffer;
+
+    @BeforeEach
+    void setUp() {
+        buffer = new JobProgressBuffer(jdbcTemplate);
+    }
+
+    @Test
+    void flush_shouldWriteOnlyLatestValuePerJobInOneBatch() {
+        buffer.record("job-1", 10);
+        buffer.record("job-1", 20);
+        buffer.record("job-1", 30);
+        buffer.record("job-2", 55);
+        ArgumentCaptor<List<Object[]>> batch = ArgumentCaptor.forClass(List.class);
+
+        buffer.flush();
+
+        verify(jdbcTemplate, times(1)).batchUpdate(eq(JobProgressBuffer.UPDATE_PROGRESS), batch.capture());
+        assertEquals(2, batch.getValue().size());
+        assertTrue(batch.getValue().stream().anyMatch(row -> row[0].equals(30) && row[1].equals("job-1")));
+        assertTrue(batch.getValue().stream().anyMatch(row -> row[0].equals(55) && row[1].equals("job-2")));
+        assertEquals(Optional.empty(), buffer.pendingProgress("job-1"));
+    }
+
+    @Test
+    void flush_shouldSkipDatabaseWhenNothingBuffered() {
+        buffer.flush();
+
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void discard_shouldDropValueOfFinishedJob() {
+        buffer.record("job-1", 90);
+
+        buffer.discard("job-1");
+        buffer.flush();
+
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void flush_shouldKeepValuesForRetryWhenWriteFails() {
+        buffer.record("job-1", 50);
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenThrow(new DataAccessResourceFailureException("down"));
+
+        buffer.flush();
+
+        assertEquals(Optional.of(50), buffer.pendingProgress("job-1"));
+    }
+
+    @Test
+    void flush_shouldNotOverwriteNewerValueRecordedDuringFailedWrite() {
+        buffer.record("job-1", 50);
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenAnswer(invocation -> {
+            buffer.record("job-1", 60);
+            throw new DataAccessResourceFailureException("down");
+        });
+
+        buffer.flush();
+
+        assertEquals(Optional.of(60), buffer.pendingProgress("job-1"));
+    }
+}
@@ -0,0 +1,87 @@
+package net.muttcode.spring.service;
+
+import net.muttcode.spring.model.ProcessingJob;
+import net.muttcode.spring.repository.ProcessingJobRepository;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class JobStatisticsTest {
+
+    @Test
+    void mergeLatency_shouldCombineNodesAndBucketsPerModelAndScale() {
+        Map<String, String> firstBucket = Map.of(
+            JobStatistics.latencyField("ultramix_balanced", 4, "node-a"), encoded(1000, 2000),
+            JobStatistics.latencyField("ultramix_balanced", 4, "node-b"), encoded(3000),
+            JobStatistics.latencyField("ultramix_balanced", 2, "node-a"), encoded(500));
+        Map<String, String> secondBucket = Map.of(
+            JobStatistics.latencyField("ultramix_balanced", 4, "node-a"), encoded(4000));
+
+        List<JobStatistics.LatencyStats> stats = JobStatistics.mergeLatency(List.of(firstBucket, secondBucket));
+
+        assertEquals(2, stats.size());
+        JobStatistics.LatencyStats scale2 = stats.get(0);
+        assertEquals(2, scale2.scaleFactor());
+        assertEquals(1, scale2.count());
+        JobStatistics.LatencyStats scale4 = stats.get(1);
+        assertEquals("ultramix_balanced", scale4.modelName());
+        assertEquals(4, scale4.count());
+        assertEquals(2500.0, scale4.meanMs(), 50.0);
+        assertEquals(4000, scale4.maxMs(), 40);
+    }
+
+    @Test
+    void mergeLatency_shouldKeepModelNamesContainingTheSeparator() {
+        Map<String, String> bucket = Map.of(JobStatistics.latencyField("custom|model", 3, "node-a"), encoded(700));
+
+        List<JobStatistics.LatencyStats> stats = JobStatistics.mergeLatency(List.of(bucket));
+
+        assertEquals("custom|model", stats.get(0).modelName());
+        assertEquals(3, stats.get(0).scaleFactor());
+    }
+
+    @Test
+    void mergeLatency_shouldSkipUnreadableHistograms() {
+        Map<String, String> bucket = Map.of(
+            JobStatistics.latencyField("model", 2, "node-a"), "not a histogram",
+            JobStatistics.latencyField("model", 2, "node-b"), encoded(100));
+
+        List<JobStatistics.LatencyStats> stats = JobStatistics.mergeLatency(List.of(bucket));
+
+        assertEquals(1, stats.get(0).count());
+    }
+
+    @Test
+    void counters_shouldNotThrowWhenRedisIsUnavailable() {
+        // The connection factory mock hands out no connection, so every Redis call fails
+        JobStatistics statistics = new JobStatistics(mock(RedisConnectionFactory.class), mock(ProcessingJobRepository.class));
+
+        assertDoesNotThrow(() -> {
+            statistics.jobCreated(ProcessingJob.JobStatus.QUEUED);
+            statistics.transition(ProcessingJob.JobStatus.QUEUED, ProcessingJob.JobStatus.COMPLETED);
+            statistics.recordProcessingTime("model", 2, 1200L);
+            statistics.flush();
+            statistics.initializeCounters();
+        });
+    }
+
+    @Test
+    void windowSuccessRate_shouldHandleEmptyWindows() {
+        assertEquals(0.0, new JobStatistics.WindowStats(JobStatistics.Window.HOUR, 0, 0, List.of()).successRate());
+        assertEquals(75.0, new JobStatistics.WindowStats(JobStatistics.Window.DAY, 3, 1, List.of()).successRate());
+    }
+
+    private static String encoded(long... valuesMs) {
+        Histogram histogram = new Histogram(JobStatistics.HIGHEST_TRACKABLE_MS, JobStatistics.SIGNIFICANT_DIGITS);
+        for (long value : valuesMs) {
+            histogram.recordValue(value);
+        }
+        return JobStatistics.encode(histogram);
+    }
+}
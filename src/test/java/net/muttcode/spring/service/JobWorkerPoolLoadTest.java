@@ -0,0 +1,90 @@
+package net.muttcode.spring.service;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Drives {@link JobWorkerPool} with a stubbed Upscayl that blocks each job's thread until
+ * released, and reports how many jobs one node holds in flight: on a platform thread pool
+ * of the size nodes used to run, and on a virtual thread per job.
+ */
+class JobWorkerPoolLoadTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobWorkerPoolLoadTest.class);
+
+    private static final int JOBS = 2_000;
+    private static final int PLATFORM_THREADS = 200;
+
+    @Test
+    void virtualThreads_shouldHoldFarMoreJobsInFlightThanPlatformPool() throws Exception {
+        int platform = peakInFlight(false, PLATFORM_THREADS);
+        int virtual = peakInFlight(true, JOBS);
+
+        logger.info("{} blocking jobs: platform pool of {} threads held {} in flight, virtual threads held {}",
+            JOBS, PLATFORM_THREADS, platform, virtual);
+
+        assertEquals(PLATFORM_THREADS, platform);
+        assertEquals(JOBS, virtual);
+    }
+
+    /**
+     * Queues {@link #JOBS} jobs and returns how many were running at once before any finished.
+     */
+    private int peakInFlight(boolean virtualThreads, int maxInFlight) throws Exception {
+        JobQueueService jobQueueService = mock(JobQueueService.class);
+        ImageProcessingService imageProcessingService = mock(ImageProcessingService.class);
+        UpscaylConcurrencyLimiter concurrencyLimiter = mock(UpscaylConcurrencyLimiter.class);
+        AtomicInteger queued = new AtomicInteger(JOBS);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        CountDownLatch upscayl = new CountDownLatch(1);
+
+        when(concurrencyLimiter.tryAcquire(any(Duration.class))).thenReturn(true);
+        when(jobQueueService.dequeueJob(anyString(), any(Duration.class))).thenAnswer(invocation -> {
+            int remaining = queued.getAndDecrement();
+            if (remaining > 0) {
+                return "job-" + remaining;
+            }
+            Thread.sleep(50);
+            return null;
+        });
+        // The job's thread waits on Upscayl, as a synchronous call does
+        when(imageProcessingService.processJobAsync(anyString())).thenAnswer(invocation -> {
+            peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                upscayl.await(60, TimeUnit.SECONDS);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            return CompletableFuture.completedFuture(null);
+        });
+
+        JobWorkerPool pool = new JobWorkerPool(jobQueueService, imageProcessingService, concurrencyLimiter,
+            mock(JobLeases.class), true, 1, maxInFlight, virtualThreads, 1, "load-test");
+        pool.start();
+        try {
+            // Wait until every slot is taken; the pool cannot start more while none finishes
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (inFlight.get() < maxInFlight && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            return peak.get();
+        } finally {
+            upscayl.countDown();
+            pool.stop();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package net.muttcode.spring.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class JobWorkerPoolTest {
+
+    private static final String PROCESSING_LIST = JobQueueService.processingListKey("node-a", 0);
+
+    @Mock
+    private JobQueueService jobQueueService;
+
+    @Mock
+    private ImageProcessingService imageProcessingService;
+
+    @Mock
+    private UpscaylConcurrencyLimiter concurrencyLimiter;
+
+    @Mock
+    private JobLeases jobLeases;
+
+    private JobWorkerPool pool;
+    private AutoCloseable closeable;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        closeable = MockitoAnnotations.openMocks(this);
+        when(concurrencyLimiter.tryAcquire(any(Duration.class))).thenReturn(true);
+        pool = new JobWorkerPool(jobQueueService, imageProcessingService, concurrencyLimiter, jobLeases, true, 1, 4, true, 1, "node-a");
+        // An empty queue blocks for the poll timeout rather than returning immediately
+        when(jobQueueService.dequeueJob(eq(PROCESSING_LIST), any(Duration.class))).thenAnswer(invocation -> idlePoll());
+        when(imageProcessingService.processJobAsync(any())).thenReturn(CompletableFuture.completedFuture(null));
+    }
+
+    private static String idlePoll() throws InterruptedException {
+        Thread.sleep(50);
+        return null;
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        pool.stop();
+        closeable.close();
+    }
+
+    @Test
+    void start_shouldProcessAndAcknowledgeDequeuedJobs() {
+        when(jobQueueService.dequeueJob(eq(PROCESSING_LIST), any(Duration.class)))
+            .thenReturn("job-1")
+            .thenAnswer(invocation -> idlePoll());
+
+        pool.start();
+
+        verify(imageProcessingService, timeout(2000)).processJobAsync("job-1");
+        verify(jobQueueService, timeout(2000)).acknowledge(PROCESSING_LIST, "job-1");
+        verify(concurrencyLimiter, timeout(2000).atLeastOnce()).release();
+    }
+
+    @Test
+    void start_shouldLeaseJobsWhileTheyRun() {
+        when(jobQueueService.dequeueJob(eq(PROCESSING_LIST), any(Duration.class)))
+            .thenReturn("job-1")
+            .thenAnswer(invocation -> idlePoll());
+
+        pool.start();
+
+        verify(jobQueueService).touchProcessingLists(List.of(PROCESSING_LIST));
+        verify(imageProcessingService, timeout(2000)).processJobAsync("job-1");
+        verify(jobLeases, timeout(2000)).release("job-1");
+        InOrder order = inOrder(jobLeases, imageProcessingService, jobQueueService);
+        order.verify(jobLeases).acquire("job-1", PROCESSING_LIST);
+        order.verify(imageProcessingService).processJobAsync("job-1");
+        order.verify(jobQueueService).acknowledge(PROCESSING_LIST, "job-1");
+        order.verify(jobLeases).release("job-1");
+    }
+
+    @Test
+    void heartbeat_shouldRenewLeasesOfRunningJobsAndRetakeLapsedOnes() throws Exception {
+        CompletableFuture<Void> running = new CompletableFuture<>();
+        when(jobQueueService.dequeueJob(eq(PROCESSING_LIST), any(Duration.class)))
+            .thenReturn("job-1")
+            .thenAnswer(invocation -> idlePoll());
+        when(imageProcessingService.processJobAsync("job-1")).thenReturn(running);
+        when(jobLeases.renew(List.of("job-1"))).thenReturn(Set.of("job-1"));
+        when(jobLeases.reacquire("job-1", PROCESSING_LIST)).thenReturn(true);
+        pool.start();
+        verify(imageProcessingService, timeout(2000)).processJobAsync("job-1");
+
+        pool.heartbeat();
+        pool.heartbeat();
+        running.complete(null);
+
+        verify(jobLeases, times(2)).renew(List.of("job-1"));
+        verify(jobLeases, times(2)).reacquire("job-1", PROCESSING_LIST);
+    }
+
+    @Test
+    void heartbeat_shouldStopLeasingJobReclaimedWhileLeaseLapsed() throws Exception {
+        CompletableFuture<Void> running = new CompletableFuture<>();
+        when(jobQueueService.dequeueJob(eq(PROCESSING_LIST), any(Duration.class)))
+            .thenReturn("job-1")
+            .thenAnswer(invocation -> idlePoll());
+        when(imageProcessingService.processJobAsync("job-1")).thenReturn(running);
+        when(jobLeases.renew(List.of("job-1"))).thenReturn(Set.of("job-1"));
+        when(jobLeases.reacquire("job-1", PROCESSING_LIST)).thenReturn(false);
+        pool.start();
+        verify(imageProcessingService, timeout(2000)).processJobAsync("job-1");
+
+        pool.heartbeat();
+        pool.heartbeat();
+        running.complete(null);
+
+        // The second heartbeat no longer renews it, and finishing leaves the other worker's lease alone
+        verify(jobLeases).renew(List.of("job-1"));
+        verify(jobQueueService, timeout(2000)).acknowledge(PROCESSING_LIST, "job-1");
+        verify(jobLeases, never()).release("job-1");
+    }
+
+    @Test
+    void start_shouldLeaveJobsQueuedWhileBackendLimitIsReached() throws Exception {
+        when(concurrencyLimiter.tryAcquire(any(Duration.class))).thenAnswer(invocation -> {
+            Thread.sleep(50);
+            return false;
+        });
+
+        pool.start();
+
+        verify(concurrencyLimiter, timeout(2000).atLeast(2)).tryAcquire(any(Duration.class));
+        verify(jobQueueService, never()).dequeueJob(any(), any());
+    }
+
+    @Test
+    void start_shouldRecoverOwnProcessingListBeforePolling() {
+        pool.start();
+
+        verify(jobQueueService, timeout(2000)).recover(PROCESSING_LIST);
+        verify(jobQueueService, timeout(2000).atLeastOnce()).dequeueJob(eq(PROCESSING_LIST), any(Duration.class));
+    }
+
+    @Test
+    void start_shouldAcknowledgeJobsThatThrow() {
+        when(jobQueueService.dequeueJob(eq(PROCESSING_LIST), any(Duration.class)))
+            .thenReturn("job-2")
+            .thenAnswer(invocation -> idlePoll());
+        doThrow(new IllegalStateException("boom")).when(imageProcessingService).processJobAsync("job-2");
+
+        pool.start();
+
+        verify(jobQueueService, timeout(2000)).acknowledge(PROCESSING_LIST, "job-2");
+        assertTrue(pool.isRunning());
+    }
+
+    @Test
+    void start_shouldAcknowledgeJobsThatFailLater() {
+        when(jobQueueService.dequeueJob(eq(PROCESSING_LIST), any(Duration.class)))
+            .thenReturn("job-2")
+            .thenAnswer(invocation -> idlePoll());
+        when(imageProcessingService.processJobAsync("job-2"))
+            .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("boom")));
+
+        pool.start();
+
+        verify(jobQueueService, timeout(2000)).acknowledge(PROCESSING_LIST, "job-2");
+        verify(jobLeases, timeout(2000)).release("job-2");
+        verify(concurrencyLimiter, timeout(2000)).release();
+    }
+
+    @Test
+    void start_shouldStopPollingWhileMaxJobsAreInFlight() throws Exception {
+        JobWorkerPool bounded = new JobWorkerPool(jobQueueService, imageProcessingService, concurrencyLimiter, jobLeases, true, 1, 2, true, 1, "node-a");
+        // Jobs awaiting Upscayl hold their slots though no thread runs them
+        CompletableFuture<Void> release = new CompletableFuture<>();
+        when(jobQueueService.dequeueJob(eq(PROCESSING_LIST), any(Duration.class)))
+            .thenReturn("job-1", "job-2", "job-3")
+            .thenAnswer(invocation -> idlePoll());
+        when(imageProcessingService.processJobAsync(any())).thenReturn(release);
+
+        bounded.start();
+        try {
+            verify(imageProcessingService, timeout(2000).times(2)).processJobAsync(any());
+            verify(jobQueueService, after(300).times(2)).dequeueJob(eq(PROCESSING_LIST), any(Duration.class));
+            verify(jobQueueService, never()).acknowledge(any(), any());
+
+            release.complete(null);
+            verify(imageProcessingService, timeout(2000)).processJobAsync("job-3");
+            verify(jobQueueService, timeout(2000)).acknowledge(PROCESSING_LIST, "job-1");
+        } finally {
+            release.complete(null);
+            bounded.stop();
+        }
+    }
+
+    @Test
+    void start_shouldRunJobsOnVirtualThreads() {
+        AtomicBoolean virtual = new AtomicBoolean();
+        when(jobQueueService.dequeueJob(eq(PROCESSING_LIST), any(Duration.class)))
+            .thenReturn("job-1")
+            .thenAnswer(invocation -> idlePoll());
+        when(imageProcessingService.processJobAsync("job-1")).thenAnswer(invocation -> {
+            virtual.set(Thread.currentThread().isVirtual());
+            return CompletableFuture.completedFuture(null);
+        });
+
+        pool.start();
+
+        verify(imageProcessingService, timeout(2000)).processJobAsync("job-1");
+        assertTrue(virtual.get());
+    }
+
+    @Test
+    void start_shouldDoNothingWhenDisabled() {
+        JobWorkerPool disabled = new JobWorkerPool(jobQueueService, imageProcessingService, concurrencyLimiter, jobLeases, false, 2, 4, true, 1, "node-a");
+
+        disabled.start();
+
+        assertFalse(disabled.isRunning());
+        verify(jobQueueService, never()).recover(any());
+        verify(jobQueueService, never()).dequeueJob(any(), any());
+    }
+
+    @Test
+    void processingListKey_shouldIncludeNodeAndWorker() {
+        assertEquals("job:processing:node-a:3", JobQueueService.processingListKey("node-a", 3));
+    }
+}
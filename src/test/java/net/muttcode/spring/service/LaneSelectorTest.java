@@ -0,0 +1,77 @@
+package net.muttcode.spring.service;
+
+import net.muttcode.spring.model.ProcessingJob.Priority;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LaneSelectorTest {
+
+    private final LaneSelector selector = new LaneSelector(Map.of(
+        Priority.INTERACTIVE, 8,
+        Priority.NORMAL, 3,
+        Priority.BULK, 1));
+
+    @Test
+    void order_shouldServeBackloggedLanesInProportionToWeight() {
+        Map<Priority, Integer> served = new EnumMap<>(Priority.class);
+        for (int i = 0; i < 1200; i++) {
+            Priority lane = selector.order().get(0);
+            selector.record(lane, Set.of());
+            served.merge(lane, 1, Integer::sum);
+        }
+
+        assertEquals(800, served.get(Priority.INTERACTIVE));
+        assertEquals(300, served.get(Priority.NORMAL));
+        assertEquals(100, served.get(Priority.BULK));
+    }
+
+    @Test
+    void order_shouldInterleaveLanesRatherThanBurst() {
+        List<Priority> sequence = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            Priority lane = selector.order().get(0);
+            selector.record(lane, Set.of());
+            sequence.add(lane);
+        }
+
+        // Normal work is spread through the cycle, not queued behind all interactive dispatches
+        int firstNormal = sequence.indexOf(Priority.NORMAL);
+        assertTrue(firstNormal >= 0 && firstNormal < 4, "first normal dispatch at " + firstNormal);
+        assertTrue(sequence.contains(Priority.BULK));
+    }
+
+    @Test
+    void order_shouldNeverStarveBulkBehindInteractiveBacklog() {
+        boolean bulkServed = false;
+        for (int i = 0; i < 12 && !bulkServed; i++) {
+            Priority lane = selector.order().get(0);
+            selector.record(lane, EnumSet.of(Priority.NORMAL));
+            bulkServed = lane == Priority.BULK;
+        }
+
+        assertTrue(bulkServed);
+    }
+
+    @Test
+    void record_shouldResetCreditOfEmptyLanes() {
+        // Bulk backlog drained alone for a while, then interactive work arrives
+        for (int i = 0; i < 50; i++) {
+            selector.record(Priority.BULK, EnumSet.of(Priority.INTERACTIVE, Priority.NORMAL));
+        }
+
+        assertEquals(Priority.INTERACTIVE, selector.order().get(0));
+    }
+
+    @Test
+    void order_shouldListEveryLane() {
+        assertEquals(EnumSet.allOf(Priority.class), EnumSet.copyOf(selector.order()));
+    }
+}
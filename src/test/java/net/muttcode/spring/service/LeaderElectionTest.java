@@ -0,0 +1,88 @@
+package net.muttcode.spring.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class LeaderElectionTest {
+
+    @Mock
+    private StringRedisTemplate redisTemplate;
+
+    private final AtomicLong clock = new AtomicLong();
+    private LeaderElection election;
+
+    @BeforeEach
+    void setUp() {
+        election = new LeaderElection(redisTemplate, 15_000, "node-a", clock::get);
+    }
+
+    @Test
+    void renew_shouldLeadWhileKeyIsHeld() {
+        givenAcquired(1L);
+
+        election.renew();
+
+        assertTrue(election.isLeader());
+    }
+
+    @Test
+    void renew_shouldFollowWhileAnotherNodeHoldsKey() {
+        givenAcquired(0L);
+
+        election.renew();
+
+        assertFalse(election.isLeader());
+    }
+
+    @Test
+    void isLeader_shouldStepDownWhenRenewalsStopReachingRedis() {
+        givenAcquired(1L);
+        election.renew();
+        when(redisTemplate.execute(any(RedisScript.class), eq(List.of("job:leader")), anyString(), anyString()))
+            .thenThrow(new IllegalStateException("redis down"));
+
+        clock.addAndGet(Duration.ofSeconds(10).toNanos());
+        election.renew();
+        assertTrue(election.isLeader());
+
+        // The key may have expired by now and another node taken over
+        clock.addAndGet(Duration.ofSeconds(5).toNanos());
+        assertFalse(election.isLeader());
+    }
+
+    @Test
+    void resign_shouldReleaseKeyOnlyWhenLeading() {
+        election.resign();
+        verifyNoInteractions(redisTemplate);
+
+        givenAcquired(1L);
+        when(redisTemplate.execute(any(RedisScript.class), eq(List.of("job:leader")), anyString())).thenReturn(1L);
+        election.renew();
+        election.resign();
+
+        assertFalse(election.isLeader());
+        verify(redisTemplate).execute(any(RedisScript.class), eq(List.of("job:leader")), anyString());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void givenAcquired(Long result) {
+        when(redisTemplate.execute(any(RedisScript.class), eq(List.of("job:leader")), anyString(), eq("15000")))
+            .thenReturn(result);
+    }
+}
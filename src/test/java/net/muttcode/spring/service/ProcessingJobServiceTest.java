@@ -1,20 +1,30 @@
 package net.muttcode.spring.service;
 
+import net.muttcode.spring.model.JobOutboxEntry;
 import net.muttcode.spring.model.ProcessingJob;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import net.muttcode.spring.repository.JobOutboxRepository;
 import net.muttcode.spring.repository.ProcessingJobRepository;
 
 import java.time.Instant;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -23,11 +33,23 @@ class ProcessingJobServiceTest {
     @Mock
     private ProcessingJobRepository repository;
 
+    @Mock
+    private JobEventBus eventBus;
+
+    @Mock
+    private JobProgressBuffer progressBuffer;
+
+    @Mock
+    private JobStatistics statistics;
+
+    @Mock
+    private JobOutboxRepository outboxRepository;
+
     private ProcessingJobService service;
 
     @BeforeEach
     void setUp() {
-        service = new ProcessingJobService(repository);
+        service = new ProcessingJobService(repository, eventBus, progressBuffer, statistics, outboxRepository);
     }
 
     @Test
@@ -42,6 +64,61 @@ class ProcessingJobServiceTest {
         assertNotNull(result);
         assertEquals(jobId, result.getJobId());
         verify(repository, times(1)).save(job);
+        verify(statistics).jobCreated(ProcessingJob.JobStatus.QUEUED);
+    }
+
+    @Test
+    void saveAndEnqueue_shouldWriteJobAndOutboxEntry() {
+        ProcessingJob job = new ProcessingJob("job-1", "input-file-id", 2, "ultramix_balanced");
+        job.setPriority(ProcessingJob.Priority.INTERACTIVE);
+        job.setSubmittedBy("alice");
+        when(repository.save(job)).thenReturn(job);
+        ArgumentCaptor<JobOutboxEntry> entry = ArgumentCaptor.forClass(JobOutboxEntry.class);
+
+        service.saveAndEnqueue(job);
+
+        verify(outboxRepository).save(entry.capture());
+        assertEquals("job-1", entry.getValue().getJobId());
+        assertEquals(ProcessingJob.Priority.INTERACTIVE, entry.getValue().getPriority());
+        assertEquals("alice", entry.getValue().getSubmittedBy());
+        verify(statistics).jobCreated(ProcessingJob.JobStatus.QUEUED);
+    }
+
+    @Test
+    void saveAndEnqueue_shouldCountAndPublishOnlyAfterCommit() {
+        ProcessingJob job = new ProcessingJob("job-1", "input-file-id", 2, "ultramix_balanced");
+        when(repository.save(job)).thenReturn(job);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            service.saveAndEnqueue(job);
+            verifyNoInteractions(statistics, eventBus);
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verify(statistics).jobCreated(ProcessingJob.JobStatus.QUEUED);
+        verify(eventBus).publish(argThat(event -> "job-1".equals(event.jobId())));
+    }
+
+    @Test
+    void saveAndEnqueue_shouldNeitherCountNorPublishOnRollback() {
+        ProcessingJob job = new ProcessingJob("job-1", "input-file-id", 2, "ultramix_balanced");
+        when(repository.save(job)).thenReturn(job);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            service.saveAndEnqueue(job);
+
+            TransactionSynchronizationManager.getSynchronizations()
+                .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verifyNoInteractions(statistics, eventBus);
     }
 
     @Test
@@ -95,51 +172,211 @@ class ProcessingJobServiceTest {
     }
 
     @Test
-    void startProcessing_shouldUpdateJobStatus() {
+    void getJobPage_shouldFetchOneExtraRowToDetectNextPage() {
+        ProcessingJob newest = new ProcessingJob("job-b", "input-1", 2, "model1");
+        ProcessingJob older = new ProcessingJob("job-a", "input-2", 2, "model1");
+        ProcessingJob oldest = new ProcessingJob("job-0", "input-3", 2, "model1");
+        when(repository.findNewestByStatus(ProcessingJob.JobStatus.COMPLETED, PageRequest.of(0, 3)))
+            .thenReturn(List.of(newest, older, oldest));
+
+        ProcessingJobService.JobPage page = service.getJobPage(ProcessingJob.JobStatus.COMPLETED, null, 2);
+
+        assertEquals(List.of(newest, older), page.jobs());
+        assertNotNull(page.nextCursor());
+        verify(repository, never()).findAllByOrderByCreatedAtDesc();
+    }
+
+    @Test
+    void getJobPage_shouldResumeAfterCursorPosition() {
+        ProcessingJob last = new ProcessingJob("job-a", "input-1", 2, "model1");
+        last.setCreatedAt(Instant.parse("2026-10-01T12:00:00.123456Z"));
+        String cursor = ProcessingJobService.cursorAfter(List.of(last));
+        when(repository.findNewestBefore(last.getCreatedAt(), "job-a", PageRequest.of(0, 21))).thenReturn(List.of());
+
+        ProcessingJobService.JobPage page = service.getJobPage(null, cursor, 20);
+
+        assertTrue(page.jobs().isEmpty());
+        assertNull(page.nextCursor());
+    }
+
+    @Test
+    void getJobPage_shouldRejectMalformedCursor() {
+        assertThrows(IllegalArgumentException.class, () -> service.getJobPage(null, "not-a-cursor!", 20));
+        String missingJobId = Base64.getUrlEncoder().encodeToString("2026-10-01T12:00:00Z|".getBytes());
+        assertThrows(IllegalArgumentException.class, () -> service.getJobPage(null, missingJobId, 20));
+    }
+
+    @Test
+    void startProcessing_shouldIssueConditionalUpdateWithoutLoadingJob() {
         String jobId = UUID.randomUUID().toString();
-        ProcessingJob job = new ProcessingJob(jobId, "input-file-id", 2, "ultramix_balanced");
-        job.setStatus(ProcessingJob.JobStatus.QUEUED);
-        
-        when(repository.findById(jobId)).thenReturn(Optional.of(job));
-        when(repository.save(any(ProcessingJob.class))).thenReturn(job);
-        
+        when(repository.markProcessing(eq(jobId), eq(ProcessingJob.JobStatus.PROCESSING), any(Instant.class), anyCollection()))
+            .thenReturn(1);
+
+        assertTrue(service.startProcessing(jobId));
+
+        verify(repository, never()).findById(anyString());
+        verify(repository, never()).save(any(ProcessingJob.class));
+        verify(eventBus).publish(argThat(event -> event.status() == ProcessingJob.JobStatus.PROCESSING));
+        verify(statistics).transition(ProcessingJob.JobStatus.QUEUED, ProcessingJob.JobStatus.PROCESSING);
+    }
+
+    @Test
+    void startProcessing_shouldNotRecountRedeliveredJobs() {
+        String jobId = UUID.randomUUID().toString();
+        // Not QUEUED any more, but still PROCESSING from the earlier delivery
+        when(repository.markProcessing(eq(jobId), eq(ProcessingJob.JobStatus.PROCESSING), any(Instant.class), anyCollection()))
+            .thenReturn(0, 1);
+
         service.startProcessing(jobId);
-        
-        assertEquals(ProcessingJob.JobStatus.PROCESSING, job.getStatus());
-        assertNotNull(job.getStartedAt());
-        verify(repository, times(1)).save(job);
+
+        verify(eventBus).publish(argThat(event -> event.status() == ProcessingJob.JobStatus.PROCESSING));
+        verifyNoInteractions(statistics);
     }
 
     @Test
-    void completeJob_shouldUpdateStatusAndTiming() {
+    void startProcessing_shouldRefuseCancelledJobs() {
         String jobId = UUID.randomUUID().toString();
-        ProcessingJob job = new ProcessingJob(jobId, "input-file-id", 2, "ultramix_balanced");
-        job.setStatus(ProcessingJob.JobStatus.PROCESSING);
-        
-        when(repository.findById(jobId)).thenReturn(Optional.of(job));
-        when(repository.save(any(ProcessingJob.class))).thenReturn(job);
-        
+
+        assertFalse(service.startProcessing(jobId));
+
+        verifyNoInteractions(eventBus, statistics);
+    }
+
+    @Test
+    void cancelJob_shouldReportTheStateTheJobLeft() {
+        String jobId = UUID.randomUUID().toString();
+        // Not PROCESSING, but still QUEUED
+        when(repository.markStopped(eq(jobId), eq(ProcessingJob.JobStatus.CANCELLED), any(Instant.class), anyCollection()))
+            .thenReturn(0, 1);
+
+        assertEquals(Optional.of(ProcessingJob.JobStatus.QUEUED), service.cancelJob(jobId));
+
+        verify(progressBuffer).discard(jobId);
+        verify(statistics).transition(ProcessingJob.JobStatus.QUEUED, ProcessingJob.JobStatus.CANCELLED);
+        verify(eventBus).publish(argThat(event -> event.status() == ProcessingJob.JobStatus.CANCELLED && event.isTerminal()));
+    }
+
+    @Test
+    void cancelJob_shouldLeaveFinishedJobsAlone() {
+        String jobId = UUID.randomUUID().toString();
+
+        assertEquals(Optional.empty(), service.cancelJob(jobId));
+
+        verifyNoInteractions(eventBus, statistics);
+    }
+
+    @Test
+    void expireJob_shouldOnlyExpireQueuedJobs() {
+        String jobId = UUID.randomUUID().toString();
+        when(repository.markStopped(eq(jobId), eq(ProcessingJob.JobStatus.EXPIRED), any(Instant.class),
+                eq(EnumSet.of(ProcessingJob.JobStatus.QUEUED))))
+            .thenReturn(1);
+
+        assertTrue(service.expireJob(jobId));
+
+        verify(statistics).transition(ProcessingJob.JobStatus.QUEUED, ProcessingJob.JobStatus.EXPIRED);
+        verify(eventBus).publish(argThat(event -> event.status() == ProcessingJob.JobStatus.EXPIRED && event.isTerminal()));
+    }
+
+    @Test
+    void expireJob_shouldLeaveJobsThatAlreadyStarted() {
+        String jobId = UUID.randomUUID().toString();
+
+        assertFalse(service.expireJob(jobId));
+
+        verifyNoInteractions(eventBus, statistics);
+    }
+
+    @Test
+    void requeueStalled_shouldReturnProcessingJobToQueue() {
+        String jobId = UUID.randomUUID().toString();
+        when(repository.markQueued(jobId, ProcessingJob.JobStatus.QUEUED, EnumSet.of(ProcessingJob.JobStatus.PROCESSING)))
+            .thenReturn(1);
+
+        assertTrue(service.requeueStalled(jobId));
+
+        verify(statistics).transition(ProcessingJob.JobStatus.PROCESSING, ProcessingJob.JobStatus.QUEUED);
+        verify(eventBus).publish(argThat(event -> event.status() == ProcessingJob.JobStatus.QUEUED && !event.isTerminal()));
+    }
+
+    @Test
+    void requeueStalled_shouldLeaveJobsThatAreNotProcessing() {
+        assertFalse(service.requeueStalled(UUID.randomUUID().toString()));
+
+        verifyNoInteractions(eventBus, statistics);
+    }
+
+    @Test
+    void completeJob_shouldWriteThroughAndPublishTransition() {
+        String jobId = UUID.randomUUID().toString();
+        when(repository.markCompleted(eq(jobId), eq(ProcessingJob.JobStatus.COMPLETED), eq("output-file-id"),
+                any(Instant.class), eq(5000L), anyCollection()))
+            .thenReturn(1);
+        ArgumentCaptor<JobEvent> event = ArgumentCaptor.forClass(JobEvent.class);
+
         service.completeJob(jobId, "output-file-id", 5000L);
-        
-        assertEquals(ProcessingJob.JobStatus.COMPLETED, job.getStatus());
-        assertEquals("output-file-id", job.getOutputFileId());
-        assertEquals(5000L, job.getProcessingTimeMs());
-        assertNotNull(job.getCompletedAt());
+
+        verify(progressBuffer).discard(jobId);
+        verify(eventBus).publish(event.capture());
+        assertEquals(jobId, event.getValue().jobId());
+        assertEquals(ProcessingJob.JobStatus.COMPLETED, event.getValue().status());
+        assertEquals(100, event.getValue().progressPercent());
+        assertEquals("output-file-id", event.getValue().outputFileId());
+        assertTrue(event.getValue().isTerminal());
+        verify(repository, never()).save(any(ProcessingJob.class));
+        verify(statistics).transition(ProcessingJob.JobStatus.PROCESSING, ProcessingJob.JobStatus.COMPLETED);
     }
 
     @Test
-    void failJob_shouldUpdateStatusWithError() {
+    void completeJob_shouldOnlyTransitionOpenJobs() {
         String jobId = UUID.randomUUID().toString();
-        ProcessingJob job = new ProcessingJob(jobId, "input-file-id", 2, "ultramix_balanced");
-        job.setStatus(ProcessingJob.JobStatus.PROCESSING);
-        
-        when(repository.findById(jobId)).thenReturn(Optional.of(job));
-        when(repository.save(any(ProcessingJob.class))).thenReturn(job);
-        
-        service.failJob(jobId, "Test error message");
-        
-        assertEquals(ProcessingJob.JobStatus.FAILED, job.getStatus());
-        assertEquals("Test error message", job.getErrorMessage());
-        assertNotNull(job.getCompletedAt());
+        ArgumentCaptor<Collection<ProcessingJob.JobStatus>> from = ArgumentCaptor.forClass(Collection.class);
+
+        service.completeJob(jobId, "output-file-id", 5000L);
+
+        verify(repository, times(2)).markCompleted(eq(jobId), eq(ProcessingJob.JobStatus.COMPLETED), eq("output-file-id"),
+            any(Instant.class), eq(5000L), from.capture());
+        assertEquals(Set.of(ProcessingJob.JobStatus.PROCESSING), Set.copyOf(from.getAllValues().get(0)));
+        assertEquals(Set.of(ProcessingJob.JobStatus.QUEUED), Set.copyOf(from.getAllValues().get(1)));
+        // Nothing changed, e.g. the job already failed, so nothing is announced or counted
+        verifyNoInteractions(eventBus, statistics);
+    }
+
+    @Test
+    void failJob_shouldCountTheStateTheJobLeft() {
+        String jobId = UUID.randomUUID().toString();
+        // Not PROCESSING, but still QUEUED, e.g. its input vanished before it started
+        when(repository.markFailed(eq(jobId), eq(ProcessingJob.JobStatus.FAILED), anyString(), any(Instant.class), anyCollection()))
+            .thenReturn(0, 1);
+
+        service.failJob(jobId, "input missing");
+
+        verify(statistics).transition(ProcessingJob.JobStatus.QUEUED, ProcessingJob.JobStatus.FAILED);
+    }
+
+    @Test
+    void failJob_shouldWriteThroughWithTruncatedError() {
+        String jobId = UUID.randomUUID().toString();
+        String longError = "x".repeat(1500);
+        when(repository.markFailed(eq(jobId), eq(ProcessingJob.JobStatus.FAILED), anyString(), any(Instant.class), anyCollection()))
+            .thenReturn(1);
+
+        service.failJob(jobId, longError);
+
+        verify(repository).markFailed(eq(jobId), eq(ProcessingJob.JobStatus.FAILED), eq("x".repeat(1000)),
+            any(Instant.class), anyCollection());
+        verify(progressBuffer).discard(jobId);
+        verify(eventBus).publish(argThat(event -> event.status() == ProcessingJob.JobStatus.FAILED));
+    }
+
+    @Test
+    void updateJobProgress_shouldBufferInsteadOfWritingDatabase() {
+        String jobId = UUID.randomUUID().toString();
+
+        service.updateJobProgress(jobId, 40);
+
+        verify(progressBuffer).record(jobId, 40);
+        verify(eventBus).publish(argThat(event -> event.progressPercent() == 40));
+        verifyNoInteractions(repository);
     }
 }
@@ -0,0 +1,125 @@
+package net.muttcode.spring.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StalledJobReaperTest {
+
+    private static final String PROCESSING_LIST = JobQueueService.processingListKey("node-a", 0);
+
+    @Mock
+    private JobQueueService jobQueueService;
+
+    @Mock
+    private JobLeases jobLeases;
+
+    @Mock
+    private ProcessingJobService jobService;
+
+    @Mock
+    private LeaderElection leaderElection;
+
+    private StalledJobReaper reaper;
+
+    @BeforeEach
+    void setUp() {
+        reaper = new StalledJobReaper(jobQueueService, jobLeases, jobService, leaderElection);
+    }
+
+    @Test
+    void reap_shouldReclaimJobUnleasedOnTwoSweepsInARow() {
+        givenLeader();
+        givenProcessingList(System.currentTimeMillis(), "job-1", "job-2");
+        when(jobLeases.unleased(List.of("job-1", "job-2"))).thenReturn(Set.of("job-1"));
+        when(jobQueueService.reclaim(PROCESSING_LIST, "job-1")).thenReturn(true);
+
+        reaper.reap();
+        verify(jobQueueService, never()).reclaim(anyString(), anyString());
+
+        reaper.reap();
+        InOrder order = inOrder(jobService, jobQueueService);
+        order.verify(jobQueueService).reclaim(PROCESSING_LIST, "job-1");
+        order.verify(jobService).requeueStalled("job-1");
+        verify(jobQueueService, never()).reclaim(PROCESSING_LIST, "job-2");
+    }
+
+    @Test
+    void reap_shouldLeaveDatabaseAloneWhenReclaimIsRefused() {
+        givenLeader();
+        givenProcessingList(System.currentTimeMillis(), "job-1");
+        when(jobLeases.unleased(List.of("job-1"))).thenReturn(Set.of("job-1"));
+        // Leased again between the check and the script
+        when(jobQueueService.reclaim(PROCESSING_LIST, "job-1")).thenReturn(false);
+
+        reaper.reap();
+        reaper.reap();
+
+        verify(jobService, never()).requeueStalled(anyString());
+    }
+
+    @Test
+    void reap_shouldSpareJobLeasedAgainBeforeSecondSweep() {
+        givenLeader();
+        givenProcessingList(System.currentTimeMillis(), "job-1");
+        when(jobLeases.unleased(List.of("job-1"))).thenReturn(Set.of("job-1"), Set.of());
+
+        reaper.reap();
+        reaper.reap();
+
+        verifyNoInteractions(jobService);
+        verify(jobQueueService, never()).reclaim(anyString(), anyString());
+    }
+
+    @Test
+    void reap_shouldForgetListsOfWorkersGoneForGood() {
+        givenLeader();
+        givenProcessingList(System.currentTimeMillis() - Duration.ofHours(1).toMillis());
+
+        reaper.reap();
+
+        verify(jobQueueService).forgetProcessingList(PROCESSING_LIST);
+    }
+
+    @Test
+    void reap_shouldDoNothingOnFollowers() {
+        reaper.reap();
+
+        verifyNoInteractions(jobQueueService, jobLeases, jobService);
+    }
+
+    @Test
+    void reap_shouldForgetSuspicionsWhenLeadershipIsLost() {
+        when(leaderElection.isLeader()).thenReturn(true, false, true);
+        givenProcessingList(System.currentTimeMillis(), "job-1");
+        when(jobLeases.unleased(List.of("job-1"))).thenReturn(Set.of("job-1"));
+
+        reaper.reap();
+        reaper.reap();
+        reaper.reap();
+
+        verify(jobQueueService, never()).reclaim(anyString(), anyString());
+    }
+
+    private void givenLeader() {
+        when(leaderElection.isLeader()).thenReturn(true);
+    }
+
+    private void givenProcessingList(long lastSeen, String... jobIds) {
+        when(jobLeases.getTtl()).thenReturn(Duration.ofSeconds(30));
+        when(jobQueueService.getProcessingLists()).thenReturn(Map.of(PROCESSING_LIST, lastSeen));
+        when(jobQueueService.getProcessingJobs(PROCESSING_LIST)).thenReturn(List.of(jobIds));
+    }
+}
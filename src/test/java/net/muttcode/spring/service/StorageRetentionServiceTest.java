@@ -0,0 +1,168 @@
+package net.muttcode.spring.service;
+
+import net.muttcode.spring.model.ProcessedFile;
+import net.muttcode.spring.repository.ProcessedFileRepository;
+import net.muttcode.spring.repository.ProcessingJobRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StorageRetentionServiceTest {
+
+    @Mock
+    private FileService fileService;
+
+    @Mock
+    private ProcessedFileRepository processedFileRepository;
+
+    @Mock
+    private ProcessingJobRepository jobRepository;
+
+    @Mock
+    private LeaderElection leaderElection;
+
+    @TempDir
+    Path root;
+
+    private Path uploads;
+    private Path processed;
+    private Path temp;
+    private Path input;
+    private Path output;
+    private StorageRetentionService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        uploads = Files.createDirectories(root.resolve("uploads"));
+        processed = Files.createDirectories(root.resolve("processed"));
+        temp = Files.createDirectories(root.resolve("temp"));
+        input = Files.createDirectories(root.resolve("input"));
+        output = Files.createDirectories(root.resolve("output"));
+
+        when(fileService.getUploadDir()).thenReturn(uploads);
+        lenient().when(leaderElection.isLeader()).thenReturn(true);
+        service = new StorageRetentionService(fileService, processedFileRepository, jobRepository, leaderElection,
+            processed.toString(), temp.toString(), input.toString(), output.toString(),
+            24, 24, 60, 60);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        // Watermarks that never trigger on the test filesystem
+        ReflectionTestUtils.setField(service, "highWatermark", 1.1);
+        ReflectionTestUtils.setField(service, "lowWatermark", 1.0);
+    }
+
+    @Test
+    void sweep_shouldDeleteExpiredUploadsAndMarkThemDeleted() throws IOException {
+        String fileId = UUID.randomUUID().toString();
+        Path stale = age(Files.writeString(uploads.resolve(fileId + "_old.png"), "x"), Duration.ofDays(2));
+        Path fresh = Files.writeString(uploads.resolve(UUID.randomUUID() + "_new.png"), "x");
+        when(jobRepository.existsByInputFileIdAndStatusIn(eq(fileId), any())).thenReturn(false);
+
+        service.sweep();
+
+        assertFalse(Files.exists(stale));
+        assertTrue(Files.exists(fresh));
+        verify(fileService).deleteFile(fileId);
+        verify(fileService, times(1)).deleteFile(anyString());
+    }
+
+    @Test
+    void sweep_shouldKeepInputsOfActiveJobs() throws IOException {
+        String fileId = UUID.randomUUID().toString();
+        Path stale = age(Files.writeString(uploads.resolve(fileId + "_queued.png"), "x"), Duration.ofDays(2));
+        when(jobRepository.existsByInputFileIdAndStatusIn(eq(fileId), any())).thenReturn(true);
+
+        service.sweep();
+
+        assertTrue(Files.exists(stale));
+        verify(fileService, never()).deleteFile(anyString());
+    }
+
+    @Test
+    void sweep_shouldKeepMountFilesOfActiveJobs() throws IOException {
+        String running = UUID.randomUUID().toString();
+        String finished = UUID.randomUUID().toString();
+        // Hard-linked hand-off inputs carry the upload's old timestamps
+        Path handOff = age(Files.writeString(input.resolve(running + "_photo.png"), "x"), Duration.ofDays(2));
+        Path partial = age(Files.writeString(output.resolve(running + "_photo_4x.png"), "x"), Duration.ofDays(2));
+        Path leftover = age(Files.writeString(output.resolve(finished + "_photo_4x.png"), "x"), Duration.ofDays(2));
+        when(jobRepository.existsByInputFileIdAndStatusIn(eq(running), any())).thenReturn(true);
+        when(jobRepository.existsByInputFileIdAndStatusIn(eq(finished), any())).thenReturn(false);
+
+        service.sweep();
+
+        assertTrue(Files.exists(handOff));
+        assertTrue(Files.exists(partial));
+        assertFalse(Files.exists(leftover));
+    }
+
+    @Test
+    void sweep_shouldMarkExpiredProcessedOutputsDeleted() throws IOException {
+        String fileId = UUID.randomUUID().toString();
+        Path stale = age(Files.writeString(processed.resolve(fileId + "_texture.dds"), "x"), Duration.ofDays(2));
+        ProcessedFile record = new ProcessedFile(null, fileId, fileId + "_texture.dds", ProcessedFile.ProcessingType.IMAGE_TO_DDS);
+        record.setStatus(ProcessedFile.ProcessedFileStatus.COMPLETED);
+        when(processedFileRepository.findByProcessedFileId(fileId)).thenReturn(Optional.of(record));
+
+        service.sweep();
+
+        assertFalse(Files.exists(stale));
+        assertEquals(ProcessedFile.ProcessedFileStatus.DELETED, record.getStatus());
+        verify(processedFileRepository).save(record);
+    }
+
+    @Test
+    void sweep_shouldRemoveOrphanedTempFiles() throws IOException {
+        Path orphan = age(Files.writeString(temp.resolve("crashed_input.dds"), "x"), Duration.ofHours(2));
+        Path inProgress = Files.writeString(temp.resolve("running_input.dds"), "x");
+
+        service.sweep();
+
+        assertFalse(Files.exists(orphan));
+        assertTrue(Files.exists(inProgress));
+    }
+
+    @Test
+    void sweep_shouldLeaveFilesToTheLeader() throws IOException {
+        Path orphan = age(Files.writeString(temp.resolve("crashed_input.dds"), "x"), Duration.ofHours(2));
+        when(leaderElection.isLeader()).thenReturn(false);
+
+        service.sweep();
+
+        assertTrue(Files.exists(orphan));
+    }
+
+    @Test
+    void fileIdOf_shouldExtractUuidPrefix() {
+        String fileId = UUID.randomUUID().toString();
+
+        assertEquals(fileId, StorageRetentionService.fileIdOf(fileId + "_image.png"));
+        assertNull(StorageRetentionService.fileIdOf("image.png"));
+    }
+
+    private static Path age(Path path, Duration age) throws IOException {
+        FileTime then = FileTime.from(Instant.now().minus(age));
+        Files.getFileAttributeView(path, BasicFileAttributeView.class).setTimes(then, then, null);
+        return path;
+    }
+}
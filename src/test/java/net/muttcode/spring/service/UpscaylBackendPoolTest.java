@@ -0,0 +1,239 @@
+package net.muttcode.spring.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UpscaylBackendPoolTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final UpscaylHttpClient httpClient = new UpscaylHttpClient(new ObjectMapper(), meterRegistry, 500, 8);
+    private final List<StubBackend> stubs = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        stubs.forEach(StubBackend::stop);
+        httpClient.shutdown();
+    }
+
+    @Test
+    void acquire_shouldPickBackendWithFewestOutstandingCalls() {
+        UpscaylBackendPool pool = pool("http://a:8081, http://b:8081/", 0);
+
+        UpscaylBackendPool.Backend first = pool.acquire("model", List.of("job-1"));
+        UpscaylBackendPool.Backend second = pool.acquire("model", List.of("job-2"));
+
+        assertNotEquals(first.url(), second.url());
+        assertEquals(Set.of("http://a:8081", "http://b:8081"), Set.of(first.url(), second.url()));
+        pool.release(first, "model", List.of("job-1"), 1_000_000, false);
+        assertEquals(first.url(), pool.acquire("model", List.of("job-3")).url());
+        assertEquals(first.url().equals("http://a:8081") ? "http://b:8081" : "http://a:8081",
+            pool.acquire("model", List.of("job-4")).url());
+    }
+
+    @Test
+    void acquire_shouldPreferBackendWithModelLoadedUnlessClearlyBehind() {
+        UpscaylBackendPool pool = pool("http://a:8081,http://b:8081", 2);
+        UpscaylBackendPool.Backend a = pool.acquire("realcugan", List.of("warmup"));
+        pool.release(a, "realcugan", List.of("warmup"), 1_000_000, false);
+
+        // Loaded on a: it wins while it has up to two calls more than b
+        assertEquals(a.url(), pool.acquire("realcugan", List.of("job-1")).url());
+        assertEquals(a.url(), pool.acquire("realcugan", List.of("job-2")).url());
+        // Other models still go by load alone
+        UpscaylBackendPool.Backend b = pool.acquire("ultramix_balanced", List.of("job-3"));
+        assertNotEquals(a.url(), b.url());
+        assertEquals(a.url(), pool.acquire("realcugan", List.of("job-4")).url());
+        // Three calls ahead of an idle backend is too far behind
+        pool.release(b, "ultramix_balanced", List.of("job-3"), 1_000_000, false);
+        assertEquals(b.url(), pool.acquire("realcugan", List.of("job-5")).url());
+    }
+
+    @Test
+    void acquire_shouldSkipDrainingBackends() {
+        UpscaylBackendPool pool = pool("http://a:8081,http://b:8081", 2);
+
+        assertTrue(pool.setDraining("http://a:8081/", true).orElseThrow().draining());
+        for (int i = 0; i < 4; i++) {
+            assertEquals("http://b:8081", pool.acquire("model", List.of("job-" + i)).url());
+        }
+        assertTrue(pool.setDraining("http://b:8081", true).isPresent());
+        assertThrows(ResourceAccessException.class, () -> pool.acquire("model", List.of("job-5")));
+        assertFalse(pool.isAvailable());
+
+        assertFalse(pool.setDraining("http://a:8081", false).orElseThrow().draining());
+        assertEquals("http://a:8081", pool.acquire("model", List.of("job-6")).url());
+        assertTrue(pool.setDraining("http://unknown:8081", true).isEmpty());
+    }
+
+    @Test
+    void acquire_shouldStartDrainedBackendsListedInConfiguration() {
+        UpscaylBackendPool pool = new UpscaylBackendPool(httpClient, new ObjectMapper(), meterRegistry,
+            "http://a:8081,http://b:8081", "http://a:8081", 500, 2, 2);
+
+        assertEquals("http://b:8081", pool.acquire("model", List.of("job-1")).url());
+        assertTrue(pool.getStatus().get(0).draining());
+    }
+
+    @Test
+    void checkHealth_shouldTakeBackendOutOfRotationAfterRepeatedFailures() {
+        StubBackend healthy = stub();
+        StubBackend flaky = stub();
+        UpscaylBackendPool pool = pool(healthy.url() + "," + flaky.url(), 0);
+
+        flaky.healthy = false;
+        pool.checkHealth();
+        // One failed probe is not enough
+        assertTrue(pool.getStatus().get(1).healthy());
+        pool.checkHealth();
+        assertFalse(pool.getStatus().get(1).healthy());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(healthy.url(), pool.acquire("model", List.of("job-" + i)).url());
+        }
+
+        flaky.healthy = true;
+        pool.checkHealth();
+        assertTrue(pool.getStatus().get(1).healthy());
+        assertEquals(flaky.url(), pool.acquire("model", List.of("job-5")).url());
+    }
+
+    @Test
+    void checkHealth_shouldUseLoadedModelsReportedByBackend() {
+        StubBackend a = stub();
+        StubBackend b = stub();
+        b.loadedModels = "[\"realcugan\"]";
+        UpscaylBackendPool pool = pool(a.url() + "," + b.url(), 2);
+
+        pool.checkHealth();
+
+        assertEquals(Set.of("realcugan"), pool.getStatus().get(1).loadedModels());
+        assertEquals(b.url(), pool.acquire("realcugan", List.of("job-1")).url());
+        assertEquals(b.url(), pool.acquire("realcugan", List.of("job-2")).url());
+
+        // A later report replaces what was loaded before
+        b.loadedModels = "[\"ultramix_balanced\"]";
+        pool.checkHealth();
+        assertEquals(Set.of("ultramix_balanced"), pool.getStatus().get(1).loadedModels());
+    }
+
+    @Test
+    void acquire_shouldFallBackToUnhealthyBackendsWhenNoneIsHealthy() {
+        StubBackend down = stub();
+        down.healthy = false;
+        UpscaylBackendPool pool = pool(down.url(), 0);
+
+        pool.checkHealth();
+        pool.checkHealth();
+
+        assertFalse(pool.isAvailable());
+        assertEquals(down.url(), pool.acquire("model", List.of("job-1")).url());
+    }
+
+    @Test
+    void release_shouldRecordLatencyAndForgetAssignment() {
+        UpscaylBackendPool pool = pool("http://a:8081,http://b:8081", 0);
+
+        UpscaylBackendPool.Backend backend = pool.acquire("model", List.of("job-1", "job-2"));
+        assertEquals(List.of(backend), pool.backendsFor("job-2"));
+        assertEquals(1, pool.getStatus().stream().mapToInt(UpscaylBackendPool.BackendStatus::outstanding).sum());
+
+        pool.release(backend, "model", List.of("job-1", "job-2"), TimeUnit.MILLISECONDS.toNanos(250), false);
+
+        assertEquals(2, pool.backendsFor("job-2").size());
+        UpscaylBackendPool.BackendStatus status = pool.getStatus().stream()
+            .filter(s -> s.url().equals(backend.url())).findFirst().orElseThrow();
+        assertEquals(0, status.outstanding());
+        assertEquals(1, status.calls());
+        assertEquals(250.0, status.meanLatencyMs(), 0.01);
+        assertEquals(1, meterRegistry.get("upscayl.backend.latency").tag("backend", backend.url()).timer().count());
+    }
+
+    private UpscaylBackendPool pool(String urls, int modelAffinity) {
+        return new UpscaylBackendPool(httpClient, new ObjectMapper(), meterRegistry, urls, "", 500, 2, modelAffinity);
+    }
+
+    private StubBackend stub() {
+        StubBackend stub = StubBackend.start();
+        stubs.add(stub);
+        return stub;
+    }
+
+    /**
+     * A local stand-in for an Upscayl backend: answers health checks, upscale calls and cancellations.
+     */
+    static final class StubBackend {
+        final Queue<String> requests = new ConcurrentLinkedQueue<>();
+        final Set<String> runningJobs = ConcurrentHashMap.newKeySet();
+        volatile boolean healthy = true;
+        volatile String loadedModels = "[]";
+        // Answer upscale calls carrying a callbackUrl with "accepted" and report nothing until told to
+        volatile boolean acceptCallbacks;
+        volatile String lastUpscaleBody;
+        private final HttpServer server;
+
+        private StubBackend(HttpServer server) {
+            this.server = server;
+        }
+
+        static StubBackend start() {
+            try {
+                HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+                StubBackend stub = new StubBackend(server);
+                server.createContext("/", exchange -> {
+                    String path = exchange.getRequestURI().getPath();
+                    stub.requests.add(exchange.getRequestMethod() + " " + path);
+                    int status = 200;
+                    String body = "{}";
+                    if (path.equals("/")) {
+                        status = stub.healthy ? 200 : 503;
+                        body = "{\"status\":\"ok\",\"loadedModels\":" + stub.loadedModels + "}";
+                    } else if (path.equals("/api/upscale")) {
+                        String request = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                        stub.lastUpscaleBody = request;
+                        boolean callback = request.contains("\"callbackUrl\"");
+                        body = callback && stub.acceptCallbacks
+                            ? "{\"status\":\"accepted\"}"
+                            : "{\"status\":\"success\",\"output\":\"/app/output/out.png\"}";
+                    } else if (path.startsWith("/api/job/") && exchange.getRequestMethod().equals("DELETE")) {
+                        status = stub.runningJobs.remove(path.substring("/api/job/".length())) ? 200 : 404;
+                    }
+                    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().add("Content-Type", "application/json");
+                    exchange.sendResponseHeaders(status, bytes.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(bytes);
+                    }
+                });
+                server.start();
+                return stub;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        String url() {
+            return "http://localhost:" + server.getAddress().getPort();
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package net.muttcode.spring.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UpscaylBatcherTest {
+
+    @Mock
+    private UpscaylService upscaylService;
+
+    @TempDir
+    Path tempDir;
+
+    private UpscaylBatcher batcher;
+
+    @AfterEach
+    void tearDown() {
+        if (batcher != null) {
+            batcher.shutdown();
+        }
+    }
+
+    @Test
+    void upscale_shouldCoalesceConcurrentJobsWithSameModelAndScale() throws Exception {
+        batcher = new UpscaylBatcher(upscaylService, true, 4, 5_000, 1024);
+        when(upscaylService.upscaleBatch(anyList(), eq(2), eq("ultramix_balanced"))).thenAnswer(invocation -> {
+            List<UpscaylService.BatchItem> items = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(items.stream()
+                .map(item -> new UpscaylService.UpscaylResult(true, item.inputFilePath() + ".out", null))
+                .toList());
+        });
+
+        List<Future<UpscaylService.UpscaylResult>> results = new ArrayList<>();
+        for (int n = 0; n < 4; n++) {
+            int i = n;
+            String input = smallInput("sprite-" + i + ".png");
+            results.add(batcher.upscale("job-" + i, input, 2, "ultramix_balanced"));
+        }
+
+        for (int i = 0; i < 4; i++) {
+            UpscaylService.UpscaylResult result = results.get(i).get(5, TimeUnit.SECONDS);
+            assertTrue(result.isSuccess());
+            // Each caller gets the result for its own input
+            assertTrue(result.getOutputPath().endsWith("sprite-" + i + ".png.out"));
+        }
+        verify(upscaylService, times(1)).upscaleBatch(argThat(inputs -> inputs.size() == 4), eq(2), eq("ultramix_balanced"));
+        verify(upscaylService, never()).upscale(anyString(), anyString(), anyInt(), anyString());
+    }
+
+    @Test
+    void upscale_shouldNotMixModelsOrScalesInOneBatch() throws Exception {
+        batcher = new UpscaylBatcher(upscaylService, true, 8, 50, 1024);
+        when(upscaylService.upscale(anyString(), anyString(), anyInt(), anyString()))
+            .thenReturn(CompletableFuture.completedFuture(new UpscaylService.UpscaylResult(true, "out.png", null)));
+
+        String first = smallInput("a.png");
+        String second = smallInput("b.png");
+        Future<UpscaylService.UpscaylResult> a = batcher.upscale("job-a", first, 2, "ultramix_balanced");
+        Future<UpscaylService.UpscaylResult> b = batcher.upscale("job-b", second, 4, "ultramix_balanced");
+
+        assertTrue(a.get(5, TimeUnit.SECONDS).isSuccess());
+        assertTrue(b.get(5, TimeUnit.SECONDS).isSuccess());
+        // Each lone job is flushed by its deadline and sent on its own
+        verify(upscaylService).upscale("job-a", first, 2, "ultramix_balanced");
+        verify(upscaylService).upscale("job-b", second, 4, "ultramix_balanced");
+        verify(upscaylService, never()).upscaleBatch(anyList(), anyInt(), anyString());
+    }
+
+    @Test
+    void upscale_shouldSendLargeInputsStraightThrough() throws Exception {
+        batcher = new UpscaylBatcher(upscaylService, true, 8, 5_000, 4);
+        Path large = tempDir.resolve("texture.png");
+        Files.write(large, new byte[64]);
+        when(upscaylService.upscale("job-large", large.toString(), 2, "ultramix_balanced"))
+            .thenReturn(CompletableFuture.completedFuture(new UpscaylService.UpscaylResult(true, "out.png", null)));
+
+        UpscaylService.UpscaylResult result =
+            batcher.upscale("job-large", large.toString(), 2, "ultramix_balanced").get(5, TimeUnit.SECONDS);
+
+        assertTrue(result.isSuccess());
+        verify(upscaylService, never()).upscaleBatch(anyList(), anyInt(), anyString());
+    }
+
+    @Test
+    void upscale_shouldFallBackToSingleCallsWhenBackendHasNoBatchEndpoint() throws Exception {
+        batcher = new UpscaylBatcher(upscaylService, true, 2, 5_000, 1024);
+        when(upscaylService.upscaleBatch(anyList(), anyInt(), anyString()))
+            .thenReturn(CompletableFuture.failedFuture(
+                HttpClientErrorException.create(HttpStatus.NOT_FOUND, "Not Found", null, null, null)));
+        when(upscaylService.upscale(anyString(), anyString(), anyInt(), anyString()))
+            .thenReturn(CompletableFuture.completedFuture(new UpscaylService.UpscaylResult(true, "out.png", null)));
+
+        String first = smallInput("a.png");
+        String second = smallInput("b.png");
+        Future<UpscaylService.UpscaylResult> a = batcher.upscale("job-a", first, 2, "ultramix_balanced");
+        Future<UpscaylService.UpscaylResult> b = batcher.upscale("job-b", second, 2, "ultramix_balanced");
+
+        assertTrue(a.get(5, TimeUnit.SECONDS).isSuccess());
+        assertTrue(b.get(5, TimeUnit.SECONDS).isSuccess());
+        verify(upscaylService, times(2)).upscale(anyString(), anyString(), eq(2), eq("ultramix_balanced"));
+
+        // Later jobs skip batching altogether
+        String third = smallInput("c.png");
+        batcher.upscale("job-c", third, 2, "ultramix_balanced").get(5, TimeUnit.SECONDS);
+        verify(upscaylService).upscale("job-c", third, 2, "ultramix_balanced");
+        verify(upscaylService, times(1)).upscaleBatch(anyList(), anyInt(), anyString());
+    }
+
+    @Test
+    void upscale_shouldFailEveryJobInBatchWhenCallFails() throws Exception {
+        batcher = new UpscaylBatcher(upscaylService, true, 2, 5_000, 1024);
+        when(upscaylService.upscaleBatch(anyList(), anyInt(), anyString()))
+            .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("backend unavailable")));
+
+        String first = smallInput("a.png");
+        String second = smallInput("b.png");
+        Future<UpscaylService.UpscaylResult> a = batcher.upscale("job-a", first, 2, "ultramix_balanced");
+        Future<UpscaylService.UpscaylResult> b = batcher.upscale("job-b", second, 2, "ultramix_balanced");
+
+        assertEquals("backend unavailable", a.get(5, TimeUnit.SECONDS).getError());
+        assertEquals("backend unavailable", b.get(5, TimeUnit.SECONDS).getError());
+    }
+
+    @Test
+    void upscale_shouldBypassBatchingWhenDisabled() throws Exception {
+        batcher = new UpscaylBatcher(upscaylService, false, 8, 5_000, 1024);
+        when(upscaylService.upscale(anyString(), anyString(), anyInt(), anyString()))
+            .thenReturn(CompletableFuture.completedFuture(new UpscaylService.UpscaylResult(true, "out.png", null)));
+        String input = smallInput("a.png");
+
+        batcher.upscale("job-a", input, 2, "ultramix_balanced").get(5, TimeUnit.SECONDS);
+
+        verify(upscaylService).upscale("job-a", input, 2, "ultramix_balanced");
+    }
+
+    @Test
+    void cancel_shouldDropJobWaitingInOpenBatch() throws Exception {
+        batcher = new UpscaylBatcher(upscaylService, true, 2, 5_000, 1024);
+        String input = smallInput("a.png");
+        // Joins an open batch before upscale returns
+        Future<UpscaylService.UpscaylResult> pending = batcher.upscale("job-a", input, 2, "ultramix_balanced");
+
+        assertTrue(batcher.cancel("job-a"));
+        assertEquals("Cancelled", pending.get(5, TimeUnit.SECONDS).getError());
+        verify(upscaylService, never()).upscaleBatch(anyList(), anyInt(), anyString());
+    }
+
+    @Test
+    void cancel_shouldAskBackendWhenJobIsNotWaitingInBatch() {
+        batcher = new UpscaylBatcher(upscaylService, true, 2, 5_000, 1024);
+        when(upscaylService.cancel("job-a")).thenReturn(true);
+
+        assertTrue(batcher.cancel("job-a"));
+        verify(upscaylService).cancel("job-a");
+    }
+
+    private String smallInput(String name) throws Exception {
+        Path path = tempDir.resolve(name);
+        Files.writeString(path, "img");
+        return path.toString();
+    }
+}
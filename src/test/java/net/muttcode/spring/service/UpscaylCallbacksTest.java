@@ -0,0 +1,187 @@
+package net.muttcode.spring.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class UpscaylCallbacksTest {
+
+    @Mock
+    private ProcessingJobService jobService;
+
+    private UpscaylCallbacks callbacks;
+    private AutoCloseable closeable;
+
+    @BeforeEach
+    void setUp() {
+        closeable = MockitoAnnotations.openMocks(this);
+        callbacks = new UpscaylCallbacks(jobService, new ObjectMapper(), "http://api-1:8080/api/upscayl/callback", "secret", 300);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        callbacks.shutdown();
+        closeable.close();
+    }
+
+    @Test
+    void handle_shouldCompleteAwaitedRunFromSignedEvent() throws Exception {
+        UpscaylCallbacks.Run run = callbacks.expect("job-1");
+
+        assertEquals(UpscaylCallbacks.CallbackResult.ACCEPTED,
+            deliver(event("job-1", run, "\"status\":\"success\",\"output\":\"/app/output/a_4x.png\"")));
+
+        UpscaylService.UpscaylResult result = run.completion().get(5, TimeUnit.SECONDS);
+        assertTrue(result.isSuccess());
+        assertEquals("/app/output/a_4x.png", result.getOutputPath());
+        assertEquals(0, callbacks.getPending());
+        // A repeated completion finds nothing left to complete
+        assertEquals(UpscaylCallbacks.CallbackResult.UNKNOWN_JOB,
+            deliver(event("job-1", run, "\"status\":\"success\",\"output\":\"/app/output/a_4x.png\"")));
+    }
+
+    @Test
+    void handle_shouldNotLetReplayedCompletionSettleNewerRun() {
+        UpscaylCallbacks.Run first = callbacks.expect("job-1");
+        String completion = event("job-1", first, "\"status\":\"success\",\"output\":\"/app/output/a_4x.png\"");
+        deliver(completion);
+        UpscaylCallbacks.Run second = callbacks.expect("job-1");
+
+        assertEquals(UpscaylCallbacks.CallbackResult.UNKNOWN_JOB, deliver(completion));
+        assertEquals(UpscaylCallbacks.CallbackResult.UNKNOWN_JOB,
+            deliver("{\"jobId\":\"job-1\",\"status\":\"success\",\"output\":\"/app/output/a_4x.png\"}"));
+        assertEquals(UpscaylCallbacks.CallbackResult.UNKNOWN_JOB,
+            deliver(event("job-1", first, "\"status\":\"processing\",\"progress\":40")));
+
+        assertFalse(second.completion().isDone());
+        assertEquals(1, callbacks.getPending());
+        verifyNoInteractions(jobService);
+    }
+
+    @Test
+    void handle_shouldReportBackendErrorAsFailedResult() throws Exception {
+        UpscaylCallbacks.Run run = callbacks.expect("job-1");
+
+        deliver(event("job-1", run, "\"status\":\"error\",\"error\":\"Out of GPU memory\""));
+
+        UpscaylService.UpscaylResult result = run.completion().get(5, TimeUnit.SECONDS);
+        assertFalse(result.isSuccess());
+        assertEquals("Out of GPU memory", result.getError());
+    }
+
+    @Test
+    void handle_shouldPassProgressOfAwaitedRunsToJobService() {
+        UpscaylCallbacks.Run run = callbacks.expect("job-1");
+
+        assertEquals(UpscaylCallbacks.CallbackResult.ACCEPTED,
+            deliver(event("job-1", run, "\"status\":\"processing\",\"progress\":40")));
+        deliver(event("job-1", run, "\"status\":\"processing\",\"progress\":100"));
+        assertEquals(UpscaylCallbacks.CallbackResult.UNKNOWN_JOB,
+            deliver(event("job-2", run, "\"status\":\"processing\",\"progress\":40")));
+
+        verify(jobService).updateJobProgress("job-1", 40);
+        // 100 waits until the output is stored
+        verify(jobService).updateJobProgress("job-1", 99);
+        verify(jobService, never()).updateJobProgress(eq("job-2"), any());
+    }
+
+    @Test
+    void handle_shouldAcknowledgeButNotApplyReplayedProgress() {
+        UpscaylCallbacks.Run run = callbacks.expect("job-1");
+        String sixty = event("job-1", run, "\"status\":\"processing\",\"progress\":60");
+
+        deliver(sixty);
+        assertEquals(UpscaylCallbacks.CallbackResult.ACCEPTED, deliver(sixty));
+        assertEquals(UpscaylCallbacks.CallbackResult.ACCEPTED,
+            deliver(event("job-1", run, "\"status\":\"processing\",\"progress\":20")));
+
+        verify(jobService, times(1)).updateJobProgress("job-1", 60);
+        verify(jobService, never()).updateJobProgress("job-1", 20);
+    }
+
+    @Test
+    void handle_shouldRejectBadOrStaleSignatures() {
+        UpscaylCallbacks.Run run = callbacks.expect("job-1");
+        byte[] body = event("job-1", run, "\"status\":\"success\",\"output\":\"/app/output/a_4x.png\"")
+            .getBytes(StandardCharsets.UTF_8);
+        String now = String.valueOf(Instant.now().getEpochSecond());
+        String stale = String.valueOf(Instant.now().minusSeconds(600).getEpochSecond());
+        UpscaylCallbacks otherSecret = new UpscaylCallbacks(jobService, new ObjectMapper(),
+            "http://api-1:8080/api/upscayl/callback", "other", 300);
+
+        assertEquals(UpscaylCallbacks.CallbackResult.BAD_SIGNATURE, callbacks.handle(now, otherSecret.signature(now, body), body));
+        assertEquals(UpscaylCallbacks.CallbackResult.BAD_SIGNATURE, callbacks.handle(stale, callbacks.signature(stale, body), body));
+        assertEquals(UpscaylCallbacks.CallbackResult.BAD_SIGNATURE, callbacks.handle(now, null, body));
+        assertEquals(UpscaylCallbacks.CallbackResult.BAD_SIGNATURE, callbacks.handle(now, "sha256=not-hex", body));
+        // Signed for another body
+        assertEquals(UpscaylCallbacks.CallbackResult.BAD_SIGNATURE,
+            callbacks.handle(now, callbacks.signature(now, "{}".getBytes(StandardCharsets.UTF_8)), body));
+
+        assertFalse(run.completion().isDone());
+        otherSecret.shutdown();
+    }
+
+    @Test
+    void handle_shouldRefuseMalformedEvents() {
+        assertEquals(UpscaylCallbacks.CallbackResult.MALFORMED, deliver("not json"));
+        assertEquals(UpscaylCallbacks.CallbackResult.MALFORMED, deliver("{\"status\":\"success\"}"));
+        assertEquals(UpscaylCallbacks.CallbackResult.MALFORMED, deliver("{\"jobId\":\"job-1\",\"status\":\"paused\"}"));
+        verifyNoInteractions(jobService);
+    }
+
+    @Test
+    void handle_shouldDoNothingWithoutSecret() {
+        UpscaylCallbacks disabled = new UpscaylCallbacks(jobService, new ObjectMapper(),
+            "http://api-1:8080/api/upscayl/callback", "", 300);
+
+        assertFalse(disabled.isEnabled());
+        assertNull(disabled.getCallbackUrl());
+        assertEquals(UpscaylCallbacks.CallbackResult.DISABLED,
+            disabled.handle("1", "sha256=00", "{}".getBytes(StandardCharsets.UTF_8)));
+        disabled.shutdown();
+    }
+
+    @Test
+    void cancel_shouldEndWaitWithCancelledResult() throws Exception {
+        UpscaylCallbacks.Run run = callbacks.expect("job-1");
+
+        assertTrue(callbacks.cancel("job-1"));
+
+        assertEquals("Cancelled", run.completion().get(5, TimeUnit.SECONDS).getError());
+        assertFalse(callbacks.cancel("job-1"));
+    }
+
+    @Test
+    void forget_shouldLeaveNewerRunAwaited() {
+        UpscaylCallbacks.Run first = callbacks.expect("job-1");
+        UpscaylCallbacks.Run second = callbacks.expect("job-1");
+
+        callbacks.forget("job-1", first);
+
+        assertFalse(first.completion().join().isSuccess());
+        assertFalse(second.completion().isDone());
+        assertEquals(1, callbacks.getPending());
+    }
+
+    private static String event(String jobId, UpscaylCallbacks.Run run, String fields) {
+        return "{\"jobId\":\"" + jobId + "\",\"runId\":\"" + run.id() + "\"," + fields + "}";
+    }
+
+    private UpscaylCallbacks.CallbackResult deliver(String event) {
+        String timestamp = String.valueOf(Instant.now().getEpochSecond());
+        byte[] body = event.getBytes(StandardCharsets.UTF_8);
+        return callbacks.handle(timestamp, callbacks.signature(timestamp, body), body);
+    }
+}
@@ -0,0 +1,110 @@
+package net.muttcode.spring.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UpscaylCircuitBreakerTest {
+
+    private static final long OPEN_NANOS = 30_000_000_000L;
+
+    private final AtomicLong now = new AtomicLong();
+
+    private UpscaylCircuitBreaker breaker;
+
+    @BeforeEach
+    void setUp() {
+        // Window of 10 calls, judged after 4, opening at a 50% failure rate
+        breaker = new UpscaylCircuitBreaker(10, 4, 0.5, OPEN_NANOS, 1, now::get);
+    }
+
+    @Test
+    void shouldStayClosedUntilMinimumCallsAreSeen() {
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onFailure();
+
+        assertEquals(UpscaylCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void shouldOpenAtFailureRateAndRefuseWork() {
+        breaker.onSuccess();
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onFailure();
+
+        assertEquals(UpscaylCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void shouldForgetOutcomesThatLeftTheWindow() {
+        UpscaylCircuitBreaker fullWindow = new UpscaylCircuitBreaker(10, 10, 0.5, OPEN_NANOS, 1, now::get);
+        record(fullWindow, true, 4);
+        record(fullWindow, false, 16);
+        record(fullWindow, true, 4);
+
+        // The first four failures have left the window: 4 of the last 10 calls failed
+        assertEquals(UpscaylCircuitBreaker.State.CLOSED, fullWindow.getState());
+    }
+
+    @Test
+    void shouldAllowOneTrialAfterOpenIntervalAndCloseOnSuccess() {
+        open();
+        now.addAndGet(OPEN_NANOS);
+
+        assertTrue(breaker.tryAcquire());
+        assertEquals(UpscaylCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+
+        breaker.onSuccess();
+
+        assertEquals(UpscaylCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void shouldReopenWhenTrialFails() {
+        open();
+        now.addAndGet(OPEN_NANOS);
+        assertTrue(breaker.tryAcquire());
+
+        breaker.onFailure();
+
+        assertEquals(UpscaylCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void shouldRetryTrialThatNeverReported() {
+        open();
+        now.addAndGet(OPEN_NANOS);
+        assertTrue(breaker.tryAcquire());
+
+        now.addAndGet(OPEN_NANOS);
+
+        assertTrue(breaker.tryAcquire());
+    }
+
+    private static void record(UpscaylCircuitBreaker breaker, boolean failure, int times) {
+        for (int i = 0; i < times; i++) {
+            if (failure) {
+                breaker.onFailure();
+            } else {
+                breaker.onSuccess();
+            }
+        }
+    }
+
+    private void open() {
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure();
+        }
+        assertEquals(UpscaylCircuitBreaker.State.OPEN, breaker.getState());
+    }
+}
@@ -0,0 +1,128 @@
+package net.muttcode.spring.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UpscaylConcurrencyLimiterTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    private SimpleMeterRegistry meterRegistry;
+    private UpscaylCircuitBreaker breaker;
+    private UpscaylConcurrencyLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        breaker = new UpscaylCircuitBreaker(20, 10, 0.5, TimeUnit.SECONDS.toNanos(30), 1, System::nanoTime);
+        limiter = new UpscaylConcurrencyLimiter(breaker, meterRegistry, 2, 1, 8, 2.0, 0.5);
+        limiter.registerMetrics();
+    }
+
+    @Test
+    void tryAcquire_shouldCapInFlightAtLimit() throws Exception {
+        assertTrue(limiter.tryAcquire(Duration.ZERO));
+        assertTrue(limiter.tryAcquire(Duration.ZERO));
+
+        assertFalse(limiter.tryAcquire(Duration.ofMillis(20)));
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    void release_shouldWakeWaitingWorker() throws Exception {
+        limiter.tryAcquire(Duration.ZERO);
+        limiter.tryAcquire(Duration.ZERO);
+        CompletableFuture<Boolean> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limiter.tryAcquire(Duration.ofSeconds(5));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        limiter.release();
+
+        assertTrue(waiting.get(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void onSample_shouldGrowLimitWhileLatencyIsSteadyAndLimitIsInUse() throws Exception {
+        limiter.tryAcquire(Duration.ZERO);
+        limiter.tryAcquire(Duration.ZERO);
+
+        for (int i = 0; i < 20; i++) {
+            limiter.onSample(100 * MILLIS, false);
+        }
+
+        assertTrue(limiter.getLimit() > 2, "limit stayed at " + limiter.getLimit());
+    }
+
+    @Test
+    void onSample_shouldNotGrowLimitThatIsNotInUse() {
+        for (int i = 0; i < 20; i++) {
+            limiter.onSample(100 * MILLIS, false);
+        }
+
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    void onSample_shouldBackOffOnBackendFaults() throws Exception {
+        limiter.tryAcquire(Duration.ZERO);
+        limiter.tryAcquire(Duration.ZERO);
+        for (int i = 0; i < 40; i++) {
+            limiter.onSample(MILLIS, false);
+        }
+        int grown = limiter.getLimit();
+        // Let a round pass since the limiter started
+        Thread.sleep(5);
+
+        limiter.onSample(MILLIS, true);
+
+        assertTrue(limiter.getLimit() < grown);
+    }
+
+    @Test
+    void onSample_shouldBackOffWhenLatencyInflates() throws Exception {
+        limiter.tryAcquire(Duration.ZERO);
+        limiter.tryAcquire(Duration.ZERO);
+        for (int i = 0; i < 40; i++) {
+            limiter.onSample(MILLIS, false);
+        }
+        int grown = limiter.getLimit();
+
+        for (int i = 0; i < 10; i++) {
+            limiter.onSample(50 * MILLIS, false);
+            Thread.sleep(5);
+        }
+
+        assertTrue(limiter.getLimit() < grown, "limit " + limiter.getLimit() + " not below " + grown);
+    }
+
+    @Test
+    void tryAcquire_shouldHoldWorkBackWhileCircuitIsOpen() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            limiter.onSample(MILLIS, true);
+        }
+
+        assertEquals(UpscaylCircuitBreaker.State.OPEN, limiter.getCircuitState());
+        assertFalse(limiter.tryAcquire(Duration.ofMillis(20)));
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void shouldExportLimitAndBreakerStateAsGauges() throws Exception {
+        limiter.tryAcquire(Duration.ZERO);
+
+        assertEquals(2.0, meterRegistry.get("upscayl.concurrency.limit").gauge().value());
+        assertEquals(1.0, meterRegistry.get("upscayl.concurrency.in_flight").gauge().value());
+        assertEquals(0.0, meterRegistry.get("upscayl.circuit.state").gauge().value());
+    }
+}
@@ -0,0 +1,142 @@
+package net.muttcode.spring.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UpscaylHttpClientTest {
+
+    private static final Duration DEADLINE = Duration.ofSeconds(5);
+
+    private HttpServer server;
+    private UpscaylHttpClient httpClient;
+    private final CountDownLatch slowGate = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/echo", exchange -> {
+            byte[] request = exchange.getRequestBody().readAllBytes();
+            respond(exchange, 200, "{\"method\":\"" + exchange.getRequestMethod() + "\",\"body\":"
+                + (request.length == 0 ? "null" : new String(request, StandardCharsets.UTF_8)) + "}");
+        });
+        server.createContext("/missing", exchange -> respond(exchange, 404, "{\"error\":\"no such job\"}"));
+        server.createContext("/broken", exchange -> respond(exchange, 503, "{\"error\":\"overloaded\"}"));
+        server.createContext("/slow", exchange -> {
+            try {
+                slowGate.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, "{\"status\":\"success\"}");
+        });
+        server.start();
+        httpClient = new UpscaylHttpClient(new ObjectMapper(), new SimpleMeterRegistry(), 1000, 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        slowGate.countDown();
+        httpClient.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    void postJson_shouldSendAndParseJson() throws IOException {
+        Map<String, Object> response = UpscaylHttpClient.await(
+            httpClient.postJson(url("/echo"), Map.of("jobId", "job-1", "scale", 4), DEADLINE));
+
+        assertEquals("POST", response.get("method"));
+        assertEquals(Map.of("jobId", "job-1", "scale", 4), response.get("body"));
+    }
+
+    @Test
+    void send_shouldMapStatusesToRestClientExceptions() {
+        assertThrows(HttpClientErrorException.NotFound.class,
+            () -> UpscaylHttpClient.await(httpClient.delete(url("/missing"), DEADLINE)));
+        HttpServerErrorException serverError = assertThrows(HttpServerErrorException.class,
+            () -> UpscaylHttpClient.await(httpClient.getJson(url("/broken"), DEADLINE)));
+        assertEquals(503, serverError.getStatusCode().value());
+        assertTrue(serverError.getResponseBodyAsString().contains("overloaded"));
+    }
+
+    @Test
+    void send_shouldReportUnreachableBackendAsResourceAccessException() {
+        // Nothing listens on port 1
+        assertThrows(ResourceAccessException.class,
+            () -> UpscaylHttpClient.await(httpClient.get("http://localhost:1/", DEADLINE)));
+        assertEquals(0, httpClient.getOpen());
+    }
+
+    @Test
+    void send_shouldFailCallPastItsDeadline() {
+        ResourceAccessException error = assertThrows(ResourceAccessException.class,
+            () -> UpscaylHttpClient.await(httpClient.getJson(url("/slow"), Duration.ofMillis(200))));
+
+        assertTrue(error.getMessage().contains("deadline exceeded"), error.getMessage());
+        assertEquals(0, httpClient.getOpen());
+    }
+
+    @Test
+    void send_shouldQueueCallsBeyondMaxConnectionsWithoutBlocking() throws Exception {
+        CompletableFuture<Map<String, Object>> slow = httpClient.getJson(url("/slow"), DEADLINE);
+        // The only connection is taken: these wait for it, the first past its deadline
+        CompletableFuture<Map<String, Object>> expiring = httpClient.getJson(url("/echo"), Duration.ofMillis(100));
+        CompletableFuture<Map<String, Object>> queued = httpClient.getJson(url("/echo"), DEADLINE);
+
+        assertEquals(1, httpClient.getOpen());
+        ResourceAccessException expired = assertThrows(ResourceAccessException.class, () -> UpscaylHttpClient.await(expiring));
+        assertTrue(expired.getMessage().contains("No connection to Upscayl free"), expired.getMessage());
+        assertFalse(queued.isDone());
+
+        slowGate.countDown();
+        assertEquals("success", UpscaylHttpClient.await(slow).get("status"));
+        assertEquals("GET", UpscaylHttpClient.await(queued).get("method"));
+        assertEquals(0, httpClient.getOpen());
+        assertEquals(0, httpClient.getWaiting());
+    }
+
+    @Test
+    void await_shouldRethrowOriginalFailure() {
+        IOException missing = new IOException("Input file not found: a.png");
+
+        assertSame(missing, assertThrows(IOException.class,
+            () -> UpscaylHttpClient.await(CompletableFuture.failedFuture(missing))));
+        assertEquals(List.of(1), assertDoesNotThrow(() -> UpscaylHttpClient.await(CompletableFuture.completedFuture(List.of(1)))));
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package net.muttcode.spring.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.test.util.ReflectionTestUtils;
@@ -9,9 +11,20 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 /**
  * Tests for UpscaylService file path handling.
@@ -20,14 +33,19 @@ import static org.junit.jupiter.api.Assertions.*;
 class UpscaylServiceTest {
 
     private UpscaylService upscaylService;
+    private UpscaylConcurrencyLimiter concurrencyLimiter;
+    private UpscaylHttpClient httpClient;
+    private UpscaylCallbacks callbacks;
     private Path tempDir;
     private Path inputMountDir;
     private Path outputMountDir;
 
     @BeforeEach
     void setUp() throws IOException {
-        upscaylService = new UpscaylService(new ObjectMapper());
-        ReflectionTestUtils.setField(upscaylService, "upscaylServiceUrl", "http://localhost:8081");
+        concurrencyLimiter = mock(UpscaylConcurrencyLimiter.class);
+        httpClient = new UpscaylHttpClient(new ObjectMapper(), new SimpleMeterRegistry(), 1000, 8);
+        callbacks = new UpscaylCallbacks(mock(ProcessingJobService.class), new ObjectMapper(), "", "", 300);
+        upscaylService = new UpscaylService(new ObjectMapper(), concurrencyLimiter, pool("http://localhost:8081"), httpClient, callbacks, 5, 1000);
         ReflectionTestUtils.setField(upscaylService, "modelsPath", "/app/models");
         ReflectionTestUtils.setField(upscaylService, "inputPath", "/app/input");
         ReflectionTestUtils.setField(upscaylService, "outputPath", "/app/output");
@@ -38,6 +56,12 @@ class UpscaylServiceTest {
         outputMountDir = Files.createDirectories(tempDir.resolve("output"));
     }
 
+    @AfterEach
+    void tearDown() {
+        callbacks.shutdown();
+        httpClient.shutdown();
+    }
+
     @Test
     void processImage_shouldUseActualInputPath_notHardcodedPath() throws IOException {
         // Create a test input file in the mount point
@@ -132,6 +156,148 @@ class UpscaylServiceTest {
         });
     }
 
+    @Test
+    void processImage_shouldReportUnreachableBackendAsFailedSample() throws IOException {
+        // Nothing listens on port 1, so the connection is refused straight away
+        upscaylService = new UpscaylService(new ObjectMapper(), concurrencyLimiter, pool("http://localhost:1"), httpClient, callbacks, 5, 1000);
+        Path testInputFile = inputMountDir.resolve("refused.png");
+        Files.writeString(testInputFile, "fake-image-data");
+
+        UpscaylService.UpscaylResult result = upscaylService.processImage(testInputFile.toString(), 4, "ultramix_balanced");
+
+        assertFalse(result.isSuccess());
+        verify(concurrencyLimiter).onSample(anyLong(), eq(true));
+    }
+
+    @Test
+    void processImage_shouldRouteToBackendWithModelLoaded() throws IOException {
+        UpscaylBackendPoolTest.StubBackend cold = UpscaylBackendPoolTest.StubBackend.start();
+        UpscaylBackendPoolTest.StubBackend warm = UpscaylBackendPoolTest.StubBackend.start();
+        try {
+            warm.loadedModels = "[\"ultramix_balanced\"]";
+            UpscaylBackendPool pool = new UpscaylBackendPool(httpClient, new ObjectMapper(), new SimpleMeterRegistry(),
+                cold.url() + "," + warm.url(), "", 500, 2, 2);
+            pool.checkHealth();
+            upscaylService = new UpscaylService(new ObjectMapper(), concurrencyLimiter, pool, httpClient, callbacks, 5, 1000);
+            Path testInputFile = inputMountDir.resolve("routed.png");
+            Files.writeString(testInputFile, "fake-image-data");
+
+            UpscaylService.UpscaylResult result = upscaylService.processImage("job-1", testInputFile.toString(), 4, "ultramix_balanced");
+
+            assertTrue(result.isSuccess());
+            assertTrue(warm.requests.contains("POST /api/upscale"));
+            assertFalse(cold.requests.contains("POST /api/upscale"));
+            verify(concurrencyLimiter).onSample(anyLong(), eq(false));
+        } finally {
+            cold.stop();
+            warm.stop();
+        }
+    }
+
+    @Test
+    void cancel_shouldFindJobOnAnyBackend() {
+        UpscaylBackendPoolTest.StubBackend idle = UpscaylBackendPoolTest.StubBackend.start();
+        UpscaylBackendPoolTest.StubBackend busy = UpscaylBackendPoolTest.StubBackend.start();
+        try {
+            busy.runningJobs.add("job-1");
+            UpscaylBackendPool pool = new UpscaylBackendPool(httpClient, new ObjectMapper(), new SimpleMeterRegistry(),
+                idle.url() + "," + busy.url(), "", 500, 2, 2);
+            upscaylService = new UpscaylService(new ObjectMapper(), concurrencyLimiter, pool, httpClient, callbacks, 5, 1000);
+
+            assertTrue(upscaylService.cancel("job-1"));
+            assertTrue(idle.requests.contains("DELETE /api/job/job-1"));
+            assertTrue(busy.requests.contains("DELETE /api/job/job-1"));
+            assertFalse(upscaylService.cancel("job-2"));
+        } finally {
+            idle.stop();
+            busy.stop();
+        }
+    }
+
+    @Test
+    void upscale_shouldCompleteAcceptedRunFromItsCallback() throws Exception {
+        UpscaylBackendPoolTest.StubBackend backend = UpscaylBackendPoolTest.StubBackend.start();
+        try {
+            backend.acceptCallbacks = true;
+            callbacks = new UpscaylCallbacks(mock(ProcessingJobService.class), new ObjectMapper(),
+                "http://api:8080/api/upscayl/callback", "secret", 300);
+            UpscaylBackendPool pool = pool(backend.url());
+            upscaylService = new UpscaylService(new ObjectMapper(), concurrencyLimiter, pool, httpClient, callbacks, 5, 1000);
+            Path testInputFile = inputMountDir.resolve("callback.png");
+            Files.writeString(testInputFile, "fake-image-data");
+
+            CompletableFuture<UpscaylService.UpscaylResult> result =
+                upscaylService.upscale("job-1", testInputFile.toString(), 4, "ultramix_balanced");
+
+            // Accepted: the backend stays busy with the run until it reports back
+            awaitUpscaleRequest(backend);
+            assertFalse(result.isDone());
+            assertEquals(1, pool.getStatus().get(0).outstanding());
+            verify(concurrencyLimiter, never()).onSample(anyLong(), anyBoolean());
+
+            assertEquals(UpscaylCallbacks.CallbackResult.ACCEPTED,
+                deliver("{\"jobId\":\"job-1\",\"runId\":\"" + runId(backend)
+                    + "\",\"status\":\"success\",\"output\":\"/app/output/callback_4x.png\"}"));
+
+            UpscaylService.UpscaylResult completed = result.get(5, TimeUnit.SECONDS);
+            assertTrue(completed.isSuccess());
+            assertEquals("/app/output/callback_4x.png", completed.getOutputPath());
+            assertEquals(0, pool.getStatus().get(0).outstanding());
+            verify(concurrencyLimiter).onSample(anyLong(), eq(false));
+            assertEquals(0, callbacks.getPending());
+        } finally {
+            backend.stop();
+        }
+    }
+
+    @Test
+    void upscale_shouldFailAcceptedRunWhoseCallbackNeverComes() throws Exception {
+        UpscaylBackendPoolTest.StubBackend backend = UpscaylBackendPoolTest.StubBackend.start();
+        try {
+            backend.acceptCallbacks = true;
+            callbacks = new UpscaylCallbacks(mock(ProcessingJobService.class), new ObjectMapper(),
+                "http://api:8080/api/upscayl/callback", "secret", 300);
+            upscaylService = new UpscaylService(new ObjectMapper(), concurrencyLimiter, pool(backend.url()), httpClient, callbacks, 1, 1000);
+            Path testInputFile = inputMountDir.resolve("silent.png");
+            Files.writeString(testInputFile, "fake-image-data");
+
+            UpscaylService.UpscaylResult result = upscaylService.processImage("job-1", testInputFile.toString(), 4, "ultramix_balanced");
+
+            assertFalse(result.isSuccess());
+            assertTrue(result.getError().contains("No completion callback"), result.getError());
+            verify(concurrencyLimiter).onSample(anyLong(), eq(true));
+            assertEquals(0, callbacks.getPending());
+        } finally {
+            backend.stop();
+        }
+    }
+
+    @Test
+    void cancel_shouldEndWaitForCallback() throws Exception {
+        UpscaylBackendPoolTest.StubBackend backend = UpscaylBackendPoolTest.StubBackend.start();
+        try {
+            backend.acceptCallbacks = true;
+            callbacks = new UpscaylCallbacks(mock(ProcessingJobService.class), new ObjectMapper(),
+                "http://api:8080/api/upscayl/callback", "secret", 300);
+            upscaylService = new UpscaylService(new ObjectMapper(), concurrencyLimiter, pool(backend.url()), httpClient, callbacks, 5, 1000);
+            Path testInputFile = inputMountDir.resolve("cancelled.png");
+            Files.writeString(testInputFile, "fake-image-data");
+            CompletableFuture<UpscaylService.UpscaylResult> result =
+                upscaylService.upscale("job-1", testInputFile.toString(), 4, "ultramix_balanced");
+            awaitUpscaleRequest(backend);
+
+            // The backend has no record of the run, so only the wait can be ended
+            assertTrue(upscaylService.cancel("job-1"));
+
+            assertEquals("Cancelled", result.get(5, TimeUnit.SECONDS).getError());
+            assertEquals(UpscaylCallbacks.CallbackResult.UNKNOWN_JOB,
+                deliver("{\"jobId\":\"job-1\",\"runId\":\"" + runId(backend)
+                    + "\",\"status\":\"error\",\"error\":\"Cancelled\"}"));
+        } finally {
+            backend.stop();
+        }
+    }
+
     @Test
     void getAvailableModels_shouldReturnDefaultModelsWhenServiceUnavailable() {
         String[] models = upscaylService.getAvailableModels();
@@ -162,4 +328,25 @@ class UpscaylServiceTest {
         assertNull(result.getOutputPath());
         assertEquals("Processing failed", result.getError());
     }
+
+    private UpscaylCallbacks.CallbackResult deliver(String event) {
+        String timestamp = String.valueOf(Instant.now().getEpochSecond());
+        byte[] body = event.getBytes(StandardCharsets.UTF_8);
+        return callbacks.handle(timestamp, callbacks.signature(timestamp, body), body);
+    }
+
+    // The run id the backend was told to echo in its callbacks
+    private static String runId(UpscaylBackendPoolTest.StubBackend backend) throws IOException {
+        return new ObjectMapper().readTree(backend.lastUpscaleBody).path("runId").asText();
+    }
+
+    private static void awaitUpscaleRequest(UpscaylBackendPoolTest.StubBackend backend) throws InterruptedException {
+        for (int i = 0; i < 100 && !backend.requests.contains("POST /api/upscale"); i++) {
+            Thread.sleep(20);
+        }
+    }
+
+    private UpscaylBackendPool pool(String url) {
+        return new UpscaylBackendPool(httpClient, new ObjectMapper(), new SimpleMeterRegistry(), url, "", 500, 2, 2);
+    }
 }
@@ -0,0 +1,202 @@
+package net.muttcode.spring.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UpscaylTilerTest {
+
+    @Mock
+    private UpscaylService upscaylService;
+
+    @Mock
+    private UpscaylConcurrencyLimiter concurrencyLimiter;
+
+    @TempDir
+    Path tempDir;
+
+    private Path inputMount;
+    private Path outputMount;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        inputMount = Files.createDirectories(tempDir.resolve("input"));
+        outputMount = Files.createDirectories(tempDir.resolve("output"));
+    }
+
+    @Test
+    void process_shouldStitchTilesIntoTheImageAWholeRunWouldProduce() throws Exception {
+        BufferedImage source = gradient(150, 100);
+        Path input = write(source, "photo.png");
+        givenBackendUpscalesNearestNeighbour();
+        when(concurrencyLimiter.tryAcquire(Duration.ZERO)).thenReturn(true);
+
+        UpscaylService.UpscaylResult result = tiler(64, 3).process("job-1", input.toString(), 2, "ultramix_balanced");
+
+        assertTrue(result.isSuccess(), result.getError());
+        assertEquals(outputMount.resolve("photo_2x.png").toString(), result.getOutputPath());
+        BufferedImage stitched = ImageIO.read(outputMount.resolve("photo_2x.png").toFile());
+        assertEquals(300, stitched.getWidth());
+        assertEquals(200, stitched.getHeight());
+        for (int y = 0; y < 200; y++) {
+            for (int x = 0; x < 300; x++) {
+                assertEquals(source.getRGB(x / 2, y / 2) & 0xffffff, stitched.getRGB(x, y) & 0xffffff, "pixel " + x + "," + y);
+            }
+        }
+        // 3x2 tiles, two extra runners beside the job's own permit
+        verify(upscaylService, times(6)).upscale(startsWith("job-1-tile"), anyString(), eq(2), eq("ultramix_balanced"));
+        verify(concurrencyLimiter, times(2)).release();
+        // Only the input and the stitched output remain
+        assertEquals(1, count(inputMount));
+        assertEquals(1, count(outputMount));
+    }
+
+    @Test
+    void process_shouldFeatherOverlapsBetweenDisagreeingTiles() throws Exception {
+        Path input = write(new BufferedImage(100, 40, BufferedImage.TYPE_INT_RGB), "flat.png");
+        // Every tile comes back in a flat colour of its own
+        when(upscaylService.upscale(anyString(), anyString(), eq(1), anyString())).thenAnswer(invocation -> {
+            Path tile = Path.of(invocation.<String>getArgument(1));
+            BufferedImage in = ImageIO.read(tile.toFile());
+            BufferedImage out = new BufferedImage(in.getWidth(), in.getHeight(), BufferedImage.TYPE_INT_RGB);
+            int grey = tile.getFileName().toString().contains("-0") ? 0 : 200;
+            for (int y = 0; y < out.getHeight(); y++) {
+                for (int x = 0; x < out.getWidth(); x++) {
+                    out.setRGB(x, y, grey << 16 | grey << 8 | grey);
+                }
+            }
+            Path output = outputMount.resolve(tile.getFileName().toString().replace(".png", "_1x.png"));
+            ImageIO.write(out, "png", output.toFile());
+            return CompletableFuture.completedFuture(new UpscaylService.UpscaylResult(true, output.toString(), null));
+        });
+
+        assertTrue(tiler(64, 1).process("job-1", input.toString(), 1, "model").isSuccess());
+
+        BufferedImage stitched = ImageIO.read(outputMount.resolve("flat_1x.png").toFile());
+        // Tiles at 0 and 36 overlap over 36..63: the last tile is moved back to the edge
+        int previous = -1;
+        for (int x = 0; x < 100; x++) {
+            int grey = stitched.getRGB(x, 20) & 0xff;
+            assertTrue(grey >= previous, "brightness must not fall across the seam at " + x);
+            previous = grey;
+        }
+        assertEquals(0, stitched.getRGB(30, 20) & 0xff);
+        assertEquals(200, stitched.getRGB(70, 20) & 0xff);
+        int middle = stitched.getRGB(50, 20) & 0xff;
+        assertTrue(middle > 50 && middle < 150, "seam midpoint should be a blend, was " + middle);
+    }
+
+    @Test
+    void process_shouldFailAndCleanUpWhenATileFails() throws Exception {
+        Path input = write(gradient(150, 100), "photo.png");
+        when(upscaylService.upscale(anyString(), anyString(), eq(2), anyString()))
+            .thenReturn(CompletableFuture.completedFuture(new UpscaylService.UpscaylResult(false, null, "out of memory")));
+
+        UpscaylService.UpscaylResult result = tiler(64, 1).process("job-1", input.toString(), 2, "model");
+
+        assertFalse(result.isSuccess());
+        assertTrue(result.getError().endsWith("failed: out of memory"));
+        // The first failure stops the rest
+        verify(upscaylService, times(1)).upscale(anyString(), anyString(), anyInt(), anyString());
+        assertEquals(1, count(inputMount));
+        assertEquals(0, count(outputMount));
+    }
+
+    @Test
+    void tileSize_shouldAimForTargetTileTime() {
+        UpscaylTiler tiler = tiler(512, 1);
+        UpscaylTiler.ModelKey model = new UpscaylTiler.ModelKey("model", 4);
+
+        assertEquals(512, tiler.tileSize(model));
+
+        // 1000ms for 250k pixels; 15s buys 3.75M pixels, about 1936px square
+        tiler.recordTile(model, 250_000, 1000);
+        assertEquals(1936, tiler.tileSize(model));
+
+        // Much slower tiles pull the size down, within bounds
+        for (int i = 0; i < 50; i++) {
+            tiler.recordTile(model, 250_000, 100_000_000);
+        }
+        assertEquals(16, tiler.tileSize(model));
+    }
+
+    @Test
+    void shouldTile_shouldOnlyTileLargeInputs() throws Exception {
+        UpscaylTiler tiler = tiler(64, 1);
+
+        assertTrue(tiler.shouldTile(write(gradient(150, 100), "large.png").toString()));
+        assertFalse(tiler.shouldTile(write(gradient(50, 50), "small.png").toString()));
+        assertFalse(tiler.shouldTile(Files.writeString(inputMount.resolve("broken.png"), "x").toString()));
+    }
+
+    @Test
+    void tileGrid_shouldCoverImageWithFullSizeOverlappingTiles() {
+        TileGrid.Axis axis = TileGrid.Axis.of(150, 64, 16);
+
+        assertArrayEquals(new int[] {0, 48, 86}, axis.starts());
+        assertEquals(150, axis.start(axis.count() - 1) + axis.size(axis.count() - 1));
+        assertArrayEquals(new int[] {0}, TileGrid.Axis.of(40, 64, 16).starts());
+        assertEquals(40, TileGrid.Axis.of(40, 64, 16).size(0));
+    }
+
+    private UpscaylTiler tiler(int tileSize, int maxParallel) {
+        return new UpscaylTiler(upscaylService, concurrencyLimiter, true, 10_000, tileSize, 16, 2048, 16,
+            maxParallel, 15_000, outputMount.toString());
+    }
+
+    private void givenBackendUpscalesNearestNeighbour() throws IOException {
+        when(upscaylService.upscale(anyString(), anyString(), eq(2), anyString())).thenAnswer(invocation -> {
+            Path tile = Path.of(invocation.<String>getArgument(1));
+            BufferedImage in = ImageIO.read(tile.toFile());
+            BufferedImage out = new BufferedImage(in.getWidth() * 2, in.getHeight() * 2, BufferedImage.TYPE_INT_RGB);
+            for (int y = 0; y < out.getHeight(); y++) {
+                for (int x = 0; x < out.getWidth(); x++) {
+                    out.setRGB(x, y, in.getRGB(x / 2, y / 2));
+                }
+            }
+            Path output = outputMount.resolve(UpscaylService.getOutputFileName(tile.getFileName().toString(), 2));
+            ImageIO.write(out, "png", output.toFile());
+            return CompletableFuture.completedFuture(
+                new UpscaylService.UpscaylResult(true, "/app/output/" + output.getFileName(), null));
+        });
+    }
+
+    private Path write(BufferedImage image, String name) throws IOException {
+        Path path = inputMount.resolve(name);
+        ImageIO.write(image, "png", path.toFile());
+        return path;
+    }
+
+    private static BufferedImage gradient(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8 | ((x + y) & 0xff));
+            }
+        }
+        return image;
+    }
+
+    private static long count(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+}